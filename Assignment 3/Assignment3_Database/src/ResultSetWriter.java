@@ -0,0 +1,336 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a ResultSet to an OutputStream row by row as the rows arrive, instead of building
+ * the whole output in memory first.
+ * TABLE sizes its columns from the first sampleRows rows only; later rows that are wider
+ * are written in full and break the alignment rather than being buffered.
+ * Rows past maxRows are counted but not written.
+ * <p>
+ * Assignment 3 (Assignment3_Database/src/ResultSetWriter.java) and Assignment 6 each keep a
+ * copy of this class; the two copies are identical and a change to one goes into both.
+ */
+public class ResultSetWriter {
+
+    /**
+     * Output format.
+     */
+    public enum Format {
+        /** Column names, then comma-separated values, then the row count */
+        TEXT,
+        /** Bordered, aligned table */
+        TABLE,
+        /** RFC 4180 CSV with a header line */
+        CSV,
+        /** One JSON object per row, keyed by column label */
+        JSON_LINES
+    }
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    public static final int DEFAULT_SAMPLE_ROWS = 100;
+
+    private static final String NO_RESULTS = "Query returned no results.";
+
+    private final Writer out;
+    private final Format format;
+    private long maxRows = Long.MAX_VALUE;
+    private int sampleRows = DEFAULT_SAMPLE_ROWS;
+
+    /**
+     * @param out    stream to write to; it is flushed but not closed
+     * @param format output format
+     */
+    public ResultSetWriter(OutputStream out, Format format) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        this.format = format;
+    }
+
+    /**
+     * Limits how many rows are written; the rest are only counted.
+     */
+    public ResultSetWriter maxRows(long maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Number of rows TABLE looks at to size its columns.
+     */
+    public ResultSetWriter sampleRows(int sampleRows) {
+        this.sampleRows = Math.max(0, sampleRows);
+        return this;
+    }
+
+    /**
+     * Creates a forward-only, read-only statement that fetches fetchSize rows per round trip.
+     * Without help from the driver the whole result is read before the first row is returned:
+     * MySQL Connector/J needs useCursorFetch=true in the URL, and the Redshift and PostgreSQL
+     * drivers need auto-commit off.
+     *
+     * @param con       connection
+     * @param fetchSize rows per fetch
+     * @return the statement, to be closed by the caller
+     * @throws SQLException if the statement cannot be created
+     */
+    public static Statement streamingStatement(Connection con, int fetchSize) throws SQLException {
+        Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(fetchSize);
+        return stmt;
+    }
+
+    /**
+     * Writes every row of rs. The ResultSet is not closed.
+     *
+     * @param rs result to write
+     * @return total number of rows in the result, including those past maxRows
+     * @throws SQLException if reading the result fails
+     * @throws IOException  if writing fails
+     */
+    public long write(ResultSet rs) throws SQLException, IOException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int columnCount = meta.getColumnCount();
+        String[] labels = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            labels[i] = meta.getColumnLabel(i + 1);
+        }
+
+        long rowCount;
+        switch (format) {
+            case TABLE:
+                rowCount = writeTable(rs, labels);
+                break;
+            case CSV:
+                writeCsvRow(labels);
+                rowCount = writeRows(rs, columnCount, "", this::writeCsvRow);
+                break;
+            case JSON_LINES:
+                rowCount = writeJsonRows(rs, labels);
+                break;
+            default:
+                out.write("Total columns: " + columnCount + "\n");
+                out.write(String.join(", ", labels));
+                out.write('\n');
+                rowCount = writeRows(rs, columnCount, "NULL", row -> {
+                    out.write(String.join(", ", row));
+                    out.write('\n');
+                });
+                out.write("Total results: " + rowCount + "\n");
+        }
+        out.flush();
+        return rowCount;
+    }
+
+    private interface RowSink {
+        void write(String[] row) throws IOException;
+    }
+
+    private long writeRows(ResultSet rs, int columnCount, String nullText, RowSink sink)
+            throws SQLException, IOException {
+        long rowCount = 0;
+        while (rs.next()) {
+            if (rowCount < maxRows) {
+                sink.write(readRow(rs, columnCount, nullText));
+                if (rowCount == 0) {
+                    out.flush(); // Show the first row without waiting for the buffer to fill
+                }
+            }
+            rowCount++;
+        }
+        return rowCount;
+    }
+
+    private long writeTable(ResultSet rs, String[] labels) throws SQLException, IOException {
+        int columnCount = labels.length;
+        int[] widths = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            widths[i] = labels[i].length();
+        }
+
+        // Buffer only the sample, it decides the column widths
+        List<String[]> sample = new ArrayList<>();
+        long rowCount = 0;
+        boolean more = true;
+        while (sample.size() < Math.min(sampleRows, maxRows) && (more = rs.next())) {
+            String[] row = readRow(rs, columnCount, "NULL");
+            for (int i = 0; i < columnCount; i++) {
+                widths[i] = Math.max(widths[i], row[i].length());
+            }
+            sample.add(row);
+            rowCount++;
+        }
+        if (rowCount == 0 && !more && columnCount > 0) {
+            // Widen the last column so the no-results line fits between the borders
+            int inner = innerWidth(widths);
+            widths[columnCount - 1] += Math.max(0, NO_RESULTS.length() - inner);
+        }
+
+        writeBorder(widths);
+        writeTableRow(labels, widths);
+        writeBorder(widths);
+        for (String[] row : sample) {
+            writeTableRow(row, widths);
+        }
+        out.flush();
+        if (more) {
+            while (rs.next()) {
+                if (rowCount < maxRows) {
+                    writeTableRow(readRow(rs, columnCount, "NULL"), widths);
+                }
+                rowCount++;
+            }
+        }
+        if (rowCount == 0) {
+            out.write("| " + String.format("%-" + innerWidth(widths) + "s", NO_RESULTS) + " |\n");
+        }
+        writeBorder(widths);
+        if (rowCount > 0) {
+            out.write("Total results: " + rowCount + "\n");
+        }
+        return rowCount;
+    }
+
+    // Width between the outer "| " and " |": the column widths plus the " | " separators
+    private static int innerWidth(int[] widths) {
+        int inner = widths.length * 3 - 3;
+        for (int width : widths) {
+            inner += width;
+        }
+        return inner;
+    }
+
+    private void writeTableRow(String[] row, int[] widths) throws IOException {
+        out.write('|');
+        for (int i = 0; i < row.length; i++) {
+            out.write(' ');
+            out.write(row[i]);
+            for (int pad = row[i].length(); pad < widths[i]; pad++) {
+                out.write(' ');
+            }
+            out.write(" |");
+        }
+        out.write('\n');
+    }
+
+    private void writeBorder(int[] widths) throws IOException {
+        out.write('+');
+        for (int width : widths) {
+            for (int i = 0; i < width + 2; i++) {
+                out.write('-');
+            }
+            out.write('+');
+        }
+        out.write('\n');
+    }
+
+    private void writeCsvRow(String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = row[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
+        }
+        out.write("\r\n");
+    }
+
+    private long writeJsonRows(ResultSet rs, String[] labels) throws SQLException, IOException {
+        int columnCount = labels.length;
+        long rowCount = 0;
+        while (rs.next()) {
+            if (rowCount < maxRows) {
+                out.write('{');
+                for (int i = 0; i < columnCount; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    writeJsonString(labels[i]);
+                    out.write(':');
+                    writeJsonValue(rs.getObject(i + 1));
+                }
+                out.write("}\n");
+                if (rowCount == 0) {
+                    out.flush();
+                }
+            }
+            rowCount++;
+        }
+        return rowCount;
+    }
+
+    private void writeJsonValue(Object value) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof BigDecimal) {
+            out.write(((BigDecimal) value).toPlainString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            String text = value.toString();
+            // NaN and Infinity are not valid JSON numbers
+            if (text.equals("NaN") || text.endsWith("Infinity")) {
+                writeJsonString(text);
+            } else {
+                out.write(text);
+            }
+        } else {
+            writeJsonString(value.toString());
+        }
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static String[] readRow(ResultSet rs, int columnCount, String nullText) throws SQLException {
+        String[] row = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            Object value = rs.getObject(i + 1);
+            row[i] = value == null ? nullText : value.toString();
+        }
+        return row;
+    }
+}
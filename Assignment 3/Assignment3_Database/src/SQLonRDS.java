@@ -1,9 +1,9 @@
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -42,7 +42,7 @@ public class SQLonRDS {
     /**
      * Orchestrates the entire sequence of database tasks required by the assignment.
      */
-    public void runAssignment() throws SQLException, ClassNotFoundException {
+    public void runAssignment() throws SQLException, ClassNotFoundException, IOException {
         // A single method to run the whole process changes the program flow.
         establishConnection();
 
@@ -80,7 +80,8 @@ public class SQLonRDS {
         Class.forName("com.mysql.cj.jdbc.Driver");
 
         // Building the URL in a more modular way.
-        String connectionUrl = String.format("jdbc:mysql://%s:%s?user=%s&password=%s&allowPublicKeyRetrieval=true&useSSL=false",
+        // useCursorFetch makes the driver honour the fetch size of the query statements.
+        String connectionUrl = String.format("jdbc:mysql://%s:%s?user=%s&password=%s&allowPublicKeyRetrieval=true&useSSL=false&useCursorFetch=true",
                 DB_HOST, DB_PORT, DB_USER, DB_PASSWORD);
 
         dbConnection = DriverManager.getConnection(connectionUrl);
@@ -209,7 +210,7 @@ public class SQLonRDS {
      * NEW METHOD: Selects and displays all data from a given table.
      * @param tableName The name of the table to display.
      */
-    private void showFullTableData(String tableName) throws SQLException {
+    private void showFullTableData(String tableName) throws SQLException, IOException {
         // Basic protection against SQL injection, though not a risk here with hardcoded calls.
         if (!tableName.matches("[a-zA-Z0-9_]+")) {
             System.out.println("Invalid table name.");
@@ -217,7 +218,7 @@ public class SQLonRDS {
         }
         
         String sql = "SELECT * FROM " + tableName;
-        try (Statement stmt = dbConnection.createStatement();
+        try (Statement stmt = ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE);
              ResultSet rs = stmt.executeQuery(sql)) {
             displayResultSet(rs);
         }
@@ -240,7 +241,7 @@ public class SQLonRDS {
                 + "FROM company "
                 + "WHERE numEmployees > 10000 OR annualRevenue < 1000000 "
                 + "ORDER BY name ASC";
-        return dbConnection.createStatement().executeQuery(sql);
+        return ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE).executeQuery(sql);
     }
 
     private ResultSet executeQueryTwo() throws SQLException {
@@ -251,7 +252,7 @@ public class SQLonRDS {
                 + "WHERE s.priceDate BETWEEN '2022-08-22' AND '2022-08-26' "
                 + "GROUP BY c.id, c.name, c.ticker "
                 + "ORDER BY avgVolume DESC";
-        return dbConnection.createStatement().executeQuery(sql);
+        return ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE).executeQuery(sql);
     }
 
     private ResultSet executeQueryThree() throws SQLException {
@@ -260,7 +261,7 @@ public class SQLonRDS {
                 + "LEFT JOIN stockprice s30 ON c.id = s30.companyId AND s30.priceDate = '2022-08-30' "
                 + "LEFT JOIN (SELECT companyId, AVG(closePrice) AS avgClose FROM stockprice WHERE priceDate BETWEEN '2022-08-15' AND '2022-08-19' GROUP BY companyId) AS avgWeek ON c.id = avgWeek.companyId "
                 + "WHERE c.ticker IS NULL OR (s30.closePrice IS NOT NULL AND avgWeek.avgClose IS NOT NULL AND s30.closePrice >= (avgWeek.avgClose * 0.9))";
-        return dbConnection.createStatement().executeQuery(sql);
+        return ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE).executeQuery(sql);
     }
 
     /**
@@ -274,100 +275,14 @@ public class SQLonRDS {
     }
     
     /**
-     * A new, unique method to format and display a ResultSet as a visually appealing text-based table.
-     * This method pre-processes the data to calculate column widths for perfect alignment.
+     * Formats and displays a ResultSet as a text-based table, writing each row as it is read.
+     * Column widths come from the first rows (see ResultSetWriter), so the rows are never all held in memory.
      */
-    public static void displayResultSet(ResultSet rs) throws SQLException {
+    public static void displayResultSet(ResultSet rs) throws SQLException, IOException {
         if (rs == null) {
             System.out.println("Query did not return a result set.");
             return;
         }
-
-        ResultSetMetaData metaData = rs.getMetaData();
-        int columnCount = metaData.getColumnCount();
-
-        List<String[]> tableData = new ArrayList<>();
-        String[] header = new String[columnCount];
-        for (int i = 0; i < columnCount; i++) {
-            header[i] = metaData.getColumnName(i + 1);
-        }
-        tableData.add(header);
-
-        while (rs.next()) {
-            String[] row = new String[columnCount];
-            for (int i = 0; i < columnCount; i++) {
-                Object value = rs.getObject(i + 1);
-                row[i] = (value == null) ? "NULL" : value.toString();
-            }
-            tableData.add(row);
-        }
-
-        int[] columnWidths = new int[columnCount];
-        for (String[] row : tableData) {
-            for (int i = 0; i < columnCount; i++) {
-                if (row[i].length() > columnWidths[i]) {
-                    columnWidths[i] = row[i].length();
-                }
-            }
-        }
-
-        StringBuilder tableBuilder = new StringBuilder();
-        
-        printTableBorder(tableBuilder, columnWidths);
-
-        printTableRow(tableBuilder, tableData.get(0), columnWidths);
-        
-        printTableBorder(tableBuilder, columnWidths);
-
-        
-        int rowCount = 0;
-        for (int i = 1; i < tableData.size(); i++) {
-            printTableRow(tableBuilder, tableData.get(i), columnWidths);
-            rowCount++;
-        }
-        
-        if (rowCount == 0) {
-            System.out.println("| " + String.format("%-" + (sum(columnWidths) + 3 * (columnCount-1) -1) + "s", "Query returned no results.") + " |");
-        }
-
-        printTableBorder(tableBuilder, columnWidths);
-        
-        System.out.print(tableBuilder.toString());
-        if (rowCount > 0){
-             System.out.println("Total results: " + rowCount);
-        }
-    }
-
-    /**
-     * Helper method to build a row of the text table.
-     */
-    private static void printTableRow(StringBuilder builder, String[] row, int[] widths) {
-        builder.append("|");
-        for (int i = 0; i < row.length; i++) {
-            builder.append(" ").append(String.format("%-" + widths[i] + "s", row[i])).append(" |");
-        }
-        builder.append("\n");
+        new ResultSetWriter(System.out, ResultSetWriter.Format.TABLE).write(rs);
     }
-
-    /**
-     * Helper method to build the top, middle, or bottom border of the text table.
-     */
-    private static void printTableBorder(StringBuilder builder, int[] widths) {
-        builder.append("+");
-        for (int width : widths) {
-            builder.append("-".repeat(width + 2)).append("+");
-        }
-        builder.append("\n");
-    }
-    
-    /**
-     * Helper method to sum an array of integers.
-     */
-     private static int sum(int[] array){
-         int sum = 0;
-         for(int value : array){
-             sum += value;
-         }
-         return sum;
-     }
 }
\ No newline at end of file
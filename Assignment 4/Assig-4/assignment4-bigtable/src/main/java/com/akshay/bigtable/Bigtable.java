@@ -1,211 +1,526 @@
 package com.akshay.bigtable;
 
-import com.google.api.gax.rpc.NotFoundException;
- import com.google.api.gax.rpc.ServerStream;
- import com.google.cloud.bigtable.admin.v2.BigtableTableAdminClient;
- import com.google.cloud.bigtable.admin.v2.BigtableTableAdminSettings;
- import com.google.cloud.bigtable.admin.v2.models.CreateTableRequest;
- import com.google.cloud.bigtable.data.v2.BigtableDataClient;
- import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
- import com.google.cloud.bigtable.data.v2.models.BulkMutation;
- import com.google.cloud.bigtable.data.v2.models.Mutation;
- import com.google.cloud.bigtable.data.v2.models.Query;
- import com.google.cloud.bigtable.data.v2.models.Row;
- import com.google.cloud.bigtable.data.v2.models.RowCell;
- import com.google.cloud.bigtable.data.v2.models.RowMutation;
- import java.io.BufferedReader;
- import java.io.File;
- import java.io.FileReader;
- import java.io.IOException;
- import java.sql.SQLException;
- import java.util.ArrayList;
- import java.util.List;
- /*
+import com.akshay.bigtable.embedded.EmbeddedBackend;
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowController;
+import com.google.cloud.bigtable.admin.v2.BigtableTableAdminClient;
+import com.google.cloud.bigtable.admin.v2.BigtableTableAdminSettings;
+import com.google.cloud.bigtable.data.v2.BigtableDataClient;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+import com.google.cloud.bigtable.data.v2.stub.BigtableBatchingCallSettings;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+/*
  * Use Google Bigtable to store and analyze sensor data.
  */
- public class Bigtable {
- // TODO: Fill in information for your database
- public final String projectId = "big-data-assignment-4-464016";
- public final String instanceId = "ail7560";
-public final String COLUMN_FAMILY = "sensor";
- public final String tableId = "weather"; // TODO: Must change table name if sharing my database
- public BigtableDataClient dataClient;
- public BigtableTableAdminClient adminClient;
- public static void main(String[] args) throws Exception {
- Bigtable testbt = new Bigtable();
- testbt.run();
- }
- public void connect() throws IOException {
- // TODO: Write code to create a data client and admin client to connect to
- // Google Bigtable
- // See sample code in HelloWorld.java for help
- }
- public void run() throws Exception {
- connect();
- public void connect() throws IOException {
-    // TODO: Write code to create a data client and admin client to connect to
-    // Google Bigtable
-    // See sample code in HelloWorld.java for help
-    BigtableDataSettings dataSettings = BigtableDataSettings.newBuilder()
-            .setProjectId(projectId)
-            .setInstanceId(instanceId)
-            .build();
-    dataClient = BigtableDataClient.create(dataSettings);
-
-    BigtableTableAdminSettings adminSettings = BigtableTableAdminSettings.newBuilder()
-            .setProjectId(projectId)
-            .setInstanceId(instanceId)
-            .build();
-    adminClient = BigtableTableAdminClient.create(adminSettings);
-
-    System.out.println("Connected to Bigtable instance: " + instanceId + " in project: " + projectId);
+public class Bigtable {
+    // TODO: Fill in information for your database
+    public final String projectId = "big-data-assignment-4-464016";
+    public final String instanceId = "ail7560";
+    public final String COLUMN_FAMILY = "sensor";
+    public final String tableId = "weather"; // TODO: Must change table name if sharing my database
+    public StorageBackend backend;
+    public WeatherQueries queries;
+    public WeatherRollups rollups;
+
+    /**
+     * Directory with the station CSV files. If it has none, the working directory is used.
+     */
+    public String dataPath = "bin/data/";
+
+    /**
+     * Bulk mutation batching: a batch is sent once it holds this many mutations or bytes
+     */
+    public long batchElementThreshold = 100;
+    public long batchByteThreshold = 1024 * 1024;
+
+    /**
+     * Flow control: mutations and bytes in flight before adding to a batcher blocks.
+     * The limit is shared by all batchers of the client, i.e. by the stations loading at once.
+     */
+    public long maxOutstandingElements = 10_000;
+    public long maxOutstandingBytes = 32L * 1024 * 1024;
+
+    /**
+     * Times the loader sends a row again after the client gave up on it
+     */
+    public int maxMutationRetries = 3;
+
+    /**
+     * Sharded scans: streams open at once and bytes requested but not yet received
+     */
+    public int maxConcurrentShards = 16;
+    public long maxOutstandingScanBytes = 16L * 1024 * 1024;
+
+    /**
+     * Keep the tables in this process instead of Bigtable, see EmbeddedBackend. Without an
+     * embeddedPath the embedded store starts empty, so the table is loaded on every run.
+     */
+    public boolean embedded = false;
+
+    /**
+     * Directory the embedded store keeps its tables in, so they are loaded once and opened from
+     * there on later runs; null keeps them in memory only
+     */
+    public String embeddedPath = null;
+
+    /**
+     * host:port of a Bigtable emulator to use instead of the instance, e.g. localhost:8086.
+     * Taken from BIGTABLE_EMULATOR_HOST, as set by gcloud beta emulators bigtable env-init.
+     */
+    public String emulatorHost = System.getenv("BIGTABLE_EMULATOR_HOST");
+
+    /**
+     * Drop, create and load the table before running the queries
+     */
+    public boolean reload = false;
+
+    /**
+     * Run query1-4 again without filter pushdown and compare what was received
+     */
+    public boolean compareFilters = false;
+
+    /**
+     * Time sharded scans of the whole table with a growing number of shards
+     */
+    public boolean benchmarkShards = false;
+
+    /**
+     * Rebuild the daily and monthly rollups from the hourly rows before running the queries,
+     * e.g. for a table loaded before rollups existed
+     */
+    public boolean rebuildRollups = false;
+
+    /**
+     * Answer query2 and query4 from the rollups instead of the hourly rows
+     */
+    public boolean useRollups = true;
+
+    /**
+     * Encoding of the sensor cells of a table created by createTable(). An existing table keeps
+     * the encoding it was created with, see openTable().
+     */
+    public CellEncoding cellEncoding = CellEncoding.TEXT;
+
+    /**
+     * Encoding of the open table
+     */
+    public CellEncoding tableEncoding;
+
+    /**
+     * Load the data into a table per cell encoding and compare size and scan speed
+     */
+    public boolean benchmarkEncoding = false;
+
+    /**
+     * @param args --load reloads the table before running the queries,
+     *             --embedded runs on tables in this process instead of Bigtable,
+     *             --embedded-dir=DIR does so with the tables kept in DIR,
+     *             --binary-cells creates the table with binary instead of text cells,
+     *             --rebuild-rollups rebuilds the rollups of the loaded table,
+     *             --no-rollups answers every query from the hourly rows,
+     *             --compare-filters compares the queries with and without filter pushdown,
+     *             --benchmark-shards times sharded scans,
+     *             --benchmark-encoding compares text and binary cells
+     */
+    public static void main(String[] args) throws Exception {
+        Bigtable testbt = new Bigtable();
+        testbt.reload = Arrays.asList(args).contains("--load");
+        testbt.compareFilters = Arrays.asList(args).contains("--compare-filters");
+        testbt.benchmarkShards = Arrays.asList(args).contains("--benchmark-shards");
+        testbt.rebuildRollups = Arrays.asList(args).contains("--rebuild-rollups");
+        testbt.useRollups = !Arrays.asList(args).contains("--no-rollups");
+        testbt.benchmarkEncoding = Arrays.asList(args).contains("--benchmark-encoding");
+        testbt.embedded = Arrays.asList(args).contains("--embedded");
+        for (String arg : args) {
+            if (arg.startsWith("--embedded-dir=")) {
+                testbt.embedded = true;
+                testbt.embeddedPath = arg.substring("--embedded-dir=".length());
+            }
+        }
+        if (Arrays.asList(args).contains("--binary-cells")) {
+            testbt.cellEncoding = CellEncoding.BINARY;
+        }
+        testbt.run();
+    }
+
+    public void connect() throws IOException {
+        if (embedded && embeddedPath != null) {
+            backend = new EmbeddedBackend(Paths.get(embeddedPath));
+            System.out.println("Using the embedded store in " + embeddedPath);
+            return;
+        }
+        if (embedded) {
+            backend = new EmbeddedBackend();
+            System.out.println("Using the embedded store");
+            return;
+        }
+        String[] emulator = emulatorHost != null && !emulatorHost.isEmpty() ? emulatorHost.split(":") : null;
+        BigtableDataSettings.Builder dataSettings = (emulator != null
+                ? BigtableDataSettings.newBuilderForEmulator(emulator[0], Integer.parseInt(emulator[1]))
+                : BigtableDataSettings.newBuilder())
+                .setProjectId(projectId)
+                .setInstanceId(instanceId)
+                .setBulkMutationFlowControl(true);
+        BigtableBatchingCallSettings.Builder bulkMutate = dataSettings.stubSettings().bulkMutateRowsSettings();
+        BatchingSettings batching = bulkMutate.getBatchingSettings();
+        bulkMutate.setBatchingSettings(batching.toBuilder()
+                .setElementCountThreshold(batchElementThreshold)
+                .setRequestByteThreshold(batchByteThreshold)
+                .setFlowControlSettings(batching.getFlowControlSettings().toBuilder()
+                        .setMaxOutstandingElementCount(maxOutstandingElements)
+                        .setMaxOutstandingRequestBytes(maxOutstandingBytes)
+                        .setLimitExceededBehavior(FlowController.LimitExceededBehavior.Block)
+                        .build())
+                .build());
+        BigtableDataClient dataClient = BigtableDataClient.create(dataSettings.build());
+
+        BigtableTableAdminSettings adminSettings = (emulator != null
+                ? BigtableTableAdminSettings.newBuilderForEmulator(emulator[0], Integer.parseInt(emulator[1]))
+                : BigtableTableAdminSettings.newBuilder())
+                .setProjectId(projectId)
+                .setInstanceId(instanceId)
+                .build();
+        BigtableTableAdminClient adminClient = BigtableTableAdminClient.create(adminSettings);
+        backend = new BigtableBackend(dataClient, adminClient);
+
+        System.out.println("Connected to Bigtable instance: " + instanceId + " in project: " + projectId
+                + (emulator != null ? " on emulator " + emulatorHost : ""));
+    }
+
+    /**
+     * Reads the cell encoding of the table and sets up the queries and rollups for it.
+     * Call again after the table was recreated.
+     */
+    public void openTable() {
+        tableEncoding = CellEncoding.read(backend, tableId, COLUMN_FAMILY);
+        queries = new WeatherQueries(backend, tableId, COLUMN_FAMILY, tableEncoding,
+                new ShardedScanner(backend, tableId, maxConcurrentShards, maxOutstandingScanBytes));
+        queries.setUseRollups(useRollups);
+        rollups = new WeatherRollups(backend, tableId, COLUMN_FAMILY, tableEncoding);
+        System.out.println("Table " + tableId + " has " + tableEncoding + " cells");
+    }
+
+    public void run() throws Exception {
+        connect();
+
+        // Run with --load to (re)load the data; once loaded, the queries can run on their own
+        if (reload || embedded && !backend.exists(tableId)) {
+            deleteTable();
+            createTable();
+            openTable();
+            loadData();
+        } else if (rebuildRollups) {
+            createTable();
+            openTable();
+            for (Station station : Station.values()) {
+                System.out.println("Rebuilt " + rollups.rebuildAll(station) + " rollup rows for " + station.displayName);
+            }
+        } else {
+            openTable();
+        }
+
+        int temp = query1();
+        System.out.println("Temperature: " + temp);
+
+        int windspeed = query2();
+        System.out.println("Windspeed: " + windspeed);
+
+        WeatherReadingBatch data = query3Readings();
+        data.writeTo(System.out);
+        System.out.println();
+
+        int maxTemp = query4();
+        System.out.println("Temperature: " + maxTemp);
+
+        queries.printStats();
+
+        if (compareFilters) {
+            compareFilterPushdown(temp, windspeed, data, maxTemp);
+        }
+        if (benchmarkShards) {
+            benchmarkShards(YearMonth.of(2021, 10), YearMonth.of(2022, 10), 1, 2, 4, 8, 16, 32);
+        }
+        if (benchmarkEncoding) {
+            benchmarkEncoding(YearMonth.of(2021, 10), YearMonth.of(2022, 10), 3);
+        }
+
+        close();
+    }
+
+    /**
+     * Runs query1-4 again reading whole rows and prints the cells and bytes received by each
+     * against the filtered run. The answers must be the same.
+     *
+     * @param temperature    result of the filtered query1
+     * @param windspeed      result of the filtered query2
+     * @param readings       result of the filtered query3
+     * @param maxTemperature result of the filtered query4
+     */
+    public void compareFilterPushdown(int temperature, int windspeed, WeatherReadingBatch readings, int maxTemperature)
+            throws Exception {
+        queries.setFilterPushdown(false);
+        try {
+            boolean same = query1() == temperature;
+            same &= query2() == windspeed;
+            same &= Arrays.deepEquals(query3Readings().toObjectArrays().toArray(), readings.toObjectArrays().toArray());
+            same &= query4() == maxTemperature;
+            queries.printPushdownComparison("query1", "query2", "query3", "query4");
+            System.out.println(same ? "Filtered and unfiltered answers match" : "Filtered and unfiltered answers DIFFER");
+        } finally {
+            queries.setFilterPushdown(true);
+        }
+    }
+
+    /**
+     * Aggregates the temperature of every station over the months, first with the given numbers
+     * of shards per station and then with the shards from sampleRowKeys, and prints the time of
+     * each. At most maxConcurrentShards shards run at once. Each result is checked against the
+     * first one.
+     *
+     * @param first            first month
+     * @param last             last month
+     * @param piecesPerStation shards per station to try
+     */
+    public void benchmarkShards(YearMonth first, YearMonth last, int... piecesPerStation) throws Exception {
+        System.out.println("\nBenchmarking sharded scans of " + first + " to " + last + ", at most "
+                + maxConcurrentShards + " shards at once...");
+        ShardedScanner.Aggregate expected = null;
+        for (int i = 0; i <= piecesPerStation.length; i++) {
+            boolean sampled = i == piecesPerStation.length;
+            String name = sampled ? "sampled" : Station.values().length * piecesPerStation[i] + " shards";
+            long start = System.nanoTime();
+            ShardedScanner.Aggregate result = sampled
+                    ? queries.aggregateBySamples(name, SensorColumns.TEMPERATURE, first, last)
+                    : queries.aggregate(name, SensorColumns.TEMPERATURE, first, last, piecesPerStation[i]);
+            long nanos = System.nanoTime() - start;
+            if (expected == null) {
+                expected = result;
+            }
+            boolean same = result.min == expected.min && result.max == expected.max
+                    && result.sum == expected.sum && result.count == expected.count;
+            System.out.printf("  %-10s %8.1f ms | %6d rows, %8.0f rows/sec | %s%s%n", name, nanos / 1e6, result.rows,
+                    nanos > 0 ? result.rows / (nanos / 1e9) : 0.0, result, same ? "" : " | DIFFERS from first run");
+        }
+    }
+
+    /**
+     * Times decoding every reading of the CSV files in each cell encoding (see
+     * CellEncoding.benchmarkDecode), then loads the files into a scratch table per encoding and
+     * prints the value bytes each stores and the time to read every hourly row of the months as
+     * whole rows, aggregating temperature, best of the given rounds. The aggregates must be the
+     * same. The scratch tables are deleted afterwards.
+     *
+     * @param first  first month
+     * @param last   last month
+     * @param rounds scans per table
+     */
+    public void benchmarkEncoding(YearMonth first, YearMonth last, int rounds) throws Exception {
+        System.out.println("\nBenchmarking cell encodings...");
+        CellEncoding.benchmarkDecode(dataDirectory(), rounds * 10);
+        ShardedScanner.Aggregate expected = null;
+        for (CellEncoding encoding : CellEncoding.values()) {
+            String id = tableId + "_" + encoding.name().toLowerCase();
+            if (backend.exists(id)) {
+                deleteTable(id);
+            }
+            createTable(id, encoding);
+            try {
+                long valueBytes = 0;
+                long rows = 0;
+                for (WeatherLoader.LoadStats stats : new WeatherLoader(backend, id, COLUMN_FAMILY, encoding,
+                        maxMutationRetries, null).loadAll(dataDirectory())) {
+                    valueBytes += stats.valueBytes;
+                    rows += stats.rowsWritten;
+                }
+
+                WeatherQueries scans = new WeatherQueries(backend, id, COLUMN_FAMILY, encoding,
+                        new ShardedScanner(backend, id, maxConcurrentShards, maxOutstandingScanBytes));
+                scans.setFilterPushdown(false);
+                long best = Long.MAX_VALUE;
+                ShardedScanner.Aggregate result = null;
+                for (int round = 0; round < rounds; round++) {
+                    long start = System.nanoTime();
+                    result = scans.aggregate("scan", SensorColumns.TEMPERATURE, first, last, 4);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                if (expected == null) {
+                    expected = result;
+                }
+                boolean same = result.min == expected.min && result.max == expected.max
+                        && result.sum == expected.sum && result.count == expected.count;
+                System.out.printf("  %-6s %8d value bytes (%.1f per row) | scan %8.1f ms, %8.0f rows/sec, %9d bytes received%s%n",
+                        encoding, valueBytes, rows > 0 ? (double) valueBytes / rows : 0.0, best / 1e6,
+                        best > 0 ? result.rows / (best / 1e9) : 0.0, result.bytes, same ? "" : " | DIFFERS from TEXT");
+            } finally {
+                deleteTable(id);
+            }
+        }
+    }
+
+    /**
+     * Close the backend, i.e. the data and admin clients of Bigtable
+     */
+    public void close() {
+        backend.close();
+    }
+
+    /**
+     * Creates the table with the sensor and rollup families and cellEncoding.
+     */
+    public void createTable() {
+        createTable(tableId, cellEncoding);
+    }
+
+    /**
+     * Creates a table with the sensor and rollup families. Only the latest version of a cell is kept.
+     * The encoding is recorded in the table. The rollup family is added to an existing table that
+     * does not have it yet; its encoding stays as it is.
+     */
+    public void createTable(String id, CellEncoding encoding) {
+        if (backend.exists(id)) {
+            System.out.println("Table " + id + " already exists");
+            if (!backend.families(id).contains(WeatherRollups.FAMILY)) {
+                backend.addFamily(id, WeatherRollups.FAMILY);
+                System.out.println("Added column family " + WeatherRollups.FAMILY);
+            }
+            return;
+        }
+        System.out.println("Creating table: " + id);
+        backend.createTable(id, COLUMN_FAMILY, WeatherRollups.FAMILY);
+        encoding.write(backend, id, COLUMN_FAMILY);
+        System.out.printf("Table %s created successfully with %s cells%n", id, encoding);
+    }
+
+    /**
+     * Loads data into database.
+     * Data is in CSV files. Note that must convert to hourly data.
+     * Take the first reading in a hour and ignore any others.
+     * The three stations load at the same time, see WeatherLoader.
+     * The daily and monthly rollups of the loaded months are rebuilt as well.
+     */
+    public void loadData() throws Exception {
+        // SeaTac station id is SEA, Vancouver is YVR and Portland is PDX
+        try {
+            new WeatherLoader(backend, tableId, COLUMN_FAMILY, tableEncoding, maxMutationRetries, rollups)
+                    .loadAll(dataDirectory());
+            if (backend instanceof EmbeddedBackend) {
+                System.out.println("  " + ((EmbeddedBackend) backend).describe(tableId));
+            }
+        } catch (Exception e) {
+            throw new Exception(e);
+        }
+    }
+
+    private Path dataDirectory() {
+        Path path = Paths.get(dataPath);
+        return Files.exists(path.resolve(Station.SEA.fileName)) ? path : Paths.get("");
+    }
+
+    /**
+     * Query returns the temperature at Vancouver on 2022-10-01 at 10 a.m.
+     *
+     * @return
+     *         ResultSet
+     * @throws SQLException
+     *         if an error occurs
+     */
+    public int query1() throws Exception {
+        System.out.println("Executing query #1.");
+        // One row: YVR#2022100110
+        return queries.temperature("query1", Station.YVR, LocalDate.of(2022, 10, 1), 10).orElse(0);
+    }
+
+    /**
+     * Query returns the highest wind speed in the month of September 2022 in
+     * Portland.
+     *
+     * @return
+     *         ResultSet
+     * @throws SQLException
+     *         if an error occurs
+     */
+    public int query2() throws Exception {
+        System.out.println("Executing query #2.");
+        // Prefix PDX#202209
+        return queries.maxWindSpeed("query2", Station.PDX, YearMonth.of(2022, 9)).orElse(0);
+    }
+
+    /**
+     * Query returns all the readings for SeaTac for October 2, 2022. Return as an
+     * ArrayList of objects arrays.
+     * Each object array should have fields: date (string), hour (string),
+     * temperature (int), dewpoint (int), humidity (string), windspeed (string),
+     * pressure (string)
+     *
+     * @return
+     *         ResultSet
+     * @throws SQLException
+     *         if an error occurs
+     */
+    public ArrayList<Object[]> query3() throws Exception {
+        return new ArrayList<Object[]>(query3Readings().toObjectArrays());
+    }
+
+    /**
+     * The readings of query3 in their columnar form, without a String or boxed number per value.
+     */
+    public WeatherReadingBatch query3Readings() throws Exception {
+        System.out.println("Executing query #3.");
+        // Prefix SEA#20221002
+        return queries.readings("query3", Station.SEA, LocalDate.of(2022, 10, 2));
+    }
+
+    /**
+     * Query returns the highest temperature at any station in the summer months of
+     * 2022 (July (7), August (8)).
+     *
+     * @return
+     *         ResultSet
+     * @throws SQLException
+     *         if an error occurs
+     */
+    public int query4() throws Exception {
+        System.out.println("Executing query #4.");
+        // One range per station, e.g. [PDX#202207, PDX#202209), instead of reading the entire table
+        return queries.maxTemperature("query4", YearMonth.of(2022, 7), YearMonth.of(2022, 8)).orElse(-100);
+    }
+
+    /**
+     * Create your own query and test case demonstrating some different.
+     *
+     * @return
+     *         ResultSet
+     * @throws SQLException
+     *         if an error occurs
+     */
+    public int query5() throws Exception {
+        // TODO: Write your own unique query and test case
+        System.out.println("Executing query #5.");
+        return 0;
+    }
+
+    /**
+     * Delete the table from Bigtable.
+     */
+    public void deleteTable() {
+        deleteTable(tableId);
+    }
+
+    public void deleteTable(String id) {
+        System.out.println("\nDeleting table: " + id);
+        if (backend.deleteTable(id)) {
+            System.out.printf("Table %s deleted successfully%n", id);
+        } else {
+            System.err.println("Failed to delete a non-existent table: " + id);
+        }
+    }
 }
-// deleteTable();
-// createTable();
-// loadData();
- int temp = query1();
- System.out.println("Temperature: " + temp);
- int windspeed = query2();
- System.out.println("Windspeed: " + windspeed);
- ArrayList<Object[]> data = query3();
- StringBuffer buf = new StringBuffer();
- for (int i = 0; i < data.size(); i++) {
- Object[] vals = data.get(i);
- for (int j = 0; j < vals.length; j++)
- buf.append(vals[j].toString() + " ");
- buf.append("\n");
- }
- System.out.println(buf.toString());
- temp = query4();
- System.out.println("Temperature: " + temp);
- close();
- }
-/**
- * Close data and admin clients
- */
- public void close() {
- dataClient.close();
- adminClient.close();
- }
- public void createTable() {
- // TODO: Create a table to store sensor data.
- }
- /**
- * Loads data into database.
- * Data is in CSV files. Note that must convert to hourly data.
- * Take the first reading in a hour and ignore any others.
- */
- public void loadData() throws Exception {
- String path = "bin/data/";
- // TODO: Load data from CSV files into sensor table
- // Note: There are multiple different ways that you can decide on how to
- // organize this data into columns
- try {
- // SeaTac station id is SEA
- System.out.println("Load data for SeaTac");
- // Vancouver station id is YVR
- System.out.println("Loading data for Vancouver");
- // Portland station id is PDX
- System.out.println("Loading data for Portland");
- } catch (Exception e) {
- throw new Exception(e);
- }
- }
- /**
- * Query returns the temperature at Vancouver on 2022-10-01 at 10 a.m.
- *
- * @return
- *
- ResultSet
- * @throws SQLException
- *
- if an error occurs
- */
- public int query1() throws Exception {
- // TODO: Write query #1
- System.out.println("Executing query #1.");
-return 0;
- }
- /**
- * Query returns the highest wind speed in the month of September 2022 in
- * Portland.
- *
- * @return
- *
- ResultSet
- * @throws SQLException
- *
- */
- if an error occurs
- public int query2() throws Exception {
- // TODO: Write query #2
- System.out.println("Executing query #2.");
- int maxWindSpeed = 0;
- return maxWindSpeed;
- }
- /**
- * Query returns all the readings for SeaTac for October 2, 2022. Return as an
- * ArrayList of objects arrays.
- * Each object array should have fields: date (string), hour (string),
- * temperature (int), dewpoint (int), humidity (string), windspeed (string),
- * pressure (string)
- *
- * @return
- *
- ResultSet
- * @throws SQLException
- *
- */
- if an error occurs
- public ArrayList<Object[]> query3() throws Exception {
- // TODO: Write query #3
- System.out.println("Executing query #3.");
- ArrayList<Object[]> data = new ArrayList<Object[]>();
- return data;
- }
- /**
- * Query returns the highest temperature at any station in the summer months of
- * 2022 (July (7), August (8)).
- *
- * @return
- *
- ResultSet
- * @throws SQLException
-*
- if an error occurs
- */
- public int query4() throws Exception {
- // TODO: Write query #4
- // Try to avoid reading the entire table. Consider using readRowRanges()
- // instead.
- System.out.println("Executing query #4.");
- int maxTemp =-100;
- return maxTemp;
- }
- /**
- * Create your own query and test case demonstrating some different.
- *
- * @return
- *
- ResultSet
- * @throws SQLException
- *
- if an error occurs
- */
- public int query5() throws Exception {
- // TODO: Write your own unique query and test case
- System.out.println("Executing query #5.");
- return 0;
- }
- /**
- * Delete the table from Bigtable.
- */
- public void deleteTable() {
- System.out.println("\nDeleting table: " + tableId);
- try {
- adminClient.deleteTable(tableId);
- System.out.printf("Table %s deleted successfully%n", tableId);
- } catch (NotFoundException e) {
- System.err.println("Failed to delete a non-existent table: " + e.getMessage());
- }
- }
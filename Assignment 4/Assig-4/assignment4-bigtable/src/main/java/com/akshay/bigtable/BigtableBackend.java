@@ -0,0 +1,119 @@
+package com.akshay.bigtable;
+
+import static com.google.cloud.bigtable.admin.v2.models.GCRules.GCRULES;
+
+import com.google.api.gax.batching.Batcher;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.cloud.bigtable.admin.v2.BigtableTableAdminClient;
+import com.google.cloud.bigtable.admin.v2.models.ColumnFamily;
+import com.google.cloud.bigtable.admin.v2.models.CreateTableRequest;
+import com.google.cloud.bigtable.admin.v2.models.ModifyColumnFamiliesRequest;
+import com.google.cloud.bigtable.data.v2.BigtableDataClient;
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.KeyOffset;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tables on a Bigtable instance or emulator, through the data and admin clients.
+ * Flow control, batching and retries are the ones set on the clients.
+ */
+public class BigtableBackend implements StorageBackend {
+
+    private final BigtableDataClient dataClient;
+    private final BigtableTableAdminClient adminClient;
+
+    /**
+     * @param dataClient  connected data client, closed with the backend
+     * @param adminClient connected admin client of the same instance, closed with the backend
+     */
+    public BigtableBackend(BigtableDataClient dataClient, BigtableTableAdminClient adminClient) {
+        this.dataClient = dataClient;
+        this.adminClient = adminClient;
+    }
+
+    @Override
+    public boolean exists(String tableId) {
+        return adminClient.exists(tableId);
+    }
+
+    @Override
+    public Set<String> families(String tableId) {
+        Set<String> families = new LinkedHashSet<>();
+        for (ColumnFamily family : adminClient.getTable(tableId).getColumnFamilies()) {
+            families.add(family.getId());
+        }
+        return families;
+    }
+
+    @Override
+    public void createTable(String tableId, String... families) {
+        CreateTableRequest request = CreateTableRequest.of(tableId);
+        for (String family : families) {
+            request.addFamily(family, GCRULES.maxVersions(1));
+        }
+        adminClient.createTable(request);
+    }
+
+    @Override
+    public void addFamily(String tableId, String family) {
+        adminClient.modifyFamilies(ModifyColumnFamiliesRequest.of(tableId).addFamily(family, GCRULES.maxVersions(1)));
+    }
+
+    @Override
+    public boolean deleteTable(String tableId) {
+        try {
+            adminClient.deleteTable(tableId);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Row readRow(String tableId, String rowKey) {
+        return dataClient.readRow(tableId, rowKey);
+    }
+
+    @Override
+    public Row readRow(String tableId, String rowKey, Filter filter) {
+        return dataClient.readRow(tableId, rowKey, filter);
+    }
+
+    @Override
+    public Iterable<Row> readRows(Query query) {
+        return dataClient.readRows(query);
+    }
+
+    @Override
+    public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+        dataClient.readRowsAsync(query, observer);
+    }
+
+    @Override
+    public List<KeyOffset> sampleRowKeys(String tableId) {
+        return dataClient.sampleRowKeys(tableId);
+    }
+
+    @Override
+    public void mutateRow(RowMutation mutation) {
+        dataClient.mutateRow(mutation);
+    }
+
+    @Override
+    public Batcher<RowMutationEntry, Void> newBulkMutationBatcher(String tableId) {
+        return dataClient.newBulkMutationBatcher(tableId);
+    }
+
+    @Override
+    public void close() {
+        dataClient.close();
+        adminClient.close();
+    }
+}
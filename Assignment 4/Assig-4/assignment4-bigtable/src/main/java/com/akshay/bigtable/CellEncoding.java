@@ -0,0 +1,214 @@
+package com.akshay.bigtable;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.protobuf.ByteString;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the readings are stored in the cells of the sensor family. A table uses one encoding,
+ * recorded in its encoding row (see write() and read()), so the loader and the queries of a table
+ * always agree.
+ * <ul>
+ * <li>TEXT: the CSV field as UTF-8, e.g. "1013.6" or "M".</li>
+ * <li>BINARY: two bytes, big-endian. The value is scaled to a whole number (humidity and pressure
+ * by 10, so 1013.6 is 10136) and offset by 0x8000, so the bytes of two values sort like the
+ * numbers and a value range filter can compare them. 0x0000 means missing, so the values go
+ * from -32767 to 32767.</li>
+ * </ul>
+ * Decoding reads the value bytes directly; neither encoding creates a String to parse a number.
+ */
+public enum CellEncoding {
+
+    TEXT {
+        @Override
+        public ByteString encode(String column, String field) {
+            return ByteString.copyFromUtf8(field);
+        }
+
+        @Override
+        public int intValue(ByteString value) {
+            return SensorColumns.intValue(value);
+        }
+
+        @Override
+        public int tenthsValue(String column, ByteString value) {
+            return SensorColumns.tenthsValue(value);
+        }
+
+        @Override
+        public String text(String column, ByteString value) {
+            return value != null ? value.toStringUtf8() : SensorColumns.MISSING;
+        }
+
+        @Override
+        public Filter presentValues() {
+            // Digits and '-' sort before "M"
+            return FILTERS.value().range().endOpen(SensorColumns.MISSING);
+        }
+    },
+
+    BINARY {
+        @Override
+        public ByteString encode(String column, String field) {
+            int tenths = SensorColumns.tenthsValue(ByteString.copyFromUtf8(field));
+            int stored = 0;
+            if (tenths != SensorColumns.NO_VALUE) {
+                int value = SensorColumns.isWholeNumber(column) ? tenths / 10 : tenths;
+                // MISSING_VALUE itself would be stored as 0x0000 and read back as missing
+                if (value <= MISSING_VALUE || value > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException(column + " value out of range: " + field);
+                }
+                stored = value - MISSING_VALUE;
+            }
+            return ByteString.copyFrom(new byte[] {(byte) (stored >>> 8), (byte) stored});
+        }
+
+        @Override
+        public int intValue(ByteString value) {
+            if (value == null || value.size() != 2) {
+                return SensorColumns.NO_VALUE;
+            }
+            int stored = (value.byteAt(0) & 0xff) << 8 | value.byteAt(1) & 0xff;
+            return stored == 0 ? SensorColumns.NO_VALUE : stored + MISSING_VALUE;
+        }
+
+        @Override
+        public int tenthsValue(String column, ByteString value) {
+            int stored = intValue(value);
+            return stored == SensorColumns.NO_VALUE || !SensorColumns.isWholeNumber(column) ? stored : stored * 10;
+        }
+
+        @Override
+        public String text(String column, ByteString value) {
+            int stored = intValue(value);
+            if (stored == SensorColumns.NO_VALUE) {
+                return SensorColumns.MISSING;
+            }
+            if (SensorColumns.isWholeNumber(column) || stored % 10 == 0) {
+                // The CSV files leave out a zero decimal: 100, not 100.0
+                return Integer.toString(SensorColumns.isWholeNumber(column) ? stored : stored / 10);
+            }
+            return (stored < 0 ? "-" : "") + Math.abs(stored / 10) + "." + Math.abs(stored % 10);
+        }
+
+        @Override
+        public Filter presentValues() {
+            return FILTERS.value().range().startOpen(ByteString.copyFrom(new byte[2]));
+        }
+    };
+
+    /** Row holding the encoding of the table, outside the hourly and rollup key ranges */
+    public static final String ROW_KEY = "meta#encoding";
+    public static final String QUALIFIER = "encoding";
+
+    // Stored as 0x0000 in BINARY
+    private static final int MISSING_VALUE = Short.MIN_VALUE;
+
+    /**
+     * Encodes a CSV field of a reading column, "M" for missing.
+     */
+    public abstract ByteString encode(String column, String field);
+
+    /**
+     * @return the value of a whole-number column, or SensorColumns.NO_VALUE if it is missing
+     */
+    public abstract int intValue(ByteString value);
+
+    /**
+     * @return the value of any reading column in tenths, or SensorColumns.NO_VALUE if it is missing
+     */
+    public abstract int tenthsValue(String column, ByteString value);
+
+    /**
+     * @return the value as written in the CSV files, "M" if it is missing
+     */
+    public abstract String text(String column, ByteString value);
+
+    /**
+     * Value range filter keeping only the cells that are not missing.
+     */
+    public abstract Filter presentValues();
+
+    /**
+     * Encodes every reading of the station CSV files with each encoding and prints the value bytes
+     * and the time to decode all of them in tenths, best of the given rounds. Runs without Bigtable,
+     * so it shows the client-side cost of each encoding alone.
+     *
+     * @param directory directory holding the station CSV files
+     * @param rounds    decoding passes per encoding
+     */
+    public static void benchmarkDecode(Path directory, int rounds) throws IOException {
+        List<String[]> readings = new ArrayList<>();
+        for (Station station : Station.values()) {
+            try (BufferedReader reader = Files.newBufferedReader(directory.resolve(station.fileName), StandardCharsets.UTF_8)) {
+                reader.readLine(); // Station name
+                reader.readLine(); // Header
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",", -1);
+                    if (fields.length >= 3 + SensorColumns.ALL.length) {
+                        readings.add(fields);
+                    }
+                }
+            }
+        }
+
+        int columns = SensorColumns.ALL.length;
+        for (CellEncoding encoding : values()) {
+            ByteString[] cells = new ByteString[readings.size() * columns];
+            long bytes = 0;
+            for (int r = 0; r < readings.size(); r++) {
+                for (int c = 0; c < columns; c++) {
+                    ByteString cell = encoding.encode(SensorColumns.ALL[c], readings.get(r)[3 + c].trim());
+                    cells[r * columns + c] = cell;
+                    bytes += cell.size();
+                }
+            }
+            long best = Long.MAX_VALUE;
+            long checksum = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                long sum = 0;
+                for (int i = 0; i < cells.length; i++) {
+                    int tenths = encoding.tenthsValue(SensorColumns.ALL[i % columns], cells[i]);
+                    if (tenths != SensorColumns.NO_VALUE) {
+                        sum += tenths;
+                    }
+                }
+                best = Math.min(best, System.nanoTime() - start);
+                checksum = sum;
+            }
+            System.out.printf("  %-6s %8d values, %7d value bytes (%.2f per value) | decode %6.1f ms, %5.1f ns/value"
+                            + " | checksum %d%n", encoding, cells.length, bytes, (double) bytes / cells.length,
+                    best / 1e6, (double) best / cells.length, checksum);
+        }
+    }
+
+    /**
+     * Records the encoding of a table.
+     */
+    public void write(StorageBackend backend, String tableId, String family) {
+        backend.mutateRow(RowMutation.create(tableId, ROW_KEY).setCell(family, QUALIFIER, name()));
+    }
+
+    /**
+     * @return the encoding recorded for a table, TEXT if there is none (tables loaded before
+     *         encodings existed)
+     */
+    public static CellEncoding read(StorageBackend backend, String tableId, String family) {
+        Row row = backend.readRow(tableId, ROW_KEY);
+        List<RowCell> cells = row != null ? row.getCells(family, QUALIFIER) : null;
+        return cells == null || cells.isEmpty() ? TEXT : valueOf(cells.get(0).getValue().toStringUtf8());
+    }
+}
@@ -0,0 +1,95 @@
+package com.akshay.bigtable;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Column qualifiers of the sensor family, one per reading in the CSV files.
+ * Date and hour are not stored as cells, they are part of the row key.
+ */
+public final class SensorColumns {
+
+    public static final String TEMPERATURE = "temperature";
+    public static final String DEWPOINT = "dewpoint";
+    public static final String HUMIDITY = "humidity";
+    public static final String WINDSPEED = "windspeed";
+    public static final String GUST = "gust";
+    public static final String PRESSURE = "pressure";
+
+    /** Every reading column, in CSV order */
+    public static final String[] ALL = {TEMPERATURE, DEWPOINT, HUMIDITY, WINDSPEED, GUST, PRESSURE};
+
+    /** Value the CSV files use for a missing reading */
+    public static final String MISSING = "M";
+
+    /** Returned by intValue() for a cell that is missing or not a whole number */
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private SensorColumns() {
+    }
+
+    /**
+     * Parses a whole number straight from the bytes of a cell value.
+     *
+     * @return the number, or NO_VALUE for a null cell, "M" or anything else that is not a whole number
+     */
+    public static int intValue(ByteString value) {
+        if (value == null || value.isEmpty()) {
+            return NO_VALUE;
+        }
+        boolean negative = value.byteAt(0) == '-';
+        int i = negative ? 1 : 0;
+        if (i == value.size()) {
+            return NO_VALUE;
+        }
+        int result = 0;
+        for (; i < value.size(); i++) {
+            int digit = value.byteAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_VALUE;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Humidity and pressure have one decimal (66.9, 1013.6); the other readings are whole numbers.
+     */
+    public static boolean isWholeNumber(String qualifier) {
+        return !HUMIDITY.equals(qualifier) && !PRESSURE.equals(qualifier);
+    }
+
+    /**
+     * Parses a number with at most one decimal straight from the bytes of a cell value.
+     *
+     * @return the number in tenths, e.g. 669 for "66.9" and 1000 for "100", or NO_VALUE for a null
+     *         cell, "M" or anything else
+     */
+    public static int tenthsValue(ByteString value) {
+        if (value == null || value.isEmpty()) {
+            return NO_VALUE;
+        }
+        boolean negative = value.byteAt(0) == '-';
+        int size = value.size();
+        int i = negative ? 1 : 0;
+        int result = 0;
+        int digits = 0;
+        for (; i < size && value.byteAt(i) != '.'; i++, digits++) {
+            int digit = value.byteAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_VALUE;
+            }
+            result = result * 10 + digit;
+        }
+        result *= 10;
+        if (i < size) {
+            // One digit after the dot
+            int tenth = i == size - 2 ? value.byteAt(i + 1) - '0' : -1;
+            if (tenth < 0 || tenth > 9) {
+                return NO_VALUE;
+            }
+            result += tenth;
+        }
+        return digits == 0 ? NO_VALUE : negative ? -result : result;
+    }
+}
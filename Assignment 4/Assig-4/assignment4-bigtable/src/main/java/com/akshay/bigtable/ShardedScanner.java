@@ -0,0 +1,248 @@
+package com.akshay.bigtable;
+
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the shards of a logical query (one Query each, e.g. a key range per station or the
+ * pieces returned by sampledShards()) as concurrent readRowsAsync streams and folds every
+ * row into a per-shard Aggregate as it arrives; rows are never buffered. The partial
+ * aggregates are merged once all shards are done.
+ * <p>
+ * At most maxConcurrentShards streams are open at once. Each stream uses manual flow control and
+ * asks for a window of rows at a time, sized from the average row seen so far so that the
+ * requested but not yet received rows of all open streams stay around maxOutstandingBytes.
+ */
+public class ShardedScanner {
+
+    // Row size assumed until the first rows arrive
+    private static final long INITIAL_ROW_BYTES = 256;
+
+    private final StorageBackend backend;
+    private final String tableId;
+    private final int maxConcurrentShards;
+    private final long maxOutstandingBytes;
+
+    // Rows and bytes seen by every scan, for the window size
+    private final AtomicLong rowsSeen = new AtomicLong();
+    private final AtomicLong bytesSeen = new AtomicLong();
+
+    /**
+     * Minimum, maximum, sum and count of the values of one column, with the rows, cells and
+     * bytes that were read for them. Partial aggregates of shards merge into one.
+     */
+    public static class Aggregate {
+        public int min = Integer.MAX_VALUE;
+        public int max = Integer.MIN_VALUE;
+        public long sum;
+        public long count;
+        public long rows;
+        public long cells;
+        public long bytes;
+
+        public void add(int value) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+        }
+
+        /**
+         * Adds a period that was already summarized, e.g. a rollup row.
+         */
+        public void add(int min, int max, long sum, long count) {
+            if (count > 0) {
+                this.min = Math.min(this.min, min);
+                this.max = Math.max(this.max, max);
+                this.sum += sum;
+                this.count += count;
+            }
+        }
+
+        public void merge(Aggregate other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+            rows += other.rows;
+            cells += other.cells;
+            bytes += other.bytes;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public double average() {
+            return count > 0 ? (double) sum / count : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            return isEmpty() ? "no values" : String.format("min %d, max %d, avg %.2f over %d values", min, max, average(), count);
+        }
+    }
+
+    /**
+     * @param backend             storage holding the table
+     * @param tableId             table the shards read
+     * @param maxConcurrentShards streams open at once
+     * @param maxOutstandingBytes bytes requested but not yet received, over all open streams
+     */
+    public ShardedScanner(StorageBackend backend, String tableId, int maxConcurrentShards, long maxOutstandingBytes) {
+        this.backend = backend;
+        this.tableId = tableId;
+        this.maxConcurrentShards = Math.max(1, maxConcurrentShards);
+        this.maxOutstandingBytes = Math.max(1, maxOutstandingBytes);
+    }
+
+    /**
+     * Splits a query at the tablet boundaries reported by sampleRowKeys, so each shard is served
+     * by one tablet.
+     */
+    public List<Query> sampledShards(Query query) {
+        return query.shard(backend.sampleRowKeys(tableId));
+    }
+
+    /**
+     * Scans every shard and aggregates the latest value of one column per row.
+     * Cells that are missing or not whole numbers are not counted.
+     *
+     * @param shards    queries on the table, normally on disjoint key ranges
+     * @param family    column family of the column
+     * @param qualifier column to aggregate
+     * @param encoding  encoding of the cells
+     * @return the merged aggregate of all shards
+     */
+    public Aggregate aggregate(List<Query> shards, String family, String qualifier, CellEncoding encoding)
+            throws InterruptedException {
+        Semaphore openStreams = new Semaphore(maxConcurrentShards);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<ShardObserver> observers = new ArrayList<>(shards.size());
+        try {
+            for (Query shard : shards) {
+                openStreams.acquire();
+                if (failed.get()) {
+                    break; // Some shard failed, so no point starting the rest
+                }
+                ShardObserver observer = new ShardObserver(family, qualifier, encoding, openStreams, failed);
+                observers.add(observer);
+                backend.readRowsAsync(shard, observer);
+            }
+            CompletableFuture.allOf(observers.stream().map(o -> o.done).toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            cancel(observers);
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+        } catch (InterruptedException | RuntimeException e) {
+            cancel(observers);
+            throw e;
+        }
+
+        Aggregate total = new Aggregate();
+        for (ShardObserver observer : observers) {
+            total.merge(observer.done.join());
+        }
+        return total;
+    }
+
+    private static void cancel(List<ShardObserver> observers) {
+        for (ShardObserver observer : observers) {
+            observer.cancel();
+        }
+    }
+
+    private int windowRows() {
+        long rows = rowsSeen.get();
+        long rowBytes = rows > 0 ? Math.max(1, bytesSeen.get() / rows) : INITIAL_ROW_BYTES;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxOutstandingBytes / maxConcurrentShards / rowBytes));
+    }
+
+    /**
+     * Aggregates the rows of one shard. The callbacks of one stream never run at the same time.
+     */
+    private final class ShardObserver implements ResponseObserver<Row> {
+        final CompletableFuture<Aggregate> done = new CompletableFuture<>();
+        private final Aggregate partial = new Aggregate();
+        private final String family;
+        private final String qualifier;
+        private final CellEncoding encoding;
+        private final Semaphore openStreams;
+        private final AtomicBoolean failed;
+        private volatile StreamController controller;
+        private int window;
+        private int receivedInWindow;
+
+        ShardObserver(String family, String qualifier, CellEncoding encoding, Semaphore openStreams,
+                AtomicBoolean failed) {
+            this.family = family;
+            this.qualifier = qualifier;
+            this.encoding = encoding;
+            this.openStreams = openStreams;
+            this.failed = failed;
+        }
+
+        @Override
+        public void onStart(StreamController controller) {
+            this.controller = controller;
+            controller.disableAutoInboundFlowControl();
+            window = windowRows();
+            controller.request(window);
+        }
+
+        @Override
+        public void onResponse(Row row) {
+            long bytes = row.getKey().size();
+            for (RowCell cell : row.getCells()) {
+                bytes += cell.getFamily().length() + cell.getQualifier().size() + cell.getValue().size();
+            }
+            partial.rows++;
+            partial.cells += row.getCells().size();
+            partial.bytes += bytes;
+            rowsSeen.incrementAndGet();
+            bytesSeen.addAndGet(bytes);
+
+            List<RowCell> cells = row.getCells(family, qualifier);
+            int value = cells.isEmpty() ? SensorColumns.NO_VALUE : encoding.intValue(cells.get(0).getValue());
+            if (value != SensorColumns.NO_VALUE) {
+                partial.add(value);
+            }
+
+            if (++receivedInWindow == window) {
+                receivedInWindow = 0;
+                window = windowRows();
+                controller.request(window);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            failed.set(true); // Before the release, so the shard waiting for the stream sees it
+            openStreams.release();
+            done.completeExceptionally(t);
+        }
+
+        @Override
+        public void onComplete() {
+            openStreams.release();
+            done.complete(partial);
+        }
+
+        void cancel() {
+            StreamController c = controller;
+            if (c != null && !done.isDone()) {
+                c.cancel();
+            }
+        }
+    }
+}
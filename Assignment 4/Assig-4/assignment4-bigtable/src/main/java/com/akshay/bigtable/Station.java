@@ -0,0 +1,20 @@
+package com.akshay.bigtable;
+
+/**
+ * Weather stations of the assignment data. The enum name is the station id used in row keys.
+ */
+public enum Station {
+    SEA("SeaTac", "seatac.csv"),
+    YVR("Vancouver", "vancouver.csv"),
+    PDX("Portland", "portland.csv");
+
+    /** Name shown in output */
+    public final String displayName;
+    /** CSV file with the readings of the station */
+    public final String fileName;
+
+    Station(String displayName, String fileName) {
+        this.displayName = displayName;
+        this.fileName = fileName;
+    }
+}
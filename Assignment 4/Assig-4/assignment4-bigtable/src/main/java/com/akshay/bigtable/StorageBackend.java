@@ -0,0 +1,83 @@
+package com.akshay.bigtable;
+
+import com.google.api.gax.batching.Batcher;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.KeyOffset;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The tables the weather data lives in. Requests and results use the model classes of the
+ * Bigtable client (Query, Filters, RowMutation, RowMutationEntry, Row), so the loader, rollups
+ * and queries are the same whichever backend runs them:
+ * <ul>
+ * <li>BigtableBackend: the Bigtable data and admin clients, on an instance or the emulator.</li>
+ * <li>EmbeddedBackend: a sorted store inside this process, see com.akshay.bigtable.embedded.</li>
+ * </ul>
+ */
+public interface StorageBackend extends AutoCloseable {
+
+    boolean exists(String tableId);
+
+    /**
+     * @return the column families of the table
+     */
+    Set<String> families(String tableId);
+
+    /**
+     * Creates a table. Every family keeps only the latest version of a cell.
+     */
+    void createTable(String tableId, String... families);
+
+    /**
+     * Adds a family to an existing table, keeping only the latest version of a cell.
+     */
+    void addFamily(String tableId, String family);
+
+    /**
+     * @return false if there was no such table
+     */
+    boolean deleteTable(String tableId);
+
+    /**
+     * @return the row, or null if it does not exist
+     */
+    Row readRow(String tableId, String rowKey);
+
+    /**
+     * @return the cells of the row that pass the filter, or null if none do
+     */
+    Row readRow(String tableId, String rowKey, Filter filter);
+
+    /**
+     * Rows of the query in key order. The rows are read as the result is iterated.
+     */
+    Iterable<Row> readRows(Query query);
+
+    /**
+     * Streams the rows of the query to the observer, which may take over flow control in onStart().
+     */
+    void readRowsAsync(Query query, ResponseObserver<Row> observer);
+
+    /**
+     * Row keys splitting the table into pieces of about the same size, for Query.shard(). The
+     * last key is empty and stands for the end of the table.
+     */
+    List<KeyOffset> sampleRowKeys(String tableId);
+
+    void mutateRow(RowMutation mutation);
+
+    /**
+     * A batcher for many row mutations. The future of add() fails for a row that could not be
+     * written, and close() then throws a RuntimeException, whose type depends on the backend.
+     */
+    Batcher<RowMutationEntry, Void> newBulkMutationBatcher(String tableId);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,291 @@
+package com.akshay.bigtable;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.batching.Batcher;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the station CSV files into the sensor family, one row per station and hour,
+ * keyed as described in WeatherRowKeys.
+ * Each file is read once, line by line; only the first reading of an hour is kept.
+ * Rows go through a bulk mutation batcher of the backend. On Bigtable the batching and flow
+ * control set on the client in Bigtable.connect() decide how many mutations are in flight and
+ * add() blocks when that limit is reached. Rows that still fail after the client's own retries
+ * are sent again up to maxRetries times.
+ * Cells get the time of the reading as their timestamp, so loading a file again writes the
+ * same cells instead of adding versions.
+ * Values are written in the CellEncoding of the table.
+ * Afterwards the rollups of every month the file touched are rebuilt from the hourly rows.
+ */
+public class WeatherLoader {
+
+    // Columns of the CSV files: Pseudo-Julian-Date,Date,Time,Temperature,Dewpoint,Relhum,Speed,Gust,Pressure
+    private static final int DATE = 1;
+    private static final int TIME = 2;
+    // Temperature,Dewpoint,Relhum,Speed,Gust,Pressure: the columns of SensorColumns.ALL, in order
+    private static final int FIRST_READING = 3;
+    private static final int FIELD_COUNT = 9;
+
+    private static final ByteString[] QUALIFIERS = new ByteString[SensorColumns.ALL.length];
+
+    static {
+        for (int i = 0; i < QUALIFIERS.length; i++) {
+            QUALIFIERS[i] = ByteString.copyFromUtf8(SensorColumns.ALL[i]);
+        }
+    }
+
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+
+    private final StorageBackend backend;
+    private final String tableId;
+    private final String family;
+    private final CellEncoding encoding;
+    private final int maxRetries;
+    private final WeatherRollups rollups;
+
+    /**
+     * Counters of one station load.
+     */
+    public static class LoadStats {
+        public final Station station;
+        public long linesRead;
+        public long duplicatesSkipped;
+        public long malformedSkipped;
+        public long rowsWritten;
+        public long valueBytes;
+        public long retries;
+        public long failed;
+        public long rollupRows;
+        public long nanos;
+
+        LoadStats(Station station) {
+            this.station = station;
+        }
+
+        public double mutationsPerSecond() {
+            return nanos > 0 ? rowsWritten / (nanos / 1e9) : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s %6d lines | %6d rows written, %7d value bytes | %5d duplicate, %d malformed skipped | "
+                            + "%d retried, %d failed | %d rollup rows | %.2f s, %.0f mutations/sec",
+                    station.displayName, linesRead, rowsWritten, valueBytes, duplicatesSkipped, malformedSkipped, retries,
+                    failed, rollupRows, nanos / 1e9, mutationsPerSecond());
+        }
+    }
+
+    /**
+     * @param backend    storage holding the table
+     * @param tableId    table to load
+     * @param family     column family of the readings
+     * @param encoding   encoding of the table
+     * @param maxRetries times a failed row is sent again
+     * @param rollups    rollups to rebuild after each file, or null for none
+     */
+    public WeatherLoader(StorageBackend backend, String tableId, String family, CellEncoding encoding,
+                         int maxRetries, WeatherRollups rollups) {
+        this.backend = backend;
+        this.tableId = tableId;
+        this.family = family;
+        this.encoding = encoding;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.rollups = rollups;
+    }
+
+    /**
+     * Loads every station at the same time, one thread per station.
+     *
+     * @param directory directory holding the station CSV files
+     * @return counters per station
+     * @throws IOException if a file cannot be read or rows could not be written
+     */
+    public List<LoadStats> loadAll(Path directory) throws IOException, InterruptedException {
+        Station[] stations = Station.values();
+        ExecutorService pool = Executors.newFixedThreadPool(stations.length);
+        long start = System.nanoTime();
+        List<LoadStats> results = new ArrayList<>();
+        try {
+            List<Future<LoadStats>> futures = new ArrayList<>();
+            for (Station station : stations) {
+                Path file = directory.resolve(station.fileName);
+                futures.add(pool.submit(() -> load(station, file)));
+            }
+            for (Future<LoadStats> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Loading failed: " + cause.getMessage(), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long nanos = System.nanoTime() - start;
+        long rows = 0;
+        long failed = 0;
+        for (LoadStats stats : results) {
+            System.out.println("  " + stats);
+            rows += stats.rowsWritten;
+            failed += stats.failed;
+        }
+        System.out.printf("  Total     %d rows in %.2f s, %.0f mutations/sec%n", rows, nanos / 1e9,
+                nanos > 0 ? rows / (nanos / 1e9) : 0.0);
+        if (failed > 0) {
+            throw new IOException(failed + " rows could not be written after " + maxRetries + " retries");
+        }
+        return results;
+    }
+
+    /**
+     * Loads one station file.
+     *
+     * @param station station the file belongs to
+     * @param file    CSV file: station name, header line, then one reading per line
+     * @return counters of the load
+     * @throws IOException if the file cannot be read or has an unexpected header
+     */
+    public LoadStats load(Station station, Path file) throws IOException, InterruptedException {
+        System.out.println("Loading data for " + station.displayName);
+        LoadStats stats = new LoadStats(station);
+        Queue<RowMutationEntry> failed = new ConcurrentLinkedQueue<>();
+        AtomicLong written = new AtomicLong();
+        Set<YearMonth> months = new HashSet<>(); // Months to rebuild the rollups of
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            reader.readLine(); // Station name
+            String header = reader.readLine();
+            if (header == null || !header.trim().startsWith("Pseudo-Julian-Date")) {
+                throw new IOException("Unexpected header in " + file + ": " + header);
+            }
+
+            // The files hold about a year of readings, a few thousand hours per station
+            Set<String> hours = new HashSet<>();
+            Batcher<RowMutationEntry, Void> batcher = backend.newBulkMutationBatcher(tableId);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    stats.linesRead++;
+                    String[] fields = line.split(",", -1);
+                    if (fields.length < FIELD_COUNT || fields[DATE].length() != 10 || fields[TIME].indexOf(':') < 1) {
+                        stats.malformedSkipped++;
+                        continue;
+                    }
+                    String time = fields[TIME].trim();
+                    String hour = time.indexOf(':') == 1 ? "0" + time.substring(0, 1) : time.substring(0, 2);
+                    String rowKey = WeatherRowKeys.rowKey(station.name(), fields[DATE], hour);
+                    if (!hours.add(rowKey)) {
+                        stats.duplicatesSkipped++; // Not the first reading of the hour
+                        continue;
+                    }
+                    RowMutationEntry mutation;
+                    try {
+                        mutation = toMutation(rowKey, fields, hour, stats);
+                    } catch (IllegalArgumentException e) {
+                        hours.remove(rowKey); // A later reading of the hour may still be used
+                        stats.malformedSkipped++;
+                        continue;
+                    }
+                    months.add(YearMonth.parse(fields[DATE].substring(0, 7)));
+                    add(batcher, mutation, failed, written);
+                }
+            } finally {
+                closeBatcher(batcher);
+            }
+        }
+
+        for (int attempt = 1; attempt <= maxRetries && !failed.isEmpty(); attempt++) {
+            List<RowMutationEntry> retry = new ArrayList<>();
+            RowMutationEntry entry;
+            while ((entry = failed.poll()) != null) {
+                retry.add(entry);
+            }
+            stats.retries += retry.size();
+            Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+            Batcher<RowMutationEntry, Void> batcher = backend.newBulkMutationBatcher(tableId);
+            try {
+                for (RowMutationEntry mutation : retry) {
+                    add(batcher, mutation, failed, written);
+                }
+            } finally {
+                closeBatcher(batcher);
+            }
+        }
+
+        stats.rowsWritten = written.get();
+        stats.failed = failed.size();
+        if (rollups != null) {
+            // From the hourly rows in the table, so rows that failed are left out until loaded again
+            stats.rollupRows = rollups.rebuild(station, months);
+        }
+        stats.nanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    private RowMutationEntry toMutation(String rowKey, String[] fields, String hour, LoadStats stats) {
+        // The reading time is the cell version, treated as UTC
+        LocalDate date = LocalDate.parse(fields[DATE]);
+        String time = fields[TIME].trim();
+        int minute = Integer.parseInt(time.substring(time.indexOf(':') + 1));
+        long timestamp = (date.toEpochDay() * 86400 + Integer.parseInt(hour) * 3600 + minute * 60) * MICROS_PER_SECOND;
+
+        RowMutationEntry mutation = RowMutationEntry.create(rowKey);
+        for (int i = 0; i < QUALIFIERS.length; i++) {
+            ByteString value = encoding.encode(SensorColumns.ALL[i], fields[FIRST_READING + i].trim());
+            stats.valueBytes += value.size();
+            mutation.setCell(family, QUALIFIERS[i], timestamp, value);
+        }
+        return mutation;
+    }
+
+    private static void add(Batcher<RowMutationEntry, Void> batcher, RowMutationEntry mutation,
+                            Queue<RowMutationEntry> failed, AtomicLong written) {
+        // Blocks while the flow control limit is reached
+        ApiFutures.addCallback(batcher.add(mutation), new ApiFutureCallback<Void>() {
+            @Override
+            public void onFailure(Throwable t) {
+                failed.add(mutation);
+            }
+
+            @Override
+            public void onSuccess(Void result) {
+                written.incrementAndGet();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static void closeBatcher(Batcher<RowMutationEntry, Void> batcher) throws InterruptedException {
+        try {
+            batcher.close(); // Sends what is left and waits for every batch
+        } catch (RuntimeException e) {
+            // A BatchingException from gax, or what another backend throws for failed entries:
+            // the failed rows were already queued for retry by their callbacks
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.akshay.bigtable;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Range.ByteStringRange;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.protobuf.ByteString;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+
+/**
+ * Reads the weather table by row key: a reading is one readRow, a day or month of a station
+ * is one prefix scan and a run of months over every station is one query with a range per
+ * station, run by a ShardedScanner. Each query counts the rows it received next to the most
+ * rows its key range can hold (one per hour or rollup), so printStats() shows that no query
+ * reads outside its answer.
+ * <p>
+ * With rollups on (the default) query2 and query4 are answered by summarize(), which reads the
+ * daily and monthly rows of WeatherRollups and only the hours at partial edges.
+ * <p>
+ * With filter pushdown on (the default) the server also drops the cells a query does not use,
+ * see cellFilter(). Turning it off runs the same key ranges returning whole rows, recorded
+ * under the query name plus UNFILTERED, so printPushdownComparison() can put the two side by side.
+ */
+public class WeatherQueries {
+
+    public static final String UNFILTERED = " unfiltered";
+
+    private static final int HOURS_PER_DAY = 24;
+    private static final long MICROS_PER_DAY = 86_400_000_000L;
+
+    private final StorageBackend backend;
+    private final String tableId;
+    private final String family;
+    private final CellEncoding encoding;
+    private final ShardedScanner scanner;
+    private final Map<String, QueryStats> stats = new LinkedHashMap<>();
+    private volatile boolean filterPushdown = true;
+    private volatile boolean useRollups = true;
+
+    /**
+     * Counters of one named query.
+     */
+    public static class QueryStats {
+        public final String name;
+        public long calls;
+        public long rowsRead;
+        public long cellsRead;
+        public long bytesRead;
+        public long maxRows;
+        public long nanos;
+
+        QueryStats(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-17s %d call(s) | %6d rows read of at most %6d | %7d cells | %9d bytes | %8.1f ms",
+                    name, calls, rowsRead, maxRows, cellsRead, bytesRead, nanos / 1e6);
+        }
+    }
+
+    /**
+     * @param backend    storage holding the table
+     * @param tableId    weather table
+     * @param family     column family of the readings
+     * @param encoding   encoding of the cells of the family
+     * @param scanner    runs the queries over several stations
+     */
+    public WeatherQueries(StorageBackend backend, String tableId, String family, CellEncoding encoding,
+                          ShardedScanner scanner) {
+        this.backend = backend;
+        this.tableId = tableId;
+        this.family = family;
+        this.encoding = encoding;
+        this.scanner = scanner;
+    }
+
+    /**
+     * @param filterPushdown false to read whole rows, for comparison
+     */
+    public void setFilterPushdown(boolean filterPushdown) {
+        this.filterPushdown = filterPushdown;
+    }
+
+    /**
+     * @param useRollups false to answer every query from the hourly rows
+     */
+    public void setUseRollups(boolean useRollups) {
+        this.useRollups = useRollups;
+    }
+
+    /**
+     * Temperature of a station at one hour, read with a single readRow.
+     *
+     * @return the temperature, empty if there is no reading or it is missing
+     */
+    public OptionalInt temperature(String queryName, Station station, LocalDate date, int hour) {
+        long start = System.nanoTime();
+        String key = WeatherRowKeys.hourKey(station, date, hour);
+        Row row = filterPushdown
+                ? backend.readRow(tableId, key, cellFilter(SensorColumns.TEMPERATURE))
+                : backend.readRow(tableId, key);
+        OptionalInt temperature = row != null ? intValue(row, SensorColumns.TEMPERATURE) : OptionalInt.empty();
+        record(queryName, row != null ? 1 : 0, row != null ? row.getCells().size() : 0,
+                row != null ? payloadBytes(row) : 0, 1, start);
+        return temperature;
+    }
+
+    /**
+     * Highest wind speed of a station in a month, read from its monthly rollup or scanned as one
+     * row-key prefix.
+     *
+     * @return the highest speed, empty if the month has no readings
+     */
+    public OptionalInt maxWindSpeed(String queryName, Station station, YearMonth month) {
+        if (useRollups) {
+            ShardedScanner.Aggregate speed = summarize(queryName, Collections.singletonList(station),
+                    SensorColumns.WINDSPEED, month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+            return speed.isEmpty() ? OptionalInt.empty() : OptionalInt.of(speed.max);
+        }
+        Query query = Query.create(tableId).prefix(WeatherRowKeys.monthPrefix(station, month));
+        return max(queryName, query, SensorColumns.WINDSPEED, month, month,
+                (long) month.lengthOfMonth() * HOURS_PER_DAY);
+    }
+
+    /**
+     * Highest temperature of any station from the first month through the last, read from the
+     * monthly rollups or as one shard per station.
+     *
+     * @return the highest temperature, empty if there are no readings
+     */
+    public OptionalInt maxTemperature(String queryName, YearMonth first, YearMonth last) throws InterruptedException {
+        ShardedScanner.Aggregate temperature = useRollups
+                ? summarize(queryName, Arrays.asList(Station.values()), SensorColumns.TEMPERATURE,
+                        first.atDay(1).atStartOfDay(), last.plusMonths(1).atDay(1).atStartOfDay())
+                : aggregate(queryName, SensorColumns.TEMPERATURE, first, last, 1);
+        return temperature.isEmpty() ? OptionalInt.empty() : OptionalInt.of(temperature.max);
+    }
+
+    /**
+     * Min, max, sum and count of a column over every station from the first month through the
+     * last. The key range of each station is split into piecesPerStation shards of whole days,
+     * scanned concurrently.
+     */
+    public ShardedScanner.Aggregate aggregate(String queryName, String qualifier, YearMonth first, YearMonth last,
+                                              int piecesPerStation) throws InterruptedException {
+        List<Query> shards = new ArrayList<>();
+        for (Station station : Station.values()) {
+            for (ByteStringRange range : WeatherRowKeys.monthRanges(station, first, last, piecesPerStation)) {
+                shards.add(filter(Query.create(tableId).range(range), qualifier, first, last));
+            }
+        }
+        return scan(queryName, shards, qualifier, first, last);
+    }
+
+    /**
+     * aggregate() with the shards taken from sampleRowKeys instead: one query over every station,
+     * split at the tablet boundaries.
+     */
+    public ShardedScanner.Aggregate aggregateBySamples(String queryName, String qualifier, YearMonth first, YearMonth last)
+            throws InterruptedException {
+        Query query = Query.create(tableId);
+        for (Station station : Station.values()) {
+            query.range(WeatherRowKeys.monthPrefix(station, first), WeatherRowKeys.monthPrefix(station, last.plusMonths(1)));
+        }
+        return scan(queryName, scanner.sampledShards(filter(query, qualifier, first, last)), qualifier, first, last);
+    }
+
+    /**
+     * Min, max, sum and count of a whole-number column over [from, to) for the stations, from
+     * the rollups where possible: whole months come from monthly rows, whole days from daily rows
+     * and only the hours at the partial edges from hourly rows. Times are truncated to the hour.
+     */
+    public ShardedScanner.Aggregate summarize(String queryName, List<Station> stations, String qualifier,
+                                              LocalDateTime from, LocalDateTime to) {
+        if (!SensorColumns.isWholeNumber(qualifier)) {
+            throw new IllegalArgumentException(qualifier + " is not a whole-number column");
+        }
+        long start = System.nanoTime();
+        LocalDateTime first = from.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime end = to.truncatedTo(ChronoUnit.HOURS);
+        List<LocalDateTime[]> hours = new ArrayList<>();
+        List<LocalDateTime[]> days = new ArrayList<>();
+        List<LocalDateTime[]> months = new ArrayList<>();
+        plan(first, end, hours, days, months);
+
+        Query hourly = Query.create(tableId);
+        Query rollups = Query.create(tableId);
+        long maxRows = 0;
+        for (Station station : stations) {
+            for (LocalDateTime[] piece : hours) {
+                hourly.range(WeatherRowKeys.hourKey(station, piece[0]), WeatherRowKeys.hourKey(station, piece[1]));
+                maxRows += Duration.between(piece[0], piece[1]).toHours();
+            }
+            for (LocalDateTime[] piece : days) {
+                rollups.range(WeatherRowKeys.dailyKey(station, piece[0].toLocalDate()),
+                        WeatherRowKeys.dailyKey(station, piece[1].toLocalDate()));
+                maxRows += ChronoUnit.DAYS.between(piece[0], piece[1]);
+            }
+            for (LocalDateTime[] piece : months) {
+                rollups.range(WeatherRowKeys.monthlyKey(station, YearMonth.from(piece[0])),
+                        WeatherRowKeys.monthlyKey(station, YearMonth.from(piece[1])));
+                maxRows += ChronoUnit.MONTHS.between(piece[0], piece[1]);
+            }
+        }
+
+        // A query without ranges would read the whole table
+        ShardedScanner.Aggregate total = new ShardedScanner.Aggregate();
+        if (!stations.isEmpty() && !hours.isEmpty()) {
+            filter(hourly, qualifier, micros(first), micros(end));
+            for (Row row : backend.readRows(hourly)) {
+                count(row, total);
+                int value = encoding.intValue(latest(row, qualifier));
+                if (value != SensorColumns.NO_VALUE) {
+                    total.add(value);
+                }
+            }
+        }
+        if (!stations.isEmpty() && (!days.isEmpty() || !months.isEmpty())) {
+            if (filterPushdown) {
+                rollups.filter(FILTERS.chain()
+                        .filter(FILTERS.family().exactMatch(WeatherRollups.FAMILY))
+                        .filter(FILTERS.qualifier().regex(qualifier + ":(min|max|sum|count)"))
+                        .filter(FILTERS.limit().cellsPerColumn(1)));
+            }
+            for (Row row : backend.readRows(rollups)) {
+                count(row, total);
+                total.add(rollupValue(row, qualifier + WeatherRollups.MIN), rollupValue(row, qualifier + WeatherRollups.MAX),
+                        rollupValue(row, qualifier + WeatherRollups.SUM), rollupValue(row, qualifier + WeatherRollups.COUNT));
+            }
+        }
+        record(queryName, total.rows, total.cells, total.bytes, maxRows, start);
+        return total;
+    }
+
+    /**
+     * Every reading of a station on one day, scanned as one row-key prefix. The cells are decoded
+     * straight into the primitive columns of the batch.
+     */
+    public WeatherReadingBatch readings(String queryName, Station station, LocalDate date) {
+        long start = System.nanoTime();
+        Query query = Query.create(tableId).prefix(WeatherRowKeys.dayPrefix(station, date));
+        if (filterPushdown) {
+            // Every column but gust
+            query.filter(cellFilter(SensorColumns.TEMPERATURE, SensorColumns.DEWPOINT, SensorColumns.HUMIDITY,
+                    SensorColumns.WINDSPEED, SensorColumns.PRESSURE));
+        }
+        WeatherReadingBatch readings = new WeatherReadingBatch(family, encoding, HOURS_PER_DAY);
+        long cells = 0;
+        long bytes = 0;
+        for (Row row : backend.readRows(query)) {
+            cells += row.getCells().size();
+            bytes += payloadBytes(row);
+            readings.add(row);
+        }
+        record(queryName, readings.size(), cells, bytes, HOURS_PER_DAY, start);
+        return readings;
+    }
+
+    /**
+     * Prints the counters of every query run so far.
+     */
+    public synchronized void printStats() {
+        System.out.println("Query statistics:");
+        for (QueryStats queryStats : stats.values()) {
+            System.out.println("  " + queryStats);
+        }
+    }
+
+    /**
+     * Prints cells and bytes received by each query with filter pushdown against the same query
+     * run with it turned off. Both must have been run.
+     */
+    public synchronized void printPushdownComparison(String... queryNames) {
+        System.out.println("Filter pushdown, filtered vs unfiltered:");
+        for (String name : queryNames) {
+            QueryStats filtered = stats.get(name);
+            QueryStats unfiltered = stats.get(name + UNFILTERED);
+            if (filtered == null || unfiltered == null) {
+                System.out.println("  " + name + ": not run both ways");
+                continue;
+            }
+            System.out.printf("  %-8s %7d vs %7d cells | %9d vs %9d bytes (%.0f%% less) | %.1f vs %.1f ms%n",
+                    name, filtered.cellsRead, unfiltered.cellsRead, filtered.bytesRead, unfiltered.bytesRead,
+                    unfiltered.bytesRead > 0 ? 100.0 * (unfiltered.bytesRead - filtered.bytesRead) / unfiltered.bytesRead : 0.0,
+                    filtered.nanos / 1e6, unfiltered.nanos / 1e6);
+        }
+    }
+
+    public synchronized QueryStats stats(String queryName) {
+        return stats.get(queryName);
+    }
+
+    private ShardedScanner.Aggregate scan(String queryName, List<Query> shards, String qualifier, YearMonth first,
+                                          YearMonth last) throws InterruptedException {
+        long start = System.nanoTime();
+        ShardedScanner.Aggregate aggregate = scanner.aggregate(shards, family, qualifier, encoding);
+        record(queryName, aggregate.rows, aggregate.cells, aggregate.bytes, hours(first, last) * Station.values().length, start);
+        return aggregate;
+    }
+
+    private static long hours(YearMonth first, YearMonth last) {
+        long hours = 0;
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            hours += (long) month.lengthOfMonth() * HOURS_PER_DAY;
+        }
+        return hours;
+    }
+
+    // Splits [from, to) into whole months, whole days and the hours left at the edges, joining
+    // neighbouring pieces of the same kind
+    private static void plan(LocalDateTime from, LocalDateTime to, List<LocalDateTime[]> hours,
+                             List<LocalDateTime[]> days, List<LocalDateTime[]> months) {
+        LocalDateTime time = from;
+        while (time.isBefore(to)) {
+            LocalDate date = time.toLocalDate();
+            boolean midnight = time.equals(date.atStartOfDay());
+            LocalDateTime end;
+            List<LocalDateTime[]> pieces;
+            if (midnight && date.getDayOfMonth() == 1 && !time.plusMonths(1).isAfter(to)) {
+                end = time.plusMonths(1);
+                pieces = months;
+            } else if (midnight && !time.plusDays(1).isAfter(to)) {
+                end = time.plusDays(1);
+                pieces = days;
+            } else {
+                LocalDateTime nextDay = date.plusDays(1).atStartOfDay();
+                end = nextDay.isAfter(to) ? to : nextDay;
+                pieces = hours;
+            }
+            LocalDateTime[] last = pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+            if (last != null && last[1].equals(time)) {
+                last[1] = end;
+            } else {
+                pieces.add(new LocalDateTime[] {time, end});
+            }
+            time = end;
+        }
+    }
+
+    private static long micros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L;
+    }
+
+    // Adds the aggregation filter of one column over the months, when filter pushdown is on
+    private Query filter(Query query, String qualifier, YearMonth first, YearMonth last) {
+        return filter(query, qualifier, first.atDay(1).toEpochDay() * MICROS_PER_DAY,
+                last.plusMonths(1).atDay(1).toEpochDay() * MICROS_PER_DAY);
+    }
+
+    private Query filter(Query query, String qualifier, long fromMicros, long toMicros) {
+        if (filterPushdown) {
+            // The loader stamps each cell with its reading time, so the period is also a timestamp range
+            query.filter(FILTERS.chain()
+                    .filter(cellFilter(qualifier))
+                    .filter(FILTERS.timestamp().range().startClosed(fromMicros).endOpen(toMicros))
+                    .filter(encoding.presentValues()));
+        }
+        return query;
+    }
+
+    private static void count(Row row, ShardedScanner.Aggregate aggregate) {
+        aggregate.rows++;
+        aggregate.cells += row.getCells().size();
+        aggregate.bytes += payloadBytes(row);
+    }
+
+    private static int rollupValue(Row row, String qualifier) {
+        List<RowCell> cells = row.getCells(WeatherRollups.FAMILY, qualifier);
+        return cells.isEmpty() ? 0 : SensorColumns.intValue(cells.get(0).getValue());
+    }
+
+    private OptionalInt max(String queryName, Query query, String qualifier, YearMonth first, YearMonth last,
+                            long maxRows) {
+        filter(query, qualifier, first, last);
+        long start = System.nanoTime();
+        long rowCount = 0;
+        long cells = 0;
+        long bytes = 0;
+        boolean found = false;
+        int max = Integer.MIN_VALUE;
+        for (Row row : backend.readRows(query)) {
+            rowCount++;
+            cells += row.getCells().size();
+            bytes += payloadBytes(row);
+            OptionalInt value = intValue(row, qualifier);
+            if (value.isPresent()) {
+                found = true;
+                max = Math.max(max, value.getAsInt());
+            }
+        }
+        record(queryName, rowCount, cells, bytes, maxRows, start);
+        return found ? OptionalInt.of(max) : OptionalInt.empty();
+    }
+
+    /**
+     * Keeps the latest cell of the given columns of the family. The latest-cell limit comes before
+     * any value filter chained after it, so an older version never stands in for a newer one.
+     */
+    private Filter cellFilter(String... qualifiers) {
+        StringBuilder regex = new StringBuilder();
+        for (String qualifier : qualifiers) {
+            regex.append(regex.length() > 0 ? "|" : "").append(qualifier);
+        }
+        return FILTERS.chain()
+                .filter(FILTERS.family().exactMatch(family))
+                .filter(qualifiers.length == 1
+                        ? FILTERS.qualifier().exactMatch(qualifiers[0])
+                        : FILTERS.qualifier().regex(regex.toString()))
+                .filter(FILTERS.limit().cellsPerColumn(1));
+    }
+
+    private synchronized void record(String queryName, long rows, long cells, long bytes, long maxRows, long startNanos) {
+        QueryStats queryStats = stats.computeIfAbsent(filterPushdown ? queryName : queryName + UNFILTERED, QueryStats::new);
+        queryStats.calls++;
+        queryStats.rowsRead += rows;
+        queryStats.cellsRead += cells;
+        queryStats.bytesRead += bytes;
+        queryStats.maxRows += maxRows;
+        queryStats.nanos += System.nanoTime() - startNanos;
+    }
+
+    // Key, family, qualifier and value bytes of a row as received, without the protocol framing
+    private static long payloadBytes(Row row) {
+        long bytes = row.getKey().size();
+        for (RowCell cell : row.getCells()) {
+            bytes += cell.getFamily().length() + cell.getQualifier().size() + cell.getValue().size();
+        }
+        return bytes;
+    }
+
+    private ByteString latest(Row row, String qualifier) {
+        List<RowCell> cells = row.getCells(family, qualifier);
+        return cells.isEmpty() ? null : cells.get(0).getValue(); // Newest version first
+    }
+
+    private OptionalInt intValue(Row row, String qualifier) {
+        int value = encoding.intValue(latest(row, qualifier));
+        return value != SensorColumns.NO_VALUE ? OptionalInt.of(value) : OptionalInt.empty();
+    }
+}
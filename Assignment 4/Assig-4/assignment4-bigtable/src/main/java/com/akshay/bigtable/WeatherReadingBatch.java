@@ -0,0 +1,261 @@
+package com.akshay.bigtable;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hourly readings held column by column: one primitive array for the date, the hour and each
+ * reading column. add(Row) decodes the cells of a row straight into the arrays, and writeTo()
+ * prints the readings as bytes, so neither creates a String or a boxed number per cell.
+ * <p>
+ * Whole-number columns (temperature, dewpoint, wind speed, gust) hold their value, humidity and
+ * pressure hold tenths. A missing reading is SensorColumns.NO_VALUE.
+ */
+public class WeatherReadingBatch {
+
+    private static final int COLUMNS = SensorColumns.ALL.length;
+    private static final int TEMPERATURE = 0;
+    private static final int DEWPOINT = 1;
+    private static final int HUMIDITY = 2;
+    private static final int WINDSPEED = 3;
+    private static final int GUST = 4;
+    private static final int PRESSURE = 5;
+
+    // Output order of the Object[] form and writeTo(): the columns query3 returns
+    private static final int[] OUTPUT_COLUMNS = {TEMPERATURE, DEWPOINT, HUMIDITY, WINDSPEED, PRESSURE};
+
+    // Longest line: date, hour, five values of at most 12 bytes each, spaces and newline
+    private static final int LINE_BYTES = 10 + 1 + 2 + 1 + 5 * 13 + 1;
+
+    private static final ByteString[] QUALIFIERS = new ByteString[COLUMNS];
+    private static final boolean[] WHOLE_NUMBER = new boolean[COLUMNS];
+
+    static {
+        for (int c = 0; c < COLUMNS; c++) {
+            QUALIFIERS[c] = ByteString.copyFromUtf8(SensorColumns.ALL[c]);
+            WHOLE_NUMBER[c] = SensorColumns.isWholeNumber(SensorColumns.ALL[c]);
+        }
+    }
+
+    private final String family;
+    private final CellEncoding encoding;
+    private int size;
+    private int[] dates; // yyyyMMdd
+    private byte[] hours;
+    private final int[][] values = new int[COLUMNS][];
+
+    /**
+     * A reading of the batch. The view is only valid until the batch grows.
+     */
+    public final class WeatherReading {
+        private final int index;
+
+        WeatherReading(int index) {
+            this.index = index;
+        }
+
+        /** Date as the number yyyyMMdd */
+        public int date() {
+            return dates[index];
+        }
+
+        public int hour() {
+            return hours[index];
+        }
+
+        public int temperature() {
+            return values[TEMPERATURE][index];
+        }
+
+        public int dewpoint() {
+            return values[DEWPOINT][index];
+        }
+
+        public int humidityTenths() {
+            return values[HUMIDITY][index];
+        }
+
+        public int windspeed() {
+            return values[WINDSPEED][index];
+        }
+
+        public int gust() {
+            return values[GUST][index];
+        }
+
+        public int pressureTenths() {
+            return values[PRESSURE][index];
+        }
+    }
+
+    /**
+     * @param family   column family of the readings
+     * @param encoding encoding of the cells
+     * @param capacity readings to make room for, e.g. 24 for a day
+     */
+    public WeatherReadingBatch(String family, CellEncoding encoding, int capacity) {
+        this.family = family;
+        this.encoding = encoding;
+        int initial = Math.max(1, capacity);
+        dates = new int[initial];
+        hours = new byte[initial];
+        for (int c = 0; c < COLUMNS; c++) {
+            values[c] = new int[initial];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public WeatherReading get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Reading " + index + " of " + size);
+        }
+        return new WeatherReading(index);
+    }
+
+    /**
+     * Adds the reading of an hourly row. Takes the latest cell of each column; a column without
+     * a cell is missing.
+     */
+    public void add(Row row) {
+        if (size == dates.length) {
+            int capacity = size * 2;
+            dates = Arrays.copyOf(dates, capacity);
+            hours = Arrays.copyOf(hours, capacity);
+            for (int c = 0; c < COLUMNS; c++) {
+                values[c] = Arrays.copyOf(values[c], capacity);
+            }
+        }
+        ByteString key = row.getKey();
+        dates[size] = WeatherRowKeys.dateNumber(key);
+        hours[size] = (byte) WeatherRowKeys.hour(key);
+        for (int c = 0; c < COLUMNS; c++) {
+            values[c][size] = SensorColumns.NO_VALUE;
+        }
+
+        // Cells come sorted by qualifier, newest version first
+        int seen = 0;
+        for (RowCell cell : row.getCells()) {
+            if (!cell.getFamily().equals(family)) {
+                continue;
+            }
+            for (int c = 0; c < COLUMNS; c++) {
+                if ((seen & 1 << c) == 0 && QUALIFIERS[c].equals(cell.getQualifier())) {
+                    seen |= 1 << c;
+                    values[c][size] = WHOLE_NUMBER[c]
+                            ? encoding.intValue(cell.getValue())
+                            : encoding.tenthsValue(SensorColumns.ALL[c], cell.getValue());
+                    break;
+                }
+            }
+        }
+        size++;
+    }
+
+    /**
+     * The readings in the form of Bigtable.query3: date (String), hour (String), temperature
+     * (Integer), dewpoint (Integer), humidity (String), windspeed (String) and pressure (String).
+     * A missing temperature or dewpoint is the String "M".
+     */
+    public List<Object[]> toObjectArrays() {
+        List<Object[]> rows = new ArrayList<>(size);
+        byte[] line = new byte[LINE_BYTES];
+        for (int i = 0; i < size; i++) {
+            Object[] row = new Object[2 + OUTPUT_COLUMNS.length];
+            int end = writeDate(line, 0, dates[i]);
+            row[0] = new String(line, 0, end, StandardCharsets.US_ASCII);
+            end = writeTwoDigits(line, 0, hours[i]);
+            row[1] = new String(line, 0, end, StandardCharsets.US_ASCII);
+            for (int o = 0; o < OUTPUT_COLUMNS.length; o++) {
+                int c = OUTPUT_COLUMNS[o];
+                int value = values[c][i];
+                if (value != SensorColumns.NO_VALUE && (c == TEMPERATURE || c == DEWPOINT)) {
+                    row[2 + o] = value;
+                } else {
+                    end = writeValue(line, 0, value, WHOLE_NUMBER[c]);
+                    row[2 + o] = new String(line, 0, end, StandardCharsets.US_ASCII);
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Writes one line per reading, the values of toObjectArrays() separated by spaces with a
+     * trailing space, e.g. "2022-10-02 00 55 53 92.9 3 1018.4 ". The caller closes the stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[Math.min(size, 256) * LINE_BYTES + LINE_BYTES];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            if (position > buffer.length - LINE_BYTES) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+            position = writeDate(buffer, position, dates[i]);
+            buffer[position++] = ' ';
+            position = writeTwoDigits(buffer, position, hours[i]);
+            buffer[position++] = ' ';
+            for (int c : OUTPUT_COLUMNS) {
+                position = writeValue(buffer, position, values[c][i], WHOLE_NUMBER[c]);
+                buffer[position++] = ' ';
+            }
+            buffer[position++] = '\n';
+        }
+        out.write(buffer, 0, position);
+        out.flush();
+    }
+
+    private static int writeDate(byte[] buffer, int position, int date) {
+        position = writeDigits(buffer, position, date / 10000, 4);
+        buffer[position++] = '-';
+        position = writeTwoDigits(buffer, position, date / 100 % 100);
+        buffer[position++] = '-';
+        return writeTwoDigits(buffer, position, date % 100);
+    }
+
+    private static int writeTwoDigits(byte[] buffer, int position, int value) {
+        return writeDigits(buffer, position, value, 2);
+    }
+
+    private static int writeDigits(byte[] buffer, int position, int value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + count;
+    }
+
+    // As in the CSV files: "M" when missing, tenths with one decimal unless it is zero (100, 92.9)
+    private static int writeValue(byte[] buffer, int position, int value, boolean wholeNumber) {
+        if (value == SensorColumns.NO_VALUE) {
+            buffer[position++] = 'M';
+            return position;
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+        }
+        long abs = Math.abs((long) value);
+        long whole = wholeNumber ? abs : abs / 10;
+        int digits = 1;
+        for (long v = whole; v >= 10; v /= 10) {
+            digits++;
+        }
+        position = writeDigits(buffer, position, (int) whole, digits);
+        if (!wholeNumber && abs % 10 != 0) {
+            buffer[position++] = '.';
+            buffer[position++] = (byte) ('0' + abs % 10);
+        }
+        return position;
+    }
+}
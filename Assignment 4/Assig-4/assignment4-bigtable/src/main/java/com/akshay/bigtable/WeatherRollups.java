@@ -0,0 +1,188 @@
+package com.akshay.bigtable;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.api.gax.batching.Batcher;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Daily and monthly rollups of the hourly readings in the rollup family, one row per station and
+ * day (daily#SEA#20221002) or month (monthly#SEA#202210), see WeatherRowKeys.
+ * For every reading column a rollup row holds column:min, column:max, column:sum and column:count,
+ * as text in the unit of the reading (humidity and pressure with one decimal); the average is
+ * sum / count. A column without values in the period only has column:count = 0.
+ * <p>
+ * Rollups are always computed from the hourly rows of whole months, never updated in place, and
+ * every cell gets the start of its period as timestamp. Rebuilding a month therefore writes the
+ * same cells again, so loading a file twice or loading overlapping files leaves the same rollups.
+ */
+public class WeatherRollups {
+
+    public static final String FAMILY = "rollup";
+
+    public static final String MIN = ":min";
+    public static final String MAX = ":max";
+    public static final String SUM = ":sum";
+    public static final String COUNT = ":count";
+
+    private static final long MICROS_PER_DAY = 86_400_000_000L;
+
+    private final StorageBackend backend;
+    private final String tableId;
+    private final String sensorFamily;
+    private final CellEncoding encoding;
+
+    /**
+     * Min, max, sum and count of one column in tenths of its unit
+     */
+    private static final class Summary {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long sum;
+        long count;
+
+        void add(long tenths) {
+            min = Math.min(min, tenths);
+            max = Math.max(max, tenths);
+            sum += tenths;
+            count++;
+        }
+    }
+
+    /**
+     * @param backend      storage holding the table
+     * @param tableId      weather table
+     * @param sensorFamily column family of the hourly readings
+     * @param encoding     encoding of the hourly cells; rollup cells are always text
+     */
+    public WeatherRollups(StorageBackend backend, String tableId, String sensorFamily, CellEncoding encoding) {
+        this.backend = backend;
+        this.tableId = tableId;
+        this.sensorFamily = sensorFamily;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Recomputes the daily and monthly rollups of the given months of a station.
+     *
+     * @return rollup rows written
+     */
+    public int rebuild(Station station, Collection<YearMonth> months) throws InterruptedException {
+        if (months.isEmpty()) {
+            return 0;
+        }
+        Query query = Query.create(tableId);
+        for (YearMonth month : new TreeSet<>(months)) {
+            query.range(WeatherRowKeys.monthPrefix(station, month), WeatherRowKeys.monthPrefix(station, month.plusMonths(1)));
+        }
+        return rebuild(station, query);
+    }
+
+    /**
+     * Recomputes every rollup of a station, e.g. for a table loaded before rollups existed.
+     *
+     * @return rollup rows written
+     */
+    public int rebuildAll(Station station) throws InterruptedException {
+        return rebuild(station, Query.create(tableId).prefix(WeatherRowKeys.stationPrefix(station)));
+    }
+
+    // Reads the hourly rows of the query, which cover whole months, in key order and writes a
+    // rollup row whenever a day or month ends
+    private int rebuild(Station station, Query hourly) throws InterruptedException {
+        hourly.filter(FILTERS.chain()
+                .filter(FILTERS.family().exactMatch(sensorFamily))
+                .filter(FILTERS.limit().cellsPerColumn(1)));
+        int columns = SensorColumns.ALL.length;
+        Summary[] daily = new Summary[columns];
+        Summary[] monthly = new Summary[columns];
+        LocalDate day = null;
+        YearMonth month = null;
+        int written = 0;
+
+        Batcher<RowMutationEntry, Void> batcher = backend.newBulkMutationBatcher(tableId);
+        try {
+            for (Row row : backend.readRows(hourly)) {
+                LocalDate date = WeatherRowKeys.date(row.getKey());
+                if (!date.equals(day)) {
+                    if (day != null) {
+                        batcher.add(mutation(WeatherRowKeys.dailyKey(station, day), day, daily));
+                        written++;
+                    }
+                    day = date;
+                    reset(daily);
+                }
+                if (!YearMonth.from(date).equals(month)) {
+                    if (month != null) {
+                        batcher.add(mutation(WeatherRowKeys.monthlyKey(station, month), month.atDay(1), monthly));
+                        written++;
+                    }
+                    month = YearMonth.from(date);
+                    reset(monthly);
+                }
+                for (int i = 0; i < columns; i++) {
+                    String column = SensorColumns.ALL[i];
+                    List<RowCell> cells = row.getCells(sensorFamily, column);
+                    int tenths = cells.isEmpty() ? SensorColumns.NO_VALUE : encoding.tenthsValue(column, cells.get(0).getValue());
+                    if (tenths != SensorColumns.NO_VALUE) {
+                        daily[i].add(tenths);
+                        monthly[i].add(tenths);
+                    }
+                }
+            }
+            if (day != null) {
+                batcher.add(mutation(WeatherRowKeys.dailyKey(station, day), day, daily));
+                batcher.add(mutation(WeatherRowKeys.monthlyKey(station, month), month.atDay(1), monthly));
+                written += 2;
+            }
+        } finally {
+            batcher.close(); // Throws if a rollup row could not be written
+        }
+        return written;
+    }
+
+    private static void reset(Summary[] summaries) {
+        for (int i = 0; i < summaries.length; i++) {
+            summaries[i] = new Summary();
+        }
+    }
+
+    private RowMutationEntry mutation(String rowKey, LocalDate periodStart, Summary[] summaries) {
+        long timestamp = periodStart.toEpochDay() * MICROS_PER_DAY;
+        RowMutationEntry mutation = RowMutationEntry.create(rowKey);
+        for (int i = 0; i < summaries.length; i++) {
+            String column = SensorColumns.ALL[i];
+            Summary summary = summaries[i];
+            mutation.setCell(FAMILY, column + COUNT, timestamp, Long.toString(summary.count));
+            if (summary.count == 0) {
+                mutation.deleteCells(FAMILY, column + MIN)
+                        .deleteCells(FAMILY, column + MAX)
+                        .deleteCells(FAMILY, column + SUM);
+                continue;
+            }
+            boolean whole = SensorColumns.isWholeNumber(column);
+            mutation.setCell(FAMILY, column + MIN, timestamp, format(summary.min, whole))
+                    .setCell(FAMILY, column + MAX, timestamp, format(summary.max, whole))
+                    .setCell(FAMILY, column + SUM, timestamp, format(summary.sum, whole));
+        }
+        return mutation;
+    }
+
+    // Tenths as text in the unit of the column: 640 is "64", or "64.0" for a column with a decimal
+    private static String format(long tenths, boolean wholeNumber) {
+        if (wholeNumber) {
+            return Long.toString(tenths / 10);
+        }
+        String sign = tenths < 0 ? "-" : "";
+        long abs = Math.abs(tenths);
+        return sign + abs / 10 + "." + abs % 10;
+    }
+}
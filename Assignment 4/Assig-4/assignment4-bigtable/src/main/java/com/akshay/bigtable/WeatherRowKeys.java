@@ -0,0 +1,134 @@
+package com.akshay.bigtable;
+
+import com.google.cloud.bigtable.data.v2.models.Range.ByteStringRange;
+import com.google.protobuf.ByteString;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row keys of the weather table: station id, '#', then yyyyMMddHH, e.g. YVR#2022100110.
+ * The keys of a station sort by time, so an hour is one row and a day or month is one
+ * prefix; a run of months is one range per station.
+ * <p>
+ * Rollup rows (see WeatherRollups) start with their granularity instead, e.g.
+ * daily#YVR#20221001 and monthly#YVR#202210. The lowercase prefixes sort after every station
+ * id, so rollup rows never fall inside a range of hourly rows.
+ */
+public final class WeatherRowKeys {
+
+    public static final char SEPARATOR = '#';
+    public static final String DAILY = "daily#";
+    public static final String MONTHLY = "monthly#";
+
+    // Length of yyyyMMddHH after the separator
+    private static final int TIME_LENGTH = 10;
+
+    private WeatherRowKeys() {
+    }
+
+    /**
+     * Key of a reading from the CSV fields.
+     *
+     * @param station station id
+     * @param date    date as yyyy-MM-dd
+     * @param hour    two-digit hour
+     */
+    public static String rowKey(String station, String date, String hour) {
+        return station + SEPARATOR + date.substring(0, 4) + date.substring(5, 7) + date.substring(8, 10) + hour;
+    }
+
+    public static String hourKey(Station station, LocalDate date, int hour) {
+        return dayPrefix(station, date) + twoDigits(hour);
+    }
+
+    public static String dayPrefix(Station station, LocalDate date) {
+        return monthPrefix(station, YearMonth.from(date)) + twoDigits(date.getDayOfMonth());
+    }
+
+    public static String monthPrefix(Station station, YearMonth month) {
+        return stationPrefix(station) + month.getYear() + twoDigits(month.getMonthValue());
+    }
+
+    public static String stationPrefix(Station station) {
+        return station.name() + SEPARATOR;
+    }
+
+    /**
+     * Key of the hour a time falls in; also the exclusive end of the hours before it.
+     */
+    public static String hourKey(Station station, LocalDateTime time) {
+        return hourKey(station, time.toLocalDate(), time.getHour());
+    }
+
+    public static String dailyKey(Station station, LocalDate date) {
+        return DAILY + dayPrefix(station, date);
+    }
+
+    public static String monthlyKey(Station station, YearMonth month) {
+        return MONTHLY + monthPrefix(station, month);
+    }
+
+    /**
+     * Key range of a station from the first month through the last, split into pieces of whole
+     * days of about the same length, in key order.
+     *
+     * @param pieces ranges wanted; capped at the number of days
+     */
+    public static List<ByteStringRange> monthRanges(Station station, YearMonth first, YearMonth last, int pieces) {
+        LocalDate start = first.atDay(1);
+        int days = (int) (last.plusMonths(1).atDay(1).toEpochDay() - start.toEpochDay());
+        int count = Math.max(1, Math.min(pieces, days));
+        List<ByteStringRange> ranges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ranges.add(ByteStringRange.create(
+                    dayPrefix(station, start.plusDays((long) days * i / count)),
+                    dayPrefix(station, start.plusDays((long) days * (i + 1) / count))));
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads the date of a row key without converting the key to a String.
+     */
+    public static LocalDate date(ByteString key) {
+        int start = timeStart(key);
+        return LocalDate.of(digits(key, start, 4), digits(key, start + 4, 2), digits(key, start + 6, 2));
+    }
+
+    /**
+     * Reads the date of a row key as the number yyyyMMdd, e.g. 20221002, without creating objects.
+     */
+    public static int dateNumber(ByteString key) {
+        return digits(key, timeStart(key), 8);
+    }
+
+    /**
+     * Reads the hour of a row key.
+     */
+    public static int hour(ByteString key) {
+        return digits(key, timeStart(key) + 8, 2);
+    }
+
+    private static int timeStart(ByteString key) {
+        int start = key.size() - TIME_LENGTH;
+        if (start < 1 || key.byteAt(start - 1) != SEPARATOR) {
+            throw new IllegalArgumentException("Not a weather row key: " + key.toStringUtf8());
+        }
+        return start;
+    }
+
+    private static int digits(ByteString key, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            value = value * 10 + (key.byteAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static String twoDigits(int value) {
+        return value < 10 ? "0" + value : Integer.toString(value);
+    }
+}
@@ -0,0 +1,96 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the row keys of an SSTable, so that reading one row skips the files that
+ * cannot hold it. With 10 bits per row and 7 probes about 1% of the other rows get through.
+ * <p>
+ * The probes are derived from one 64-bit hash of the row by double hashing. A filter is the bit
+ * array followed by one byte with the number of probes.
+ */
+final class BloomFilter {
+
+    static final int BITS_PER_KEY = 10;
+    private static final int PROBES = 7;
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final long bits;
+    private final int probes;
+
+    private BloomFilter(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.bits = (long) (length - 1) * 8;
+        this.probes = buffer.get(offset + length - 1);
+    }
+
+    /**
+     * Reads a filter built by build() from a region of a buffer.
+     */
+    static BloomFilter read(ByteBuffer buffer, int offset, int length) {
+        return new BloomFilter(buffer, offset, length);
+    }
+
+    boolean mightContain(ByteString row) {
+        long hash = hash(row);
+        for (int i = 0; i < probes; i++) {
+            long bit = probe(hash, i, bits);
+            if ((buffer.get(offset + (int) (bit >>> 3)) & 1 << (bit & 7)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param hashes hash() of each row
+     * @param count  rows in hashes
+     */
+    static byte[] build(long[] hashes, int count) {
+        int bytes = (int) Math.max(8, ((long) count * BITS_PER_KEY + 7) / 8);
+        long bits = (long) bytes * 8;
+        byte[] filter = new byte[bytes + 1];
+        for (int h = 0; h < count; h++) {
+            for (int i = 0; i < PROBES; i++) {
+                long bit = probe(hashes[h], i, bits);
+                filter[(int) (bit >>> 3)] |= 1 << (bit & 7);
+            }
+        }
+        filter[bytes] = PROBES;
+        return filter;
+    }
+
+    private static long probe(long hash, int i, long bits) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return Math.floorMod(h1 + (long) i * h2, bits);
+    }
+
+    static long hash(ByteBuffer buffer, int offset, int length) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (buffer.get(offset + i) & 0xff)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static long hash(ByteString bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < bytes.size(); i++) {
+            hash = (hash ^ (bytes.byteAt(i) & 0xff)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // Final mix of MurmurHash3, so both halves of the hash depend on every byte
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+}
@@ -0,0 +1,221 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout and order of the entry keys of an embedded table. Every write is an entry of its own:
+ * <pre>
+ * row length (2) | row | family length (1) | family | qualifier length (2) | qualifier | timestamp (8) | sequence and kind (8)
+ * </pre>
+ * with numbers big-endian. Entries sort by row, family and qualifier as unsigned bytes, then by
+ * timestamp, newest first, then by sequence, latest write first. The low byte of the last field
+ * is the kind of the entry, the rest its sequence number.
+ * <p>
+ * A cell is a PUT. Deletes are tombstones with the newest possible timestamp, so they come before
+ * every cell they hide: DELETE_ROW with an empty family and qualifier, DELETE_FAMILY with an empty
+ * qualifier, and DELETE_COLUMN, whose value holds the start and end of the deleted timestamps.
+ * A tombstone hides the cells written before it, i.e. with a lower sequence number.
+ */
+final class CellKeys {
+
+    static final byte PUT = 0;
+    static final byte DELETE_COLUMN = 1;
+    static final byte DELETE_FAMILY = 2;
+    static final byte DELETE_ROW = 3;
+
+    static final long TOMBSTONE_TIMESTAMP = Long.MAX_VALUE;
+    static final long MAX_SEQUENCE = (1L << 55) - 1;
+
+    static final int MAX_ROW_LENGTH = 0xffff;
+    static final int MAX_FAMILY_LENGTH = 0xff;
+    static final int MAX_QUALIFIER_LENGTH = 0xffff;
+
+    // Length fields, timestamp and sequence
+    private static final int FIXED_LENGTH = 2 + 1 + 2 + 8 + 8;
+
+    private CellKeys() {
+    }
+
+    /**
+     * Encodes a key with sequence 0; the table sets the sequence with setSequence() once it is known.
+     */
+    static byte[] encode(ByteString row, ByteString family, ByteString qualifier, long timestamp, byte kind) {
+        int rowLength = row.size();
+        int familyLength = family.size();
+        int qualifierLength = qualifier.size();
+        byte[] key = new byte[FIXED_LENGTH + rowLength + familyLength + qualifierLength];
+        int position = 0;
+        key[position++] = (byte) (rowLength >>> 8);
+        key[position++] = (byte) rowLength;
+        row.copyTo(key, position);
+        position += rowLength;
+        key[position++] = (byte) familyLength;
+        family.copyTo(key, position);
+        position += familyLength;
+        key[position++] = (byte) (qualifierLength >>> 8);
+        key[position++] = (byte) qualifierLength;
+        qualifier.copyTo(key, position);
+        position += qualifierLength;
+        putLong(key, position, timestamp);
+        putLong(key, position + 8, kind & 0xff);
+        return key;
+    }
+
+    static void setSequence(byte[] key, long sequence) {
+        int position = key.length - 8;
+        long kind = key[key.length - 1] & 0xff;
+        putLong(key, position, sequence << 8 | kind);
+    }
+
+    /**
+     * Smallest key of a row: it sorts before every entry of the row, so seeking to it finds the
+     * first entry of the row or of the next row after it.
+     */
+    static byte[] rowStart(ByteString row) {
+        byte[] key = encode(row, ByteString.EMPTY, ByteString.EMPTY, Long.MAX_VALUE, (byte) 0xff);
+        putLong(key, key.length - 8, -1L);
+        return key;
+    }
+
+    private static void putLong(byte[] key, int position, long value) {
+        for (int i = 7; i >= 0; i--) {
+            key[position + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    static int rowLength(ByteBuffer buffer, int key) {
+        return buffer.getShort(key) & 0xffff;
+    }
+
+    static int rowOffset(int key) {
+        return key + 2;
+    }
+
+    static int familyLength(ByteBuffer buffer, int key) {
+        return buffer.get(key + 2 + rowLength(buffer, key)) & 0xff;
+    }
+
+    static int familyOffset(ByteBuffer buffer, int key) {
+        return key + 3 + rowLength(buffer, key);
+    }
+
+    static int qualifierLength(ByteBuffer buffer, int key) {
+        int end = familyOffset(buffer, key) + familyLength(buffer, key);
+        return buffer.getShort(end) & 0xffff;
+    }
+
+    static int qualifierOffset(ByteBuffer buffer, int key) {
+        return familyOffset(buffer, key) + familyLength(buffer, key) + 2;
+    }
+
+    static long timestamp(ByteBuffer buffer, int key, int keyLength) {
+        return buffer.getLong(key + keyLength - 16);
+    }
+
+    static long sequence(ByteBuffer buffer, int key, int keyLength) {
+        return buffer.getLong(key + keyLength - 8) >>> 8;
+    }
+
+    static byte kind(ByteBuffer buffer, int key, int keyLength) {
+        return buffer.get(key + keyLength - 1);
+    }
+
+    /**
+     * Orders two keys as described above.
+     */
+    static int compare(ByteBuffer a, int aKey, ByteBuffer b, int bKey) {
+        int aRow = rowLength(a, aKey);
+        int bRow = rowLength(b, bKey);
+        int c = compareBytes(a, aKey + 2, aRow, b, bKey + 2, bRow);
+        if (c != 0) {
+            return c;
+        }
+        int aFamily = a.get(aKey + 2 + aRow) & 0xff;
+        int bFamily = b.get(bKey + 2 + bRow) & 0xff;
+        int aPosition = aKey + 3 + aRow;
+        int bPosition = bKey + 3 + bRow;
+        c = compareBytes(a, aPosition, aFamily, b, bPosition, bFamily);
+        if (c != 0) {
+            return c;
+        }
+        aPosition += aFamily;
+        bPosition += bFamily;
+        int aQualifier = a.getShort(aPosition) & 0xffff;
+        int bQualifier = b.getShort(bPosition) & 0xffff;
+        c = compareBytes(a, aPosition + 2, aQualifier, b, bPosition + 2, bQualifier);
+        if (c != 0) {
+            return c;
+        }
+        aPosition += 2 + aQualifier;
+        bPosition += 2 + bQualifier;
+        c = Long.compare(b.getLong(bPosition), a.getLong(aPosition)); // Newest timestamp first
+        if (c != 0) {
+            return c;
+        }
+        return Long.compareUnsigned(b.getLong(bPosition + 8), a.getLong(aPosition + 8)); // Latest write first
+    }
+
+    /**
+     * Compares the row of a key with a row key.
+     */
+    static int compareRow(ByteBuffer buffer, int key, ByteString row) {
+        int length = rowLength(buffer, key);
+        int offset = key + 2;
+        int n = Math.min(length, row.size());
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(buffer.get(offset + i) & 0xff, row.byteAt(i) & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length, row.size());
+    }
+
+    /**
+     * Unsigned lexicographic order, eight bytes at a time while both have that many left.
+     */
+    static int compareBytes(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        int i = 0;
+        for (; i + 8 <= n; i += 8) {
+            long x = a.getLong(aOffset + i);
+            long y = b.getLong(bOffset + i);
+            if (x != y) {
+                return Long.compareUnsigned(x, y);
+            }
+        }
+        for (; i < n; i++) {
+            int c = Integer.compare(a.get(aOffset + i) & 0xff, b.get(bOffset + i) & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(aLength, bLength);
+    }
+
+    static boolean equalBytes(ByteBuffer buffer, int offset, int length, ByteString bytes) {
+        if (bytes == null || bytes.size() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != bytes.byteAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies bytes out of a buffer that other threads may read at the same time.
+     */
+    static ByteString copy(ByteBuffer buffer, int offset, int length) {
+        if (length == 0) {
+            return ByteString.EMPTY;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset).limit(offset + length);
+        return ByteString.copyFrom(view);
+    }
+}
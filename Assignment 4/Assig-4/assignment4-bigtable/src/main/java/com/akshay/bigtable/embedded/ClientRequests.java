@@ -0,0 +1,51 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.bigtable.v2.MutateRowRequest;
+import com.google.bigtable.v2.MutateRowsRequest;
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.RowFilter;
+import com.google.cloud.bigtable.data.v2.internal.RequestContext;
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+
+/**
+ * Turns the model objects of the Bigtable client into the protocol buffers it would send, so the
+ * embedded store reads a Query, Filter or mutation exactly as Bigtable does.
+ * <p>
+ * The toProto() methods and RequestContext are internal API of the client (@InternalApi) and may
+ * change with any release of google-cloud-bigtable. This class is the only place that uses them:
+ * after upgrading the client, check that it still compiles and that the tests of this package pass.
+ */
+final class ClientRequests {
+
+    // Names the tables in the requests; only the table id, the last part of the name, is used
+    private static final RequestContext CONTEXT = RequestContext.create("embedded", "embedded", "");
+
+    private ClientRequests() {
+    }
+
+    static ReadRowsRequest readRows(Query query) {
+        return query.toProto(CONTEXT);
+    }
+
+    static RowFilter filter(Filter filter) {
+        return filter.toProto();
+    }
+
+    static MutateRowRequest mutateRow(RowMutation mutation) {
+        return mutation.toProto(CONTEXT);
+    }
+
+    static MutateRowsRequest.Entry entry(RowMutationEntry entry) {
+        return entry.toProto();
+    }
+
+    /**
+     * @param tableName projects/{project}/instances/{instance}/tables/{table}
+     */
+    static String tableId(String tableName) {
+        return tableName.substring(tableName.lastIndexOf('/') + 1);
+    }
+}
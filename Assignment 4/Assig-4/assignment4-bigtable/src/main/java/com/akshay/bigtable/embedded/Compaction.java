@@ -0,0 +1,125 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Writes SSTables for flushes and compactions, and picks the SSTables to compact.
+ * <p>
+ * Both write only what a read can still return: the live cells (see LiveCells) and the
+ * tombstones, which are dropped as well when all SSTables of the table are merged, since no older
+ * entry is left for them to hide. Like the garbage collection of Bigtable, this keeps only the
+ * latest version of a cell: when the latest version is deleted later on, the column is empty,
+ * even if an older version was written before.
+ * <p>
+ * Compaction is size-tiered: once MIN_INPUTS SSTables are about the same size (within half again
+ * the average of the others; all under SMALL_BYTES count as the same) they are merged into one,
+ * so an entry is rewritten about once per fourfold growth of the table. SSTables are not merged
+ * beyond maxFileBytes; larger ones stay as they are.
+ * <p>
+ * Only SSTables next to each other in age are merged: flushes write the sequence numbers in
+ * order, so the SSTables cover disjoint ranges of them, and a merge takes a run of adjacent
+ * ranges. Every tombstone written between two merged entries is then among the inputs as well.
+ * Otherwise a version could be dropped for a newer one that a tombstone in an SSTable left out
+ * already deletes, losing a cell written after that delete with an older timestamp.
+ */
+final class Compaction {
+
+    static final int MIN_INPUTS = 4;
+    static final int MAX_INPUTS = 32;
+    static final long SMALL_BYTES = 8 * 1024 * 1024;
+
+    private Compaction() {
+    }
+
+    /**
+     * @param maxFileBytes most bytes the SSTables to merge may have together
+     * @return SSTables to merge, adjacent in age, or none
+     */
+    static List<SSTable> pick(List<SSTable> sstables, long maxFileBytes) {
+        if (sstables.size() < MIN_INPUTS) {
+            return Collections.emptyList();
+        }
+        List<SSTable> byAge = new ArrayList<>(sstables);
+        byAge.sort(Comparator.comparingLong(SSTable::maxSequence));
+        List<SSTable> run = new ArrayList<>();
+        long total = 0;
+        for (SSTable sstable : byAge) {
+            long size = sstable.fileBytes();
+            if (!run.isEmpty() && (!similar(size, total / run.size()) || total + size > maxFileBytes)) {
+                if (run.size() >= MIN_INPUTS) {
+                    break;
+                }
+                run.clear(); // Start the next run here, so the inputs stay adjacent
+                total = 0;
+            }
+            if (size > maxFileBytes) {
+                continue; // Stays as it is, and no run goes across it
+            }
+            run.add(sstable);
+            total += size;
+            if (run.size() == MAX_INPUTS) {
+                break;
+            }
+        }
+        return run.size() >= MIN_INPUTS ? run : Collections.emptyList();
+    }
+
+    private static boolean similar(long size, long average) {
+        if (size < SMALL_BYTES && average < SMALL_BYTES) {
+            return true;
+        }
+        return size <= average * 3 / 2 && average <= size * 3 / 2;
+    }
+
+    /**
+     * Writes the entries of a cursor to a new SSTable.
+     *
+     * @param dropTombstones true if the entries are all the table has up to their sequence numbers
+     * @param stopped        checked before each row; if it turns true, what was written is deleted
+     * @return the SSTable, or none if no entry was live; null if writing was stopped
+     */
+    static List<SSTable> write(EntryCursor entries, boolean dropTombstones, TableFiles files, BooleanSupplier stopped)
+            throws IOException {
+        LiveCells live = new LiveCells();
+        SSTableWriter writer = null;
+        long number = 0;
+        ByteString row = null;
+        try {
+            for (entries.seekToFirst(); entries.isValid(); entries.next()) {
+                ByteBuffer buffer = entries.buffer();
+                int key = entries.keyOffset();
+                if (row == null || CellKeys.compareRow(buffer, key, row) != 0) {
+                    if (stopped.getAsBoolean()) {
+                        return null;
+                    }
+                    row = CellKeys.copy(buffer, CellKeys.rowOffset(key), CellKeys.rowLength(buffer, key));
+                    live.startRow();
+                }
+                int kind = live.accept(buffer, key, entries.keyLength(), entries.valueOffset());
+                if (kind == LiveCells.CELL || kind == LiveCells.TOMBSTONE && !dropTombstones) {
+                    if (writer == null) {
+                        number = files.newNumber();
+                        writer = new SSTableWriter(files.sstable(number));
+                    }
+                    writer.add(entries);
+                }
+            }
+            if (writer == null) {
+                return Collections.emptyList();
+            }
+            writer.finish();
+            return Collections.singletonList(SSTable.open(number, files.sstable(number)));
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package com.akshay.bigtable.embedded;
+
+import com.akshay.bigtable.StorageBackend;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.batching.Batcher;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.bigtable.v2.MutateRowRequest;
+import com.google.bigtable.v2.MutateRowsRequest;
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.RowRange;
+import com.google.bigtable.v2.RowSet;
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.KeyOffset;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tables held in this process, for running the loader and the queries without Bigtable, e.g. in
+ * CI or to profile them at production data sizes. Every table is a sorted store of cell entries in
+ * off-heap memory (see EmbeddedTable), with the row, family and qualifier model of Bigtable: row
+ * ranges, the filters of the client, mutations and tombstones, one version per cell.
+ * <p>
+ * Requests arrive as the model objects of the Bigtable client and are read through the protocol
+ * buffers the client would send (see ClientRequests), so a Query or Filter means the same here as
+ * on Bigtable.
+ * Streams of readRowsAsync() run on their own thread and honour the flow control of the
+ * observer. Bulk mutations are applied as they are added.
+ * <p>
+ * Given a directory, the tables are persistent and kept in a directory each: a write-ahead log,
+ * memtables flushed to SSTables and compactions, see EmbeddedTable. The tables found there are
+ * opened when the backend is created and flushed when it is closed. mutateRow() returns once the
+ * mutation is on disk; the futures of a bulk mutation batcher complete once its batch is, with
+ * the batches of all threads sharing the sync of the log.
+ */
+public class EmbeddedBackend implements StorageBackend {
+
+    /** Entry bytes between the row keys returned by sampleRowKeys() */
+    public static final long SAMPLE_BYTES = 512 * 1024;
+
+    /** Bulk mutations synced at once by a batcher of a persistent table */
+    public static final int BATCH_ELEMENTS = 100;
+
+    private final int chunkBytes;
+    private final Persistence persistence;
+    private final ConcurrentMap<String, EmbeddedTable> tables = new ConcurrentHashMap<>();
+    private final ExecutorService streams = Executors.newCachedThreadPool(daemon("embedded-stream"));
+
+    public EmbeddedBackend() {
+        this(4 * 1024 * 1024);
+    }
+
+    /**
+     * @param chunkBytes size of the off-heap buffers the entries of a table are allocated from
+     */
+    public EmbeddedBackend(int chunkBytes) {
+        this.chunkBytes = chunkBytes;
+        this.persistence = null;
+    }
+
+    /**
+     * Persistent tables in a directory, with 64 MB memtables and compactions up to 1 GB.
+     */
+    public EmbeddedBackend(Path directory) throws IOException {
+        this(directory, 4 * 1024 * 1024, 64L * 1024 * 1024, 1024L * 1024 * 1024);
+    }
+
+    /**
+     * Persistent tables in a directory. Opens the tables already there, replaying their logs.
+     *
+     * @param chunkBytes    size of the off-heap buffers the entries of a memtable are allocated from
+     * @param memtableBytes off-heap bytes of a memtable before it is flushed to an SSTable
+     * @param maxFileBytes  largest SSTable a compaction writes, below 2 GB so that one mapping covers it
+     */
+    public EmbeddedBackend(Path directory, int chunkBytes, long memtableBytes, long maxFileBytes) throws IOException {
+        if (maxFileBytes > SSTable.MAX_FILE_BYTES) {
+            throw new IllegalArgumentException("SSTables of " + maxFileBytes + " bytes cannot be mapped");
+        }
+        this.chunkBytes = chunkBytes;
+        Files.createDirectories(directory);
+        this.persistence = new Persistence(directory, memtableBytes, maxFileBytes,
+                Executors.newSingleThreadExecutor(daemon("embedded-flush")),
+                Executors.newSingleThreadExecutor(daemon("embedded-compaction")));
+        try (DirectoryStream<Path> tableDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path tableDirectory : tableDirectories) {
+                if (TableFiles.exists(tableDirectory)) {
+                    String tableId = tableDirectory.getFileName().toString();
+                    tables.put(tableId, EmbeddedTable.open(tableId, chunkBytes, persistence));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public boolean exists(String tableId) {
+        return tables.containsKey(tableId);
+    }
+
+    @Override
+    public Set<String> families(String tableId) {
+        return new LinkedHashSet<>(table(tableId).families());
+    }
+
+    @Override
+    public synchronized void createTable(String tableId, String... families) {
+        if (tables.containsKey(tableId)) {
+            throw new IllegalArgumentException("Table " + tableId + " already exists");
+        }
+        if (persistence == null) {
+            tables.put(tableId, new EmbeddedTable(tableId, Arrays.asList(families), chunkBytes));
+            return;
+        }
+        try {
+            tables.put(tableId, EmbeddedTable.create(tableId, Arrays.asList(families), chunkBytes, persistence));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create table " + tableId, e);
+        }
+    }
+
+    @Override
+    public void addFamily(String tableId, String family) {
+        table(tableId).addFamily(family);
+    }
+
+    @Override
+    public synchronized boolean deleteTable(String tableId) {
+        EmbeddedTable table = tables.remove(tableId);
+        if (table == null) {
+            return false;
+        }
+        try {
+            table.drop(); // Its buffers and mappings are freed once no reader uses them
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete the files of table " + tableId, e);
+        }
+        return true;
+    }
+
+    @Override
+    public Row readRow(String tableId, String rowKey) {
+        return readRow(tableId, rowKey, null);
+    }
+
+    @Override
+    public Row readRow(String tableId, String rowKey, Filter filter) {
+        Iterator<Row> rows = table(tableId).rows(Collections.singletonList(EmbeddedTable.KeyRange.key(ByteString.copyFromUtf8(rowKey))),
+                filter != null ? ClientRequests.filter(filter) : null, 1);
+        return rows.hasNext() ? rows.next() : null;
+    }
+
+    @Override
+    public Iterable<Row> readRows(Query query) {
+        ReadRowsRequest request = ClientRequests.readRows(query);
+        EmbeddedTable table = table(ClientRequests.tableId(request.getTableName()));
+        List<EmbeddedTable.KeyRange> ranges = ranges(request.getRows());
+        return () -> table.rows(ranges, request.hasFilter() ? request.getFilter() : null, request.getRowsLimit());
+    }
+
+    @Override
+    public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+        streams.execute(new RowStream(query, observer));
+    }
+
+    @Override
+    public List<KeyOffset> sampleRowKeys(String tableId) {
+        return table(tableId).sampleRowKeys(SAMPLE_BYTES);
+    }
+
+    @Override
+    public void mutateRow(RowMutation mutation) {
+        MutateRowRequest request = ClientRequests.mutateRow(mutation);
+        EmbeddedTable table = table(ClientRequests.tableId(request.getTableName()));
+        table.sync(table.mutate(request.getRowKey(), request.getMutationsList()));
+    }
+
+    @Override
+    public Batcher<RowMutationEntry, Void> newBulkMutationBatcher(String tableId) {
+        return new DirectBatcher(table(tableId));
+    }
+
+    /**
+     * Stops the streams. Persistent tables are flushed and closed, the others dropped with the
+     * backend.
+     */
+    @Override
+    public void close() {
+        streams.shutdownNow();
+        for (EmbeddedTable table : tables.values()) {
+            table.close();
+        }
+        tables.clear();
+        if (persistence != null) {
+            persistence.flushes.shutdown();
+            persistence.compactions.shutdown();
+            try {
+                persistence.compactions.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Entries and bytes of a table, e.g. "weather: 201342 entries, 24 MB off-heap" and for a
+     * persistent table ", 3 SSTables of 12 MB".
+     */
+    public String describe(String tableId) {
+        EmbeddedTable table = table(tableId);
+        String description = String.format("%s: %d entries, %d MB off-heap", tableId, table.entryCount(),
+                table.offHeapBytes() >> 20);
+        if (table.persistent()) {
+            description += String.format(", %d SSTables of %d MB", table.sstableCount(), table.sstableBytes() >> 20);
+        }
+        return description;
+    }
+
+    private EmbeddedTable table(String tableId) {
+        EmbeddedTable table = tables.get(tableId);
+        if (table == null) {
+            throw new IllegalArgumentException("Table " + tableId + " does not exist");
+        }
+        return table;
+    }
+
+    // No keys and no ranges means the whole table
+    private static List<EmbeddedTable.KeyRange> ranges(RowSet rows) {
+        List<EmbeddedTable.KeyRange> ranges = new ArrayList<>();
+        for (ByteString key : rows.getRowKeysList()) {
+            ranges.add(EmbeddedTable.KeyRange.key(key));
+        }
+        for (RowRange range : rows.getRowRangesList()) {
+            ByteString start = ByteString.EMPTY;
+            boolean startInclusive = true;
+            switch (range.getStartKeyCase()) {
+                case START_KEY_CLOSED:
+                    start = range.getStartKeyClosed();
+                    break;
+                case START_KEY_OPEN:
+                    start = range.getStartKeyOpen();
+                    startInclusive = false;
+                    break;
+                default:
+                    break;
+            }
+            ByteString end = null;
+            boolean endInclusive = false;
+            switch (range.getEndKeyCase()) {
+                case END_KEY_CLOSED:
+                    end = range.getEndKeyClosed();
+                    endInclusive = true;
+                    break;
+                case END_KEY_OPEN:
+                    end = range.getEndKeyOpen();
+                    break;
+                default:
+                    break;
+            }
+            if (end != null && end.isEmpty()) {
+                end = null; // An empty end key is the end of the table
+            }
+            ranges.add(new EmbeddedTable.KeyRange(start, startInclusive, end, endInclusive));
+        }
+        if (ranges.isEmpty()) {
+            ranges.add(EmbeddedTable.KeyRange.all());
+        }
+        return ranges;
+    }
+
+    /**
+     * Sends the rows of a query to an observer, as many as it requested when it disabled automatic
+     * flow control in onStart(), else all of them. Cancelling ends the stream with a
+     * CancellationException, like a gRPC stream.
+     */
+    private final class RowStream implements Runnable, StreamController {
+        private final Query query;
+        private final ResponseObserver<Row> observer;
+        private boolean autoFlowControl = true;
+        private int requested;
+        private boolean cancelled;
+
+        RowStream(Query query, ResponseObserver<Row> observer) {
+            this.query = query;
+            this.observer = observer;
+        }
+
+        @Override
+        public void run() {
+            Iterator<Row> rows;
+            try {
+                rows = readRows(query).iterator();
+            } catch (RuntimeException e) {
+                observer.onStart(this);
+                observer.onError(e);
+                return;
+            }
+            observer.onStart(this);
+            try {
+                while (true) {
+                    synchronized (this) {
+                        while (!autoFlowControl && requested == 0 && !cancelled) {
+                            wait();
+                        }
+                        if (cancelled) {
+                            break;
+                        }
+                        if (!autoFlowControl) {
+                            requested--;
+                        }
+                    }
+                    if (!rows.hasNext()) {
+                        observer.onComplete();
+                        return;
+                    }
+                    observer.onResponse(rows.next());
+                }
+                observer.onError(new CancellationException("Cancelled by the observer"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                observer.onError(new CancellationException("Backend closed"));
+            } catch (RuntimeException e) {
+                observer.onError(e);
+            }
+        }
+
+        @Override
+        public synchronized void disableAutoInboundFlowControl() {
+            autoFlowControl = false;
+        }
+
+        @Override
+        public synchronized void request(int count) {
+            requested = (int) Math.min(Integer.MAX_VALUE, (long) requested + count);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Applies each row mutation as it is added. For a table held in memory the returned future is
+     * already done; for a persistent one it completes when the log is synced, once BATCH_ELEMENTS
+     * mutations are waiting or on flush() and close(). Like the gax batcher, close() throws once
+     * every future is done if any entry failed, with an IllegalStateException since gax keeps the
+     * constructor of its BatchingException to itself.
+     */
+    private static final class DirectBatcher implements Batcher<RowMutationEntry, Void> {
+        private final EmbeddedTable table;
+        private volatile boolean closed;
+        private List<SettableApiFuture<Void>> unsynced = new ArrayList<>();
+        private long position;
+        private long failedEntries;
+        private RuntimeException firstFailure;
+
+        DirectBatcher(EmbeddedTable table) {
+            this.table = table;
+        }
+
+        @Override
+        public ApiFuture<Void> add(RowMutationEntry entry) {
+            if (closed) {
+                throw new IllegalStateException("Cannot add elements on a closed batcher");
+            }
+            MutateRowsRequest.Entry request = ClientRequests.entry(entry);
+            long mutated;
+            try {
+                mutated = table.mutate(request.getRowKey(), request.getMutationsList());
+            } catch (RuntimeException e) {
+                failed(1, e);
+                return ApiFutures.immediateFailedFuture(e);
+            }
+            if (!table.persistent()) {
+                return ApiFutures.immediateFuture(null);
+            }
+            SettableApiFuture<Void> future = SettableApiFuture.create();
+            boolean full;
+            synchronized (this) {
+                unsynced.add(future);
+                position = Math.max(position, mutated);
+                full = unsynced.size() >= BATCH_ELEMENTS;
+            }
+            if (full) {
+                sendOutstanding();
+            }
+            return future;
+        }
+
+        @Override
+        public void flush() {
+            sendOutstanding();
+        }
+
+        @Override
+        public void sendOutstanding() {
+            List<SettableApiFuture<Void>> batch;
+            long batchPosition;
+            synchronized (this) {
+                batch = unsynced;
+                batchPosition = position;
+                unsynced = new ArrayList<>();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                table.sync(batchPosition);
+            } catch (RuntimeException e) {
+                failed(batch.size(), e);
+                for (SettableApiFuture<Void> future : batch) {
+                    future.setException(e);
+                }
+                return;
+            }
+            for (SettableApiFuture<Void> future : batch) {
+                future.set(null);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            sendOutstanding();
+            long failed;
+            RuntimeException cause;
+            synchronized (this) {
+                failed = failedEntries;
+                cause = firstFailure;
+            }
+            if (failed > 0) {
+                throw new IllegalStateException("Batching finished with " + failed
+                        + " failed entries, the first due to: " + cause, cause);
+            }
+        }
+
+        @Override
+        public ApiFuture<Void> closeAsync() {
+            try {
+                close();
+            } catch (RuntimeException e) {
+                return ApiFutures.immediateFailedFuture(e);
+            }
+            return ApiFutures.immediateFuture(null);
+        }
+
+        private synchronized void failed(int entries, RuntimeException cause) {
+            failedEntries += entries;
+            if (firstFailure == null) {
+                firstFailure = cause;
+            }
+        }
+    }
+}
@@ -0,0 +1,769 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.bigtable.v2.Mutation;
+import com.google.bigtable.v2.RowFilter;
+import com.google.cloud.bigtable.data.v2.models.KeyOffset;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One table of the embedded store: every write is an entry keyed as in CellKeys, first in the
+ * memtable, an OffHeapSkipList, and rows are put together from the entries when they are read.
+ * Only the latest version of a cell is returned, as for a family with a max versions GC rule of 1.
+ * <p>
+ * Writes hold the table's lock and get increasing sequence numbers. A mutation of a row is
+ * visible once all of its entries are in the memtable, so a reader never sees half of it: readers
+ * take the last visible sequence number when they start and ignore entries written after it.
+ * <p>
+ * A persistent table (see Persistence) is a log-structured merge tree. Mutations are appended to
+ * the WriteAheadLog before they go into the memtable. A full memtable is replaced by a new one
+ * and flushed to an SSTable in the background, and SSTables of about the same size are merged by
+ * compactions (see Compaction). Reads merge the memtables and SSTables of the Version they start
+ * with; flushes and compactions replace the Version instead of changing it. A table held in
+ * memory only never flushes its one memtable.
+ */
+final class EmbeddedTable {
+
+    /**
+     * Row keys from start to end; a null end means the end of the table.
+     */
+    static final class KeyRange {
+        final ByteString start;
+        final boolean startInclusive;
+        final ByteString end;
+        final boolean endInclusive;
+
+        KeyRange(ByteString start, boolean startInclusive, ByteString end, boolean endInclusive) {
+            this.start = start;
+            this.startInclusive = startInclusive;
+            this.end = end;
+            this.endInclusive = endInclusive;
+        }
+
+        static KeyRange all() {
+            return new KeyRange(ByteString.EMPTY, true, null, false);
+        }
+
+        static KeyRange key(ByteString key) {
+            return new KeyRange(key, true, key, true);
+        }
+    }
+
+    /**
+     * The memtables and SSTables a read works on: the memtable taking the writes, the full ones
+     * waiting for their flush, oldest first, and the SSTables.
+     */
+    private static final class Version {
+        final OffHeapSkipList memtable;
+        final List<FullMemtable> flushing;
+        final List<SSTable> sstables;
+
+        Version(OffHeapSkipList memtable, List<FullMemtable> flushing, List<SSTable> sstables) {
+            this.memtable = memtable;
+            this.flushing = flushing;
+            this.sstables = sstables;
+        }
+
+        /**
+         * Entries of the memtables and of the SSTables that may hold rows of the range.
+         */
+        EntryCursor cursor(KeyRange range) {
+            List<EntryCursor> cursors = new ArrayList<>();
+            cursors.add(memtable.cursor());
+            for (FullMemtable full : flushing) {
+                cursors.add(full.entries.cursor());
+            }
+            for (SSTable sstable : sstables) {
+                if (sstable.mayHave(range)) {
+                    cursors.add(sstable.cursor());
+                }
+            }
+            return MergingCursor.of(cursors);
+        }
+    }
+
+    /**
+     * A memtable waiting for its flush and the log started after it, which is the first one
+     * needed once the flush is done.
+     */
+    private static final class FullMemtable {
+        final OffHeapSkipList entries;
+        final long nextLog;
+
+        FullMemtable(OffHeapSkipList entries, long nextLog) {
+            this.entries = entries;
+            this.nextLog = nextLog;
+        }
+    }
+
+    private static final Comparator<ByteString> BYTES = ByteString.unsignedLexicographicalComparator();
+
+    // Writes wait for the flushes once this many memtables are waiting
+    private static final int MAX_FLUSHING = 2;
+
+    private final String id;
+    private volatile Map<String, ByteString> families;
+    private final int chunkBytes;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition flushed = writeLock.newCondition();
+    private volatile Version version;
+    private long lastSequence;
+    private volatile long visibleSequence;
+
+    // Persistent tables only
+    private final Persistence persistence;
+    private final TableFiles files;
+    private final WriteAheadLog log;
+    private long logNumber;
+    private volatile boolean closed;
+    private volatile boolean dropped;
+    private volatile Exception backgroundFailure;
+
+    /**
+     * A table held in memory only.
+     *
+     * @param chunkBytes size of the off-heap buffers entries are allocated from
+     */
+    EmbeddedTable(String id, List<String> families, int chunkBytes) {
+        this(id, families, chunkBytes, null, null, null, 0, Collections.emptyList(), 0);
+    }
+
+    private EmbeddedTable(String id, List<String> families, int chunkBytes, Persistence persistence, TableFiles files,
+            WriteAheadLog log, long logNumber, List<SSTable> sstables, long lastSequence) {
+        this.id = id;
+        Map<String, ByteString> byName = new LinkedHashMap<>();
+        for (String family : families) {
+            byName.put(family, familyBytes(family));
+        }
+        this.families = Collections.unmodifiableMap(byName);
+        this.chunkBytes = chunkBytes;
+        this.persistence = persistence;
+        this.files = files;
+        this.log = log;
+        this.logNumber = logNumber;
+        this.lastSequence = lastSequence;
+        this.visibleSequence = lastSequence;
+        this.version = new Version(new OffHeapSkipList(chunkBytes), Collections.emptyList(), sstables);
+    }
+
+    /**
+     * Creates a persistent table in its directory, replacing what is left there of an earlier one.
+     */
+    static EmbeddedTable create(String id, List<String> families, int chunkBytes, Persistence persistence)
+            throws IOException {
+        new TableFiles(persistence.tableDirectory(id)).deleteAll();
+        TableFiles files = new TableFiles(Files.createDirectories(persistence.tableDirectory(id)));
+        TableFiles.syncDirectory(persistence.directory);
+        long logNumber = files.newNumber();
+        EmbeddedTable table = new EmbeddedTable(id, families, chunkBytes, persistence, files,
+                new WriteAheadLog(files.log(logNumber)), logNumber, Collections.emptyList(), 0);
+        table.writeManifest();
+        return table;
+    }
+
+    /**
+     * Opens a persistent table: maps its SSTables and writes what its logs hold to a new one.
+     */
+    static EmbeddedTable open(String id, int chunkBytes, Persistence persistence) throws IOException {
+        TableFiles files = new TableFiles(persistence.tableDirectory(id));
+        TableFiles.Manifest manifest = files.readManifest();
+        List<SSTable> sstables = new ArrayList<>();
+        long lastSequence = 0;
+        for (long number : manifest.sstables) {
+            SSTable sstable = SSTable.open(number, files.sstable(number));
+            sstables.add(sstable);
+            lastSequence = Math.max(lastSequence, sstable.maxSequence());
+        }
+
+        OffHeapSkipList replayed = new OffHeapSkipList(chunkBytes);
+        long[] replayedSequence = {lastSequence};
+        for (long number : files.logsFrom(manifest.logNumber)) {
+            WriteAheadLog.replay(files.log(number), (keys, values) -> {
+                for (int i = 0; i < keys.size(); i++) {
+                    byte[] key = keys.get(i);
+                    replayed.insert(key, values.get(i));
+                    replayedSequence[0] = Math.max(replayedSequence[0], CellKeys.sequence(ByteBuffer.wrap(key), 0, key.length));
+                }
+            });
+        }
+        if (replayed.entries() > 0) {
+            sstables.addAll(Compaction.write(replayed.cursor(), false, files, () -> false));
+        }
+
+        long logNumber = files.newNumber();
+        EmbeddedTable table = new EmbeddedTable(id, manifest.families, chunkBytes, persistence, files,
+                new WriteAheadLog(files.log(logNumber)), logNumber, sstables, replayedSequence[0]);
+        table.writeManifest();
+        Set<Long> live = new HashSet<>();
+        for (SSTable sstable : sstables) {
+            live.add(sstable.number);
+        }
+        files.deleteObsolete(live, logNumber);
+        return table;
+    }
+
+    private static ByteString familyBytes(String family) {
+        ByteString bytes = ByteString.copyFromUtf8(family);
+        if (bytes.isEmpty() || bytes.size() > CellKeys.MAX_FAMILY_LENGTH) {
+            throw new IllegalArgumentException("Invalid column family name: " + family);
+        }
+        return bytes;
+    }
+
+    Set<String> families() {
+        return families.keySet();
+    }
+
+    void addFamily(String family) {
+        writeLock.lock();
+        try {
+            Map<String, ByteString> byName = new LinkedHashMap<>(families);
+            byName.putIfAbsent(family, familyBytes(family));
+            families = Collections.unmodifiableMap(byName);
+            if (files != null) {
+                writeManifest();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot add family " + family + " to table " + id, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    boolean persistent() {
+        return files != null;
+    }
+
+    /**
+     * Entries in the memtables and SSTables, counting those hidden but not yet compacted away
+     */
+    long entryCount() {
+        Version current = version;
+        long count = current.memtable.entries();
+        for (FullMemtable full : current.flushing) {
+            count += full.entries.entries();
+        }
+        for (SSTable sstable : current.sstables) {
+            count += sstable.entries();
+        }
+        return count;
+    }
+
+    long offHeapBytes() {
+        Version current = version;
+        long bytes = current.memtable.allocatedBytes();
+        for (FullMemtable full : current.flushing) {
+            bytes += full.entries.allocatedBytes();
+        }
+        return bytes;
+    }
+
+    int sstableCount() {
+        return version.sstables.size();
+    }
+
+    long sstableBytes() {
+        long bytes = 0;
+        for (SSTable sstable : version.sstables) {
+            bytes += sstable.fileBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Applies the mutations of one row in order, all or none. For a persistent table they are in
+     * the log, but not necessarily on disk yet, see sync().
+     *
+     * @return position of the mutation in the log, 0 for a table held in memory only
+     * @throws IllegalArgumentException for an unknown family, a key that is too long or a
+     *                                  mutation the store does not support
+     * @throws IllegalStateException    once the table is closed or could not write its files
+     * @throws UncheckedIOException     if the log cannot be written
+     */
+    long mutate(ByteString rowKey, List<Mutation> mutations) {
+        if (rowKey.isEmpty() || rowKey.size() > CellKeys.MAX_ROW_LENGTH) {
+            throw new IllegalArgumentException("Invalid row key length " + rowKey.size() + " in table " + id);
+        }
+        long now = System.currentTimeMillis() * 1000;
+        List<byte[]> keys = new ArrayList<>(mutations.size());
+        List<ByteString> values = new ArrayList<>(mutations.size());
+        for (Mutation mutation : mutations) {
+            switch (mutation.getMutationCase()) {
+                case SET_CELL: {
+                    Mutation.SetCell set = mutation.getSetCell();
+                    long timestamp = set.getTimestampMicros() == -1 ? now : set.getTimestampMicros();
+                    if (timestamp < 0 || timestamp == CellKeys.TOMBSTONE_TIMESTAMP) {
+                        throw new IllegalArgumentException("Invalid timestamp " + timestamp + " in table " + id);
+                    }
+                    keys.add(CellKeys.encode(rowKey, family(set.getFamilyName()), qualifier(set.getColumnQualifier()),
+                            timestamp, CellKeys.PUT));
+                    values.add(set.getValue());
+                    break;
+                }
+                case DELETE_FROM_COLUMN: {
+                    Mutation.DeleteFromColumn delete = mutation.getDeleteFromColumn();
+                    long start = delete.getTimeRange().getStartTimestampMicros();
+                    long end = delete.getTimeRange().getEndTimestampMicros();
+                    ByteBuffer range = ByteBuffer.allocate(16).putLong(start).putLong(end == 0 ? Long.MAX_VALUE : end);
+                    keys.add(CellKeys.encode(rowKey, family(delete.getFamilyName()), qualifier(delete.getColumnQualifier()),
+                            CellKeys.TOMBSTONE_TIMESTAMP, CellKeys.DELETE_COLUMN));
+                    values.add(ByteString.copyFrom(range.array()));
+                    break;
+                }
+                case DELETE_FROM_FAMILY:
+                    keys.add(CellKeys.encode(rowKey, family(mutation.getDeleteFromFamily().getFamilyName()), ByteString.EMPTY,
+                            CellKeys.TOMBSTONE_TIMESTAMP, CellKeys.DELETE_FAMILY));
+                    values.add(ByteString.EMPTY);
+                    break;
+                case DELETE_FROM_ROW:
+                    keys.add(CellKeys.encode(rowKey, ByteString.EMPTY, ByteString.EMPTY, CellKeys.TOMBSTONE_TIMESTAMP,
+                            CellKeys.DELETE_ROW));
+                    values.add(ByteString.EMPTY);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported mutation " + mutation.getMutationCase() + " in table " + id);
+            }
+        }
+
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Table " + id + " is closed");
+            }
+            if (backgroundFailure != null) {
+                throw new IllegalStateException("Table " + id + " could not write its files", backgroundFailure);
+            }
+            if (lastSequence + keys.size() > CellKeys.MAX_SEQUENCE) {
+                throw new IllegalStateException("Sequence numbers of table " + id + " used up");
+            }
+            for (byte[] key : keys) {
+                CellKeys.setSequence(key, ++lastSequence);
+            }
+            long position = 0;
+            if (log != null) {
+                try {
+                    position = log.append(keys, values);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot write the log of table " + id, e);
+                }
+            }
+            OffHeapSkipList memtable = version.memtable;
+            for (int i = 0; i < keys.size(); i++) {
+                memtable.insert(keys.get(i), values.get(i));
+            }
+            visibleSequence = lastSequence;
+
+            if (persistence != null && memtable.allocatedBytes() >= persistence.memtableBytes) {
+                while (version.flushing.size() >= MAX_FLUSHING && backgroundFailure == null) {
+                    flushed.awaitUninterruptibly(); // Let the flushes catch up
+                }
+                if (version.memtable == memtable) {
+                    switchMemtable();
+                }
+            }
+            return position;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns once the log is on disk up to the position returned by mutate(). Mutations of
+     * several threads share a sync; see WriteAheadLog.
+     */
+    void sync(long position) {
+        if (log != null) {
+            try {
+                log.sync(position);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot sync the log of table " + id, e);
+            }
+        }
+    }
+
+    // Holding the lock: continues the log in a new file and flushes the memtable written to the last one
+    private void switchMemtable() {
+        long nextLog = files.newNumber();
+        try {
+            log.roll(files.log(nextLog));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start a new log for table " + id, e);
+        }
+        Version current = version;
+        List<FullMemtable> flushing = new ArrayList<>(current.flushing);
+        flushing.add(new FullMemtable(current.memtable, nextLog));
+        version = new Version(new OffHeapSkipList(chunkBytes), flushing, current.sstables);
+        persistence.flushes.execute(this::flush);
+    }
+
+    // Runs on the flush thread, for the oldest memtable waiting
+    private void flush() {
+        FullMemtable full = version.flushing.get(0);
+        try {
+            List<SSTable> written = Compaction.write(full.entries.cursor(), false, files, () -> dropped);
+            if (written == null) {
+                return;
+            }
+            writeLock.lock();
+            try {
+                Version current = version;
+                List<SSTable> sstables = new ArrayList<>(current.sstables);
+                sstables.addAll(written);
+                version = new Version(current.memtable, new ArrayList<>(current.flushing.subList(1, current.flushing.size())),
+                        sstables);
+                logNumber = full.nextLog;
+                writeManifest(); // Syncs the directory, so the logs are only deleted once it is durable
+                for (long number : files.logsFrom(0)) {
+                    if (number < full.nextLog) {
+                        TableFiles.delete(files.log(number));
+                    }
+                }
+                if (!closed) {
+                    persistence.compactions.execute(this::compact);
+                }
+                flushed.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    // Runs on the compaction thread, until there is nothing to compact or the table is closed
+    private void compact() {
+        while (!closed) {
+            Version current = version;
+            List<SSTable> inputs = Compaction.pick(current.sstables, persistence.maxFileBytes);
+            if (inputs.isEmpty()) {
+                return;
+            }
+            // Flushes only add newer entries, so this stays true while the compaction runs
+            boolean all = inputs.size() == current.sstables.size();
+            List<EntryCursor> cursors = new ArrayList<>();
+            for (SSTable input : inputs) {
+                cursors.add(input.cursor());
+            }
+            try {
+                List<SSTable> outputs = Compaction.write(new MergingCursor(cursors), all, files, () -> closed);
+                if (outputs == null) {
+                    return;
+                }
+                writeLock.lock();
+                try {
+                    Version latest = version;
+                    List<SSTable> sstables = new ArrayList<>(latest.sstables);
+                    sstables.removeAll(inputs);
+                    sstables.addAll(outputs);
+                    version = new Version(latest.memtable, latest.flushing, sstables);
+                    writeManifest();
+                } finally {
+                    writeLock.unlock();
+                }
+                for (SSTable input : inputs) {
+                    TableFiles.delete(input.path); // Readers that still use it keep its mapping
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    // A table that cannot write its files takes no more mutations
+    private void fail(Exception e) {
+        if (dropped) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            if (backgroundFailure == null) {
+                backgroundFailure = e;
+            }
+            flushed.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        System.err.println("Table " + id + " could not write its files: " + e);
+    }
+
+    // Holding the lock
+    private void writeManifest() throws IOException {
+        files.writeManifest(families.keySet(), version.sstables, logNumber);
+    }
+
+    /**
+     * Flushes the memtable and waits for the flushes, so the table is opened again from its
+     * SSTables alone. Compactions are stopped. Does nothing for a table held in memory only.
+     */
+    void close() {
+        if (files == null) {
+            closed = true;
+            return;
+        }
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (version.memtable.entries() > 0 && backgroundFailure == null) {
+                switchMemtable();
+            }
+            while (!version.flushing.isEmpty() && backgroundFailure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            log.close();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Table " + id + " was not closed cleanly, its log is replayed when it is opened: " + e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the table without a flush and deletes its files.
+     */
+    void drop() throws IOException {
+        dropped = true;
+        closed = true;
+        if (files != null) {
+            writeLock.lock();
+            try {
+                log.close();
+            } finally {
+                writeLock.unlock();
+            }
+            files.deleteAll();
+        }
+    }
+
+    private ByteString family(String name) {
+        ByteString family = families.get(name);
+        if (family == null) {
+            throw new IllegalArgumentException("Unknown column family " + name + " in table " + id);
+        }
+        return family;
+    }
+
+    private ByteString qualifier(ByteString qualifier) {
+        if (qualifier.size() > CellKeys.MAX_QUALIFIER_LENGTH) {
+            throw new IllegalArgumentException("Column qualifier of " + qualifier.size() + " bytes in table " + id);
+        }
+        return qualifier;
+    }
+
+    /**
+     * Rows in the ranges, each once and in key order, whatever the order of the ranges.
+     *
+     * @param filter applied to the cells of each row, or null; rows left without cells are skipped
+     * @param limit  rows to return at most, 0 for all
+     */
+    Iterator<Row> rows(List<KeyRange> ranges, RowFilter filter, long limit) {
+        List<KeyRange> sorted = new ArrayList<>(ranges);
+        sorted.sort((a, b) -> BYTES.compare(a.start, b.start));
+        Version current = version;
+        long snapshot = visibleSequence; // Taken after the version, which holds every entry up to it
+        return new RowIterator(sorted, filter, limit, current, snapshot);
+    }
+
+    /**
+     * Bytes of the entries from a row on, up to the row of the next span
+     */
+    private static final class Span {
+        final ByteString row;
+        final long bytes;
+
+        Span(ByteString row, long bytes) {
+            this.row = row;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Row keys about bytesPerSample apart in entry bytes, then the empty key for the end of the
+     * table. SSTables are measured by the blocks in their index, memtables by their entries.
+     */
+    List<KeyOffset> sampleRowKeys(long bytesPerSample) {
+        Version current = version;
+        List<Span> spans = new ArrayList<>();
+        List<OffHeapSkipList> memtables = new ArrayList<>();
+        memtables.add(current.memtable);
+        for (FullMemtable full : current.flushing) {
+            memtables.add(full.entries);
+        }
+        for (OffHeapSkipList memtable : memtables) {
+            EntryCursor cursor = memtable.cursor();
+            ByteString row = null;
+            long bytes = 0;
+            for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+                ByteBuffer buffer = cursor.buffer();
+                int key = cursor.keyOffset();
+                if (row == null || bytes >= bytesPerSample / 16 && CellKeys.compareRow(buffer, key, row) != 0) {
+                    if (row != null) {
+                        spans.add(new Span(row, bytes));
+                    }
+                    row = CellKeys.copy(buffer, CellKeys.rowOffset(key), CellKeys.rowLength(buffer, key));
+                    bytes = 0;
+                }
+                bytes += cursor.keyLength() + cursor.valueLength();
+            }
+            if (row != null) {
+                spans.add(new Span(row, bytes));
+            }
+        }
+        for (SSTable sstable : current.sstables) {
+            for (int block = 0; block < sstable.blocks(); block++) {
+                spans.add(new Span(sstable.blockRow(block), sstable.blockBytes(block)));
+            }
+        }
+        spans.sort((a, b) -> BYTES.compare(a.row, b.row));
+
+        List<KeyOffset> samples = new ArrayList<>();
+        long offset = 0;
+        long nextSample = bytesPerSample;
+        ByteString row = null;
+        for (Span span : spans) {
+            if (offset >= nextSample && !span.row.equals(row)) {
+                row = span.row;
+                samples.add(KeyOffset.create(row, offset));
+                nextSample = offset + bytesPerSample;
+            }
+            offset += span.bytes;
+        }
+        samples.add(KeyOffset.create(ByteString.EMPTY, offset));
+        return samples;
+    }
+
+    /**
+     * Puts rows together from the entries of a version visible at the sequence number it started
+     * with.
+     */
+    private final class RowIterator implements Iterator<Row> {
+        private final List<KeyRange> ranges;
+        private final RowFilter filter;
+        private final long limit;
+        private final Version view;
+        private final long snapshot;
+        private final LiveCells live = new LiveCells();
+        private EntryCursor cursor;
+        private int range = -1;
+        private ByteString lastRow;
+        private long returned;
+        private Row next;
+
+        RowIterator(List<KeyRange> ranges, RowFilter filter, long limit, Version view, long snapshot) {
+            this.ranges = ranges;
+            this.filter = filter;
+            this.limit = limit;
+            this.view = view;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && (limit == 0 || returned < limit)) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Row row = next;
+            next = null;
+            returned++;
+            return row;
+        }
+
+        private Row advance() {
+            while (true) {
+                if (range < 0 || !cursor.isValid() || beyondEnd(ranges.get(range))) {
+                    if (++range == ranges.size()) {
+                        return null;
+                    }
+                    KeyRange current = ranges.get(range);
+                    ByteString from = lastRow != null && BYTES.compare(lastRow, current.start) > 0 ? lastRow : current.start;
+                    cursor = view.cursor(current);
+                    cursor.seek(ByteBuffer.wrap(CellKeys.rowStart(from)), 0);
+                    continue;
+                }
+                ByteBuffer buffer = cursor.buffer();
+                int key = cursor.keyOffset();
+                KeyRange current = ranges.get(range);
+                boolean skip = lastRow != null && CellKeys.compareRow(buffer, key, lastRow) <= 0
+                        || !current.startInclusive && CellKeys.compareRow(buffer, key, current.start) == 0;
+                ByteString rowKey = CellKeys.copy(buffer, CellKeys.rowOffset(key), CellKeys.rowLength(buffer, key));
+                List<RowCell> cells = readCells(rowKey, skip);
+                if (skip) {
+                    continue;
+                }
+                lastRow = rowKey;
+                if (filter != null && !cells.isEmpty()) {
+                    cells = RowFilters.apply(filter, rowKey, cells);
+                }
+                if (!cells.isEmpty()) {
+                    return Row.create(rowKey, cells);
+                }
+            }
+        }
+
+        private boolean beyondEnd(KeyRange current) {
+            if (current.end == null) {
+                return false;
+            }
+            int c = CellKeys.compareRow(cursor.buffer(), cursor.keyOffset(), current.end);
+            return current.endInclusive ? c > 0 : c >= 0;
+        }
+
+        /**
+         * Reads the entries of the row at the cursor and leaves the cursor on the next row.
+         *
+         * @param skip only move past the row
+         * @return the live cells of the row: those no tombstone hides, the newest of each column
+         */
+        private List<RowCell> readCells(ByteString rowKey, boolean skip) {
+            List<RowCell> cells = skip ? Collections.emptyList() : new ArrayList<>();
+            live.startRow();
+            for (; cursor.isValid(); cursor.next()) {
+                ByteBuffer buffer = cursor.buffer();
+                int key = cursor.keyOffset();
+                if (CellKeys.compareRow(buffer, key, rowKey) != 0) {
+                    break;
+                }
+                if (skip) {
+                    continue;
+                }
+                int keyLength = cursor.keyLength();
+                if (CellKeys.sequence(buffer, key, keyLength) > snapshot) {
+                    continue; // Written after the read started
+                }
+                if (live.accept(buffer, key, keyLength, cursor.valueOffset()) == LiveCells.CELL) {
+                    cells.add(RowCell.create(live.family(), live.qualifier(), CellKeys.timestamp(buffer, key, keyLength),
+                            Collections.emptyList(), CellKeys.copy(buffer, cursor.valueOffset(), cursor.valueLength())));
+                }
+            }
+            return cells;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.akshay.bigtable.embedded;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Walks sorted entries (see CellKeys) in key order. The key and value of the current entry are
+ * regions of buffer(), which only change when the cursor moves.
+ */
+interface EntryCursor {
+
+    boolean isValid();
+
+    void next();
+
+    void seekToFirst();
+
+    /**
+     * Moves to the first entry whose key is at or after the given key.
+     */
+    void seek(ByteBuffer buffer, int key);
+
+    ByteBuffer buffer();
+
+    int keyOffset();
+
+    int keyLength();
+
+    int valueOffset();
+
+    int valueLength();
+}
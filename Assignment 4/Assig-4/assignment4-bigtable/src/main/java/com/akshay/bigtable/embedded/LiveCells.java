@@ -0,0 +1,123 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells the live cells of a row from the entries hidden by tombstones or newer versions, given
+ * the entries of the row one by one in key order. Reads use it to put rows together and flushes
+ * and compactions to leave out what no read can return any more.
+ * <p>
+ * A live cell is the latest version of its column no tombstone hides, as for a family with a
+ * max versions GC rule of 1.
+ */
+final class LiveCells {
+
+    /** Hidden by a tombstone or a newer version */
+    static final int HIDDEN = 0;
+    /** The live cell of its column */
+    static final int CELL = 1;
+    /** A tombstone no other tombstone of the row hides */
+    static final int TOMBSTONE = 2;
+
+    private long rowDeleted;
+    private long familyDeleted;
+    private String family;
+    private ByteString familyBytes;
+    private ByteString qualifier;
+    private final List<long[]> columnDeletes = new ArrayList<>(0);
+    private long columnTimestamp;
+    private boolean columnDone;
+
+    void startRow() {
+        rowDeleted = 0;
+        familyDeleted = 0;
+        family = null;
+        familyBytes = null;
+        qualifier = null;
+    }
+
+    /**
+     * @param value offset of the value of the entry
+     * @return HIDDEN, CELL or TOMBSTONE
+     */
+    int accept(ByteBuffer buffer, int key, int keyLength, int value) {
+        long sequence = CellKeys.sequence(buffer, key, keyLength);
+        byte kind = CellKeys.kind(buffer, key, keyLength);
+        if (kind == CellKeys.DELETE_ROW) {
+            if (sequence < rowDeleted) {
+                return HIDDEN;
+            }
+            rowDeleted = sequence;
+            return TOMBSTONE;
+        }
+
+        int familyOffset = CellKeys.familyOffset(buffer, key);
+        int familyLength = CellKeys.familyLength(buffer, key);
+        if (!CellKeys.equalBytes(buffer, familyOffset, familyLength, familyBytes)) {
+            familyBytes = CellKeys.copy(buffer, familyOffset, familyLength);
+            family = familyBytes.toStringUtf8();
+            familyDeleted = 0;
+            qualifier = null;
+        }
+        if (kind == CellKeys.DELETE_FAMILY) {
+            if (sequence < rowDeleted || sequence < familyDeleted) {
+                return HIDDEN;
+            }
+            familyDeleted = sequence;
+            return TOMBSTONE;
+        }
+
+        int qualifierOffset = CellKeys.qualifierOffset(buffer, key);
+        int qualifierLength = CellKeys.qualifierLength(buffer, key);
+        if (!CellKeys.equalBytes(buffer, qualifierOffset, qualifierLength, qualifier)) {
+            qualifier = CellKeys.copy(buffer, qualifierOffset, qualifierLength);
+            columnDeletes.clear();
+            columnTimestamp = CellKeys.TOMBSTONE_TIMESTAMP;
+            columnDone = false;
+        }
+        if (kind == CellKeys.DELETE_COLUMN) {
+            if (sequence < rowDeleted || sequence < familyDeleted) {
+                return HIDDEN;
+            }
+            columnDeletes.add(new long[] {buffer.getLong(value), buffer.getLong(value + 8), sequence});
+            return TOMBSTONE;
+        }
+
+        long timestamp = CellKeys.timestamp(buffer, key, keyLength);
+        if (columnDone || timestamp == columnTimestamp) {
+            return HIDDEN; // An older version, or an older write of the same version
+        }
+        columnTimestamp = timestamp;
+        if (sequence < rowDeleted || sequence < familyDeleted || deleted(timestamp, sequence)) {
+            return HIDDEN;
+        }
+        columnDone = true; // Only the latest version is kept
+        return CELL;
+    }
+
+    private boolean deleted(long timestamp, long sequence) {
+        for (long[] delete : columnDeletes) {
+            if (sequence < delete[2] && timestamp >= delete[0] && timestamp < delete[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Family of the last entry accepted
+     */
+    String family() {
+        return family;
+    }
+
+    /**
+     * Qualifier of the last entry accepted
+     */
+    ByteString qualifier() {
+        return qualifier;
+    }
+}
@@ -0,0 +1,89 @@
+package com.akshay.bigtable.embedded;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Walks the entries of several cursors as one, in key order: the memtables and SSTables of a
+ * table. Keys are unique across all of them, since every entry has its own sequence number.
+ */
+final class MergingCursor implements EntryCursor {
+
+    private final List<EntryCursor> cursors;
+    private final PriorityQueue<EntryCursor> heap;
+
+    MergingCursor(List<EntryCursor> cursors) {
+        this.cursors = cursors;
+        this.heap = new PriorityQueue<>(Math.max(1, cursors.size()),
+                (a, b) -> CellKeys.compare(a.buffer(), a.keyOffset(), b.buffer(), b.keyOffset()));
+    }
+
+    /**
+     * @return the only cursor, or one merging them
+     */
+    static EntryCursor of(List<EntryCursor> cursors) {
+        return cursors.size() == 1 ? cursors.get(0) : new MergingCursor(cursors);
+    }
+
+    @Override
+    public boolean isValid() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public void next() {
+        EntryCursor top = heap.poll();
+        top.next();
+        if (top.isValid()) {
+            heap.add(top);
+        }
+    }
+
+    @Override
+    public void seekToFirst() {
+        heap.clear();
+        for (EntryCursor cursor : cursors) {
+            cursor.seekToFirst();
+            if (cursor.isValid()) {
+                heap.add(cursor);
+            }
+        }
+    }
+
+    @Override
+    public void seek(ByteBuffer buffer, int key) {
+        heap.clear();
+        for (EntryCursor cursor : cursors) {
+            cursor.seek(buffer, key);
+            if (cursor.isValid()) {
+                heap.add(cursor);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        return heap.peek().buffer();
+    }
+
+    @Override
+    public int keyOffset() {
+        return heap.peek().keyOffset();
+    }
+
+    @Override
+    public int keyLength() {
+        return heap.peek().keyLength();
+    }
+
+    @Override
+    public int valueOffset() {
+        return heap.peek().valueOffset();
+    }
+
+    @Override
+    public int valueLength() {
+        return heap.peek().valueLength();
+    }
+}
@@ -0,0 +1,224 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sorted entries in direct ByteBuffers outside the Java heap, as a skip list. Nodes are allocated
+ * one after another from chunks of chunkBytes and never move, change or get freed, so the garbage
+ * collector only sees the chunks, whatever the number of entries.
+ * <p>
+ * One thread inserts at a time (the table holds its write lock); any number of cursors read
+ * without locking. A node is fully written before it is linked into the list, and links are
+ * written with release and read with acquire semantics, so a reader that reaches a node sees
+ * all of it.
+ * <p>
+ * A node is 8-byte aligned: height, key length and value length (4 bytes each, 4 unused),
+ * height links of 8 bytes, then the key and the value.
+ */
+final class OffHeapSkipList {
+
+    private static final int MAX_HEIGHT = 12;
+    private static final int BRANCHING = 4;
+    private static final int LINKS = 16;
+
+    // Links are read and written through this handle; a link is a chunk index and an offset
+    private static final VarHandle LINK = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long NIL = 0;
+
+    private final int chunkBytes;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private int position;
+    private final long head;
+    private volatile int height = 1;
+    private volatile long allocatedBytes;
+    private volatile long entries;
+
+    // Last node before the inserted key at each level; only used by the writer
+    private final long[] previous = new long[MAX_HEIGHT];
+
+    /**
+     * @param chunkBytes size of the direct buffers nodes are allocated from
+     */
+    OffHeapSkipList(int chunkBytes) {
+        this.chunkBytes = chunkBytes;
+        allocate(8); // Link NIL points here, so no node starts at offset 0 of the first chunk
+        head = allocate(LINKS + 8 * MAX_HEIGHT);
+        buffer(head).putInt(offset(head), MAX_HEIGHT);
+    }
+
+    long entries() {
+        return entries;
+    }
+
+    /**
+     * Bytes taken by the chunks in use, including what is left free in the last one.
+     */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Adds an entry. Keys must be unique; CellKeys makes them so with the sequence number.
+     * Not thread-safe: the caller lets one thread insert at a time.
+     */
+    void insert(byte[] key, ByteString value) {
+        ByteBuffer probe = ByteBuffer.wrap(key);
+        long node = head;
+        for (int level = height - 1; level >= 0; level--) {
+            long next = link(node, level);
+            while (next != NIL && CellKeys.compare(buffer(next), keyOffset(next), probe, 0) < 0) {
+                node = next;
+                next = link(node, level);
+            }
+            previous[level] = node;
+        }
+
+        int nodeHeight = randomHeight();
+        for (int level = height; level < nodeHeight; level++) {
+            previous[level] = head;
+        }
+        long created = allocate(LINKS + 8 * nodeHeight + key.length + value.size());
+        ByteBuffer buffer = buffer(created);
+        int offset = offset(created);
+        buffer.putInt(offset, nodeHeight);
+        buffer.putInt(offset + 4, key.length);
+        buffer.putInt(offset + 8, value.size());
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + LINKS + 8 * nodeHeight);
+        view.put(key);
+        value.copyTo(view);
+        for (int level = 0; level < nodeHeight; level++) {
+            LINK.set(buffer, offset + LINKS + 8 * level, link(previous[level], level));
+        }
+        // Publish bottom up, so a reader at a higher level never skips to a node missing below
+        for (int level = 0; level < nodeHeight; level++) {
+            long before = previous[level];
+            LINK.setRelease(buffer(before), offset(before) + LINKS + 8 * level, created);
+        }
+        if (nodeHeight > height) {
+            height = nodeHeight;
+        }
+        entries++;
+    }
+
+    private static int randomHeight() {
+        int nodeHeight = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (nodeHeight < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            nodeHeight++;
+        }
+        return nodeHeight;
+    }
+
+    private long allocate(int bytes) {
+        int size = (bytes + 7) & ~7;
+        ByteBuffer[] current = chunks;
+        if (current.length == 0 || position + size > current[current.length - 1].capacity()) {
+            int capacity = Math.max(chunkBytes, size);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(capacity + 8).alignedSlice(8);
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = chunk;
+            chunks = current; // Published before any link to the chunk
+            position = 0;
+            allocatedBytes += chunk.capacity();
+        }
+        long node = (long) (current.length - 1) << 32 | position;
+        position += size;
+        return node;
+    }
+
+    private ByteBuffer buffer(long node) {
+        return chunks[(int) (node >>> 32)];
+    }
+
+    private static int offset(long node) {
+        return (int) node;
+    }
+
+    private long link(long node, int level) {
+        return (long) LINK.getAcquire(buffer(node), offset(node) + LINKS + 8 * level);
+    }
+
+    private int keyOffset(long node) {
+        ByteBuffer buffer = buffer(node);
+        int offset = offset(node);
+        return offset + LINKS + 8 * buffer.getInt(offset);
+    }
+
+    /**
+     * @return first node with a key at or after the given key, or NIL
+     */
+    private long seek(ByteBuffer probe, int key) {
+        long node = head;
+        for (int level = height - 1; level >= 0; level--) {
+            long next = link(node, level);
+            while (next != NIL && CellKeys.compare(buffer(next), keyOffset(next), probe, key) < 0) {
+                node = next;
+                next = link(node, level);
+            }
+            if (level == 0) {
+                return next;
+            }
+        }
+        return NIL;
+    }
+
+    EntryCursor cursor() {
+        return new Cursor();
+    }
+
+    private final class Cursor implements EntryCursor {
+        private long node = NIL;
+
+        @Override
+        public boolean isValid() {
+            return node != NIL;
+        }
+
+        @Override
+        public void next() {
+            node = link(node, 0);
+        }
+
+        @Override
+        public void seekToFirst() {
+            node = link(head, 0);
+        }
+
+        @Override
+        public void seek(ByteBuffer buffer, int key) {
+            node = OffHeapSkipList.this.seek(buffer, key);
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            return OffHeapSkipList.this.buffer(node);
+        }
+
+        @Override
+        public int keyOffset() {
+            return OffHeapSkipList.this.keyOffset(node);
+        }
+
+        @Override
+        public int keyLength() {
+            return buffer().getInt(offset(node) + 4);
+        }
+
+        @Override
+        public int valueOffset() {
+            return keyOffset() + keyLength();
+        }
+
+        @Override
+        public int valueLength() {
+            return buffer().getInt(offset(node) + 8);
+        }
+    }
+}
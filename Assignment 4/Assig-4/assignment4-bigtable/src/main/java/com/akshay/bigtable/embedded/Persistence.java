@@ -0,0 +1,35 @@
+package com.akshay.bigtable.embedded;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Where the persistent tables of an EmbeddedBackend keep their files, how large these get, and
+ * the threads that flush and compact them: one for the flushes of all tables, so memtables are
+ * written in the order they filled up, and one for the compactions.
+ */
+final class Persistence {
+
+    final Path directory;
+    final long memtableBytes;
+    final long maxFileBytes;
+    final ExecutorService flushes;
+    final ExecutorService compactions;
+
+    /**
+     * @param memtableBytes off-heap bytes of a memtable before it is flushed to an SSTable
+     * @param maxFileBytes  largest SSTable a compaction writes, at most SSTable.MAX_FILE_BYTES
+     */
+    Persistence(Path directory, long memtableBytes, long maxFileBytes, ExecutorService flushes,
+            ExecutorService compactions) {
+        this.directory = directory;
+        this.memtableBytes = memtableBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.flushes = flushes;
+        this.compactions = compactions;
+    }
+
+    Path tableDirectory(String tableId) {
+        return directory.resolve(tableId);
+    }
+}
@@ -0,0 +1,250 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.bigtable.v2.ColumnRange;
+import com.google.bigtable.v2.RowFilter;
+import com.google.bigtable.v2.TimestampRange;
+import com.google.bigtable.v2.ValueRange;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.protobuf.ByteString;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Applies a Bigtable RowFilter, as built by the Filters of the client, to the cells of one row.
+ * The cells come and go in the order of a Bigtable row: by family and qualifier, newest first.
+ * <p>
+ * Regular expressions are matched against the whole family, qualifier, value or row key, byte
+ * for byte, with java.util.regex. It agrees with RE2 on the literals that exactMatch() produces
+ * and on the usual classes, groups and alternations; \C (any byte) is supported as well. Sink
+ * filters are not supported.
+ */
+final class RowFilters {
+
+    private static final Comparator<ByteString> BYTES = ByteString.unsignedLexicographicalComparator();
+
+    private static final Comparator<RowCell> CELL_ORDER = Comparator.comparing(RowCell::getFamily)
+            .thenComparing(RowCell::getQualifier, BYTES)
+            .thenComparing(Comparator.comparingLong(RowCell::getTimestamp).reversed());
+
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+
+    private RowFilters() {
+    }
+
+    static List<RowCell> apply(RowFilter filter, ByteString rowKey, List<RowCell> cells) {
+        if (cells.isEmpty()) {
+            return cells;
+        }
+        switch (filter.getFilterCase()) {
+            case CHAIN:
+                for (RowFilter link : filter.getChain().getFiltersList()) {
+                    cells = apply(link, rowKey, cells);
+                    if (cells.isEmpty()) {
+                        break;
+                    }
+                }
+                return cells;
+            case INTERLEAVE: {
+                List<RowCell> merged = new ArrayList<>();
+                for (RowFilter branch : filter.getInterleave().getFiltersList()) {
+                    merged.addAll(apply(branch, rowKey, cells));
+                }
+                merged.sort(CELL_ORDER); // Stable, so cells passing several branches stay together
+                return merged;
+            }
+            case CONDITION: {
+                RowFilter.Condition condition = filter.getCondition();
+                boolean matched = !apply(condition.getPredicateFilter(), rowKey, cells).isEmpty();
+                if (matched) {
+                    return condition.hasTrueFilter() ? apply(condition.getTrueFilter(), rowKey, cells) : Collections.emptyList();
+                }
+                return condition.hasFalseFilter() ? apply(condition.getFalseFilter(), rowKey, cells) : Collections.emptyList();
+            }
+            case PASS_ALL_FILTER:
+                return cells;
+            case BLOCK_ALL_FILTER:
+                return Collections.emptyList();
+            case ROW_KEY_REGEX_FILTER:
+                return matches(filter.getRowKeyRegexFilter(), rowKey) ? cells : Collections.emptyList();
+            case ROW_SAMPLE_FILTER:
+                return ThreadLocalRandom.current().nextDouble() < filter.getRowSampleFilter() ? cells : Collections.emptyList();
+            case FAMILY_NAME_REGEX_FILTER: {
+                Pattern pattern = pattern(filter.getFamilyNameRegexFilter());
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    if (pattern.matcher(cell.getFamily()).matches()) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case COLUMN_QUALIFIER_REGEX_FILTER: {
+                ByteString regex = filter.getColumnQualifierRegexFilter();
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    if (matches(regex, cell.getQualifier())) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case COLUMN_RANGE_FILTER: {
+                ColumnRange range = filter.getColumnRangeFilter();
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    if (cell.getFamily().equals(range.getFamilyName()) && inRange(range, cell.getQualifier())) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case TIMESTAMP_RANGE_FILTER: {
+                TimestampRange range = filter.getTimestampRangeFilter();
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    if (inRange(range, cell.getTimestamp())) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case VALUE_REGEX_FILTER: {
+                ByteString regex = filter.getValueRegexFilter();
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    if (matches(regex, cell.getValue())) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case VALUE_RANGE_FILTER: {
+                ValueRange range = filter.getValueRangeFilter();
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    if (inRange(range, cell.getValue())) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case CELLS_PER_ROW_OFFSET_FILTER: {
+                int offset = filter.getCellsPerRowOffsetFilter();
+                return offset >= cells.size() ? Collections.emptyList() : cells.subList(offset, cells.size());
+            }
+            case CELLS_PER_ROW_LIMIT_FILTER:
+                return cells.subList(0, Math.min(cells.size(), filter.getCellsPerRowLimitFilter()));
+            case CELLS_PER_COLUMN_LIMIT_FILTER: {
+                int limit = filter.getCellsPerColumnLimitFilter();
+                List<RowCell> result = new ArrayList<>(cells.size());
+                RowCell column = null;
+                int versions = 0;
+                for (RowCell cell : cells) {
+                    if (column == null || !cell.getFamily().equals(column.getFamily())
+                            || !cell.getQualifier().equals(column.getQualifier())) {
+                        column = cell;
+                        versions = 0;
+                    }
+                    if (versions++ < limit) {
+                        result.add(cell);
+                    }
+                }
+                return result;
+            }
+            case STRIP_VALUE_TRANSFORMER: {
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    result.add(RowCell.create(cell.getFamily(), cell.getQualifier(), cell.getTimestamp(), cell.getLabels(),
+                            ByteString.EMPTY));
+                }
+                return result;
+            }
+            case APPLY_LABEL_TRANSFORMER: {
+                List<RowCell> result = new ArrayList<>(cells.size());
+                for (RowCell cell : cells) {
+                    List<String> labels = new ArrayList<>(cell.getLabels());
+                    labels.add(filter.getApplyLabelTransformer());
+                    result.add(RowCell.create(cell.getFamily(), cell.getQualifier(), cell.getTimestamp(), labels,
+                            cell.getValue()));
+                }
+                return result;
+            }
+            case FILTER_NOT_SET:
+                return cells;
+            default:
+                throw new IllegalArgumentException("Unsupported row filter: " + filter.getFilterCase());
+        }
+    }
+
+    private static boolean matches(ByteString regex, ByteString value) {
+        return pattern(regex.toString(StandardCharsets.ISO_8859_1)).matcher(value.toString(StandardCharsets.ISO_8859_1)).matches();
+    }
+
+    // Bytes are matched as ISO-8859-1 characters, one per byte
+    private static Pattern pattern(String regex) {
+        return PATTERNS.computeIfAbsent(regex, r -> Pattern.compile(r.replace("\\C", "."), Pattern.DOTALL));
+    }
+
+    private static boolean inRange(ColumnRange range, ByteString qualifier) {
+        switch (range.getStartQualifierCase()) {
+            case START_QUALIFIER_CLOSED:
+                if (BYTES.compare(qualifier, range.getStartQualifierClosed()) < 0) {
+                    return false;
+                }
+                break;
+            case START_QUALIFIER_OPEN:
+                if (BYTES.compare(qualifier, range.getStartQualifierOpen()) <= 0) {
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+        switch (range.getEndQualifierCase()) {
+            case END_QUALIFIER_CLOSED:
+                return BYTES.compare(qualifier, range.getEndQualifierClosed()) <= 0;
+            case END_QUALIFIER_OPEN:
+                return BYTES.compare(qualifier, range.getEndQualifierOpen()) < 0;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean inRange(ValueRange range, ByteString value) {
+        switch (range.getStartValueCase()) {
+            case START_VALUE_CLOSED:
+                if (BYTES.compare(value, range.getStartValueClosed()) < 0) {
+                    return false;
+                }
+                break;
+            case START_VALUE_OPEN:
+                if (BYTES.compare(value, range.getStartValueOpen()) <= 0) {
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+        switch (range.getEndValueCase()) {
+            case END_VALUE_CLOSED:
+                return BYTES.compare(value, range.getEndValueClosed()) <= 0;
+            case END_VALUE_OPEN:
+                return BYTES.compare(value, range.getEndValueOpen()) < 0;
+            default:
+                return true;
+        }
+    }
+
+    // An end of 0 means no end
+    private static boolean inRange(TimestampRange range, long timestamp) {
+        return timestamp >= range.getStartTimestampMicros()
+                && (range.getEndTimestampMicros() == 0 || timestamp < range.getEndTimestampMicros());
+    }
+}
@@ -0,0 +1,218 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+
+/**
+ * An immutable file of sorted entries, written by SSTableWriter when a memtable is flushed or
+ * SSTables are compacted. The file is memory-mapped as a whole: opening it reads the index and
+ * the footer, and a read only touches the pages of the blocks it needs.
+ * <pre>
+ * data blocks | index | bloom filter | last row | footer
+ * </pre>
+ * A data block holds about BLOCK_BYTES of entries, each key length (4) | value length (4) | key |
+ * value, with the keys as in CellKeys. The index has an entry per block: key length (4) | first
+ * key of the block | block offset (8) | block length (4). The footer has the offsets and lengths
+ * of index, filter and last row, the number of entries, the highest sequence number and MAGIC.
+ */
+final class SSTable {
+
+    static final int FOOTER_BYTES = 3 * (8 + 4) + 8 + 8 + 8;
+    static final long MAGIC = 0x5765617468657231L; // "Weather1"
+
+    /** One mapping covers at most this much */
+    static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+    private static final Comparator<ByteString> BYTES = ByteString.unsignedLexicographicalComparator();
+
+    final long number;
+    final Path path;
+    private final ByteBuffer data;
+    private final int[] blockKeys;
+    private final int[] blockOffsets;
+    private final int[] blockLengths;
+    private final BloomFilter bloom;
+    private final ByteString firstRow;
+    private final ByteString lastRow;
+    private final long entries;
+    private final long maxSequence;
+
+    private SSTable(long number, Path path, ByteBuffer data) throws IOException {
+        this.number = number;
+        this.path = path;
+        this.data = data;
+        int footer = data.limit() - FOOTER_BYTES;
+        if (footer < 0 || data.getLong(footer + FOOTER_BYTES - 8) != MAGIC) {
+            throw new IOException("Not an SSTable: " + path);
+        }
+        int indexOffset = (int) data.getLong(footer);
+        int indexLength = data.getInt(footer + 8);
+        int bloomOffset = (int) data.getLong(footer + 12);
+        int bloomLength = data.getInt(footer + 20);
+        int lastRowOffset = (int) data.getLong(footer + 24);
+        int lastRowLength = data.getInt(footer + 32);
+        this.entries = data.getLong(footer + 36);
+        this.maxSequence = data.getLong(footer + 44);
+
+        int blocks = 0;
+        for (int entry = indexOffset; entry < indexOffset + indexLength; entry += 4 + data.getInt(entry) + 12) {
+            blocks++;
+        }
+        blockKeys = new int[blocks];
+        blockOffsets = new int[blocks];
+        blockLengths = new int[blocks];
+        int entry = indexOffset;
+        for (int b = 0; b < blocks; b++) {
+            int keyLength = data.getInt(entry);
+            blockKeys[b] = entry + 4;
+            blockOffsets[b] = (int) data.getLong(entry + 4 + keyLength);
+            blockLengths[b] = data.getInt(entry + 4 + keyLength + 8);
+            entry += 4 + keyLength + 12;
+        }
+        if (blocks == 0) {
+            throw new IOException("SSTable without entries: " + path);
+        }
+        bloom = BloomFilter.read(data, bloomOffset, bloomLength);
+        firstRow = CellKeys.copy(data, CellKeys.rowOffset(blockKeys[0]), CellKeys.rowLength(data, blockKeys[0]));
+        lastRow = CellKeys.copy(data, lastRowOffset, lastRowLength);
+    }
+
+    /**
+     * Maps an SSTable file. The mapping stays valid after the file is deleted.
+     */
+    static SSTable open(long number, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_FILE_BYTES) {
+                throw new IOException("SSTable too large to map: " + path);
+            }
+            return new SSTable(number, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    long entries() {
+        return entries;
+    }
+
+    long maxSequence() {
+        return maxSequence;
+    }
+
+    long fileBytes() {
+        return data.limit();
+    }
+
+    /**
+     * @return false if no row of the range is in this file: the range is outside its first and
+     *         last row, or it is a single row the bloom filter does not know
+     */
+    boolean mayHave(EmbeddedTable.KeyRange range) {
+        int c = BYTES.compare(range.start, lastRow);
+        if (c > 0 || c == 0 && !range.startInclusive) {
+            return false;
+        }
+        if (range.end != null) {
+            c = BYTES.compare(range.end, firstRow);
+            if (c < 0 || c == 0 && !range.endInclusive) {
+                return false;
+            }
+            if (range.startInclusive && range.endInclusive && range.start.equals(range.end)) {
+                return bloom.mightContain(range.start);
+            }
+        }
+        return true;
+    }
+
+    int blocks() {
+        return blockKeys.length;
+    }
+
+    ByteString blockRow(int block) {
+        int key = blockKeys[block];
+        return CellKeys.copy(data, CellKeys.rowOffset(key), CellKeys.rowLength(data, key));
+    }
+
+    int blockBytes(int block) {
+        return blockLengths[block];
+    }
+
+    EntryCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the entries block by block; seek() finds the block in the index and scans it.
+     */
+    private final class Cursor implements EntryCursor {
+        private int block = blockKeys.length;
+        private int entry;
+
+        @Override
+        public boolean isValid() {
+            return block < blockKeys.length;
+        }
+
+        @Override
+        public void next() {
+            entry += 8 + data.getInt(entry) + data.getInt(entry + 4);
+            if (entry >= blockOffsets[block] + blockLengths[block] && ++block < blockKeys.length) {
+                entry = blockOffsets[block];
+            }
+        }
+
+        @Override
+        public void seekToFirst() {
+            block = 0;
+            entry = blockOffsets[0];
+        }
+
+        @Override
+        public void seek(ByteBuffer buffer, int key) {
+            // Last block starting at or before the key
+            int low = 0;
+            int high = blockKeys.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (CellKeys.compare(data, blockKeys[middle], buffer, key) <= 0) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            block = low;
+            entry = blockOffsets[low];
+            while (isValid() && CellKeys.compare(data, entry + 8, buffer, key) < 0) {
+                next();
+            }
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            return data;
+        }
+
+        @Override
+        public int keyOffset() {
+            return entry + 8;
+        }
+
+        @Override
+        public int keyLength() {
+            return data.getInt(entry);
+        }
+
+        @Override
+        public int valueOffset() {
+            return entry + 8 + data.getInt(entry);
+        }
+
+        @Override
+        public int valueLength() {
+            return data.getInt(entry + 4);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes entries, added in key order, as an SSTable file (see SSTable). The file is written
+ * under a temporary name and renamed once it is complete and on disk, so an SSTable file is
+ * never partly written, and the directory is synced before the file is named in the MANIFEST.
+ */
+final class SSTableWriter implements Closeable {
+
+    static final int BLOCK_BYTES = 4096;
+
+    private final Path path;
+    private final Path temporary;
+    private final FileChannel channel;
+    private ByteBuffer block = ByteBuffer.allocate(2 * BLOCK_BYTES);
+    private long position;
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+    private long[] rowHashes = new long[1024];
+    private int rows;
+    private ByteString lastRow;
+    private long entries;
+    private long maxSequence;
+    private boolean finished;
+
+    SSTableWriter(Path path) throws IOException {
+        this.path = path;
+        this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Adds the entry at the cursor; entries must come in key order.
+     */
+    void add(EntryCursor cursor) throws IOException {
+        ByteBuffer buffer = cursor.buffer();
+        int key = cursor.keyOffset();
+        int keyLength = cursor.keyLength();
+        int valueLength = cursor.valueLength();
+        int length = 8 + keyLength + valueLength;
+        if (block.remaining() < length) {
+            writeBlock();
+            if (block.capacity() < length) {
+                block = ByteBuffer.allocate(length);
+            }
+        }
+        if (position + block.position() + length > SSTable.MAX_FILE_BYTES) {
+            throw new IllegalStateException("SSTable " + path.getFileName() + " would exceed " + SSTable.MAX_FILE_BYTES + " bytes");
+        }
+
+        if (block.position() == 0) {
+            byte[] first = new byte[keyLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(key);
+            view.get(first);
+            index.writeInt(keyLength);
+            index.write(first);
+            index.writeLong(position);
+        }
+        if (lastRow == null || CellKeys.compareRow(buffer, key, lastRow) != 0) {
+            int rowOffset = CellKeys.rowOffset(key);
+            int rowLength = CellKeys.rowLength(buffer, key);
+            lastRow = CellKeys.copy(buffer, rowOffset, rowLength);
+            if (rows == rowHashes.length) {
+                rowHashes = Arrays.copyOf(rowHashes, rows * 2);
+            }
+            rowHashes[rows++] = BloomFilter.hash(buffer, rowOffset, rowLength);
+        }
+
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(key).limit(key + keyLength);
+        block.putInt(keyLength).putInt(valueLength).put(entry);
+        entry.limit(cursor.valueOffset() + valueLength).position(cursor.valueOffset());
+        block.put(entry);
+        entries++;
+        maxSequence = Math.max(maxSequence, CellKeys.sequence(buffer, key, keyLength));
+        if (block.position() >= BLOCK_BYTES) {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (block.position() > 0) {
+            index.writeInt(block.position());
+            block.flip();
+            write(block);
+            block.clear();
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes);
+        }
+    }
+
+    /**
+     * Writes the index, bloom filter and footer, forces the file to disk and gives it its name,
+     * forcing that to disk as well.
+     */
+    void finish() throws IOException {
+        if (entries == 0) {
+            throw new IllegalStateException("SSTable " + path.getFileName() + " has no entries");
+        }
+        writeBlock();
+        index.flush();
+        long indexOffset = position;
+        write(ByteBuffer.wrap(indexBytes.toByteArray()));
+        long bloomOffset = position;
+        write(ByteBuffer.wrap(BloomFilter.build(rowHashes, rows)));
+        long lastRowOffset = position;
+        write(lastRow.asReadOnlyByteBuffer());
+        ByteBuffer footer = ByteBuffer.allocate(SSTable.FOOTER_BYTES)
+                .putLong(indexOffset).putInt((int) (bloomOffset - indexOffset))
+                .putLong(bloomOffset).putInt((int) (lastRowOffset - bloomOffset))
+                .putLong(lastRowOffset).putInt(lastRow.size())
+                .putLong(entries)
+                .putLong(maxSequence)
+                .putLong(SSTable.MAGIC);
+        footer.flip();
+        write(footer);
+        channel.force(true);
+        channel.close();
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        TableFiles.syncDirectory(path.getParent());
+    }
+
+    /**
+     * Deletes the temporary file unless finish() completed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.akshay.bigtable.embedded;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The directory of a persistent table: SSTables (000012.sst), write-ahead logs (000013.log) and
+ * the MANIFEST, which names the column families, the SSTables of the table and the first log
+ * that is not yet in them. Files are numbered in the order they are created.
+ * <p>
+ * The MANIFEST is replaced as a whole, through a temporary file and a rename, whenever the files
+ * of the table change, so the table is always opened as it was after the last complete flush or
+ * compaction. Files it does not name are left over from an unfinished one and get deleted.
+ * <p>
+ * A file is only named in the MANIFEST once its name is on disk as well: the directory is synced
+ * after an SSTable or log file is created and after the MANIFEST is renamed, so a crash cannot
+ * leave a MANIFEST behind that names a file the file system forgot, nor drop a log before the
+ * MANIFEST that replaces it.
+ */
+final class TableFiles {
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String SSTABLE = ".sst";
+    private static final String LOG = ".log";
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    /**
+     * Contents of the MANIFEST.
+     */
+    static final class Manifest {
+        final List<String> families;
+        final List<Long> sstables;
+        final long logNumber;
+
+        Manifest(List<String> families, List<Long> sstables, long logNumber) {
+            this.families = families;
+            this.sstables = sstables;
+            this.logNumber = logNumber;
+        }
+    }
+
+    final Path directory;
+    private final AtomicLong nextNumber = new AtomicLong(1);
+
+    TableFiles(Path directory) throws IOException {
+        this.directory = directory;
+        for (Path file : list()) {
+            long number = number(file);
+            if (number >= nextNumber.get()) {
+                nextNumber.set(number + 1);
+            }
+        }
+    }
+
+    static boolean exists(Path directory) {
+        return Files.isRegularFile(directory.resolve(MANIFEST));
+    }
+
+    long newNumber() {
+        return nextNumber.getAndIncrement();
+    }
+
+    Path sstable(long number) {
+        return directory.resolve(String.format("%06d%s", number, SSTABLE));
+    }
+
+    Path log(long number) {
+        return directory.resolve(String.format("%06d%s", number, LOG));
+    }
+
+    /**
+     * Numbers of the logs from the given one on, in order
+     */
+    List<Long> logsFrom(long logNumber) throws IOException {
+        List<Long> logs = new ArrayList<>();
+        for (Path file : list()) {
+            if (file.getFileName().toString().endsWith(LOG) && number(file) >= logNumber) {
+                logs.add(number(file));
+            }
+        }
+        Collections.sort(logs);
+        return logs;
+    }
+
+    Manifest readManifest() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(MANIFEST))) {
+            properties.load(in);
+        }
+        List<Long> sstables = new ArrayList<>();
+        for (String number : split(properties.getProperty("sstables", ""))) {
+            sstables.add(Long.parseLong(number));
+        }
+        return new Manifest(split(properties.getProperty("families", "")), sstables,
+                Long.parseLong(properties.getProperty("log", "0")));
+    }
+
+    private static List<String> split(String list) {
+        return list.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(list.split(",")));
+    }
+
+    void writeManifest(Collection<String> families, Collection<SSTable> sstables, long logNumber) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("families", String.join(",", families));
+        List<String> numbers = new ArrayList<>();
+        for (SSTable sstable : sstables) {
+            numbers.add(Long.toString(sstable.number));
+        }
+        properties.setProperty("sstables", String.join(",", numbers));
+        properties.setProperty("log", Long.toString(logNumber));
+
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, null);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory);
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so the files created, renamed or deleted in it
+     * stay that way after a crash. Windows cannot open a directory as a file; there the change
+     * is already in the journal of NTFS.
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Deletes the SSTables not in use, the logs before the given one and temporary files. Only
+     * for opening the table, while no flush or compaction writes files.
+     */
+    void deleteObsolete(Set<Long> sstables, long logNumber) throws IOException {
+        for (Path file : list()) {
+            String name = file.getFileName().toString();
+            boolean obsolete = name.endsWith(".tmp")
+                    || name.endsWith(SSTABLE) && !sstables.contains(number(file))
+                    || name.endsWith(LOG) && number(file) < logNumber;
+            if (obsolete) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file if it can. One that cannot be deleted yet, e.g. an SSTable still mapped on
+     * Windows, is deleted when the table is opened again.
+     */
+    static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the table: the MANIFEST first, so a directory left half deleted is not opened again.
+     */
+    void deleteAll() throws IOException {
+        Files.deleteIfExists(directory.resolve(MANIFEST));
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    delete(file);
+                }
+            }
+            delete(directory);
+        }
+    }
+
+    // Numbered files of the directory
+    private List<Path> list() throws IOException {
+        List<Path> numbered = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return numbered;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (number(file) >= 0) {
+                    numbered.add(file);
+                }
+            }
+        }
+        return numbered;
+    }
+
+    // Number of a file named like 000012.sst, else -1
+    private static long number(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        if (dot <= 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
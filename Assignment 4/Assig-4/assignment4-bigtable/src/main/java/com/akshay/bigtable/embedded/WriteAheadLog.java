@@ -0,0 +1,222 @@
+package com.akshay.bigtable.embedded;
+
+import com.google.protobuf.ByteString;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of a persistent table. Every row mutation is appended as one record before it
+ * goes into the memtable, and the records not yet in an SSTable are replayed when the table is
+ * opened again. The log is a file per memtable: roll() starts the next one when the memtable is
+ * switched, and a file is deleted once its memtable is flushed.
+ * <p>
+ * Appending only copies the record to a buffer. sync() makes the log durable up to a position
+ * with group commit: the first caller writes out everything appended so far and forces it to
+ * disk, and callers arriving meanwhile wait for that and share the next force. Positions count
+ * the bytes appended over all files of the log.
+ * <p>
+ * A record is length (4) | CRC32 of the payload (4) | payload, the payload being the entries of
+ * the row: key length (4) | key | value length (4) | value, with the keys as in CellKeys.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final int HEADER = 8;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_BYTES);
+    private long appended;
+    private long written;
+    private long synced;
+    private boolean syncing;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Starts a log in a new file.
+     */
+    WriteAheadLog(Path path) throws IOException {
+        channel = open(path);
+    }
+
+    // Creates the file and syncs its directory, so the records synced to it are not lost with its name
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            TableFiles.syncDirectory(path.getParent());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Appends the entries of a row mutation as one record.
+     *
+     * @return position to pass to sync() to make the record durable
+     */
+    synchronized long append(List<byte[]> keys, List<ByteString> values) throws IOException {
+        int length = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            length += 8 + keys.get(i).length + values.get(i).size();
+        }
+        if (pending.remaining() < HEADER + length) {
+            writePending();
+            if (pending.capacity() < HEADER + length) {
+                pending = ByteBuffer.allocate(HEADER + length);
+            }
+        }
+        int start = pending.position();
+        pending.putInt(length).putInt(0);
+        for (int i = 0; i < keys.size(); i++) {
+            pending.putInt(keys.get(i).length).put(keys.get(i));
+            pending.putInt(values.get(i).size());
+            values.get(i).copyTo(pending);
+        }
+        ByteBuffer payload = pending.duplicate();
+        payload.position(start + HEADER).limit(pending.position());
+        crc.reset();
+        crc.update(payload);
+        pending.putInt(start + 4, (int) crc.getValue());
+        appended += HEADER + length;
+        return appended;
+    }
+
+    private void writePending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            written += channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Returns once the log is on disk up to the position, forcing it there unless another thread
+     * already is.
+     */
+    void sync(long position) throws IOException {
+        FileChannel forced;
+        long target;
+        synchronized (this) {
+            while (syncing && synced < position) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the log");
+                }
+            }
+            if (synced >= position) {
+                return;
+            }
+            writePending();
+            syncing = true;
+            forced = channel;
+            target = written;
+        }
+        boolean done = false;
+        try {
+            forced.force(false);
+            done = true;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (done) {
+                    synced = Math.max(synced, target);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Syncs and closes the current file and continues the log in a new one.
+     */
+    synchronized void roll(Path next) throws IOException {
+        finish();
+        channel = open(next);
+    }
+
+    private void finish() throws IOException {
+        while (syncing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the log");
+            }
+        }
+        writePending();
+        channel.force(false);
+        channel.close();
+        synced = written;
+    }
+
+    /**
+     * Syncs and closes the log.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            finish();
+        }
+    }
+
+    /**
+     * Passes the records of a log file to the consumer, as the keys and values of each. Reading
+     * stops at the first incomplete or damaged record, i.e. at what was being written when the
+     * process stopped.
+     *
+     * @return records read
+     */
+    static int replay(Path path, BiConsumer<List<byte[]>, List<ByteString>> consumer) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+        CRC32 crc = new CRC32();
+        int records = 0;
+        int position = 0;
+        while (buffer.limit() - position >= HEADER) {
+            int length = buffer.getInt(position);
+            if (length < 0 || length > buffer.limit() - position - HEADER) {
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(position + HEADER).limit(position + HEADER + length);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            List<byte[]> keys = new ArrayList<>();
+            List<ByteString> values = new ArrayList<>();
+            int entry = position + HEADER;
+            while (entry < position + HEADER + length) {
+                byte[] key = new byte[buffer.getInt(entry)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(entry + 4);
+                view.get(key);
+                entry += 4 + key.length;
+                int valueLength = buffer.getInt(entry);
+                keys.add(key);
+                values.add(CellKeys.copy(buffer, entry + 4, valueLength));
+                entry += 4 + valueLength;
+            }
+            consumer.accept(keys, values);
+            records++;
+            position += HEADER + length;
+        }
+        return records;
+    }
+}
@@ -0,0 +1,54 @@
+package com.akshay.bigtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+public class CellEncodingTest {
+
+    private static void assertRejected(String column, String field) {
+        try {
+            CellEncoding.BINARY.encode(column, field);
+            fail(column + " " + field + " was encoded");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("out of range"));
+        }
+    }
+
+    @Test
+    public void binaryKeepsTheExtremeValues() {
+        assertEquals(-32767, CellEncoding.BINARY.intValue(CellEncoding.BINARY.encode(SensorColumns.TEMPERATURE, "-32767")));
+        assertEquals(32767, CellEncoding.BINARY.intValue(CellEncoding.BINARY.encode(SensorColumns.TEMPERATURE, "32767")));
+        assertEquals(-32767, CellEncoding.BINARY.tenthsValue(SensorColumns.PRESSURE,
+                CellEncoding.BINARY.encode(SensorColumns.PRESSURE, "-3276.7")));
+    }
+
+    @Test
+    public void binaryRejectsTheMissingSentinel() {
+        // -32768 would be stored as 0x0000 and read back as missing
+        assertRejected(SensorColumns.TEMPERATURE, "-32768");
+        assertRejected(SensorColumns.PRESSURE, "-3276.8");
+        assertRejected(SensorColumns.TEMPERATURE, "32768");
+    }
+
+    @Test
+    public void binaryStoresMissingAsZero() {
+        ByteString missing = CellEncoding.BINARY.encode(SensorColumns.TEMPERATURE, SensorColumns.MISSING);
+        assertEquals(ByteString.copyFrom(new byte[2]), missing);
+        assertEquals(SensorColumns.NO_VALUE, CellEncoding.BINARY.intValue(missing));
+        assertEquals(SensorColumns.MISSING, CellEncoding.BINARY.text(SensorColumns.TEMPERATURE, missing));
+    }
+
+    @Test
+    public void binaryBytesSortLikeTheValues() {
+        ByteString low = CellEncoding.BINARY.encode(SensorColumns.TEMPERATURE, "-32767");
+        ByteString minusOne = CellEncoding.BINARY.encode(SensorColumns.TEMPERATURE, "-1");
+        ByteString zero = CellEncoding.BINARY.encode(SensorColumns.TEMPERATURE, "0");
+        assertTrue(ByteString.unsignedLexicographicalComparator().compare(low, minusOne) < 0);
+        assertTrue(ByteString.unsignedLexicographicalComparator().compare(minusOne, zero) < 0);
+        assertTrue(ByteString.unsignedLexicographicalComparator().compare(ByteString.copyFrom(new byte[2]), low) < 0);
+    }
+}
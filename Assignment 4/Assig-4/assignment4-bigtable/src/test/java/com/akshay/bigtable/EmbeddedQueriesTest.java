@@ -0,0 +1,57 @@
+package com.akshay.bigtable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Loads the bundled CSV files into the embedded store and checks the answers of query1-4.
+ */
+public class EmbeddedQueriesTest {
+
+    private static Bigtable bigtable;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        bigtable = new Bigtable();
+        bigtable.embedded = true;
+        bigtable.connect();
+        bigtable.createTable();
+        bigtable.openTable();
+        bigtable.loadData();
+    }
+
+    @AfterClass
+    public static void close() {
+        if (bigtable != null) {
+            bigtable.close();
+        }
+    }
+
+    @Test
+    public void query1ReturnsTheTemperatureAtVancouver() throws Exception {
+        assertEquals(52, bigtable.query1());
+    }
+
+    @Test
+    public void query2ReturnsTheHighestWindSpeedAtPortland() throws Exception {
+        assertEquals(25, bigtable.query2());
+    }
+
+    @Test
+    public void query3ReturnsTheHourlyReadingsAtSeaTac() throws Exception {
+        ArrayList<Object[]> readings = bigtable.query3();
+        assertEquals(24, readings.size());
+        assertArrayEquals(new Object[]{"2022-10-02", "00", 74, 53, "47.8", "9", "1014.1"}, readings.get(0));
+        assertArrayEquals(new Object[]{"2022-10-02", "23", 79, 51, "37.6", "4", "1015.2"}, readings.get(23));
+    }
+
+    @Test
+    public void query4ReturnsTheHighestSummerTemperature() throws Exception {
+        assertEquals(101, bigtable.query4());
+    }
+}
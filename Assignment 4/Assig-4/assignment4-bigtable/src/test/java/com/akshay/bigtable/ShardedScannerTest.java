@@ -0,0 +1,114 @@
+package com.akshay.bigtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.akshay.bigtable.embedded.EmbeddedBackend;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedScannerTest {
+
+    private static final String TABLE = "readings";
+    private static final int SHARDS = 10;
+
+    private EmbeddedBackend embedded;
+    private final AtomicInteger started = new AtomicInteger();
+
+    @Before
+    public void createTable() {
+        embedded = new EmbeddedBackend();
+        embedded.createTable(TABLE, "sensor");
+        for (int i = 0; i < 100; i++) {
+            embedded.mutateRow(RowMutation.create(TABLE, String.format("row%02d", i)).setCell("sensor", "temperature", Integer.toString(i)));
+        }
+    }
+
+    @After
+    public void close() {
+        embedded.close();
+    }
+
+    /**
+     * The embedded backend, except that the first stream fails a moment after it started.
+     */
+    @SuppressWarnings("unchecked")
+    private StorageBackend firstStreamFails() {
+        return (StorageBackend) Proxy.newProxyInstance(StorageBackend.class.getClassLoader(),
+                new Class<?>[] {StorageBackend.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("readRowsAsync") && started.getAndIncrement() == 0) {
+                        ResponseObserver<Row> observer = (ResponseObserver<Row>) args[1];
+                        new Thread(() -> {
+                            observer.onStart(new NoController());
+                            try {
+                                Thread.sleep(100);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            observer.onError(new IllegalStateException("Shard failed"));
+                        }).start();
+                        return null;
+                    }
+                    try {
+                        return method.invoke(embedded, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static final class NoController implements StreamController {
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+    }
+
+    private static List<Query> shards() {
+        List<Query> shards = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            shards.add(Query.create(TABLE).prefix(String.format("row%d", i)));
+        }
+        return shards;
+    }
+
+    @Test
+    public void noShardStartsOnceOneFailed() throws Exception {
+        // One stream at a time: the next shard waits for the failing one
+        ShardedScanner scanner = new ShardedScanner(firstStreamFails(), TABLE, 1, 1024 * 1024);
+        try {
+            scanner.aggregate(shards(), "sensor", "temperature", CellEncoding.TEXT);
+            fail("The failed shard was not reported");
+        } catch (IllegalStateException e) {
+            assertEquals("Shard failed", e.getMessage());
+        }
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void allShardsAreAggregated() throws Exception {
+        ShardedScanner scanner = new ShardedScanner(embedded, TABLE, 3, 1024 * 1024);
+        ShardedScanner.Aggregate aggregate = scanner.aggregate(shards(), "sensor", "temperature", CellEncoding.TEXT);
+        assertEquals(100, aggregate.count);
+        assertEquals(99, aggregate.max);
+        assertEquals(0, aggregate.min);
+    }
+}
@@ -0,0 +1,178 @@
+package com.akshay.bigtable.embedded;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactionTest {
+
+    private static final ByteString FAMILY = ByteString.copyFromUtf8("f");
+    private static final ByteString QUALIFIER = ByteString.copyFromUtf8("q");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TableFiles files;
+    private long sequence;
+
+    @Before
+    public void openFiles() throws Exception {
+        files = new TableFiles(folder.getRoot().toPath());
+    }
+
+    private void put(OffHeapSkipList entries, String row, long timestamp, String value) {
+        add(entries, CellKeys.encode(ByteString.copyFromUtf8(row), FAMILY, QUALIFIER, timestamp, CellKeys.PUT), value);
+    }
+
+    private void add(OffHeapSkipList entries, byte[] key, String value) {
+        add(entries, key, ByteString.copyFromUtf8(value));
+    }
+
+    private void add(OffHeapSkipList entries, byte[] key, ByteString value) {
+        CellKeys.setSequence(key, ++sequence);
+        entries.insert(key, value);
+    }
+
+    private SSTable flush(OffHeapSkipList entries) throws Exception {
+        List<SSTable> written = Compaction.write(entries.cursor(), false, files, () -> false);
+        assertEquals(1, written.size());
+        return written.get(0);
+    }
+
+    // Row@timestamp=value of a cell, row:KIND of a tombstone
+    private static List<String> read(SSTable sstable) {
+        List<String> entries = new ArrayList<>();
+        EntryCursor cursor = sstable.cursor();
+        for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+            ByteBuffer buffer = cursor.buffer();
+            int key = cursor.keyOffset();
+            String row = CellKeys.copy(buffer, CellKeys.rowOffset(key), CellKeys.rowLength(buffer, key)).toStringUtf8();
+            byte kind = CellKeys.kind(buffer, key, cursor.keyLength());
+            if (kind == CellKeys.PUT) {
+                entries.add(row + "@" + CellKeys.timestamp(buffer, key, cursor.keyLength()) + "="
+                        + CellKeys.copy(buffer, cursor.valueOffset(), cursor.valueLength()).toStringUtf8());
+            } else {
+                entries.add(row + ":" + (kind == CellKeys.DELETE_ROW ? "DELETE_ROW" : "DELETE_FAMILY"));
+            }
+        }
+        return entries;
+    }
+
+    private List<SSTable> olderAndNewer() throws Exception {
+        OffHeapSkipList older = new OffHeapSkipList(4096);
+        put(older, "a", 10, "a-old");
+        put(older, "b", 10, "b");
+        put(older, "c", 10, "c-old");
+        put(older, "d", 10, "d");
+        SSTable first = flush(older);
+
+        OffHeapSkipList newer = new OffHeapSkipList(4096);
+        put(newer, "a", 20, "a-new");
+        add(newer, CellKeys.encode(ByteString.copyFromUtf8("b"), ByteString.EMPTY, ByteString.EMPTY,
+                CellKeys.TOMBSTONE_TIMESTAMP, CellKeys.DELETE_ROW), "");
+        add(newer, CellKeys.encode(ByteString.copyFromUtf8("c"), FAMILY, ByteString.EMPTY,
+                CellKeys.TOMBSTONE_TIMESTAMP, CellKeys.DELETE_FAMILY), "");
+        put(newer, "c", 5, "c-new"); // Written after the delete, with an older timestamp
+        add(newer, CellKeys.encode(ByteString.copyFromUtf8("d"), ByteString.EMPTY, ByteString.EMPTY,
+                CellKeys.TOMBSTONE_TIMESTAMP, CellKeys.DELETE_ROW), "");
+        put(newer, "d", 10, "d-again"); // Same version as the deleted cell
+        SSTable second = flush(newer);
+        return Arrays.asList(first, second);
+    }
+
+    private List<String> compact(List<SSTable> inputs, boolean all) throws Exception {
+        List<EntryCursor> cursors = new ArrayList<>();
+        for (SSTable input : inputs) {
+            cursors.add(input.cursor());
+        }
+        List<SSTable> outputs = Compaction.write(new MergingCursor(cursors), all, files, () -> false);
+        assertEquals(1, outputs.size());
+        assertEquals(sequence, outputs.get(0).maxSequence());
+        return read(outputs.get(0));
+    }
+
+    @Test
+    public void compactionOfAllSSTablesDropsDeletedCellsAndTombstones() throws Exception {
+        assertEquals(Arrays.asList("a@20=a-new", "c@5=c-new", "d@10=d-again"), compact(olderAndNewer(), true));
+    }
+
+    @Test
+    public void compactionOfSomeSSTablesKeepsTheTombstones() throws Exception {
+        // Older SSTables may still hold cells the tombstones hide
+        assertEquals(Arrays.asList("a@20=a-new", "b:DELETE_ROW", "c:DELETE_FAMILY", "c@5=c-new", "d:DELETE_ROW",
+                "d@10=d-again"), compact(olderAndNewer(), false));
+    }
+
+    @Test
+    public void compactionWritesNothingWhenEverythingIsDeleted() throws Exception {
+        OffHeapSkipList older = new OffHeapSkipList(4096);
+        put(older, "a", 10, "a");
+        SSTable first = flush(older);
+        OffHeapSkipList newer = new OffHeapSkipList(4096);
+        add(newer, CellKeys.encode(ByteString.copyFromUtf8("a"), ByteString.EMPTY, ByteString.EMPTY,
+                CellKeys.TOMBSTONE_TIMESTAMP, CellKeys.DELETE_ROW), "");
+        SSTable second = flush(newer);
+        assertEquals(0, Compaction.write(new MergingCursor(Arrays.asList(first.cursor(), second.cursor())), true, files,
+                () -> false).size());
+    }
+
+    @Test
+    public void pickMergesOnlySSTablesAdjacentInAge() throws Exception {
+        OffHeapSkipList newest = new OffHeapSkipList(4096);
+        put(newest, "a", 20, "a-20");
+        SSTable first = flush(newest);
+
+        // Deletes version 20 of a, among enough other rows to make the file too large to merge
+        OffHeapSkipList deletes = new OffHeapSkipList(64 * 1024);
+        add(deletes, CellKeys.encode(ByteString.copyFromUtf8("a"), FAMILY, QUALIFIER, CellKeys.TOMBSTONE_TIMESTAMP,
+                CellKeys.DELETE_COLUMN), ByteString.copyFrom(ByteBuffer.allocate(16).putLong(20).putLong(21).array()));
+        for (int i = 0; i < 200; i++) {
+            put(deletes, String.format("z%03d", i), 10, "filler ".repeat(10));
+        }
+        SSTable second = flush(deletes);
+
+        // Written after the delete, with an older timestamp: the live cell of a
+        List<SSTable> newer = new ArrayList<>();
+        OffHeapSkipList after = new OffHeapSkipList(4096);
+        put(after, "a", 10, "a-10");
+        newer.add(flush(after));
+        for (int i = 0; i < 3; i++) {
+            OffHeapSkipList more = new OffHeapSkipList(4096);
+            put(more, "b" + i, 10, "b");
+            newer.add(flush(more));
+        }
+
+        List<SSTable> sstables = new ArrayList<>(newer);
+        sstables.add(second);
+        sstables.add(first);
+        Collections.shuffle(sstables);
+        List<SSTable> picked = Compaction.pick(sstables, second.fileBytes() - 1);
+        // Ordered by size, the first SSTable would be picked with the newer ones, and a-10 dropped for a-20
+        assertEquals(newer, picked);
+        assertEquals(Arrays.asList("a@10=a-10", "b0@10=b", "b1@10=b", "b2@10=b"), compact(picked, false));
+    }
+
+    @Test
+    public void pickLeavesTooFewAdjacentSSTables() throws Exception {
+        List<SSTable> sstables = new ArrayList<>();
+        for (int i = 0; i < Compaction.MIN_INPUTS - 1; i++) {
+            OffHeapSkipList entries = new OffHeapSkipList(4096);
+            put(entries, "r" + i, 10, "v");
+            sstables.add(flush(entries));
+        }
+        assertEquals(Collections.emptyList(), Compaction.pick(sstables, Long.MAX_VALUE));
+        OffHeapSkipList entries = new OffHeapSkipList(4096);
+        put(entries, "r", 10, "v");
+        sstables.add(flush(entries));
+        assertEquals(sstables, Compaction.pick(sstables, Long.MAX_VALUE));
+    }
+}
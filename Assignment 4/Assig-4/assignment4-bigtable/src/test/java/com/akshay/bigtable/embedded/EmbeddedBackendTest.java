@@ -0,0 +1,187 @@
+package com.akshay.bigtable.embedded;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.akshay.bigtable.CellEncoding;
+import com.akshay.bigtable.ShardedScanner;
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.batching.Batcher;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EmbeddedBackendTest {
+
+    private static final String TABLE = "readings";
+    private static final int ROWS = 50;
+
+    private EmbeddedBackend backend;
+
+    @Before
+    public void createTable() {
+        backend = new EmbeddedBackend();
+        backend.createTable(TABLE, "sensor");
+        for (int i = 0; i < ROWS; i++) {
+            backend.mutateRow(RowMutation.create(TABLE, String.format("row%02d", i)).setCell("sensor", "temperature", Integer.toString(i)));
+        }
+    }
+
+    @After
+    public void close() {
+        backend.close();
+    }
+
+    /**
+     * Takes over flow control and records the rows and the end of the stream.
+     */
+    private static final class ManualObserver implements ResponseObserver<Row> {
+        final AtomicInteger received = new AtomicInteger();
+        final CompletableFuture<Integer> done = new CompletableFuture<>();
+        volatile StreamController controller;
+        private final int initialRequest;
+
+        ManualObserver(int initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onStart(StreamController controller) {
+            this.controller = controller;
+            controller.disableAutoInboundFlowControl();
+            controller.request(initialRequest);
+        }
+
+        @Override
+        public void onResponse(Row row) {
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done.completeExceptionally(t);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(received.get());
+        }
+
+        // Waits until no further rows arrive for a while
+        int settle() throws InterruptedException {
+            int seen;
+            do {
+                seen = received.get();
+                Thread.sleep(100);
+            } while (received.get() != seen);
+            return seen;
+        }
+    }
+
+    @Test
+    public void streamSendsOnlyTheRequestedRows() throws Exception {
+        ManualObserver observer = new ManualObserver(3);
+        backend.readRowsAsync(Query.create(TABLE), observer);
+        assertEquals(3, observer.settle());
+        assertFalse(observer.done.isDone());
+
+        observer.controller.request(10);
+        assertEquals(13, observer.settle());
+        assertFalse(observer.done.isDone());
+
+        observer.controller.request(ROWS); // One more than is left, for the end of the stream
+        assertEquals(ROWS, (int) observer.done.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledStreamEndsWithCancellationException() throws Exception {
+        ManualObserver observer = new ManualObserver(5);
+        backend.readRowsAsync(Query.create(TABLE), observer);
+        assertEquals(5, observer.settle());
+        observer.controller.cancel();
+        try {
+            observer.done.get(10, TimeUnit.SECONDS);
+            fail("The stream completed after cancel()");
+        } catch (CancellationException e) {
+            // CompletableFuture rethrows a CancellationException as it is
+        }
+        assertEquals(5, observer.received.get());
+    }
+
+    @Test
+    public void shardedScannerAggregatesWithARowAtATime() throws Exception {
+        // One byte outstanding: every stream asks for a window of one row
+        ShardedScanner scanner = new ShardedScanner(backend, TABLE, 2, 1);
+        ShardedScanner.Aggregate aggregate = scanner.aggregate(Arrays.asList(
+                Query.create(TABLE).range("row00", "row20"),
+                Query.create(TABLE).range("row20", "row35"),
+                Query.create(TABLE).range("row35", "row99")), "sensor", "temperature", CellEncoding.TEXT);
+        assertEquals(ROWS, aggregate.rows);
+        assertEquals(ROWS, aggregate.count);
+        assertEquals(0, aggregate.min);
+        assertEquals(ROWS - 1, aggregate.max);
+        assertEquals(ROWS * (ROWS - 1) / 2, aggregate.sum);
+    }
+
+    @Test
+    public void shardedScannerReadsSampledShards() throws Exception {
+        ShardedScanner scanner = new ShardedScanner(backend, TABLE, 16, 16L * 1024 * 1024);
+        ShardedScanner.Aggregate aggregate = scanner.aggregate(scanner.sampledShards(Query.create(TABLE)),
+                "sensor", "temperature", CellEncoding.TEXT);
+        assertEquals(ROWS, aggregate.count);
+        assertEquals(ROWS - 1, aggregate.max);
+    }
+
+    @Test
+    public void batcherCloseReportsFailedEntries() throws Exception {
+        Batcher<RowMutationEntry, Void> batcher = backend.newBulkMutationBatcher(TABLE);
+        ApiFuture<Void> good = batcher.add(RowMutationEntry.create("row99").setCell("sensor", "temperature", "99"));
+        ApiFuture<Void> bad = batcher.add(RowMutationEntry.create("row98").setCell("unknown", "temperature", "98"));
+        try {
+            batcher.close();
+            fail("close() did not report the failed entry");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 failed entries"));
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        good.get();
+        assertTrue(bad.isDone());
+        try {
+            bad.get();
+            fail("The future of the failed entry succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals("99", backend.readRow(TABLE, "row99").getCells().get(0).getValue().toStringUtf8());
+    }
+
+    @Test
+    public void batcherWithoutFailuresClosesQuietly() throws Exception {
+        Batcher<RowMutationEntry, Void> batcher = backend.newBulkMutationBatcher(TABLE);
+        batcher.add(RowMutationEntry.create("row99").setCell("sensor", "temperature", "99"));
+        batcher.close();
+        assertEquals(ROWS + 1, count(backend.readRows(Query.create(TABLE))));
+    }
+
+    private static int count(Iterable<Row> rows) {
+        int count = 0;
+        for (Row ignored : rows) {
+            count++;
+        }
+        return count;
+    }
+}
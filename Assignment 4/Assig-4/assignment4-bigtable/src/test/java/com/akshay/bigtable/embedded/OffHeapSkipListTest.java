@@ -0,0 +1,125 @@
+package com.akshay.bigtable.embedded;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class OffHeapSkipListTest {
+
+    private static final ByteString FAMILY = ByteString.copyFromUtf8("f");
+
+    private static byte[] key(int row, int qualifier, long timestamp, long sequence) {
+        byte[] key = CellKeys.encode(ByteString.copyFromUtf8(String.format("row%05d", row)), FAMILY,
+                ByteString.copyFromUtf8("q" + qualifier), timestamp, CellKeys.PUT);
+        CellKeys.setSequence(key, sequence);
+        return key;
+    }
+
+    private static byte[] currentKey(EntryCursor cursor) {
+        byte[] key = new byte[cursor.keyLength()];
+        ByteBuffer view = cursor.buffer().duplicate();
+        view.position(cursor.keyOffset());
+        view.get(key);
+        return key;
+    }
+
+    // Walks the list once, failing on a key out of order, and returns the entries seen
+    private static int checkOrder(OffHeapSkipList list) {
+        int entries = 0;
+        byte[] previous = null;
+        EntryCursor cursor = list.cursor();
+        for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+            byte[] key = currentKey(cursor);
+            if (previous != null) {
+                assertTrue("keys out of order", CellKeys.compare(ByteBuffer.wrap(previous), 0, ByteBuffer.wrap(key), 0) < 0);
+            }
+            previous = key;
+            entries++;
+        }
+        return entries;
+    }
+
+    @Test
+    public void cursorReturnsEntriesInKeyOrder() {
+        OffHeapSkipList list = new OffHeapSkipList(4096);
+        list.insert(key(2, 1, 10, 1), ByteString.copyFromUtf8("old"));
+        list.insert(key(2, 1, 20, 2), ByteString.copyFromUtf8("new"));
+        list.insert(key(1, 2, 10, 3), ByteString.copyFromUtf8("b"));
+        list.insert(key(1, 1, 10, 4), ByteString.copyFromUtf8("a"));
+        list.insert(key(2, 1, 20, 5), ByteString.copyFromUtf8("rewritten"));
+
+        List<String> values = new ArrayList<>();
+        EntryCursor cursor = list.cursor();
+        for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+            values.add(CellKeys.copy(cursor.buffer(), cursor.valueOffset(), cursor.valueLength()).toStringUtf8());
+        }
+        // Row, then qualifier, then newest timestamp, then latest write
+        assertEquals(List.of("a", "b", "rewritten", "new", "old"), values);
+        assertEquals(5, list.entries());
+    }
+
+    @Test
+    public void seekFindsTheFirstEntryOfARow() {
+        OffHeapSkipList list = new OffHeapSkipList(4096);
+        for (int row = 0; row < 100; row += 2) {
+            list.insert(key(row, 1, 10, row + 1), ByteString.copyFromUtf8("v" + row));
+        }
+        EntryCursor cursor = list.cursor();
+        cursor.seek(ByteBuffer.wrap(CellKeys.rowStart(ByteString.copyFromUtf8("row00040"))), 0);
+        assertEquals("v40", CellKeys.copy(cursor.buffer(), cursor.valueOffset(), cursor.valueLength()).toStringUtf8());
+        cursor.seek(ByteBuffer.wrap(CellKeys.rowStart(ByteString.copyFromUtf8("row00041"))), 0);
+        assertEquals("v42", CellKeys.copy(cursor.buffer(), cursor.valueOffset(), cursor.valueLength()).toStringUtf8());
+        cursor.seek(ByteBuffer.wrap(CellKeys.rowStart(ByteString.copyFromUtf8("row99999"))), 0);
+        assertFalse(cursor.isValid());
+    }
+
+    @Test
+    public void readersSeeOrderedEntriesWhileTheWriterInserts() throws Exception {
+        int inserts = 20_000;
+        OffHeapSkipList list = new OffHeapSkipList(64 * 1024); // Small chunks, so the readers cross many
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> passes = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                passes.add(readers.submit(() -> {
+                    int seen = 0;
+                    int count = 0;
+                    do {
+                        int entries = checkOrder(list);
+                        assertTrue("entries disappeared", entries >= seen);
+                        seen = entries;
+                        count++;
+                    } while (writing.get());
+                    return count;
+                }));
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < inserts; i++) {
+                list.insert(key(random.nextInt(5000), random.nextInt(4), random.nextInt(100), i + 1),
+                        ByteString.copyFromUtf8("value" + i));
+            }
+            writing.set(false);
+            for (Future<Integer> pass : passes) {
+                assertTrue(pass.get(1, TimeUnit.MINUTES) > 0);
+            }
+        } finally {
+            writing.set(false);
+            readers.shutdownNow();
+        }
+        assertEquals(inserts, checkOrder(list));
+        assertEquals(inserts, list.entries());
+    }
+}
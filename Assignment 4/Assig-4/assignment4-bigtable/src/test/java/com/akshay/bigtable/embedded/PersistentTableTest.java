@@ -0,0 +1,213 @@
+package com.akshay.bigtable.embedded;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.gax.batching.Batcher;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutation;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Persistent tables across a restart (the backend closed and opened again) and a crash (the
+ * backend abandoned without close(), so the table is opened from its logs).
+ */
+public class PersistentTableTest {
+
+    private static final String TABLE = "weather";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() {
+        directory = folder.getRoot().toPath();
+    }
+
+    // Small memtables and chunks, so a few thousand rows are flushed and compacted many times
+    private EmbeddedBackend open() throws Exception {
+        return new EmbeddedBackend(directory, 16 * 1024, 64 * 1024, 16L * 1024 * 1024);
+    }
+
+    private static List<String> readAll(EmbeddedBackend backend) {
+        List<String> cells = new ArrayList<>();
+        for (Row row : backend.readRows(Query.create(TABLE))) {
+            for (RowCell cell : row.getCells()) {
+                cells.add(row.getKey().toStringUtf8() + " " + cell.getFamily() + ":" + cell.getQualifier().toStringUtf8()
+                        + "@" + cell.getTimestamp() + "=" + cell.getValue().toStringUtf8());
+            }
+        }
+        return cells;
+    }
+
+    private static String value(EmbeddedBackend backend, String rowKey) {
+        Row row = backend.readRow(TABLE, rowKey);
+        if (row == null) {
+            return null;
+        }
+        List<RowCell> cells = row.getCells("sensor", "temperature");
+        assertEquals(1, cells.size());
+        return cells.get(0).getValue().toStringUtf8();
+    }
+
+    private Path lastLog() throws Exception {
+        Path last = null;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory.resolve(TABLE), "*.log")) {
+            for (Path log : logs) {
+                if (last == null || log.getFileName().toString().compareTo(last.getFileName().toString()) > 0) {
+                    last = log;
+                }
+            }
+        }
+        return last;
+    }
+
+    @Test
+    public void restartReadsEqualReadsBeforeRestart() throws Exception {
+        List<String> before;
+        EmbeddedBackend backend = open();
+        try {
+            backend.createTable(TABLE, "sensor", "rollup");
+            Batcher<RowMutationEntry, Void> batcher = backend.newBulkMutationBatcher(TABLE);
+            for (int i = 0; i < 3000; i++) {
+                batcher.add(RowMutationEntry.create(String.format("row%05d", i))
+                        .setCell("sensor", "temperature", 1000, Integer.toString(i))
+                        .setCell("sensor", "windspeed", 1000, Integer.toString(i % 30))
+                        .setCell("rollup", "max", 1000, Integer.toString(i % 100)));
+            }
+            batcher.close();
+            for (int i = 0; i < 3000; i += 3) {
+                RowMutation mutation = RowMutation.create(TABLE, String.format("row%05d", i));
+                if (i % 7 == 0) {
+                    mutation.deleteRow();
+                } else if (i % 5 == 0) {
+                    mutation.deleteFamily("rollup").setCell("rollup", "min", 500, "0");
+                } else {
+                    mutation.setCell("sensor", "temperature", 2000, "updated " + i);
+                }
+                backend.mutateRow(mutation);
+            }
+            before = readAll(backend);
+            assertTrue(backend.describe(TABLE), backend.describe(TABLE).matches(".*, [1-9][0-9]* SSTables of .*"));
+        } finally {
+            backend.close();
+        }
+
+        backend = open();
+        try {
+            assertEquals(before, readAll(backend));
+            assertNull(backend.readRow(TABLE, "row00000"));
+            assertEquals("updated 3", value(backend, "row00003"));
+            assertEquals("15", value(backend, "row00015"));
+            assertEquals(List.of("row00015 rollup:min@500=0"), readRollups(backend, "row00015"));
+        } finally {
+            backend.close();
+        }
+
+        // Once more, from the SSTables the compactions left behind
+        backend = open();
+        try {
+            assertEquals(before, readAll(backend));
+        } finally {
+            backend.close();
+        }
+    }
+
+    private static List<String> readRollups(EmbeddedBackend backend, String rowKey) {
+        List<String> cells = new ArrayList<>();
+        for (RowCell cell : backend.readRow(TABLE, rowKey).getCells("rollup")) {
+            cells.add(rowKey + " rollup:" + cell.getQualifier().toStringUtf8() + "@" + cell.getTimestamp() + "="
+                    + cell.getValue().toStringUtf8());
+        }
+        return cells;
+    }
+
+    @Test
+    public void crashReplaysTheLogUpToATruncatedRecord() throws Exception {
+        EmbeddedBackend crashed = open();
+        crashed.createTable(TABLE, "sensor");
+        for (int i = 0; i < 10; i++) {
+            crashed.mutateRow(RowMutation.create(TABLE, "row" + i).setCell("sensor", "temperature", "t" + i));
+        }
+        // The last mutation was being written when the process stopped
+        try (FileChannel log = FileChannel.open(lastLog(), StandardOpenOption.WRITE)) {
+            log.truncate(log.size() - 3);
+        }
+
+        EmbeddedBackend backend = open();
+        try {
+            for (int i = 0; i < 9; i++) {
+                assertEquals("t" + i, value(backend, "row" + i));
+            }
+            assertNull(backend.readRow(TABLE, "row9"));
+            backend.mutateRow(RowMutation.create(TABLE, "row9").setCell("sensor", "temperature", "again"));
+            assertEquals("again", value(backend, "row9"));
+        } finally {
+            backend.close();
+        }
+    }
+
+    @Test
+    public void sequenceNumbersContinueAfterARestart() throws Exception {
+        EmbeddedBackend backend = open();
+        try {
+            backend.createTable(TABLE, "sensor");
+            backend.mutateRow(RowMutation.create(TABLE, "row").setCell("sensor", "temperature", 1000, "first"));
+        } finally {
+            backend.close();
+        }
+        // Same timestamp: only the sequence number tells the later write
+        backend = open();
+        try {
+            backend.mutateRow(RowMutation.create(TABLE, "row").setCell("sensor", "temperature", 1000, "second"));
+            assertEquals("second", value(backend, "row"));
+        } finally {
+            backend.close();
+        }
+        backend = open();
+        try {
+            assertEquals("second", value(backend, "row"));
+        } finally {
+            backend.close();
+        }
+    }
+
+    @Test
+    public void sequenceNumbersContinueAfterReplayingTheLog() throws Exception {
+        EmbeddedBackend crashed = open();
+        crashed.createTable(TABLE, "sensor");
+        crashed.mutateRow(RowMutation.create(TABLE, "row").setCell("sensor", "temperature", 1000, "first"));
+        crashed.mutateRow(RowMutation.create(TABLE, "other").setCell("sensor", "temperature", 1000, "other"));
+
+        EmbeddedBackend backend = open();
+        try {
+            backend.mutateRow(RowMutation.create(TABLE, "row").setCell("sensor", "temperature", 1000, "second"));
+            assertEquals("second", value(backend, "row"));
+        } finally {
+            backend.close();
+        }
+        backend = open();
+        try {
+            assertEquals("second", value(backend, "row"));
+            assertEquals("other", value(backend, "other"));
+        } finally {
+            backend.close();
+        }
+    }
+}
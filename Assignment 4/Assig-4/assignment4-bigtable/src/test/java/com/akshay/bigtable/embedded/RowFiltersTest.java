@@ -0,0 +1,86 @@
+package com.akshay.bigtable.embedded;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.bigtable.data.v2.models.Filters.Filter;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.protobuf.ByteString;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class RowFiltersTest {
+
+    private static final ByteString ROW = ByteString.copyFromUtf8("row");
+
+    // The cells of one row in row order: family, qualifier, newest first
+    private static final List<RowCell> CELLS = List.of(
+            cell("a", "q1", 30, "c"),
+            cell("a", "q1", 20, "b"),
+            cell("a", "q1", 10, "a"),
+            cell("a", "q2", 20, "e"),
+            cell("b", "q1", 30, "d"),
+            cell("b", "q3", 10, "f"));
+
+    private static RowCell cell(String family, String qualifier, long timestamp, String value) {
+        return RowCell.create(family, ByteString.copyFromUtf8(qualifier), timestamp, Collections.emptyList(),
+                ByteString.copyFromUtf8(value));
+    }
+
+    // Family:qualifier@timestamp=value of each cell left by the filter
+    private static List<String> apply(Filter filter) {
+        List<String> cells = new ArrayList<>();
+        for (RowCell cell : RowFilters.apply(ClientRequests.filter(filter), ROW, CELLS)) {
+            cells.add(cell.getFamily() + ":" + cell.getQualifier().toStringUtf8() + "@" + cell.getTimestamp()
+                    + "=" + cell.getValue().toStringUtf8());
+        }
+        return cells;
+    }
+
+    @Test
+    public void chainAppliesEachFilterToTheCellsOfThePreviousOne() {
+        assertEquals(List.of("a:q1@30=c", "a:q2@20=e"), apply(FILTERS.chain()
+                .filter(FILTERS.family().exactMatch("a"))
+                .filter(FILTERS.limit().cellsPerColumn(1))));
+        assertEquals(List.of(), apply(FILTERS.chain()
+                .filter(FILTERS.family().exactMatch("b"))
+                .filter(FILTERS.qualifier().exactMatch("q2"))));
+    }
+
+    @Test
+    public void interleaveMergesTheBranchesInRowOrder() {
+        assertEquals(List.of("a:q1@30=c", "a:q1@20=b", "a:q1@10=a", "b:q3@10=f"), apply(FILTERS.interleave()
+                .filter(FILTERS.qualifier().exactMatch("q3"))
+                .filter(FILTERS.chain().filter(FILTERS.family().exactMatch("a")).filter(FILTERS.qualifier().exactMatch("q1")))));
+        // A cell passing both branches comes twice, as on Bigtable
+        assertEquals(List.of("a:q2@20=e", "a:q2@20=e"), apply(FILTERS.interleave()
+                .filter(FILTERS.qualifier().exactMatch("q2"))
+                .filter(FILTERS.value().exactMatch("e"))));
+    }
+
+    @Test
+    public void valueRangeKeepsTheCellsWithValuesInTheRange() {
+        assertEquals(List.of("a:q1@30=c", "a:q1@20=b", "b:q1@30=d"),
+                apply(FILTERS.value().range().startClosed("b").endOpen("e")));
+        assertEquals(List.of("a:q1@30=c", "a:q2@20=e", "b:q1@30=d"),
+                apply(FILTERS.value().range().startOpen("b").endClosed("e")));
+        assertEquals(List.of("a:q2@20=e", "b:q3@10=f"), apply(FILTERS.value().range().startClosed("e")));
+    }
+
+    @Test
+    public void timestampRangeKeepsTheCellsFromStartUntilEnd() {
+        assertEquals(List.of("a:q1@20=b", "a:q1@10=a", "a:q2@20=e", "b:q3@10=f"),
+                apply(FILTERS.timestamp().range().startClosed(10L).endOpen(30L)));
+        assertEquals(List.of("a:q1@30=c", "b:q1@30=d"), apply(FILTERS.timestamp().range().startClosed(30L)));
+    }
+
+    @Test
+    public void cellsPerColumnKeepsTheNewestVersionsOfEachColumn() {
+        assertEquals(List.of("a:q1@30=c", "a:q1@20=b", "a:q2@20=e", "b:q1@30=d", "b:q3@10=f"),
+                apply(FILTERS.limit().cellsPerColumn(2)));
+        assertEquals(List.of("a:q1@30=c", "a:q2@20=e", "b:q1@30=d", "b:q3@10=f"),
+                apply(FILTERS.limit().cellsPerColumn(1)));
+    }
+}
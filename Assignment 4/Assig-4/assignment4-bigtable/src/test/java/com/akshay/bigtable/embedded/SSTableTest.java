@@ -0,0 +1,123 @@
+package com.akshay.bigtable.embedded;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SSTableTest {
+
+    private static final int ROWS = 200; // row000, row002, ... row398
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SSTable sstable;
+
+    private static ByteString row(int row) {
+        return ByteString.copyFromUtf8(String.format("row%03d", row));
+    }
+
+    @Before
+    public void writeSSTable() throws Exception {
+        OffHeapSkipList entries = new OffHeapSkipList(64 * 1024);
+        long sequence = 0;
+        for (int i = 0; i < ROWS; i++) {
+            for (String qualifier : new String[]{"q1", "q2"}) {
+                byte[] key = CellKeys.encode(row(2 * i), ByteString.copyFromUtf8("f"), ByteString.copyFromUtf8(qualifier),
+                        1000 + i, CellKeys.PUT);
+                CellKeys.setSequence(key, ++sequence);
+                entries.insert(key, ByteString.copyFromUtf8(qualifier + " of row " + 2 * i + " ".repeat(40)));
+            }
+        }
+        Path path = folder.getRoot().toPath().resolve("000001.sst");
+        try (SSTableWriter writer = new SSTableWriter(path)) {
+            EntryCursor cursor = entries.cursor();
+            for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+                writer.add(cursor);
+            }
+            writer.finish();
+        }
+        sstable = SSTable.open(1, path);
+    }
+
+    private static String rowAt(EntryCursor cursor) {
+        return CellKeys.copy(cursor.buffer(), CellKeys.rowOffset(cursor.keyOffset()),
+                CellKeys.rowLength(cursor.buffer(), cursor.keyOffset())).toStringUtf8();
+    }
+
+    private static String valueAt(EntryCursor cursor) {
+        return CellKeys.copy(cursor.buffer(), cursor.valueOffset(), cursor.valueLength()).toStringUtf8().trim();
+    }
+
+    @Test
+    public void footerHoldsEntriesAndMaxSequence() {
+        assertTrue("the entries span several blocks", sstable.blocks() > 1);
+        assertEquals(2 * ROWS, sstable.entries());
+        assertEquals(2 * ROWS, sstable.maxSequence());
+    }
+
+    @Test
+    public void cursorWalksAllEntriesInOrder() {
+        EntryCursor cursor = sstable.cursor();
+        int entries = 0;
+        for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+            assertEquals(String.format("row%03d", entries / 2 * 2), rowAt(cursor));
+            assertEquals((entries % 2 == 0 ? "q1" : "q2") + " of row " + entries / 2 * 2, valueAt(cursor));
+            entries++;
+        }
+        assertEquals(2 * ROWS, entries);
+    }
+
+    @Test
+    public void seekFindsTheFirstEntryAtOrAfterARow() {
+        EntryCursor cursor = sstable.cursor();
+        for (int row = 0; row < 2 * ROWS; row++) {
+            cursor.seek(ByteBuffer.wrap(CellKeys.rowStart(row(row))), 0);
+            int expected = row % 2 == 0 ? row : row + 1;
+            if (expected >= 2 * ROWS) {
+                assertFalse(cursor.isValid());
+            } else {
+                assertEquals(String.format("row%03d", expected), rowAt(cursor));
+                assertEquals("q1 of row " + expected, valueAt(cursor));
+            }
+        }
+        cursor.seek(ByteBuffer.wrap(CellKeys.rowStart(ByteString.copyFromUtf8("a"))), 0);
+        assertEquals("row000", rowAt(cursor));
+    }
+
+    @Test
+    public void mayHaveRulesOutRangesBeyondTheRows() {
+        assertTrue(sstable.mayHave(EmbeddedTable.KeyRange.all()));
+        assertTrue(sstable.mayHave(EmbeddedTable.KeyRange.key(row(0))));
+        assertTrue(sstable.mayHave(EmbeddedTable.KeyRange.key(row(398))));
+        assertFalse(sstable.mayHave(EmbeddedTable.KeyRange.key(ByteString.copyFromUtf8("a"))));
+        assertFalse(sstable.mayHave(EmbeddedTable.KeyRange.key(ByteString.copyFromUtf8("s"))));
+        assertFalse(sstable.mayHave(new EmbeddedTable.KeyRange(row(398), false, null, false)));
+        assertTrue(sstable.mayHave(new EmbeddedTable.KeyRange(row(397), false, null, false)));
+        assertFalse(sstable.mayHave(new EmbeddedTable.KeyRange(ByteString.EMPTY, true, row(0), false)));
+        assertTrue(sstable.mayHave(new EmbeddedTable.KeyRange(ByteString.EMPTY, true, row(0), true)));
+    }
+
+    @Test
+    public void mayHaveAsksTheBloomFilterForSingleRows() {
+        int falsePositives = 0;
+        for (int row = 0; row < 2 * ROWS; row++) {
+            boolean present = row % 2 == 0;
+            boolean mayHave = sstable.mayHave(EmbeddedTable.KeyRange.key(row(row)));
+            if (present) {
+                assertTrue("row " + row + " is in the file", mayHave);
+            } else if (mayHave) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives + " of " + ROWS + " missing rows passed the bloom filter", falsePositives < ROWS / 10);
+    }
+}
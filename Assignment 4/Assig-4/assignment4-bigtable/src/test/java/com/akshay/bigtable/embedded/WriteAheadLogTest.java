@@ -0,0 +1,87 @@
+package com.akshay.bigtable.embedded;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] key(String row, long sequence) {
+        byte[] key = CellKeys.encode(ByteString.copyFromUtf8(row), ByteString.copyFromUtf8("f"),
+                ByteString.copyFromUtf8("q"), 10, CellKeys.PUT);
+        CellKeys.setSequence(key, sequence);
+        return key;
+    }
+
+    // Writes a record per row and returns the log file
+    private Path writeLog(String... rows) throws Exception {
+        Path path = folder.getRoot().toPath().resolve("000001.log");
+        try (WriteAheadLog log = new WriteAheadLog(path)) {
+            long position = 0;
+            for (int i = 0; i < rows.length; i++) {
+                position = log.append(Collections.singletonList(key(rows[i], i + 1)),
+                        Collections.singletonList(ByteString.copyFromUtf8("value of " + rows[i])));
+            }
+            log.sync(position);
+        }
+        return path;
+    }
+
+    // Row and value of each record replayed
+    private static List<String> replay(Path path) throws Exception {
+        List<String> records = new ArrayList<>();
+        WriteAheadLog.replay(path, (keys, values) -> {
+            ByteBuffer key = ByteBuffer.wrap(keys.get(0));
+            records.add(CellKeys.copy(key, CellKeys.rowOffset(0), CellKeys.rowLength(key, 0)).toStringUtf8()
+                    + "=" + values.get(0).toStringUtf8());
+        });
+        return records;
+    }
+
+    @Test
+    public void replayReturnsTheRecordsInOrder() throws Exception {
+        Path path = writeLog("a", "b", "c");
+        assertEquals(List.of("a=value of a", "b=value of b", "c=value of c"), replay(path));
+    }
+
+    @Test
+    public void replayStopsAtATruncatedRecord() throws Exception {
+        Path path = writeLog("a", "b", "c");
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            file.truncate(file.size() - 3);
+        }
+        assertEquals(List.of("a=value of a", "b=value of b"), replay(path));
+
+        // Down to part of the header of the second record
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            file.truncate(file.size() / 2 + 4);
+        }
+        assertEquals(List.of("a=value of a"), replay(path));
+    }
+
+    @Test
+    public void replayStopsAtADamagedRecord() throws Exception {
+        Path path = writeLog("a", "b", "c");
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            file.read(last, file.size() - 1);
+            last.flip();
+            last.put(0, (byte) (last.get(0) ^ 1));
+            file.write(last, file.size() - 1);
+        }
+        assertEquals(List.of("a=value of a", "b=value of b"), replay(path));
+    }
+}
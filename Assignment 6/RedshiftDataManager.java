@@ -4,15 +4,39 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Properties; // For connection options
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class RedshiftDataManager {
 
+    private static final int DEFAULT_PARALLEL_CONNECTIONS = 4;
+
+    // Settings for the COPY engine, override with environment variables of the same name.
+    // For local runs point COPY_S3_ENDPOINT at MinIO and COPY_DIALECT at POSTGRES (see CopyStandInCheck).
+    // COPY_IAM_ROLE has no default: a REDSHIFT load fails fast without it.
+    private static final String COPY_S3_ENDPOINT = setting("COPY_S3_ENDPOINT", "https://s3.eu-north-1.amazonaws.com");
+    private static final String COPY_S3_REGION = setting("COPY_S3_REGION", "eu-north-1");
+    private static final String COPY_S3_BUCKET = setting("COPY_S3_BUCKET", "tpch-staging");
+    private static final String COPY_S3_ACCESS_KEY = setting("COPY_S3_ACCESS_KEY", "");
+    private static final String COPY_S3_SECRET_KEY = setting("COPY_S3_SECRET_KEY", "");
+    private static final String COPY_IAM_ROLE = setting("COPY_IAM_ROLE", "");
+    private static final String COPY_DIALECT = setting("COPY_DIALECT", "REDSHIFT");
+    private static final int COPY_SLICES = Integer.parseInt(setting("COPY_SLICES", "4"));
+
+    private static final String[] TPCH_TABLES = {
+            "region", "nation", "part", "supplier", "partsupp", "customer", "orders", "lineitem"
+    };
+
     private Connection dbConnection;
     private final String dbUrl;
     private final String dbUser;
@@ -32,25 +56,56 @@ public class RedshiftDataManager {
 
         RedshiftDataManager manager = new RedshiftDataManager(redshiftJdbcUrl, redshiftUser, redshiftPassword);
 
+        // --parallel=N loads over N connections, --engine=copy loads through S3 and COPY,
+        // --compare times the serial load against the other modes
+        int parallelConnections = 0;
+        boolean compareModes = false;
+        boolean copyEngine = false;
+        for (String arg : args) {
+            if (arg.equals("--engine=copy")) {
+                copyEngine = true;
+            } else if (arg.startsWith("--parallel")) {
+                parallelConnections = arg.contains("=")
+                        ? Integer.parseInt(arg.substring(arg.indexOf('=') + 1))
+                        : DEFAULT_PARALLEL_CONNECTIONS;
+            } else if (arg.equals("--compare")) {
+                compareModes = true;
+            }
+        }
+
         try {
             manager.establishConnection();
             manager.dropAllTables();
             manager.createSchemaTables();
-            manager.loadTpchData();
+
+            if (compareModes) {
+                manager.compareLoadModes(parallelConnections > 0 ? parallelConnections : DEFAULT_PARALLEL_CONNECTIONS,
+                        copyEngine);
+            } else if (copyEngine) {
+                manager.loadTpchDataWithCopy();
+            } else if (parallelConnections > 0) {
+                manager.loadTpchDataParallel(parallelConnections);
+            } else {
+                manager.loadTpchData();
+            }
+
+            // The queries only read; with auto-commit off the driver fetches their rows in
+            // batches of the statement's fetch size instead of all at once
+            manager.dbConnection.setAutoCommit(false);
 
             System.out.println("\n--- Query 1: Recent Top 10 Orders in America ---");
             try (ResultSet results1 = manager.getRecentAmericanOrders()) {
-                System.out.println(formatResultSet(results1, 10));
+                printResultSet(results1, 10);
             }
 
             System.out.println("\n--- Query 2: Urgent, Non-Failed Orders from Largest Market Segment (Outside Europe) ---");
             try (ResultSet results2 = manager.getUrgentOrdersByLargestSegment()) {
-                System.out.println(formatResultSet(results2, 10));
+                printResultSet(results2, 10);
             }
 
             System.out.println("\n--- Query 3: Line Item Count by Order Priority (1997-2003) ---");
             try (ResultSet results3 = manager.getLineItemCountsByOrderPriority()) {
-                System.out.println(formatResultSet(results3, 10));
+                printResultSet(results3, 10);
             }
 
         } catch (SQLException e) {
@@ -69,11 +124,7 @@ public class RedshiftDataManager {
         try {
             Class.forName("com.amazon.redshift.jdbc.Driver"); // Load the Redshift driver
 
-            Properties props = new Properties(); // Good for connection settings
-            props.setProperty("user", dbUser);
-            props.setProperty("password", dbPassword);
-
-            dbConnection = DriverManager.getConnection(dbUrl, props);
+            dbConnection = openConnection();
             System.out.println("Connection successful!");
 
         } catch (ClassNotFoundException e) {
@@ -85,6 +136,13 @@ public class RedshiftDataManager {
         }
     }
 
+    private Connection openConnection() throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", dbUser);
+        props.setProperty("password", dbPassword);
+        return DriverManager.getConnection(dbUrl, props);
+    }
+
     public void closeConnection() {
         System.out.println("Closing database connection...");
         try {
@@ -220,11 +278,6 @@ public class RedshiftDataManager {
         }
     }
 
-    private String readSqlFileContent(String filename) throws IOException {
-        // Reads the SQL file
-        return new String(Files.readAllBytes(Paths.get("ddl", filename)));
-    }
-
     public void loadTpchData() throws SQLException, IOException {
         System.out.println("Starting to load TPC-H data...");
         System.out.println("Looking for files in: " + System.getProperty("user.dir"));
@@ -238,18 +291,22 @@ public class RedshiftDataManager {
                     "partsupp.sql", "customer.sql", "orders.sql", "lineitem.sql"
             };
 
+            // Streams each file so only one multi-row INSERT is in memory at a time,
+            // sized by bytes and measured statement latency
+            MultiRowInsertLoader loader = new MultiRowInsertLoader(dbConnection);
+
             for (String fileName : dataFiles) {
                 System.out.println("Loading from: " + fileName);
                 long startTime = System.currentTimeMillis();
 
-                String sqlContent = readSqlFileContent(fileName);
+                Path sqlFile = Paths.get("ddl", fileName);
 
-                if (sqlContent.trim().isEmpty()) {
+                if (Files.size(sqlFile) == 0) {
                     System.out.println("Warning: File '" + fileName + "' is empty.");
                     continue;
                 }
 
-                int recordsProcessed = executeOptimizedInserts(sqlContent);
+                int recordsProcessed = loader.load(sqlFile);
 
                 long endTime = System.currentTimeMillis();
                 double durationSeconds = (endTime - startTime) / 1000.0;
@@ -278,153 +335,103 @@ public class RedshiftDataManager {
         }
     }
 
-    private int executeOptimizedInserts(String sqlData) throws SQLException {
-        String[] individualStatements = sqlData.split(";\n");
-
-        List<String> rawValuesList = new ArrayList<>();
-        String insertBaseTemplate = "";
-        String targetTableName = "";
-
-        // Try to combine inserts
-        for (String stmt : individualStatements) {
-            stmt = stmt.trim();
-            if (!stmt.isEmpty() && stmt.toUpperCase().startsWith("INSERT INTO")) {
-                if (targetTableName.isEmpty()) {
-                    // Get table name for multi-insert
-                    int intoKeywordIndex = stmt.toUpperCase().indexOf("INTO ") + 5;
-                    int valuesKeywordIndex = stmt.toUpperCase().indexOf(" VALUES");
-                    if (intoKeywordIndex > 4 && valuesKeywordIndex > intoKeywordIndex) {
-                        targetTableName = stmt.substring(intoKeywordIndex, valuesKeywordIndex).trim();
-                        insertBaseTemplate = "INSERT INTO " + targetTableName + " VALUES ";
-                    }
-                }
-
-                int valuesPartIndex = stmt.toUpperCase().indexOf("VALUES");
-                if (valuesPartIndex != -1) {
-                    String valuesSegment = stmt.substring(valuesPartIndex + 6).trim();
-                    rawValuesList.add(valuesSegment);
-                }
-            }
-        }
-
-        if (rawValuesList.isEmpty() || targetTableName.isEmpty()) {
-            System.out.println("  Can't do multi-row insert. Using regular batch inserts.");
-            return executeBatchInserts(sqlData);
-        }
-
-        System.out.println("  Making " + rawValuesList.size() + " inserts into multi-row statements for: " + targetTableName);
-
-        int multiRowStatementSize = calculateMultiRowBatchSize(rawValuesList.size());
-
-        System.out.println("  Using a multi-row batch size of: " + multiRowStatementSize + " rows per INSERT.");
-
-        int totalInsertedRecords = 0;
-        long methodStartTime = System.currentTimeMillis();
-
-        try (Statement statementExecutor = dbConnection.createStatement()) { // Auto-close statement
-            for (int i = 0; i < rawValuesList.size(); i += multiRowStatementSize) {
-                StringBuilder multiValueInsertBuilder = new StringBuilder(insertBaseTemplate);
-                int endIndex = Math.min(i + multiRowStatementSize, rawValuesList.size());
-
-                // Put many VALUES together
-                for (int j = i; j < endIndex; j++) {
-                    if (j > i) {
-                        multiValueInsertBuilder.append(", ");
-                    }
-                    multiValueInsertBuilder.append(rawValuesList.get(j));
-                }
-
-                statementExecutor.execute(multiValueInsertBuilder.toString());
-                int currentBatchCount = endIndex - i;
-                totalInsertedRecords += currentBatchCount;
-
-                printProgressUpdate(totalInsertedRecords, rawValuesList.size(), methodStartTime);
-            }
-        }
-        return totalInsertedRecords;
-    }
+    /**
+     * Loads the TPC-H files over a pool of connections, several tables and key ranges at a time.
+     * Unlike loadTpchData() each chunk commits on its own, so after a failure the tables
+     * have to be dropped and created again before retrying.
+     *
+     * @param connections number of connections (and worker threads) to use
+     */
+    public void loadTpchDataParallel(int connections) throws SQLException, IOException {
+        System.out.println("Starting parallel load of TPC-H data over " + connections + " connections...");
+        System.out.println("Looking for files in: " + System.getProperty("user.dir"));
 
-    private static int calculateMultiRowBatchSize(int totalRecords) {
-        // Decide how many rows per multi-row insert
-        if (totalRecords > 500000) {
-            return 10000;
-        } else if (totalRecords > 100000) {
-            return 5000;
-        } else if (totalRecords > 10000) {
-            return 2000;
-        } else if (totalRecords > 1000) {
-            return 1000;
-        } else {
-            return 500;
+        try (JdbcConnectionPool pool = new JdbcConnectionPool(this::openConnection, connections)) {
+            new ParallelTpchLoader(pool, Paths.get("ddl")).load();
         }
+        System.out.println("Parallel data load finished.");
     }
 
-    private int executeBatchInserts(String sqlData) throws SQLException {
-        String[] statementsArray = sqlData.split(";\n");
-
-        List<String> actualInsertStatements = new ArrayList<>();
-        for (String stmt : statementsArray) {
-            stmt = stmt.trim();
-            if (!stmt.isEmpty() && stmt.toUpperCase().startsWith("INSERT")) {
-                actualInsertStatements.add(stmt);
-            }
+    /**
+     * Loads the TPC-H data with the COPY engine: the files are staged as gzip'd part files,
+     * one per slice, uploaded to S3 (or an S3-compatible stand-in) and loaded with COPY.
+     */
+    public void loadTpchDataWithCopy() throws SQLException, IOException {
+        CopyLoader.Dialect dialect = CopyLoader.Dialect.valueOf(COPY_DIALECT);
+        if (dialect == CopyLoader.Dialect.REDSHIFT && COPY_IAM_ROLE.isEmpty()) {
+            throw new IllegalStateException("Set COPY_IAM_ROLE to the ARN of a role that can read " +
+                    COPY_S3_BUCKET + ", or COPY_DIALECT=POSTGRES for a local stand-in");
         }
+        System.out.println("Starting COPY load of TPC-H data through " + COPY_S3_ENDPOINT + "/" + COPY_S3_BUCKET + "...");
 
-        if (actualInsertStatements.isEmpty()) {
-            return 0;
+        S3ObjectStore store = new S3ObjectStore(COPY_S3_ENDPOINT, COPY_S3_REGION, COPY_S3_BUCKET,
+                COPY_S3_ACCESS_KEY, COPY_S3_SECRET_KEY);
+        Path stagingDirectory = Files.createTempDirectory("tpch-copy");
+        try {
+            CopyLoader loader = new CopyLoader(dbConnection, store, new CopyStager(stagingDirectory, COPY_SLICES),
+                    dialect, "IAM_ROLE '" + COPY_IAM_ROLE + "'", "tpch/");
+            loader.load(Paths.get("ddl"), TPCH_TABLES);
+        } finally {
+            deleteStagingDirectory(stagingDirectory);
         }
+        System.out.println("COPY data load finished.");
+    }
 
-        System.out.println("  Doing " + actualInsertStatements.size() + " INSERTs in batches.");
-
-        int batchOperationSize = calculateStandardBatchSize(actualInsertStatements.size());
-        System.out.println("  Batch size: " + batchOperationSize);
-
-        int totalRecordsInserted = 0;
-        long operationStartTime = System.currentTimeMillis();
-
-        try (Statement batchStatement = dbConnection.createStatement()) { // Auto-close statement
-            for (int i = 0; i < actualInsertStatements.size(); i += batchOperationSize) {
-                int endIndex = Math.min(i + batchOperationSize, actualInsertStatements.size());
-
-                for (int j = i; j < endIndex; j++) {
-                    batchStatement.addBatch(actualInsertStatements.get(j));
-                }
-
-                int[] results = batchStatement.executeBatch(); // Run the batch
-                batchStatement.clearBatch();
-
-                for (int res : results) {
-                    if (res >= 0) {
-                        totalRecordsInserted += (res > 0 ? res : 1);
-                    }
-                }
-                printProgressUpdate(totalRecordsInserted, actualInsertStatements.size(), operationStartTime);
+    /**
+     * Deletes the staging directory with whatever part files a failed load left in it. Failures
+     * are only reported, so they do not hide the exception of the load.
+     */
+    private static void deleteStagingDirectory(Path stagingDirectory) {
+        try (Stream<Path> walk = Files.walk(stagingDirectory)) {
+            List<Path> files = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path file : files) { // Files before their directory
+                Files.deleteIfExists(file);
             }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not delete " + stagingDirectory + ": " + e.getMessage());
         }
-        return totalRecordsInserted;
     }
 
-    private static int calculateStandardBatchSize(int totalStatements) {
-        // Decides how big each batch should be
-        if (totalStatements > 100000) {
-            return 5000;
-        } else if (totalStatements > 10000) {
-            return 2000;
-        } else if (totalStatements > 1000) {
-            return 1000;
-        } else {
-            return 500;
+    /**
+     * Loads the same data with every load mode, recreating the tables in between,
+     * and prints the measured time and speedup of each against the serial INSERT load.
+     *
+     * @param connections number of connections for the parallel run
+     * @param includeCopy also time the COPY engine
+     */
+    public void compareLoadModes(int connections, boolean includeCopy) throws SQLException, IOException {
+        long serialStart = System.currentTimeMillis();
+        loadTpchData();
+        long serialMillis = System.currentTimeMillis() - serialStart;
+
+        dropAllTables();
+        createSchemaTables();
+
+        long parallelStart = System.currentTimeMillis();
+        loadTpchDataParallel(connections);
+        long parallelMillis = System.currentTimeMillis() - parallelStart;
+
+        System.out.printf("Serial load: %.2f seconds | Parallel load (%d connections): %.2f seconds | Speedup: %.2fx%n",
+                serialMillis / 1000.0, connections, parallelMillis / 1000.0,
+                parallelMillis > 0 ? (double) serialMillis / parallelMillis : 1.0);
+
+        if (includeCopy) {
+            dropAllTables();
+            createSchemaTables();
+
+            long copyStart = System.currentTimeMillis();
+            loadTpchDataWithCopy();
+            long copyMillis = System.currentTimeMillis() - copyStart;
+
+            System.out.printf("Serial load: %.2f seconds | COPY load: %.2f seconds | Speedup: %.2fx%n",
+                    serialMillis / 1000.0, copyMillis / 1000.0,
+                    copyMillis > 0 ? (double) serialMillis / copyMillis : 1.0);
         }
     }
 
-    private void printProgressUpdate(int currentCount, int totalCount, long startTimeMillis) {
-        // Shows how much data has been loaded
-        long elapsedTime = System.currentTimeMillis() - startTimeMillis;
-        double elapsedSeconds = elapsedTime / 1000.0;
-        double recordsPerSecond = elapsedSeconds > 0 ? currentCount / elapsedSeconds : 0.0;
-
-        System.out.printf("  Progress: %d/%d (%.1f%%) | Speed: %.0f records/sec%n",
-                currentCount, totalCount, (currentCount * 100.0 / totalCount), recordsPerSecond);
+    private static String setting(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
     }
 
     // --- Query Methods ---
@@ -439,7 +446,7 @@ public class RedshiftDataManager {
                           "WHERE r.R_NAME = 'AMERICA' " +
                           "ORDER BY o.O_ORDERDATE DESC " +
                           "LIMIT 10";
-        Statement stmt = dbConnection.createStatement();
+        Statement stmt = ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE);
         return stmt.executeQuery(sqlQuery);
     }
 
@@ -464,7 +471,7 @@ public class RedshiftDataManager {
                           "GROUP BY c.C_CUSTKEY " +
                           "ORDER BY total_amount_spent DESC";
 
-        Statement stmt = dbConnection.createStatement();
+        Statement stmt = ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE);
         return stmt.executeQuery(sqlQuery);
     }
 
@@ -478,44 +485,31 @@ public class RedshiftDataManager {
                           "GROUP BY o.O_ORDERPRIORITY " +
                           "ORDER BY o.O_ORDERPRIORITY";
 
-        Statement stmt = dbConnection.createStatement();
+        Statement stmt = ResultSetWriter.streamingStatement(dbConnection, ResultSetWriter.DEFAULT_FETCH_SIZE);
         return stmt.executeQuery(sqlQuery);
     }
 
     // --- ResultSet formatting methods (standard helpers) ---
 
-    public static String formatResultSet(ResultSet resultSet, int displayMaxRows) throws SQLException {
-        StringBuilder outputBuilder = new StringBuilder();
-        int rowCounter = 0;
-
-        ResultSetMetaData metaData = resultSet.getMetaData();
-        outputBuilder.append("ResultSet Details:\n").append(formatResultSetMetaData(metaData)).append("\n\n");
-
-        outputBuilder.append("Total Columns: ").append(metaData.getColumnCount()).append("\n");
+    /**
+     * Writes the metadata and the first displayMaxRows rows to System.out as they are read.
+     * Remaining rows are only counted.
+     */
+    public static void printResultSet(ResultSet resultSet, int displayMaxRows) throws SQLException, IOException {
+        System.out.println("ResultSet Details:\n" + formatResultSetMetaData(resultSet.getMetaData()) + "\n");
+        new ResultSetWriter(System.out, ResultSetWriter.Format.TEXT).maxRows(displayMaxRows).write(resultSet);
+    }
 
-        for (int i = 1; i <= metaData.getColumnCount(); i++) {
-            outputBuilder.append(metaData.getColumnName(i));
-            if (i < metaData.getColumnCount()) {
-                outputBuilder.append(", ");
-            }
-        }
-        outputBuilder.append("\n");
-
-        while (resultSet.next()) {
-            if (rowCounter < displayMaxRows) {
-                for (int i = 1; i <= metaData.getColumnCount(); i++) {
-                    Object columnValue = resultSet.getObject(i);
-                    outputBuilder.append(columnValue != null ? columnValue.toString() : "NULL");
-                    if (i < metaData.getColumnCount()) {
-                        outputBuilder.append(", ");
-                    }
-                }
-                outputBuilder.append("\n");
-            }
-            rowCounter++;
+    public static String formatResultSet(ResultSet resultSet, int displayMaxRows) throws SQLException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            // Only displayMaxRows rows end up in the string, the rest are counted while streaming past
+            new ResultSetWriter(output, ResultSetWriter.Format.TEXT).maxRows(displayMaxRows).write(resultSet);
+        } catch (IOException e) {
+            throw new SQLException("Couldn't format the result set", e);
         }
-        outputBuilder.append("Total Results: ").append(rowCounter).append("\n");
-        return outputBuilder.toString();
+        return "ResultSet Details:\n" + formatResultSetMetaData(resultSet.getMetaData()) + "\n\n" +
+                output.toString(StandardCharsets.UTF_8);
     }
 
     public static String formatResultSetMetaData(ResultSetMetaData metaData) throws SQLException {
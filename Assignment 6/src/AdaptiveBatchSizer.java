@@ -0,0 +1,122 @@
+/**
+ * Picks how many rows go into each multi-row INSERT while a file is loading.
+ * Every statement is capped by size so it stays below Redshift's 16 MB statement limit.
+ * The row target is tuned AIMD-style from the measured latency of each statement:
+ * it grows by a fixed step while throughput holds up, and is halved when throughput
+ * drops or a statement runs too long.
+ * A drop only counts when several statements in a row fall clearly below the smoothed rate,
+ * so the jitter of single statements does not make the target collapse and oscillate.
+ */
+public class AdaptiveBatchSizer {
+
+    /**
+     * Largest statement Redshift accepts.
+     */
+    public static final int REDSHIFT_MAX_STATEMENT_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Default size cap, half the server limit to leave room for driver overhead.
+     */
+    public static final int DEFAULT_MAX_STATEMENT_BYTES = REDSHIFT_MAX_STATEMENT_BYTES / 2;
+
+    private static final int MIN_ROWS = 50;
+    private static final int MAX_ROWS = 100000;
+    private static final int INITIAL_ROWS = 500;
+    private static final int INCREASE_ROWS = 500;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double RATE_DROP_TOLERANCE = 0.8; // Below 80% of the smoothed rate counts as slow
+    private static final int SUSTAINED_DROP_STATEMENTS = 3; // Slow statements in a row that make a drop
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final long TARGET_LATENCY_NANOS = 5_000_000_000L;
+
+    private int targetRows = INITIAL_ROWS;
+    private final int maxBytes;
+    private double smoothedRowsPerSecond = -1;
+    private int slowStatements;
+
+    private long statements;
+    private long totalRows;
+    private long totalBytes;
+    private long totalNanos;
+
+    public AdaptiveBatchSizer() {
+        this(DEFAULT_MAX_STATEMENT_BYTES);
+    }
+
+    /**
+     * @param maxStatementBytes size cap for a single INSERT statement
+     */
+    public AdaptiveBatchSizer(int maxStatementBytes) {
+        this.maxBytes = Math.min(maxStatementBytes, REDSHIFT_MAX_STATEMENT_BYTES);
+    }
+
+    /**
+     * Rows to put into the next statement unless the byte cap is hit first.
+     */
+    public int targetRows() {
+        return targetRows;
+    }
+
+    /**
+     * Largest statement, in UTF-8 bytes, that should be built.
+     */
+    public int maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Records a statement that executed successfully and adjusts the row target.
+     *
+     * @param rows  rows in the statement
+     * @param bytes size of the statement in UTF-8 bytes
+     * @param nanos time the statement took to execute
+     */
+    public void recordSuccess(int rows, int bytes, long nanos) {
+        statements++;
+        totalRows += rows;
+        totalBytes += bytes;
+        totalNanos += nanos;
+
+        double rowsPerSecond = nanos > 0 ? rows * 1_000_000_000.0 / nanos : Double.MAX_VALUE;
+        boolean slow = smoothedRowsPerSecond > 0 && rowsPerSecond < smoothedRowsPerSecond * RATE_DROP_TOLERANCE;
+        slowStatements = slow ? slowStatements + 1 : 0;
+
+        if (nanos > TARGET_LATENCY_NANOS || slowStatements >= SUSTAINED_DROP_STATEMENTS) {
+            decrease(targetRows);
+            return;
+        }
+        if (!slow && rows >= targetRows) {
+            // Only grow when the row target was what ended the statement, not the byte cap or end of file
+            targetRows = Math.min(MAX_ROWS, targetRows + INCREASE_ROWS);
+        }
+
+        smoothedRowsPerSecond = smoothedRowsPerSecond < 0
+                ? rowsPerSecond
+                : (1 - RATE_SMOOTHING) * smoothedRowsPerSecond + RATE_SMOOTHING * rowsPerSecond;
+    }
+
+    public long statements() {
+        return statements;
+    }
+
+    public long averageStatementBytes() {
+        return statements > 0 ? totalBytes / statements : 0;
+    }
+
+    /**
+     * Rows per second counting only time spent executing statements.
+     */
+    public double executeRowsPerSecond() {
+        return totalNanos > 0 ? totalRows * 1_000_000_000.0 / totalNanos : 0.0;
+    }
+
+    /**
+     * Halves the row target. The smoothed rate starts over, since statements of the new size
+     * have a rate of their own.
+     */
+    private void decrease(int fromRows) {
+        targetRows = Math.max(MIN_ROWS, (int) (Math.min(targetRows, fromRows) * DECREASE_FACTOR));
+        smoothedRowsPerSecond = -1;
+        slowStatements = 0;
+    }
+}
@@ -4,15 +4,19 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 
 public class AmazonRedshift {
 
+    // Replace these with your actual Redshift cluster details
+    private static final String URL = "jdbc:redshift://redshift-cluster-1.cyng5xv3kiwd.eu-north-1.redshift.amazonaws.com:5439/dev";
+    private static final String UID = "admin";
+    private static final String PW = "Mynameissourin00";
+
     private Connection con;
 
 
@@ -21,20 +25,28 @@ public class AmazonRedshift {
         q.connect();
         q.drop();
         q.create();
-        q.insert();
+        if (args.length > 0 && args[0].startsWith("--parallel")) {
+            // Optional --parallel=N, defaults to 4 connections
+            int connections = args[0].contains("=") ? Integer.parseInt(args[0].substring(args[0].indexOf('=') + 1)) : 4;
+            q.insertParallel(connections);
+        } else {
+            q.insert();
+        }
 
-        // Execute queries and display results
+        // Execute queries and display results. Rows are written as they are fetched;
+        // with auto-commit off the driver fetches them in batches instead of all at once.
+        q.con.setAutoCommit(false);
         ResultSet rs1 = q.query1();
         System.out.println("Query 1 Results:");
-        System.out.println(resultSetToString(rs1, 10));
+        printResults(rs1, 10);
 
         ResultSet rs2 = q.query2();
         System.out.println("\nQuery 2 Results:");
-        System.out.println(resultSetToString(rs2, 10));
+        printResults(rs2, 10);
 
         ResultSet rs3 = q.query3();
         System.out.println("\nQuery 3 Results:");
-        System.out.println(resultSetToString(rs3, 10));
+        printResults(rs3, 10);
 
         q.close();
     }
@@ -46,11 +58,7 @@ public class AmazonRedshift {
             Class.forName("com.amazon.redshift.jdbc.Driver");
 
             // Establish connection
-            // Replace these with your actual Redshift cluster details
-            String url = "jdbc:redshift://redshift-cluster-1.cyng5xv3kiwd.eu-north-1.redshift.amazonaws.com:5439/dev";
-            String uid = "admin";
-            String pw = "Mynameissourin00";
-            con = DriverManager.getConnection(url, uid, pw);
+            con = DriverManager.getConnection(URL, UID, PW);
             System.out.println("Connection successful!");
 
         } catch (ClassNotFoundException e) {
@@ -220,11 +228,6 @@ public class AmazonRedshift {
     }
 
 
-    private String readSQLFile(String filename) throws IOException {
-        return new String(Files.readAllBytes(Paths.get("ddl", filename)));
-    }
-
-
     public void insert() throws SQLException {
         System.out.println("Loading TPC-H Data");
         System.out.println("Current working directory: " + System.getProperty("user.dir"));
@@ -250,15 +253,15 @@ public class AmazonRedshift {
                     System.out.println("Loading data from: " + file);
                     long startTime = System.currentTimeMillis();
 
-                    String sql = readSQLFile(file);
+                    Path sqlFile = Paths.get("ddl", file);
 
-                    if (sql.trim().isEmpty()) {
+                    if (Files.size(sqlFile) == 0) {
                         System.out.println("Warning: File " + file + " is empty or contains no data");
                         continue;
                     }
 
 
-                    int recordCount = insertDataOptimized(sql);
+                    int recordCount = insertDataOptimized(sqlFile);
 
                     long endTime = System.currentTimeMillis();
                     double seconds = (endTime - startTime) / 1000.0;
@@ -295,164 +298,31 @@ public class AmazonRedshift {
         }
     }
 
-    private int insertDataOptimized(String sql) throws SQLException {
-        String[] statements = sql.split(";\n");
-
-        List<String> valuesList = new ArrayList<>();
-        String tableName = "";
-        String insertTemplate = "";
-
-        // Parse INSERT statements and extract VALUES
-        for (String statement : statements) {
-            statement = statement.trim();
-            if (!statement.isEmpty() && statement.toUpperCase().startsWith("INSERT")) {
-                if (tableName.isEmpty()) {
-                    // Extract table name and INSERT template
-                    // Example: "INSERT INTO customer VALUES" -> table = "customer"
-                    String upperStmt = statement.toUpperCase();
-                    int intoPos = upperStmt.indexOf("INTO ") + 5;
-                    int valuesPos = upperStmt.indexOf(" VALUES");
-                    if (intoPos > 4 && valuesPos > intoPos) {
-                        tableName = statement.substring(intoPos, valuesPos).trim();
-                        insertTemplate = "INSERT INTO " + tableName + " VALUES ";
-                    }
-                }
-
-                // Extract just the VALUES part: (data1, data2, ...)
-                int valuesIndex = statement.toUpperCase().indexOf("VALUES");
-                if (valuesIndex != -1) {
-                    String valuesSubstring = statement.substring(valuesIndex + 6).trim();
-                    valuesList.add(valuesSubstring);
-                }
-            }
-        }
-
-        if (valuesList.isEmpty() || tableName.isEmpty()) {
-            System.out.println("  No valid INSERT statements found, falling back to batch method");
-            return insertDataInBatches(sql);
-        }
-
-        System.out.println("  Converting " + valuesList.size() + " INSERT to multi-row INSERT for table: " + tableName);
-
-        // Use very large batch sizes for multi-row INSERT
-        int multiRowBatchSize = getMultiRowBatchSize(valuesList);
-
-        System.out.println("  Using multi-row batch size: " + multiRowBatchSize + " rows per INSERT");
-
-        int totalInserted = 0;
-        long startTime = System.currentTimeMillis();
-
-        try (Statement stmt = con.createStatement()) {
-            // Process in multi-row batches
-            for (int i = 0; i < valuesList.size(); i += multiRowBatchSize) {
-                StringBuilder multiInsert = new StringBuilder(insertTemplate);
-
-                int endIndex = Math.min(i + multiRowBatchSize, valuesList.size());
-
-                // Combine multiple VALUES into single INSERT
-                for (int j = i; j < endIndex; j++) {
-                    if (j > i) {
-                        multiInsert.append(", ");
-                    }
-                    multiInsert.append(valuesList.get(j));
-                }
-
-                // Execute the multi-row INSERT
-                stmt.execute(multiInsert.toString());
-
-                int batchCount = endIndex - i;
-                totalInserted += batchCount;
-
-                // Show progress with performance metrics
-                showProgress(totalInserted, valuesList, startTime);
-            }
-
-        }
-
-        return totalInserted;
-    }
-
-    private static int getMultiRowBatchSize(List<String> valuesList) {
-        int multiRowBatchSize;
-        if (valuesList.size() > 50000) {
-            multiRowBatchSize = 5000;  // 5K rows per statement for huge datasets
-        } else if (valuesList.size() > 10000) {
-            multiRowBatchSize = 2000;  // 2K rows per statement for large datasets
-        } else if (valuesList.size() > 1000) {
-            multiRowBatchSize = 1000;  // 1K rows per statement for medium datasets
-        } else {
-            multiRowBatchSize = 500;   // 500 rows per statement for smaller datasets
-        }
-        return multiRowBatchSize;
-    }
-
-    private int insertDataInBatches(String sql) throws SQLException {
-        // Split into individual INSERT statements
-        String[] statements = sql.split(";\n");
-
-        int totalRecords = 0;
-
-        // Count actual INSERT statements first
-        List<String> insertStatements = new ArrayList<>();
-        for (String statement : statements) {
-            statement = statement.trim();
-            if (!statement.isEmpty() && statement.toUpperCase().startsWith("INSERT")) {
-                insertStatements.add(statement);
-            }
-        }
-
-        if (insertStatements.isEmpty()) {
-            return 0;
-        }
-
-        System.out.println("  Found " + insertStatements.size() + " INSERT statements to process");
-
-        // Use much larger batch sizes for better performance
-        int batchSize;
-        if (insertStatements.size() > 10000) {
-            batchSize = 2000;  // For very large files
-        } else if (insertStatements.size() > 1000) {
-            batchSize = 1000;  // For medium files
-        } else {
-            batchSize = 500;   // For smaller files
-        }
-
-        System.out.println("  Using batch size: " + batchSize);
-
-        try (Statement stmt = con.createStatement()) {
-            long startTime = System.currentTimeMillis();
-            // Process in large batches
-            for (int i = 0; i < insertStatements.size(); i += batchSize) {
-                int endIndex = Math.min(i + batchSize, insertStatements.size());
-
-                // Add statements to batch
-                for (int j = i; j < endIndex; j++) {
-                    stmt.addBatch(insertStatements.get(j));
-                }
-
-                // Execute batch
-                stmt.executeBatch();
-                stmt.clearBatch();
-
-                totalRecords += (endIndex - i);
-
-                // Show progress with timing
-                showProgress(totalRecords, insertStatements, startTime);
-            }
+    /**
+     * Loads the TPC-H data over several connections at once.
+     * Independent tables load at the same time and large files are split into key ranges.
+     *
+     * @param connections number of connections to open for the load
+     * @throws SQLException if a connection or statement fails
+     */
+    public void insertParallel(int connections) throws SQLException {
+        System.out.println("Loading TPC-H Data in parallel over " + connections + " connections");
+        System.out.println("Current working directory: " + System.getProperty("user.dir"));
 
+        try (JdbcConnectionPool pool = new JdbcConnectionPool(() -> DriverManager.getConnection(URL, UID, PW), connections)) {
+            new ParallelTpchLoader(pool, Paths.get("ddl")).load();
+            System.out.println("Parallel data loading completed successfully.");
+        } catch (IOException e) {
+            System.err.println("Error reading data files: " + e.getMessage());
+            throw new SQLException("Parallel load failed", e);
         }
-
-        return totalRecords;
     }
 
-    private void showProgress(int totalRecords, List<String> insertStatements, long startTime) {
-        long currentTime = System.currentTimeMillis();
-        double elapsed = (currentTime - startTime) / 1000.0;
-        double rate = totalRecords / elapsed;
-
-        System.out.println("    Progress: " + totalRecords + "/" + insertStatements.size() +
-                " (" + String.format("%.1f", (totalRecords * 100.0 / insertStatements.size())) + "%) " +
-                "Rate: " + String.format("%.0f", rate) + " records/sec");
+    private int insertDataOptimized(Path sqlFile) throws IOException, SQLException {
+        // Stream the file and combine its INSERTs into multi-row INSERTs as they are read
+        // Rows per INSERT adapt to statement size and latency while loading
+        MultiRowInsertLoader loader = new MultiRowInsertLoader(con);
+        return loader.load(sqlFile);
     }
 
     /**
@@ -474,7 +344,7 @@ public class AmazonRedshift {
                 "ORDER BY o.O_ORDERDATE DESC " +
                 "LIMIT 10";
 
-        Statement stmt = con.createStatement();
+        Statement stmt = ResultSetWriter.streamingStatement(con, ResultSetWriter.DEFAULT_FETCH_SIZE);
         return stmt.executeQuery(sql);
     }
 
@@ -508,7 +378,7 @@ public class AmazonRedshift {
                 "GROUP BY c.C_CUSTKEY " +
                 "ORDER BY total_spent DESC";
 
-        Statement stmt = con.createStatement();
+        Statement stmt = ResultSetWriter.streamingStatement(con, ResultSetWriter.DEFAULT_FETCH_SIZE);
         return stmt.executeQuery(sql);
     }
 
@@ -530,10 +400,27 @@ public class AmazonRedshift {
                 "GROUP BY o.O_ORDERPRIORITY " +
                 "ORDER BY o.O_ORDERPRIORITY ";
 
-        Statement stmt = con.createStatement();
+        Statement stmt = ResultSetWriter.streamingStatement(con, ResultSetWriter.DEFAULT_FETCH_SIZE);
         return stmt.executeQuery(sql);
     }
 
+    /**
+     * Streaming counterpart of resultSetToString: prints the metadata and the first maxRows
+     * rows to System.out while reading, so no row is kept in memory.
+     *
+     * @param rst     ResultSet
+     * @param maxRows maximum number of rows to display
+     * @throws SQLException if a database error occurs
+     */
+    public static void printResults(ResultSet rst, int maxRows) throws SQLException {
+        System.out.println("ResultSet metadata: \n" + resultSetMetaDataToString(rst.getMetaData()));
+        try {
+            new ResultSetWriter(System.out, ResultSetWriter.Format.TEXT).maxRows(maxRows).write(rst);
+        } catch (IOException e) {
+            throw new SQLException("Couldn't write the results", e);
+        }
+    }
+
     /*
      * Do not change anything below here.
      */
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk load engine that stages the TPC-H data as compressed part files, uploads them to
+ * an S3-compatible store and loads them with COPY instead of INSERTs.
+ * REDSHIFT issues one COPY per table from a manifest that lists exactly the part files of this
+ * run, so every slice pulls one part file in parallel and objects left under the prefix by an
+ * earlier run are never loaded. POSTGRES targets a PostgreSQL-protocol stand-in: it COPYs each
+ * part FROM PROGRAM with curl, which needs a superuser (or a role with pg_execute_server_program),
+ * curl on the database host and a stand-in bucket that allows anonymous reads; see
+ * CopyStandInCheck.
+ * The uploaded objects and the local part files are deleted once a table is loaded, or has failed.
+ */
+public class CopyLoader {
+
+    /**
+     * SQL flavour of the target database.
+     */
+    public enum Dialect {
+        REDSHIFT,
+        POSTGRES
+    }
+
+    private final Connection con;
+    private final S3ObjectStore store;
+    private final CopyStager stager;
+    private final Dialect dialect;
+    private final String credentials;
+    private final String keyPrefix;
+
+    /**
+     * @param con         connection to run COPY on
+     * @param store       object store the part files are uploaded to
+     * @param stager      writes the part files, its part count should match the slice count
+     * @param dialect     target database flavour
+     * @param credentials Redshift authorization clause, e.g. IAM_ROLE 'arn:aws:iam::...'; unused for POSTGRES
+     * @param keyPrefix   key prefix for the uploaded files, e.g. tpch/
+     * @throws IllegalArgumentException if the dialect is REDSHIFT and credentials are missing
+     */
+    public CopyLoader(Connection con, S3ObjectStore store, CopyStager stager, Dialect dialect,
+                      String credentials, String keyPrefix) {
+        if (dialect == Dialect.REDSHIFT && (credentials == null || credentials.trim().isEmpty())) {
+            throw new IllegalArgumentException("A Redshift COPY needs credentials, e.g. IAM_ROLE 'arn:aws:iam::...'");
+        }
+        this.con = con;
+        this.store = store;
+        this.stager = stager;
+        this.dialect = dialect;
+        this.credentials = credentials;
+        this.keyPrefix = keyPrefix.isEmpty() || keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+    }
+
+    /**
+     * Stages, uploads and copies every table. A ddl/&lt;table&gt;.tbl file is used when present,
+     * otherwise ddl/&lt;table&gt;.sql.
+     *
+     * @param ddlDirectory directory with the input files
+     * @param tables       tables in load order
+     * @return records loaded per table
+     * @throws IOException  if staging or uploading fails
+     * @throws SQLException if a COPY fails
+     */
+    public Map<String, Long> load(Path ddlDirectory, String... tables) throws IOException, SQLException {
+        Map<String, Long> loaded = new LinkedHashMap<>();
+        long totalRows = 0;
+        long startTime = System.currentTimeMillis();
+
+        for (String table : tables) {
+            Path tblFile = ddlDirectory.resolve(table + ".tbl");
+            Path sqlFile = ddlDirectory.resolve(table + ".sql");
+
+            System.out.println("Staging " + table + "...");
+            CopyStager.StagedTable staged = Files.exists(tblFile)
+                    ? stager.stageTbl(table, tblFile)
+                    : stager.stageSql(table, sqlFile);
+
+            List<String> uploaded = new ArrayList<>();
+            long uploadMillis;
+            long copyMillis;
+            try {
+                long uploadStart = System.currentTimeMillis();
+                List<String> partKeys = new ArrayList<>();
+                for (Path part : staged.partFiles) {
+                    String key = keyPrefix + table + "/" + part.getFileName();
+                    store.put(key, part);
+                    uploaded.add(key);
+                    partKeys.add(key);
+                }
+                String manifestKey = null;
+                if (dialect == Dialect.REDSHIFT) {
+                    manifestKey = keyPrefix + table + ".manifest";
+                    Path manifest = writeManifest(staged, partKeys);
+                    try {
+                        store.put(manifestKey, manifest);
+                        uploaded.add(manifestKey);
+                    } finally {
+                        Files.deleteIfExists(manifest);
+                    }
+                }
+                uploadMillis = System.currentTimeMillis() - uploadStart;
+
+                long copyStart = System.currentTimeMillis();
+                copy(table, partKeys, manifestKey);
+                copyMillis = System.currentTimeMillis() - copyStart;
+            } finally {
+                cleanUp(staged, uploaded);
+            }
+
+            long tableMillis = staged.stageMillis + uploadMillis + copyMillis;
+            System.out.printf("  %s: %d records in %d parts | stage %.2fs, upload %.2fs, copy %.2fs | %.0f records/sec%n",
+                    table, staged.rows, staged.partFiles.size(),
+                    staged.stageMillis / 1000.0, uploadMillis / 1000.0, copyMillis / 1000.0,
+                    tableMillis > 0 ? staged.rows * 1000.0 / tableMillis : 0.0);
+            loaded.put(table, staged.rows);
+            totalRows += staged.rows;
+        }
+
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+        System.out.printf("COPY load: %d records in %.2f seconds (%.0f records/sec)%n",
+                totalRows, seconds, seconds > 0 ? totalRows / seconds : 0.0);
+        return loaded;
+    }
+
+    /**
+     * Writes a Redshift COPY manifest listing the uploaded part files, each of them mandatory.
+     */
+    private Path writeManifest(CopyStager.StagedTable staged, List<String> partKeys) throws IOException {
+        StringBuilder json = new StringBuilder("{\"entries\":[");
+        for (int i = 0; i < partKeys.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("  {\"url\":\"").append(store.s3Uri(partKeys.get(i))).append("\",\"mandatory\":true}");
+        }
+        json.append("\n]}\n");
+        Path manifest = staged.partFiles.get(0).resolveSibling(staged.table + ".manifest");
+        Files.write(manifest, json.toString().getBytes(StandardCharsets.UTF_8));
+        return manifest;
+    }
+
+    /**
+     * Deletes the uploaded objects and the local part files. Failures are only reported, so they
+     * do not hide the outcome of the load.
+     */
+    private void cleanUp(CopyStager.StagedTable staged, List<String> uploaded) {
+        for (String key : uploaded) {
+            try {
+                store.delete(key);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + store.s3Uri(key) + ": " + e.getMessage());
+            }
+        }
+        for (Path part : staged.partFiles) {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + part + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void copy(String table, List<String> partKeys, String manifestKey) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            if (dialect == Dialect.REDSHIFT) {
+                // One COPY over the manifest, Redshift spreads the listed part files over the slices
+                stmt.execute("COPY " + table + " FROM '" + store.s3Uri(manifestKey) + "' " +
+                        credentials + " MANIFEST DELIMITER '" + CopyStager.DELIMITER + "' ESCAPE GZIP" +
+                        " NULL AS '" + CopyStager.NULL_MARKER.replace("\\", "\\\\") + "'" +
+                        " REGION '" + store.region() + "'");
+            } else {
+                for (String key : partKeys) {
+                    stmt.execute("COPY " + table + " FROM PROGRAM 'curl -sf " + store.httpUrl(key) + " | gzip -dc'" +
+                            " WITH (FORMAT text, DELIMITER '" + CopyStager.DELIMITER + "')");
+                }
+            }
+        }
+    }
+}
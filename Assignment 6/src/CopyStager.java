@@ -0,0 +1,237 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Turns TPC-H input into gzip'd, pipe-delimited part files that COPY can load.
+ * Input is either a ddl/&lt;table&gt;.sql INSERT stream or a dbgen &lt;table&gt;.tbl file.
+ * Rows are dealt round-robin over a fixed number of parts, one per cluster slice,
+ * so every slice gets an even share of the work.
+ * Output puts a backslash before '|', '\' and line breaks and writes \N for NULL, which is
+ * what both Redshift COPY ... ESCAPE and PostgreSQL's text format read.
+ */
+public class CopyStager {
+
+    public static final char DELIMITER = '|';
+    public static final String NULL_MARKER = "\\N";
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final Path stagingDirectory;
+    private final int parts;
+
+    /**
+     * Result of staging one table.
+     */
+    public static class StagedTable {
+        public final String table;
+        public final List<Path> partFiles;
+        public final long rows;
+        public final long stageMillis;
+
+        StagedTable(String table, List<Path> partFiles, long rows, long stageMillis) {
+            this.table = table;
+            this.partFiles = partFiles;
+            this.rows = rows;
+            this.stageMillis = stageMillis;
+        }
+    }
+
+    /**
+     * @param stagingDirectory where the part files are written
+     * @param parts            number of part files per table, normally the number of slices
+     */
+    public CopyStager(Path stagingDirectory, int parts) {
+        this.stagingDirectory = stagingDirectory;
+        this.parts = Math.max(1, parts);
+    }
+
+    /**
+     * Stages a table from an INSERT stream.
+     *
+     * @param table   table name, used for the part file names
+     * @param sqlFile ddl/&lt;table&gt;.sql
+     * @return the written part files
+     * @throws IOException if reading or writing fails
+     */
+    public StagedTable stageSql(String table, Path sqlFile) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Path> files = new ArrayList<>();
+        OutputStream[] outs = openParts(table, files);
+        Writer[] writers = new Writer[outs.length];
+        for (int i = 0; i < outs.length; i++) {
+            writers[i] = new BufferedWriter(new OutputStreamWriter(outs[i], StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        }
+        long rows = 0;
+
+        try (SqlInsertReader reader = new SqlInsertReader(sqlFile)) {
+            while (reader.next()) {
+                if (!reader.isMultiRowCandidate()) {
+                    continue;
+                }
+                writeTuple(reader.values(), writers[(int) (rows % parts)]);
+                rows++;
+            }
+        } finally {
+            closeAll(writers);
+        }
+        return new StagedTable(table, files, rows, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Stages a table from a dbgen .tbl file with a TblRecordReader. The fields are copied as
+     * bytes, without decoding them, and the trailing '|' dbgen adds to every line is dropped.
+     *
+     * @param table   table name, used for the part file names
+     * @param tblFile &lt;table&gt;.tbl
+     * @return the written part files
+     * @throws IOException if reading or writing fails
+     */
+    public StagedTable stageTbl(String table, Path tblFile) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Path> files = new ArrayList<>();
+        OutputStream[] outs = openParts(table, files);
+        byte[] escaped = new byte[256];
+        long rows = 0;
+
+        try (TblRecordReader reader = new TblRecordReader(tblFile)) {
+            while (reader.next()) {
+                OutputStream out = outs[(int) (rows % parts)];
+                for (int column = 0; column < reader.fieldCount(); column++) {
+                    if (column > 0) {
+                        out.write(DELIMITER);
+                    }
+                    ByteBuffer field = reader.getBytes(column);
+                    if (escaped.length < 2 * field.remaining()) {
+                        escaped = new byte[2 * field.remaining()];
+                    }
+                    int length = 0;
+                    while (field.hasRemaining()) {
+                        byte b = field.get();
+                        if (b == '\\') { // The only character of a .tbl field that needs escaping
+                            escaped[length++] = '\\';
+                        }
+                        escaped[length++] = b;
+                    }
+                    out.write(escaped, 0, length);
+                }
+                out.write('\n');
+                rows++;
+            }
+        } finally {
+            closeAll(outs);
+        }
+        return new StagedTable(table, files, rows, System.currentTimeMillis() - start);
+    }
+
+    private OutputStream[] openParts(String table, List<Path> files) throws IOException {
+        Files.createDirectories(stagingDirectory);
+        OutputStream[] outs = new OutputStream[parts];
+        try {
+            for (int i = 0; i < parts; i++) {
+                Path part = stagingDirectory.resolve(String.format("%s.part-%04d.gz", table, i));
+                files.add(part);
+                outs[i] = new BufferedOutputStream(
+                        new GZIPOutputStream(Files.newOutputStream(part), WRITE_BUFFER_SIZE), WRITE_BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            closeAll(outs);
+            throw e;
+        }
+        return outs;
+    }
+
+    private static void closeAll(Closeable[] closeables) throws IOException {
+        IOException failure = null;
+        for (Closeable closeable : closeables) {
+            if (closeable == null) {
+                continue;
+            }
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes one VALUES tuple such as (1, 'AFRICA', DATE '1996-01-02', NULL) as a delimited line.
+     * Quotes are removed ('' becomes '), type keywords in front of a literal are dropped and
+     * an unquoted NULL becomes \N.
+     */
+    static void writeTuple(String tuple, Writer out) throws IOException {
+        int start = tuple.indexOf('(') + 1;
+        int end = tuple.lastIndexOf(')');
+        if (end < start) {
+            end = tuple.length();
+        }
+
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        boolean quoted = false;
+        boolean firstField = true;
+
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? tuple.charAt(i) : ',';
+            if (inQuotes) {
+                if (c == '\'') {
+                    if (i + 1 < end && tuple.charAt(i + 1) == '\'') {
+                        field.append('\'');
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '\'') {
+                if (!quoted) {
+                    field.setLength(0); // Drop a DATE/TIMESTAMP keyword in front of the literal
+                }
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',') {
+                if (!firstField) {
+                    out.write(DELIMITER);
+                }
+                if (!quoted && field.toString().equalsIgnoreCase("NULL")) {
+                    out.write(NULL_MARKER);
+                } else {
+                    writeEscaped(field, out);
+                }
+                firstField = false;
+                field.setLength(0);
+                quoted = false;
+            } else if (!Character.isWhitespace(c) && !quoted) {
+                field.append(c);
+            }
+        }
+        out.write('\n');
+    }
+
+    private static void writeEscaped(CharSequence value, Writer out) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // A backslash in front of the character is understood by both Redshift and PostgreSQL
+            if (c == '\\' || c == DELIMITER || c == '\n' || c == '\r') {
+                out.write('\\');
+            }
+            out.write(c);
+        }
+    }
+}
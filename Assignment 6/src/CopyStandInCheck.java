@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Runs the COPY engine against local stand-ins, so it can be checked without AWS: MinIO for S3
+ * and PostgreSQL for Redshift (the POSTGRES dialect). Exits with status 1 if a check fails.
+ * <p>
+ * The stand-ins need some setup, since the POSTGRES dialect COPYs FROM PROGRAM with curl:
+ * <pre>
+ * docker run -d --name minio --network host minio/minio server /data
+ * docker exec minio mc alias set local http://localhost:9000 minioadmin minioadmin
+ * docker exec minio mc mb local/tpch-staging
+ * docker exec minio mc anonymous set download local/tpch-staging
+ * docker run -d --name pg --network host -e POSTGRES_PASSWORD=postgres postgres:16
+ * docker exec pg sh -c 'apt-get update &amp;&amp; apt-get install -y curl'
+ * </pre>
+ * The part files are fetched by the database server, so the store must be reachable from there
+ * under the same URL (hence the host network), and the user must be a superuser or a member of
+ * pg_execute_server_program. Override the defaults with the environment variables CHECK_JDBC_URL,
+ * CHECK_DB_USER, CHECK_DB_PASSWORD, CHECK_S3_ENDPOINT, CHECK_S3_BUCKET, CHECK_S3_ACCESS_KEY and
+ * CHECK_S3_SECRET_KEY.
+ */
+public class CopyStandInCheck {
+
+    private static final String KEY_PREFIX = "copy-check/";
+    private static final String TBL_TABLE = "copy_check_tbl";
+    private static final String SQL_TABLE = "copy_check_sql";
+    private static final int ROWS = 25;
+
+    private final Connection con;
+    private final S3ObjectStore store;
+    private final Path ddlDirectory;
+    private int failures;
+
+    private CopyStandInCheck(Connection con, S3ObjectStore store, Path ddlDirectory) {
+        this.con = con;
+        this.store = store;
+        this.ddlDirectory = ddlDirectory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        S3ObjectStore store = new S3ObjectStore(setting("CHECK_S3_ENDPOINT", "http://localhost:9000"), "us-east-1",
+                setting("CHECK_S3_BUCKET", "tpch-staging"), setting("CHECK_S3_ACCESS_KEY", "minioadmin"),
+                setting("CHECK_S3_SECRET_KEY", "minioadmin"));
+        Path ddlDirectory = Files.createTempDirectory("copy-check-ddl");
+        int failures;
+        try (Connection con = DriverManager.getConnection(setting("CHECK_JDBC_URL", "jdbc:postgresql://localhost:5432/postgres"),
+                setting("CHECK_DB_USER", "postgres"), setting("CHECK_DB_PASSWORD", "postgres"))) {
+            CopyStandInCheck check = new CopyStandInCheck(con, store, ddlDirectory);
+            check.run();
+            failures = check.failures;
+        } finally {
+            try (Stream<Path> files = Files.list(ddlDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(ddlDirectory);
+        }
+        System.out.println(failures == 0 ? "All COPY checks passed." : failures + " COPY check(s) failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private void run() throws IOException, SQLException {
+        writeInputs();
+        execute("DROP TABLE IF EXISTS " + TBL_TABLE + ", " + SQL_TABLE);
+        execute("CREATE TABLE " + TBL_TABLE + " (id INTEGER, name VARCHAR(40), note VARCHAR(40))");
+        execute("CREATE TABLE " + SQL_TABLE + " (id INTEGER, name VARCHAR(40), shipped DATE)");
+        try {
+            // The part count changes between the runs: nothing of the first run may be loaded again
+            for (int slices : new int[]{3, 2}) {
+                execute("TRUNCATE " + TBL_TABLE + ", " + SQL_TABLE);
+                Path staging = Files.createTempDirectory("copy-check-staging");
+                try {
+                    Map<String, Long> loaded = loader(staging, slices, CopyLoader.Dialect.POSTGRES, "")
+                            .load(ddlDirectory, TBL_TABLE, SQL_TABLE);
+                    check(loaded.get(TBL_TABLE) == ROWS && loaded.get(SQL_TABLE) == ROWS,
+                            slices + " slices: loader reports " + ROWS + " records per table, got " + loaded);
+                    check(count(TBL_TABLE) == ROWS && count(SQL_TABLE) == ROWS,
+                            slices + " slices: tables hold " + ROWS + " rows each");
+                    check(isEmpty(staging), slices + " slices: part files are deleted");
+                    check(!store.exists(KEY_PREFIX + TBL_TABLE + "/" + TBL_TABLE + ".part-0000.gz"),
+                            slices + " slices: uploaded part files are deleted");
+                } finally {
+                    Files.deleteIfExists(staging);
+                }
+            }
+            check(text("SELECT name FROM " + TBL_TABLE + " WHERE id = 7").equals("back\\slash Zo\u00eb"),
+                    ".tbl values keep backslashes and UTF-8");
+            check(text("SELECT name FROM " + SQL_TABLE + " WHERE id = 7").equals("it's|piped"),
+                    ".sql values keep quotes and delimiters");
+            check(count(SQL_TABLE + " WHERE shipped IS NULL") == ROWS / 2 + 1, ".sql NULLs load as NULL");
+
+            // A failing COPY surfaces its own exception and still cleans up
+            execute("DROP TABLE " + SQL_TABLE);
+            Path staging = Files.createTempDirectory("copy-check-staging");
+            try {
+                loader(staging, 2, CopyLoader.Dialect.POSTGRES, "").load(ddlDirectory, SQL_TABLE);
+                check(false, "COPY into a missing table fails");
+            } catch (SQLException e) {
+                check(isEmpty(staging), "part files are deleted after a failed COPY");
+                check(!store.exists(KEY_PREFIX + SQL_TABLE + "/" + SQL_TABLE + ".part-0000.gz"),
+                        "uploaded part files are deleted after a failed COPY");
+            } finally {
+                Files.deleteIfExists(staging);
+            }
+
+            try {
+                loader(ddlDirectory, 1, CopyLoader.Dialect.REDSHIFT, "");
+                check(false, "REDSHIFT without credentials is rejected");
+            } catch (IllegalArgumentException e) {
+                check(true, "REDSHIFT without credentials is rejected");
+            }
+        } finally {
+            execute("DROP TABLE IF EXISTS " + TBL_TABLE + ", " + SQL_TABLE);
+        }
+    }
+
+    private CopyLoader loader(Path staging, int slices, CopyLoader.Dialect dialect, String credentials) {
+        return new CopyLoader(con, store, new CopyStager(staging, slices), dialect, credentials, KEY_PREFIX);
+    }
+
+    /**
+     * Writes ROWS rows of both input formats. Row 7 holds the characters that need escaping.
+     */
+    private void writeInputs() throws IOException {
+        StringBuilder tbl = new StringBuilder();
+        StringBuilder sql = new StringBuilder();
+        for (int id = 0; id < ROWS; id++) {
+            String name = id == 7 ? "back\\slash Zo\u00eb" : "name " + id;
+            tbl.append(id).append('|').append(name).append('|').append("note ").append(id).append("|\n");
+            String sqlName = id == 7 ? "it''s|piped" : "name " + id;
+            String shipped = id % 2 == 0 ? "NULL" : "DATE '1996-01-" + String.format("%02d", id % 28 + 1) + "'";
+            sql.append("INSERT INTO ").append(SQL_TABLE).append(" VALUES (").append(id).append(", '")
+                    .append(sqlName).append("', ").append(shipped).append(");\n");
+        }
+        Files.write(ddlDirectory.resolve(TBL_TABLE + ".tbl"), tbl.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(ddlDirectory.resolve(SQL_TABLE + ".sql"), sql.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void check(boolean passed, String description) {
+        System.out.println((passed ? "PASS " : "FAIL ") + description);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private long count(String from) throws SQLException {
+        return Long.parseLong(text("SELECT COUNT(*) FROM " + from));
+    }
+
+    private String text(String query) throws SQLException {
+        try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(query)) {
+            return rs.next() ? rs.getString(1) : "";
+        }
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return !files.findAny().isPresent();
+        }
+    }
+
+    private static String setting(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
@@ -0,0 +1,93 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small fixed-size pool of JDBC connections for the parallel loaders.
+ * All connections are opened up front; callers block in acquire() until one is free.
+ */
+public class JdbcConnectionPool implements AutoCloseable {
+
+    /**
+     * Opens a new connection for the pool.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> all;
+
+    /**
+     * Opens poolSize connections.
+     *
+     * @param factory  opens one connection
+     * @param poolSize number of connections to keep
+     * @throws SQLException if a connection cannot be opened
+     */
+    public JdbcConnectionPool(ConnectionFactory factory, int poolSize) throws SQLException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1, got " + poolSize);
+        }
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+        this.all = new ArrayList<>(poolSize);
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                Connection con = factory.open();
+                all.add(con);
+                idle.add(con);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+        System.out.println("Opened a pool of " + poolSize + " connections.");
+    }
+
+    /**
+     * Takes a connection from the pool, waiting until one is free.
+     *
+     * @return connection that must be handed back with release()
+     * @throws SQLException if interrupted while waiting
+     */
+    public Connection acquire() throws SQLException {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param con connection obtained from acquire()
+     */
+    public void release(Connection con) {
+        idle.offer(con);
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    @Override
+    public void close() {
+        for (Connection con : all) {
+            try {
+                if (!con.isClosed()) {
+                    con.close();
+                }
+            } catch (SQLException e) {
+                System.err.println("Error closing pooled connection: " + e.getMessage());
+            }
+        }
+        all.clear();
+        idle.clear();
+    }
+}
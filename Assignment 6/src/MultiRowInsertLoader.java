@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Loads a ddl/*.sql file by merging its single-row INSERTs into multi-row INSERTs
+ * while the file is being read.
+ * Each multi-row statement is sent as soon as it is full, so at most one statement's
+ * worth of rows is held in memory at a time.
+ * How full a statement gets is decided by an AdaptiveBatchSizer: it is capped in bytes
+ * (UTF-8, as the driver sends it) and its row target follows the measured statement latency.
+ * A statement the server rejects is not retried in smaller pieces: the loaders run with
+ * auto-commit off, so the failed statement has already aborted the transaction. The byte
+ * cap, well below the server limit, is what keeps statements small enough.
+ */
+public class MultiRowInsertLoader {
+
+    // Statements without a VALUES clause can't be merged, they are sent as a JDBC batch instead
+    private static final int PLAIN_BATCH_SIZE = 500;
+
+    private final Connection con;
+    private final int maxStatementBytes;
+
+    public MultiRowInsertLoader(Connection con) {
+        this(con, AdaptiveBatchSizer.DEFAULT_MAX_STATEMENT_BYTES);
+    }
+
+    /**
+     * @param con               connection to load through
+     * @param maxStatementBytes size cap for a single multi-row INSERT
+     */
+    public MultiRowInsertLoader(Connection con, int maxStatementBytes) {
+        this.con = con;
+        this.maxStatementBytes = maxStatementBytes;
+    }
+
+    /**
+     * Streams one .sql file into the database.
+     *
+     * @param sqlFile path to the .sql file
+     * @return number of records inserted
+     * @throws IOException  if the file cannot be read
+     * @throws SQLException if a statement fails
+     */
+    public int load(Path sqlFile) throws IOException, SQLException {
+        try (SqlInsertReader reader = new SqlInsertReader(sqlFile)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Streams every statement of an already opened reader into the database.
+     *
+     * @param reader reader positioned before its first statement
+     * @return number of records inserted
+     * @throws IOException  if the file cannot be read
+     * @throws SQLException if a statement fails
+     */
+    public int load(SqlInsertReader reader) throws IOException, SQLException {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(maxStatementBytes);
+        PendingInsert pending = new PendingInsert();
+        int plainStatementsInBatch = 0;
+        int totalInserted = 0;
+        long startTime = System.currentTimeMillis();
+
+        try (Statement stmt = con.createStatement()) {
+            while (reader.next()) {
+                if (!reader.isMultiRowCandidate()) {
+                    stmt.addBatch(reader.values());
+                    plainStatementsInBatch++;
+                    if (plainStatementsInBatch == PLAIN_BATCH_SIZE) {
+                        totalInserted += executePlainBatch(stmt);
+                        plainStatementsInBatch = 0;
+                        showProgress(totalInserted, reader, sizer, startTime);
+                    }
+                    continue;
+                }
+
+                String values = reader.values();
+                int valuesBytes = utf8Length(values);
+                boolean newTable = !reader.insertPrefix().equals(pending.prefix);
+                boolean overBytes = pending.rows > 0
+                        && pending.bytes + 2 + valuesBytes > sizer.maxBytes();
+                if (newTable || overBytes) {
+                    totalInserted += flush(stmt, pending, sizer);
+                    if (newTable) {
+                        pending.start(reader.insertPrefix());
+                    }
+                }
+
+                pending.add(values, valuesBytes);
+
+                if (pending.rows >= sizer.targetRows()) {
+                    totalInserted += flush(stmt, pending, sizer);
+                    showProgress(totalInserted, reader, sizer, startTime);
+                }
+            }
+
+            totalInserted += flush(stmt, pending, sizer);
+            if (plainStatementsInBatch > 0) {
+                totalInserted += executePlainBatch(stmt);
+            }
+            showProgress(totalInserted, reader, sizer, startTime);
+        }
+        return totalInserted;
+    }
+
+    private static int flush(Statement stmt, PendingInsert pending, AdaptiveBatchSizer sizer) throws SQLException {
+        int rows = pending.rows;
+        if (rows > 0) {
+            long start = System.nanoTime();
+            stmt.execute(pending.sql.toString());
+            sizer.recordSuccess(rows, pending.bytes, System.nanoTime() - start);
+            pending.clear();
+        }
+        return rows;
+    }
+
+    private static int executePlainBatch(Statement stmt) throws SQLException {
+        int inserted = 0;
+        int[] results = stmt.executeBatch();
+        stmt.clearBatch();
+        for (int res : results) {
+            if (res >= 0) {
+                inserted += (res > 0 ? res : 1);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Length of a string once encoded as UTF-8, without encoding it.
+     */
+    static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 2; // A surrogate pair encodes as 4 bytes
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static void showProgress(int totalInserted, SqlInsertReader reader, AdaptiveBatchSizer sizer,
+                                     long startTime) {
+        // Total rows aren't known while streaming, so progress is measured in bytes of the file read
+        double elapsed = (System.currentTimeMillis() - startTime) / 1000.0;
+        double rate = elapsed > 0 ? totalInserted / elapsed : 0.0;
+        double percent = reader.rangeSize() > 0 ? reader.bytesRead() * 100.0 / reader.rangeSize() : 100.0;
+
+        System.out.printf("  Progress%s: %d records (%.1f%% of file) | Speed: %.0f records/sec" +
+                        " | Batch: %d rows, avg %d KB/INSERT, %.0f records/sec executing%n",
+                reader.tableName() != null ? " [" + reader.tableName() + "]" : "",
+                totalInserted, Math.min(100.0, percent), rate,
+                sizer.targetRows(), sizer.averageStatementBytes() / 1024, sizer.executeRowsPerSecond());
+    }
+
+    /**
+     * The multi-row INSERT being built.
+     */
+    private static class PendingInsert {
+        final StringBuilder sql = new StringBuilder();
+        String prefix;
+        int rows;
+        int bytes; // UTF-8 size of sql
+
+        void start(String insertPrefix) {
+            prefix = insertPrefix;
+            clear();
+        }
+
+        void clear() {
+            sql.setLength(0);
+            bytes = 0;
+            if (prefix != null) {
+                sql.append(prefix);
+                bytes = utf8Length(prefix);
+            }
+            rows = 0;
+        }
+
+        void add(String values, int valuesBytes) {
+            if (rows > 0) {
+                sql.append(", ");
+                bytes += 2;
+            }
+            rows++;
+            sql.append(values);
+            bytes += valuesBytes;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the TPC-H ddl/*.sql files over a pool of connections.
+ * Tables are loaded in two waves, the small tables first and then the large ones, and the
+ * tables inside a wave load at the same time. The waves do not follow the foreign keys:
+ * nation loads alongside region, and orders and lineitem alongside the tables they reference.
+ * That is fine because the schema declares no foreign keys, and Redshift would not enforce
+ * them anyway.
+ * Files larger than SPLIT_THRESHOLD_BYTES are cut into byte ranges, and since dbgen writes
+ * rows in key order each range is a key range that a separate worker loads.
+ * Every chunk commits on its own connection, so a failed parallel load leaves partial
+ * data behind and has to be redone after dropAllTables()/createSchemaTables().
+ */
+public class ParallelTpchLoader {
+
+    /**
+     * Tables loaded together. The second wave only starts once the first one is done, so the
+     * chunks of the large tables get the whole pool.
+     */
+    public static final String[][] LOAD_WAVES = {
+            {"region", "nation", "part", "supplier"},
+            {"partsupp", "customer", "orders", "lineitem"}
+    };
+
+    // Files bigger than this are split into several chunks
+    private static final long SPLIT_THRESHOLD_BYTES = 32L * 1024 * 1024;
+
+    private final JdbcConnectionPool pool;
+    private final Path ddlDirectory;
+
+    /**
+     * @param pool         connections to load through, one worker per connection
+     * @param ddlDirectory directory containing the &lt;table&gt;.sql files
+     */
+    public ParallelTpchLoader(JdbcConnectionPool pool, Path ddlDirectory) {
+        this.pool = pool;
+        this.ddlDirectory = ddlDirectory;
+    }
+
+    /**
+     * Load statistics for one table.
+     */
+    public static class TableStats {
+        public final String table;
+        public int chunks;
+        public long rows;
+        public long firstStartMillis = Long.MAX_VALUE;
+        public long lastEndMillis;
+        public long busyMillis; // Sum of chunk times, roughly what a serial load of this table takes
+
+        TableStats(String table) {
+            this.table = table;
+        }
+
+        public long wallMillis() {
+            return chunks == 0 ? 0 : lastEndMillis - firstStartMillis;
+        }
+
+        public double rowsPerSecond() {
+            long wall = wallMillis();
+            return wall > 0 ? rows * 1000.0 / wall : 0.0;
+        }
+    }
+
+    /**
+     * Loads every table of LOAD_WAVES and prints a per-table summary.
+     *
+     * @return statistics per table, in load order
+     * @throws IOException  if a file cannot be read
+     * @throws SQLException if a chunk fails to load
+     */
+    public Map<String, TableStats> load() throws IOException, SQLException {
+        Map<String, TableStats> stats = new LinkedHashMap<>();
+        ExecutorService workers = Executors.newFixedThreadPool(pool.size());
+        long startTime = System.currentTimeMillis();
+
+        try {
+            for (int wave = 0; wave < LOAD_WAVES.length; wave++) {
+                System.out.println("Loading wave " + (wave + 1) + ": " + String.join(", ", LOAD_WAVES[wave]));
+                List<Future<?>> pending = new ArrayList<>();
+
+                for (String table : LOAD_WAVES[wave]) {
+                    TableStats tableStats = new TableStats(table);
+                    stats.put(table, tableStats);
+
+                    Path sqlFile = ddlDirectory.resolve(table + ".sql");
+                    long size = Files.size(sqlFile);
+                    if (size == 0) {
+                        System.out.println("Warning: File '" + sqlFile.getFileName() + "' is empty.");
+                        continue;
+                    }
+
+                    int chunks = chunkCount(size);
+                    for (int i = 0; i < chunks; i++) {
+                        long from = size * i / chunks;
+                        long to = size * (i + 1) / chunks;
+                        pending.add(workers.submit(() -> {
+                            loadChunk(sqlFile, from, to, tableStats);
+                            return null;
+                        }));
+                    }
+                }
+                waitFor(pending);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        printSummary(stats, System.currentTimeMillis() - startTime);
+        return stats;
+    }
+
+    private int chunkCount(long fileSize) {
+        long bySize = (fileSize + SPLIT_THRESHOLD_BYTES - 1) / SPLIT_THRESHOLD_BYTES;
+        return (int) Math.max(1, Math.min(pool.size(), bySize));
+    }
+
+    private void loadChunk(Path sqlFile, long from, long to, TableStats tableStats)
+            throws IOException, SQLException {
+        Connection con = pool.acquire();
+        long chunkStart = System.currentTimeMillis();
+        try {
+            con.setAutoCommit(false);
+            int rows;
+            try (SqlInsertReader reader = new SqlInsertReader(sqlFile, from, to)) {
+                rows = new MultiRowInsertLoader(con).load(reader);
+            }
+            con.commit();
+
+            long chunkEnd = System.currentTimeMillis();
+            synchronized (tableStats) {
+                tableStats.chunks++;
+                tableStats.rows += rows;
+                tableStats.firstStartMillis = Math.min(tableStats.firstStartMillis, chunkStart);
+                tableStats.lastEndMillis = Math.max(tableStats.lastEndMillis, chunkEnd);
+                tableStats.busyMillis += chunkEnd - chunkStart;
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("Error loading " + sqlFile.getFileName() + " bytes " + from + "-" + to +
+                    ". Undoing this chunk: " + e.getMessage());
+            try {
+                con.rollback();
+            } catch (SQLException rollbackEx) {
+                System.err.println("Error during undo: " + rollbackEx.getMessage());
+            }
+            throw e;
+        } finally {
+            try {
+                con.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Could not reset auto-commit: " + e.getMessage());
+            }
+            pool.release(con);
+        }
+    }
+
+    private static void waitFor(List<Future<?>> pending) throws IOException, SQLException {
+        try {
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SQLException("Chunk load failed", cause);
+        }
+    }
+
+    private static void printSummary(Map<String, TableStats> stats, long totalWallMillis) {
+        long serialEstimateMillis = 0;
+        long totalRows = 0;
+
+        System.out.println("\nParallel load summary:");
+        System.out.printf("  %-10s %7s %10s %10s %14s%n", "Table", "Chunks", "Rows", "Seconds", "Records/sec");
+        for (TableStats s : stats.values()) {
+            System.out.printf("  %-10s %7d %10d %10.2f %14.0f%n",
+                    s.table, s.chunks, s.rows, s.wallMillis() / 1000.0, s.rowsPerSecond());
+            serialEstimateMillis += s.busyMillis;
+            totalRows += s.rows;
+        }
+
+        double totalSeconds = totalWallMillis / 1000.0;
+        System.out.printf("  Total: %d records in %.2f seconds (%.0f records/sec)%n",
+                totalRows, totalSeconds, totalSeconds > 0 ? totalRows / totalSeconds : 0.0);
+        System.out.printf("  Estimated speedup over one connection: %.2fx%n",
+                totalWallMillis > 0 ? (double) serialEstimateMillis / totalWallMillis : 1.0);
+    }
+}
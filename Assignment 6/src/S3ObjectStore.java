@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Minimal client for an S3-compatible object store: just enough to PUT the staged part files
+ * and delete them again after the load.
+ * Requests are signed with AWS Signature Version 4 and use path-style URLs
+ * (endpoint/bucket/key), so the same code talks to AWS S3 and to a local stand-in
+ * such as MinIO.
+ */
+public class S3ObjectStore {
+
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final DateTimeFormatter SCOPE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String EMPTY_PAYLOAD_HASH = hex(sha256(new byte[0]));
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String accessKey;
+    private final String secretKey;
+
+    /**
+     * @param endpoint  e.g. https://s3.eu-north-1.amazonaws.com or http://localhost:9000
+     * @param region    signing region, e.g. eu-north-1 (MinIO accepts us-east-1)
+     * @param bucket    bucket to upload into
+     * @param accessKey access key id
+     * @param secretKey secret access key
+     */
+    public S3ObjectStore(String endpoint, String region, String bucket, String accessKey, String secretKey) {
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.region = region;
+        this.bucket = bucket;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    public String bucket() {
+        return bucket;
+    }
+
+    public String region() {
+        return region;
+    }
+
+    /**
+     * Returns the s3:// URI of a key, as used in a Redshift COPY.
+     */
+    public String s3Uri(String key) {
+        return "s3://" + bucket + "/" + key;
+    }
+
+    /**
+     * Returns the HTTP URL of a key on this endpoint.
+     */
+    public String httpUrl(String key) {
+        return endpoint + "/" + bucket + "/" + encodePath(key);
+    }
+
+    /**
+     * Uploads a file.
+     *
+     * @param key  object key
+     * @param file file to upload
+     * @throws IOException if the upload fails or the store rejects it
+     */
+    public void put(String key, Path file) throws IOException {
+        HttpResponse<String> response = send("PUT", key, hex(sha256(file)), HttpRequest.BodyPublishers.ofFile(file));
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Upload of " + key + " failed with HTTP " + response.statusCode() +
+                    ": " + response.body());
+        }
+    }
+
+    /**
+     * Deletes an object. Deleting a key that does not exist is not an error.
+     *
+     * @param key object key
+     * @throws IOException if the request fails or the store rejects it
+     */
+    public void delete(String key) throws IOException {
+        HttpResponse<String> response = send("DELETE", key, EMPTY_PAYLOAD_HASH, HttpRequest.BodyPublishers.noBody());
+        if (response.statusCode() / 100 != 2 && response.statusCode() != 404) {
+            throw new IOException("Delete of " + key + " failed with HTTP " + response.statusCode() +
+                    ": " + response.body());
+        }
+    }
+
+    /**
+     * Returns whether an object exists.
+     *
+     * @param key object key
+     * @throws IOException if the request fails or the store rejects it
+     */
+    public boolean exists(String key) throws IOException {
+        HttpResponse<String> response = send("HEAD", key, EMPTY_PAYLOAD_HASH, HttpRequest.BodyPublishers.noBody());
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("HEAD of " + key + " failed with HTTP " + response.statusCode());
+        }
+        return true;
+    }
+
+    /**
+     * Sends a request for a key, signed with the hash of its payload.
+     */
+    private HttpResponse<String> send(String method, String key, String payloadHash,
+                                      HttpRequest.BodyPublisher body) throws IOException {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String scopeDate = SCOPE_DATE.format(now);
+
+        String host = endpoint.getPort() == -1 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+        String canonicalUri = endpoint.getRawPath() + "/" + bucket + "/" + encodePath(key);
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        String canonicalRequest = method + "\n" + canonicalUri + "\n\n" +
+                "host:" + host + "\n" +
+                "x-amz-content-sha256:" + payloadHash + "\n" +
+                "x-amz-date:" + amzDate + "\n\n" +
+                signedHeaders + "\n" + payloadHash;
+
+        String scope = scopeDate + "/" + region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" +
+                hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+        byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), scopeDate);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint.getScheme() + "://" + host + canonicalUri))
+                .header("x-amz-content-sha256", payloadHash)
+                .header("x-amz-date", amzDate)
+                .header("Authorization", "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope +
+                        ", SignedHeaders=" + signedHeaders + ", Signature=" + signature)
+                .method(method, body)
+                .build();
+
+        try {
+            return http.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during " + method + " of " + key, e);
+        }
+    }
+
+    private static String encodePath(String key) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || c == '/') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        return newSha256().digest(data);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams INSERT statements out of a ddl/*.sql file one at a time.
+ * Only the statement currently being parsed is held in memory, so heap use does not
+ * depend on the size of the file.
+ * A statement ends at a ';' outside of quotes that is followed by a line break
+ * (or the end of the file), which matches the ";\n" split the loaders used before.
+ */
+public class SqlInsertReader implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final long fileSize;
+    private final long endOffset;
+    private final long rangeStart; // Offset of the first statement in the range
+    private long position; // File offset of the next byte handed out by readByte()
+
+    private byte[] statementBytes = new byte[4096];
+    private int statementLength;
+
+    private String insertPrefix;
+    private String tableName;
+    private String values;
+    private long statementCount;
+
+    /**
+     * Opens a reader over the whole file.
+     *
+     * @param sqlFile path to the .sql file
+     * @throws IOException if the file cannot be opened
+     */
+    public SqlInsertReader(Path sqlFile) throws IOException {
+        this(sqlFile, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens a reader that returns only the statements starting inside [startOffset, endOffset).
+     * Readers over adjacent ranges together return every statement exactly once.
+     *
+     * @param sqlFile     path to the .sql file
+     * @param startOffset first byte of the range
+     * @param endOffset   first byte after the range
+     * @throws IOException if the file cannot be opened
+     */
+    public SqlInsertReader(Path sqlFile, long startOffset, long endOffset) throws IOException {
+        this.channel = FileChannel.open(sqlFile, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.endOffset = Math.min(endOffset, fileSize);
+        readBuffer.limit(0);
+
+        if (startOffset > 0) {
+            // Step back far enough that a ";\n" ending right before startOffset is still seen
+            seek(Math.max(0, startOffset - 3));
+            skipToStatementBoundary(startOffset);
+        }
+        rangeStart = Math.min(position, this.endOffset);
+    }
+
+    /**
+     * Advances to the next INSERT statement in the range.
+     * Statements that are not INSERTs are skipped, like the old split-based loaders did.
+     *
+     * @return true if a statement was read, false at the end of the range
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        while (position < endOffset) {
+            if (!readStatement()) {
+                return false;
+            }
+            if (parseStatement()) {
+                statementCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the statement text up to and including VALUES, e.g. "INSERT INTO region VALUES ",
+     * or null when the statement has no VALUES clause.
+     */
+    public String insertPrefix() {
+        return insertPrefix;
+    }
+
+    /**
+     * Returns the table name of the current statement, or null when it has no VALUES clause.
+     */
+    public String tableName() {
+        return tableName;
+    }
+
+    /**
+     * Returns the VALUES tuple of the current statement, e.g. "(1, 'AFRICA', '...')".
+     * When the statement has no VALUES clause this is the whole statement.
+     */
+    public String values() {
+        return values;
+    }
+
+    /**
+     * Returns true when the current statement can be merged into a multi-row INSERT.
+     */
+    public boolean isMultiRowCandidate() {
+        return insertPrefix != null;
+    }
+
+    public long statementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Returns how many bytes of the range have been consumed so far.
+     */
+    public long bytesRead() {
+        return Math.min(position, endOffset) - rangeStart;
+    }
+
+    /**
+     * Returns the number of bytes in the range, the whole file for a full reader.
+     */
+    public long rangeSize() {
+        return endOffset - rangeStart;
+    }
+
+    public long fileSize() {
+        return fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void seek(long offset) throws IOException {
+        channel.position(offset);
+        position = offset;
+        readBuffer.clear().limit(0);
+    }
+
+    private int readByte() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            readBuffer.flip();
+            if (read <= 0) {
+                return -1;
+            }
+        }
+        position++;
+        return readBuffer.get() & 0xFF;
+    }
+
+    private int peekByte() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            readBuffer.flip();
+            if (read <= 0) {
+                return -1;
+            }
+        }
+        return readBuffer.get(readBuffer.position()) & 0xFF;
+    }
+
+    private void skipToStatementBoundary(long startOffset) throws IOException {
+        // Statement boundaries are the byte after ";\n" (or ";\r\n"); quoting is ignored here
+        int previous = -1;
+        int beforePrevious = -1;
+        int b;
+        while ((b = readByte()) != -1) {
+            if (b == '\n' && (previous == ';' || (previous == '\r' && beforePrevious == ';'))
+                    && position >= startOffset) {
+                return;
+            }
+            beforePrevious = previous;
+            previous = b;
+        }
+    }
+
+    private boolean readStatement() throws IOException {
+        statementLength = 0;
+        boolean inQuotes = false;
+        int b;
+        while ((b = readByte()) != -1) {
+            if (b == '\'') {
+                inQuotes = !inQuotes;
+            } else if (b == ';' && !inQuotes && atLineEnd()) {
+                return true;
+            }
+            appendStatementByte(b);
+        }
+        // Last statement may be missing its terminator
+        return statementLength > 0;
+    }
+
+    private boolean atLineEnd() throws IOException {
+        int next = peekByte();
+        if (next == '\r') {
+            readByte();
+            next = peekByte();
+        }
+        if (next == '\n') {
+            readByte();
+            return true;
+        }
+        return next == -1;
+    }
+
+    private void appendStatementByte(int b) {
+        if (statementLength == statementBytes.length) {
+            byte[] grown = new byte[statementBytes.length * 2];
+            System.arraycopy(statementBytes, 0, grown, 0, statementLength);
+            statementBytes = grown;
+        }
+        statementBytes[statementLength++] = (byte) b;
+    }
+
+    private boolean parseStatement() {
+        String stmt = new String(statementBytes, 0, statementLength, StandardCharsets.UTF_8).trim();
+        if (stmt.isEmpty() || !stmt.regionMatches(true, 0, "INSERT", 0, 6)) {
+            return false;
+        }
+
+        insertPrefix = null;
+        tableName = null;
+        values = stmt;
+
+        int intoIndex = indexOfIgnoreCase(stmt, "INTO ", 0);
+        int valuesIndex = intoIndex == -1 ? -1 : indexOfIgnoreCase(stmt, " VALUES", intoIndex);
+        if (intoIndex != -1 && valuesIndex != -1) {
+            tableName = stmt.substring(intoIndex + 5, valuesIndex).trim();
+            insertPrefix = "INSERT INTO " + tableName + " VALUES ";
+            values = stmt.substring(valuesIndex + 7).trim();
+        }
+        return true;
+    }
+
+    private static int indexOfIgnoreCase(String text, String token, int from) {
+        int last = text.length() - token.length();
+        for (int i = from; i <= last; i++) {
+            if (text.regionMatches(true, i, token, 0, token.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Runs the operations of MongoDB without blocking the caller: each call returns a
+ * CompletableFuture and runs the same sync-driver code on a pool of worker threads.
+ * At most maxInFlight operations run at once; submitting more blocks the caller until one
+ * finishes, so a fast producer cannot queue unbounded work. The driver's connection pool
+ * (100 connections by default) must be at least maxInFlight or operations wait for a
+ * connection instead.
+ */
+public class AsyncMongoDB implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    private final MongoDB mongo;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+
+    /**
+     * @param mongo       connected MongoDB instance the operations run on
+     * @param maxInFlight operations allowed to run at once
+     */
+    public AsyncMongoDB(MongoDB mongo, int maxInFlight) {
+        this.mongo = mongo;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "mongo-async-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs a task on a worker thread once fewer than maxInFlight operations are running.
+     * Blocks the caller while the limit is reached.
+     *
+     * @param task operation to run
+     * @return the result of the task, or its exception
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while waiting for an operation slot", e);
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                T value;
+                try {
+                    value = task.call();
+                } catch (Throwable e) {
+                    inFlight.release();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                // Released before completing, so work chained on the future can take the slot
+                inFlight.release();
+                future.complete(value);
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * MongoDB.load() with the customer and orders files loaded at the same time.
+     * Each file gets half of maxInFlight bulk writers, then the indexes and customer_totals
+     * are built once both are done.
+     */
+    public CompletableFuture<Void> load() {
+        int writers = Math.max(1, maxInFlight / 2);
+        CompletableFuture<Long> customers = submit(() ->
+                mongo.loadTable(MongoDB.CUSTOMER_COLLECTION, MongoDB.CUSTOMER_FILE, "customer", writers));
+        CompletableFuture<Long> orders = submit(() ->
+                mongo.loadTable(MongoDB.ORDERS_COLLECTION, MongoDB.ORDER_FILE, "order", writers));
+        return CompletableFuture.allOf(customers, orders).thenCompose(loaded -> submit(() -> {
+            mongo.createIndexes();
+            mongo.buildCustomerTotals();
+            return null;
+        }));
+    }
+
+    /**
+     * MongoDB.loadNest(); needs the collections built by load().
+     */
+    public CompletableFuture<Void> loadNest() {
+        return submit(() -> {
+            mongo.loadNest();
+            return null;
+        });
+    }
+
+    public CompletableFuture<String> query1(int custkey) {
+        return submit(() -> mongo.query1(custkey));
+    }
+
+    public CompletableFuture<String> query2(int orderId) {
+        return submit(() -> mongo.query2(orderId));
+    }
+
+    public CompletableFuture<String> query2Nest(int orderId) {
+        return submit(() -> mongo.query2Nest(orderId));
+    }
+
+    public CompletableFuture<Long> query3() {
+        return submit(mongo::query3);
+    }
+
+    public CompletableFuture<Long> query3Nest() {
+        return submit(mongo::query3Nest);
+    }
+
+    /**
+     * MongoDB.query4(n), read to the end on the worker thread.
+     */
+    public CompletableFuture<List<Document>> query4(int n) {
+        return submit(() -> readAll(mongo.query4(n)));
+    }
+
+    /**
+     * MongoDB.query4Nest(n), read to the end on the worker thread.
+     */
+    public CompletableFuture<List<Document>> query4Nest(int n) {
+        return submit(() -> readAll(mongo.query4Nest(n)));
+    }
+
+    public CompletableFuture<Customer> query1Typed(int custkey) {
+        return submit(() -> mongo.query1Typed(custkey));
+    }
+
+    public CompletableFuture<Order> query2Typed(int orderId) {
+        return submit(() -> mongo.query2Typed(orderId));
+    }
+
+    /**
+     * Waits for running operations to finish and stops the worker threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the same point lookups (query1Typed and query2Typed, alternating) one at a time on
+     * the sync path and then through AsyncMongoDB at each concurrency level, and prints the
+     * operations per second. Every async result is checked against the sync one.
+     *
+     * @param mongo             connected MongoDB instance with the data loaded
+     * @param operations        lookups per run
+     * @param concurrencyLevels maxInFlight values to try
+     */
+    public static void benchmarkThroughput(MongoDB mongo, int operations, int... concurrencyLevels) {
+        System.out.println("\nBenchmarking sync vs async throughput with " + operations + " lookups...");
+        Random random = new Random(42);
+        int maxCustkey = (int) Math.max(1, mongo.getDb().getCollection(MongoDB.CUSTOMER_COLLECTION).countDocuments());
+        // TPC-H order keys are sparse: only 8 of every 32 are used
+        int maxOrderkey = (int) Math.max(1, mongo.getDb().getCollection(MongoDB.ORDERS_COLLECTION).countDocuments() * 4);
+        int[] keys = new int[operations];
+        for (int i = 0; i < operations; i++) {
+            keys[i] = 1 + random.nextInt(i % 2 == 0 ? maxCustkey : maxOrderkey);
+        }
+
+        List<Object> expected = new ArrayList<>(operations);
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            expected.add(i % 2 == 0 ? customerName(mongo.query1Typed(keys[i])) : orderDate(mongo.query2Typed(keys[i])));
+        }
+        long syncNanos = System.nanoTime() - start;
+        System.out.printf("  sync             %8.0f ops/sec%n", operations / (syncNanos / 1e9));
+
+        for (int level : concurrencyLevels) {
+            List<CompletableFuture<Object>> results = new ArrayList<>(operations);
+            long nanos;
+            try (AsyncMongoDB async = new AsyncMongoDB(mongo, level)) {
+                start = System.nanoTime();
+                for (int i = 0; i < operations; i++) {
+                    results.add(i % 2 == 0
+                            ? async.query1Typed(keys[i]).thenApply(AsyncMongoDB::customerName)
+                            : async.query2Typed(keys[i]).thenApply(AsyncMongoDB::orderDate));
+                }
+                CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+                nanos = System.nanoTime() - start;
+            }
+
+            int mismatches = 0;
+            for (int i = 0; i < operations; i++) {
+                if (!Objects.equals(expected.get(i), results.get(i).join())) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("  async, %3d in flight %8.0f ops/sec (%.1fx vs sync)%s%n", level,
+                    operations / (nanos / 1e9), nanos > 0 ? (double) syncNanos / nanos : 1.0,
+                    mismatches > 0 ? " | " + mismatches + " results differ from sync" : "");
+        }
+    }
+
+    private static Object customerName(Customer customer) {
+        return customer != null ? customer.name : null;
+    }
+
+    private static Object orderDate(Order order) {
+        return order != null ? order.orderDate() : null;
+    }
+
+    private static List<Document> readAll(MongoCursor<Document> cursor) {
+        List<Document> documents = new ArrayList<>();
+        try (MongoCursor<Document> c = cursor) {
+            c.forEachRemaining(documents::add);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Streams documents into a collection while they are still being parsed.
+ * The parsing thread adds documents one at a time; they are grouped into chunks that
+ * a fixed number of writer threads send with unordered bulkWrite calls.
+ * Only a bounded number of chunks may wait for a writer, so add() blocks when the
+ * writers fall behind and memory stays bounded no matter how large the input is.
+ *
+ * @param <T> document type of the collection
+ */
+public class BulkWritePipeline<T> implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_WRITERS = 4;
+
+    // Print a progress line every this many chunks
+    private static final int REPORT_EVERY_CHUNKS = 50;
+
+    private final MongoCollection<T> collection;
+    private final String label;
+    private final int chunkSize;
+    private final BlockingQueue<List<WriteModel<T>>> queue;
+    private final List<Thread> writers = new ArrayList<>();
+    private final List<WriteModel<T>> endOfInput = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong chunksWritten = new AtomicLong();
+    private final AtomicLong totalChunkNanos = new AtomicLong();
+    private final AtomicLong maxChunkNanos = new AtomicLong();
+
+    private List<WriteModel<T>> current;
+    private final long startNanos;
+    private boolean finished;
+
+    /**
+     * Starts the writer threads.
+     *
+     * @param collection  collection to insert into
+     * @param label       name used in progress output
+     * @param chunkSize   documents per bulkWrite
+     * @param writerCount number of writer threads
+     */
+    public BulkWritePipeline(MongoCollection<T> collection, String label, int chunkSize, int writerCount) {
+        this.collection = collection;
+        this.label = label;
+        this.chunkSize = Math.max(1, chunkSize);
+        int writerThreads = Math.max(1, writerCount);
+        // Each writer can have one chunk in flight and one waiting
+        this.queue = new ArrayBlockingQueue<>(writerThreads * 2);
+        this.current = new ArrayList<>(this.chunkSize);
+        this.startNanos = System.nanoTime();
+
+        for (int i = 0; i < writerThreads; i++) {
+            Thread writer = new Thread(this::writeChunks, label + "-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+    }
+
+    /**
+     * Adds a document, blocking while all writers are busy and the queue is full.
+     *
+     * @param document document to insert
+     */
+    public void add(T document) {
+        checkFailure();
+        current.add(new InsertOneModel<>(document));
+        if (current.size() == chunkSize) {
+            enqueue(current);
+            current = new ArrayList<>(chunkSize);
+        }
+    }
+
+    /**
+     * Sends the last partial chunk, waits for all writers and prints a summary.
+     *
+     * @return number of documents inserted
+     */
+    public long finish() {
+        if (!finished) {
+            finished = true;
+            if (!current.isEmpty()) {
+                enqueue(current);
+                current = new ArrayList<>(0);
+            }
+            for (int i = 0; i < writers.size(); i++) {
+                enqueue(endOfInput);
+            }
+            for (Thread writer : writers) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MongoException("Interrupted while waiting for " + label + " writers", e);
+                }
+            }
+            checkFailure();
+            printSummary();
+        }
+        return written.get();
+    }
+
+    /**
+     * Stops the writers. Safe to call after finish().
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            for (Thread writer : writers) {
+                writer.interrupt();
+            }
+        }
+    }
+
+    private void enqueue(List<WriteModel<T>> chunk) {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while queueing " + label + " documents", e);
+        }
+    }
+
+    private void writeChunks() {
+        BulkWriteOptions options = new BulkWriteOptions().ordered(false);
+        try {
+            while (true) {
+                List<WriteModel<T>> chunk = queue.take();
+                if (chunk == endOfInput) {
+                    return;
+                }
+                if (failure.get() != null) {
+                    continue; // Keep draining so the parsing thread is not left blocked
+                }
+
+                long start = System.nanoTime();
+                collection.bulkWrite(chunk, options);
+                long nanos = System.nanoTime() - start;
+
+                long total = written.addAndGet(chunk.size());
+                long chunks = chunksWritten.incrementAndGet();
+                totalChunkNanos.addAndGet(nanos);
+                maxChunkNanos.accumulateAndGet(nanos, Math::max);
+
+                if (chunks % REPORT_EVERY_CHUNKS == 0) {
+                    System.out.printf("  %s: %d documents | chunk of %d took %.1f ms | %.0f docs/sec%n",
+                            label, total, chunk.size(), nanos / 1e6, docsPerSecond());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            // Drain until end of input so add() and finish() never block on a dead writer
+            try {
+                while (queue.take() != endOfInput) {
+                    // discard
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkFailure() {
+        Throwable error = failure.get();
+        if (error != null) {
+            throw new MongoException("Bulk write into " + label + " failed: " + error.getMessage(), error);
+        }
+    }
+
+    private double docsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? written.get() / seconds : 0.0;
+    }
+
+    private void printSummary() {
+        long chunks = chunksWritten.get();
+        System.out.printf("  %s: %d documents in %d chunks (%d per chunk, %d writers) | " +
+                        "avg chunk %.1f ms, max %.1f ms | %.0f docs/sec%n",
+                label, written.get(), chunks, chunkSize, writers.size(),
+                chunks > 0 ? totalChunkNanos.get() / 1e6 / chunks : 0.0, maxChunkNanos.get() / 1e6,
+                docsPerSecond());
+    }
+}
@@ -0,0 +1,175 @@
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Checks LookupCache and the change-stream invalidation of CachedMongoDB. Exits with status 1 if
+ * a check fails.
+ * <p>
+ * The LookupCache checks run in-process. With --replica-set the CachedMongoDB checks run as well,
+ * against a scratch database on a local single-node replica set, the stand-in for Atlas:
+ * <pre>
+ * docker run -d --name mongo -p 27017:27017 mongo:6 --replSet rs0
+ * docker exec mongo mongosh --quiet --eval 'rs.initiate()'
+ * </pre>
+ * Set CHECK_MONGO_URL to use another server (default
+ * mongodb://localhost:27017/?replicaSet=rs0&amp;directConnection=true).
+ */
+public class CacheInvalidationCheck {
+
+    private static final String DATABASE = "cache_check";
+    private static final long CHANGE_TIMEOUT_MILLIS = 10_000;
+
+    private int failures;
+
+    public static void main(String[] args) throws Exception {
+        CacheInvalidationCheck check = new CacheInvalidationCheck();
+        check.checkLookupCache();
+        if (Arrays.asList(args).contains("--replica-set")) {
+            String url = System.getenv("CHECK_MONGO_URL");
+            check.checkChangeStream(url != null && !url.isEmpty()
+                    ? url : "mongodb://localhost:27017/?replicaSet=rs0&directConnection=true");
+        }
+        System.out.println(check.failures == 0 ? "All cache checks passed." : check.failures + " cache check(s) failed.");
+        System.exit(check.failures == 0 ? 0 : 1);
+    }
+
+    private void checkLookupCache() throws Exception {
+        LookupCache<String> lru = new LookupCache<>("lru", 2, 60_000);
+        lru.put(1, "one");
+        lru.put(2, "two");
+        lru.get(1);
+        lru.put(3, "three");
+        check(lru.get(2) == null && "one".equals(lru.get(1)) && "three".equals(lru.get(3)),
+                "the least recently used entry is evicted");
+
+        LookupCache<String> ttl = new LookupCache<>("ttl", 10, 20);
+        ttl.put(1, "one");
+        Thread.sleep(40);
+        check(ttl.get(1) == null && ttl.expirations() == 1, "entries expire after their TTL");
+
+        LookupCache<String> loads = new LookupCache<>("loads", 10, 60_000);
+        check("loaded".equals(loads.get(1, key -> "loaded")) && "loaded".equals(loads.get(1)),
+                "a loaded value is cached");
+
+        // The change lands while the loader still holds the old value
+        String stale = loads.get(2, key -> {
+            loads.invalidate(key);
+            return "stale";
+        });
+        check("stale".equals(stale) && loads.get(2) == null, "a value loaded across invalidate() is not cached");
+        loads.get(3, key -> {
+            loads.invalidateAll();
+            return "stale";
+        });
+        check(loads.get(3) == null, "a value loaded across invalidateAll() is not cached");
+        check("fresh".equals(loads.get(2, key -> "fresh")) && "fresh".equals(loads.get(2)),
+                "the next load after an invalidation is cached");
+
+        // Same race with the invalidation on another thread, as the change stream listener does it
+        LookupCache<String> shared = new LookupCache<>("shared", 10, 60_000);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> load = reader.submit(() -> shared.get(7, key -> {
+                loading.countDown();
+                await(invalidated);
+                return "stale";
+            }));
+            await(loading);
+            shared.invalidate(7);
+            invalidated.countDown();
+            check("stale".equals(load.get(5, TimeUnit.SECONDS)) && shared.get(7) == null,
+                    "an invalidation from another thread during a load keeps the value out of the cache");
+        } finally {
+            reader.shutdownNow();
+        }
+    }
+
+    private void checkChangeStream(String url) throws Exception {
+        MongoDB mongo = new MongoDB();
+        try (MongoClient client = MongoClients.create(url)) {
+            mongo.mongoClient = client;
+            mongo.db = client.getDatabase(DATABASE).withCodecRegistry(TpchCodecs.registry(mongo.decimalMode));
+            mongo.db.drop();
+            Date shipped = new Date(0);
+            mongo.db.getCollection(MongoDB.CUSTOMER_COLLECTION)
+                    .insertOne(new Document("C_CUSTKEY", 1).append("C_NAME", "Customer#before"));
+            mongo.db.getCollection(MongoDB.ORDERS_COLLECTION)
+                    .insertOne(new Document("O_ORDERKEY", 10).append("O_CUSTKEY", 1).append("O_ORDERDATE", shipped));
+            mongo.db.getCollection(MongoDB.CUSTORDERS_COLLECTION).insertOne(new Document("C_CUSTKEY", 1)
+                    .append("ORDERS", Arrays.asList(new Document("O_ORDERKEY", 10).append("O_ORDERDATE", shipped))));
+
+            // A TTL far beyond the checks, so only invalidation can refresh an entry
+            try (CachedMongoDB cached = new CachedMongoDB(mongo, 100, TimeUnit.HOURS.toMillis(1))) {
+                cached.startInvalidation();
+                check(cached.query1(1).contains("Customer#before") && cached.query1(1).contains("Customer#before"),
+                        "query1 is served from the cache");
+
+                mongo.db.getCollection(MongoDB.CUSTOMER_COLLECTION)
+                        .updateOne(Filters.eq("C_CUSTKEY", 1), Updates.set("C_NAME", "Customer#after"));
+                check(eventually(() -> cached.query1(1).contains("Customer#after")),
+                        "a customer update invalidates query1");
+
+                String before = cached.query2(10);
+                mongo.db.getCollection(MongoDB.ORDERS_COLLECTION)
+                        .updateOne(Filters.eq("O_ORDERKEY", 10), Updates.set("O_ORDERDATE", new Date(86_400_000L)));
+                check(eventually(() -> !cached.query2(10).equals(before)), "an order update invalidates query2");
+
+                String nestedBefore = cached.query2Nest(10);
+                mongo.db.getCollection(MongoDB.CUSTORDERS_COLLECTION).updateOne(
+                        Filters.eq("C_CUSTKEY", 1), Updates.set("ORDERS.0.O_ORDERDATE", new Date(86_400_000L)));
+                check(eventually(() -> !cached.query2Nest(10).equals(nestedBefore)),
+                        "a custorders update invalidates query2Nest");
+
+                mongo.db.getCollection(MongoDB.CUSTOMER_COLLECTION).deleteOne(Filters.eq("C_CUSTKEY", 1));
+                check(eventually(() -> cached.query1(1).contains("not found")), "a customer delete invalidates query1");
+                cached.printStats();
+            } finally {
+                mongo.db.drop();
+            }
+        }
+    }
+
+    private static boolean eventually(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CHANGE_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.get()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void check(boolean passed, String description) {
+        System.out.println((passed ? "PASS " : "FAIL ") + description);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+/**
+ * Read-through cache in front of the single-key lookups of MongoDB: query1, query2 and query2Nest.
+ * Each query has its own LookupCache. A change stream on the database drops entries whose
+ * customer or order was inserted, updated or replaced. Deletes and drops only carry the _id,
+ * so they clear the whole cache of that collection, as do updates of custorders.
+ * Change streams need a replica set; a single-node one is enough for local runs
+ * (mongod --replSet rs0, then rs.initiate() in mongosh). Without one, entries are only
+ * refreshed when their TTL runs out. CacheInvalidationCheck exercises both against a local
+ * replica set.
+ */
+public class CachedMongoDB implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+    private final MongoDB mongo;
+    private final LookupCache<String> customerNames;
+    private final LookupCache<String> orderDates;
+    private final LookupCache<String> nestedOrderDates;
+
+    private Thread listener;
+    private final CountDownLatch listening = new CountDownLatch(1); // Stream opened, or failed to
+    private volatile boolean closed;
+
+    /**
+     * @param mongo      connected MongoDB instance the lookups go to on a miss
+     * @param maxEntries entries per cache
+     * @param ttlMillis  time to live of an entry
+     */
+    public CachedMongoDB(MongoDB mongo, int maxEntries, long ttlMillis) {
+        this.mongo = mongo;
+        this.customerNames = new LookupCache<>("query1", maxEntries, ttlMillis);
+        this.orderDates = new LookupCache<>("query2", maxEntries, ttlMillis);
+        this.nestedOrderDates = new LookupCache<>("query2Nest", maxEntries, ttlMillis);
+    }
+
+    public String query1(int custkey) {
+        return customerNames.get(custkey, mongo::query1);
+    }
+
+    public String query2(int orderId) {
+        return orderDates.get(orderId, mongo::query2);
+    }
+
+    public String query2Nest(int orderId) {
+        return nestedOrderDates.get(orderId, mongo::query2Nest);
+    }
+
+    /**
+     * Starts a daemon thread that follows the change stream and invalidates entries, and returns
+     * once the stream is open, so changes made after this call are seen.
+     * If the server cannot open a change stream a warning is printed and the caches
+     * fall back to TTL expiry.
+     */
+    public void startInvalidation() {
+        synchronized (this) {
+            if (listener == null) {
+                listener = new Thread(this::followChanges, "cache-invalidation");
+                listener.setDaemon(true);
+                listener.start();
+            }
+        }
+        try {
+            if (!listening.await(30, TimeUnit.SECONDS)) {
+                System.err.println("Change stream not open after 30 seconds, continuing without waiting for it");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Prints the counters of every cache.
+     */
+    public void printStats() {
+        System.out.println("Cache statistics:");
+        System.out.println("  " + customerNames);
+        System.out.println("  " + orderDates);
+        System.out.println("  " + nestedOrderDates);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Thread running;
+        synchronized (this) {
+            running = listener;
+        }
+        if (running != null) {
+            try {
+                running.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void followChanges() {
+        List<String> collections = Arrays.asList(
+                MongoDB.CUSTOMER_COLLECTION, MongoDB.ORDERS_COLLECTION, MongoDB.CUSTORDERS_COLLECTION);
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = mongo.getDb()
+                .watch(Arrays.asList(Aggregates.match(Filters.or(
+                        Filters.in("ns.coll", collections),
+                        Filters.eq("operationType", "dropDatabase")))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS) // So close() is noticed within a second
+                .cursor()) {
+            listening.countDown();
+            while (!closed) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null) {
+                    invalidate(change);
+                }
+            }
+        } catch (MongoException e) {
+            if (!closed) {
+                // Events may have been missed, nothing cached can be trusted any more
+                invalidateAll();
+                System.err.println("Cache invalidation stopped, entries now only expire by TTL: " + e.getMessage());
+            }
+        } finally {
+            listening.countDown(); // Also when the stream could not be opened
+        }
+    }
+
+    private void invalidate(ChangeStreamDocument<Document> change) {
+        String collection = change.getNamespace() != null ? change.getNamespace().getCollectionName() : null;
+        Document document = change.getFullDocument();
+
+        switch (change.getOperationType()) {
+            case INSERT:
+                if (document != null) {
+                    invalidateDocument(collection, document);
+                } else {
+                    invalidateCollection(collection);
+                }
+                break;
+            case UPDATE:
+            case REPLACE:
+                // An update can remove an order from a customer's ORDERS array, which the new
+                // document no longer shows, so custorders changes clear that whole cache
+                if (document != null && !MongoDB.CUSTORDERS_COLLECTION.equals(collection)) {
+                    invalidateDocument(collection, document);
+                } else {
+                    invalidateCollection(collection);
+                }
+                break;
+            case DELETE:
+                invalidateCollection(collection);
+                break;
+            default:
+                // drop, rename, dropDatabase and invalidate
+                invalidateAll();
+        }
+    }
+
+    private void invalidateDocument(String collection, Document document) {
+        if (MongoDB.CUSTOMER_COLLECTION.equals(collection)) {
+            invalidateKey(customerNames, document.get("C_CUSTKEY"));
+        } else if (MongoDB.ORDERS_COLLECTION.equals(collection)) {
+            invalidateKey(orderDates, document.get("O_ORDERKEY"));
+        } else if (MongoDB.CUSTORDERS_COLLECTION.equals(collection)) {
+            List<?> orders = document.get("ORDERS") instanceof List ? (List<?>) document.get("ORDERS") : null;
+            if (orders == null) {
+                nestedOrderDates.invalidateAll();
+                return;
+            }
+            for (Object order : orders) {
+                if (order instanceof Document) {
+                    invalidateKey(nestedOrderDates, ((Document) order).get("O_ORDERKEY"));
+                }
+            }
+        }
+    }
+
+    private void invalidateCollection(String collection) {
+        if (MongoDB.CUSTOMER_COLLECTION.equals(collection)) {
+            customerNames.invalidateAll();
+        } else if (MongoDB.ORDERS_COLLECTION.equals(collection)) {
+            orderDates.invalidateAll();
+        } else {
+            nestedOrderDates.invalidateAll();
+        }
+    }
+
+    private void invalidateAll() {
+        customerNames.invalidateAll();
+        orderDates.invalidateAll();
+        nestedOrderDates.invalidateAll();
+    }
+
+    private static void invalidateKey(LookupCache<String> cache, Object key) {
+        if (key instanceof Number) {
+            cache.invalidate(((Number) key).intValue());
+        } else {
+            cache.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import com.mongodb.client.MongoCursor;
+
+/**
+ * Writes the documents of a MongoCursor to an OutputStream as they arrive, instead of
+ * building the whole output in memory first. The cursor is closed when done.
+ * CSV takes its columns from the top-level fields of the first sampleDocuments documents;
+ * fields that only appear later are left out and nested values are written as JSON.
+ * The batch size of the cursor is set on the find/aggregate before iterator() is called,
+ * see MongoDB.cursorBatchSize.
+ */
+public class CursorWriter {
+
+    /**
+     * Output format.
+     */
+    public enum Format {
+        /** "Rows:", one JSON document per line, then the row count, like MongoDB.toString */
+        TEXT,
+        /** RFC 4180 CSV with a header line */
+        CSV,
+        /** One relaxed JSON document per line */
+        JSON_LINES
+    }
+
+    public static final int DEFAULT_SAMPLE_DOCUMENTS = 100;
+
+    private static final JsonWriterSettings RELAXED = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private final Writer out;
+    private final Format format;
+    private int sampleDocuments = DEFAULT_SAMPLE_DOCUMENTS;
+
+    /**
+     * @param out    stream to write to; it is flushed but not closed
+     * @param format output format
+     */
+    public CursorWriter(OutputStream out, Format format) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        this.format = format;
+    }
+
+    /**
+     * Number of documents CSV looks at to find its columns.
+     */
+    public CursorWriter sampleDocuments(int sampleDocuments) {
+        this.sampleDocuments = Math.max(1, sampleDocuments);
+        return this;
+    }
+
+    /**
+     * Writes every document of the cursor and closes it.
+     *
+     * @param cursor documents to write, may be null
+     * @return number of documents written
+     * @throws IOException if writing fails
+     */
+    public long write(MongoCursor<Document> cursor) throws IOException {
+        long count = 0;
+        try {
+            if (format == Format.CSV) {
+                count = writeCsv(cursor);
+            } else {
+                if (format == Format.TEXT) {
+                    out.write("Rows:\n");
+                }
+                if (cursor != null) {
+                    while (cursor.hasNext()) {
+                        // TEXT keeps the output of Document.toJson() that MongoDB.toString used
+                        Document doc = cursor.next();
+                        out.write(format == Format.TEXT ? doc.toJson() : doc.toJson(RELAXED));
+                        out.write('\n');
+                        if (count++ == 0) {
+                            out.flush(); // Show the first row without waiting for the buffer to fill
+                        }
+                    }
+                }
+                if (format == Format.TEXT) {
+                    out.write("Number of rows: " + count + "\n");
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            out.flush();
+        }
+        return count;
+    }
+
+    private long writeCsv(MongoCursor<Document> cursor) throws IOException {
+        if (cursor == null) {
+            return 0;
+        }
+        // Buffer only the sample, it decides the columns
+        List<Document> sample = new ArrayList<>();
+        Set<String> columns = new LinkedHashSet<>();
+        while (sample.size() < sampleDocuments && cursor.hasNext()) {
+            Document doc = cursor.next();
+            columns.addAll(doc.keySet());
+            sample.add(doc);
+        }
+
+        String[] header = columns.toArray(new String[0]);
+        writeCsvRow(header);
+        for (Document doc : sample) {
+            writeCsvDocument(doc, header);
+        }
+        out.flush();
+        long count = sample.size();
+        while (cursor.hasNext()) {
+            writeCsvDocument(cursor.next(), header);
+            count++;
+        }
+        return count;
+    }
+
+    private void writeCsvDocument(Document doc, String[] columns) throws IOException {
+        String[] row = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object value = doc.get(columns[i]);
+            if (value == null) {
+                row[i] = "";
+            } else if (value instanceof Document) {
+                row[i] = ((Document) value).toJson(RELAXED);
+            } else if (value instanceof List) {
+                // Wrap the array so Document can encode it
+                String json = new Document("v", value).toJson(RELAXED);
+                row[i] = json.substring(json.indexOf(':') + 1, json.length() - 1).trim();
+            } else {
+                row[i] = value.toString();
+            }
+        }
+        writeCsvRow(row);
+    }
+
+    private void writeCsvRow(String[] row) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = row[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
+        }
+        out.write("\r\n");
+    }
+}
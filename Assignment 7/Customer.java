@@ -0,0 +1,39 @@
+import java.math.BigDecimal;
+
+/**
+ * A row of the customer table, decoded by TpchCodecs.CustomerCodec.
+ * Fields left out of a query's projection keep their default: 0 for numbers, null for strings.
+ * C_ACCTBAL is kept in cents so decoding does not create a BigDecimal.
+ */
+public final class Customer {
+
+    public final int custkey;
+    public final String name;
+    public final String address;
+    public final int nationkey;
+    public final String phone;
+    public final long acctbalCents;
+    public final String mktsegment;
+    public final String comment;
+
+    public Customer(int custkey, String name, String address, int nationkey, String phone, long acctbalCents,
+                    String mktsegment, String comment) {
+        this.custkey = custkey;
+        this.name = name;
+        this.address = address;
+        this.nationkey = nationkey;
+        this.phone = phone;
+        this.acctbalCents = acctbalCents;
+        this.mktsegment = mktsegment;
+        this.comment = comment;
+    }
+
+    public BigDecimal acctbal() {
+        return BigDecimal.valueOf(acctbalCents, TpchCodecs.MONEY_SCALE);
+    }
+
+    @Override
+    public String toString() {
+        return "Customer{C_CUSTKEY=" + custkey + ", C_NAME=" + name + ", C_ACCTBAL=" + acctbal() + "}";
+    }
+}
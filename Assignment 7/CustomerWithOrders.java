@@ -0,0 +1,30 @@
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A custorders document: a customer, its ORDERS array and TOTAL_ORDER_AMOUNT.
+ * orders is empty when ORDERS was not projected, e.g. for the top customers of query4.
+ */
+public final class CustomerWithOrders {
+
+    public final Customer customer;
+    public final List<Order> orders;
+    public final long totalOrderAmountCents;
+
+    public CustomerWithOrders(Customer customer, List<Order> orders, long totalOrderAmountCents) {
+        this.customer = customer;
+        this.orders = Collections.unmodifiableList(orders);
+        this.totalOrderAmountCents = totalOrderAmountCents;
+    }
+
+    public BigDecimal totalOrderAmount() {
+        return BigDecimal.valueOf(totalOrderAmountCents, TpchCodecs.MONEY_SCALE);
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerWithOrders{C_CUSTKEY=" + customer.custkey + ", C_NAME=" + customer.name
+                + ", totalOrderAmount=" + totalOrderAmount() + ", orders=" + orders.size() + "}";
+    }
+}
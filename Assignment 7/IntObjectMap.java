@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+/**
+ * Hash map from int keys to values, without boxing the keys.
+ * Open addressing with linear probing; null values are not allowed.
+ *
+ * @param <V> value type
+ */
+public class IntObjectMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values; // null marks an empty slot
+    private int size;
+    private int mask;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of entries that fit without resizing
+     */
+    public IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Maps key to value.
+     *
+     * @return the previous value, or null
+     */
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int slot = slot(key);
+        @SuppressWarnings("unchecked")
+        V previous = (V) values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+        if (previous == null && ++size > keys.length * LOAD_FACTOR) {
+            resize();
+        }
+        return previous;
+    }
+
+    /**
+     * Adds every entry of another map, replacing existing values.
+     */
+    public void putAll(IntObjectMap<V> other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.values[i] != null) {
+                @SuppressWarnings("unchecked")
+                V value = (V) other.values[i];
+                put(other.keys[i], value);
+            }
+        }
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @return the removed value, or null
+     */
+    public V remove(int key) {
+        int slot = slot(key);
+        @SuppressWarnings("unchecked")
+        V removed = (V) values[slot];
+        if (removed == null) {
+            return null;
+        }
+        values[slot] = null;
+        size--;
+
+        // Move later entries of the probe run back so lookups do not stop at the gap
+        int gap = slot;
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            int home = mix(keys[next]) & mask;
+            boolean movable = gap <= next ? (home <= gap || home > next) : (home <= gap && home > next);
+            if (movable) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                values[next] = null;
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[slot(key)];
+    }
+
+    public boolean containsKey(int key) {
+        return values[slot(key)] != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the keys in ascending order.
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                result[n++] = keys[i];
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder("{");
+        for (int key : keys()) {
+            if (buf.length() > 1) {
+                buf.append(", ");
+            }
+            buf.append(key).append('=').append(get(key));
+        }
+        return buf.append('}').toString();
+    }
+
+    // Slot that holds key, or the empty slot where it would go
+    private int slot(int key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // Sequential TPC-H keys would otherwise fill runs of neighbouring slots
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
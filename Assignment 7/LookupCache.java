@@ -0,0 +1,213 @@
+import java.util.function.IntFunction;
+
+/**
+ * Size-bounded cache with int keys, least-recently-used eviction and a time to live.
+ * Entries sit in an IntObjectMap and in a doubly linked list ordered by last access, so
+ * lookups, updates and evictions do not box keys or scan the cache.
+ * All methods are synchronized; a loader passed to get() runs outside the lock.
+ * Every invalidation bumps a counter, and a loaded value is only cached if the counter did not
+ * move while the loader ran: the loader may have read the document before the change that
+ * caused the invalidation, and caching that would serve the old value until the TTL runs out.
+ *
+ * @param <V> cached value type
+ */
+public class LookupCache<V> {
+
+    private final String name;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final IntObjectMap<Entry<V>> entries;
+
+    // head is the most recently used entry, tail the next one to evict
+    private Entry<V> head;
+    private Entry<V> tail;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+    private long invalidationCount; // Bumped by every invalidate()/invalidateAll(), even of absent keys
+
+    private static class Entry<V> {
+        final int key;
+        V value;
+        long expiresAt;
+        Entry<V> prev;
+        Entry<V> next;
+
+        Entry(int key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param name       name used in the statistics output
+     * @param maxEntries entries kept before the least recently used one is evicted
+     * @param ttlMillis  how long an entry may be served after it was loaded
+     */
+    public LookupCache(String name, int maxEntries, long ttlMillis) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new IntObjectMap<>(Math.min(this.maxEntries, 1 << 16));
+    }
+
+    /**
+     * Returns the cached value for key, or null when it is missing or expired.
+     */
+    public synchronized V get(int key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            unlink(entry);
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        moveToHead(entry);
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Returns the cached value for key, loading and caching it on a miss.
+     * Two threads missing the same key at once may both run the loader. A value is returned but
+     * not cached if an invalidation arrived while it was loading.
+     *
+     * @param key    key to look up
+     * @param loader loads the value from the database
+     */
+    public V get(int key, IntFunction<V> loader) {
+        long countBeforeLoad;
+        synchronized (this) {
+            V value = get(key);
+            if (value != null) {
+                return value;
+            }
+            countBeforeLoad = invalidationCount;
+        }
+        V value = loader.apply(key);
+        if (value != null) {
+            synchronized (this) {
+                if (invalidationCount == countBeforeLoad) {
+                    put(key, value);
+                }
+            }
+        }
+        return value;
+    }
+
+    public synchronized void put(int key, V value) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry<>(key);
+            entries.put(key, entry);
+        } else {
+            unlink(entry);
+        }
+        entry.value = value;
+        entry.expiresAt = System.nanoTime() + ttlNanos;
+        linkAtHead(entry);
+
+        while (entries.size() > maxEntries) {
+            Entry<V> eldest = tail;
+            unlink(eldest);
+            entries.remove(eldest.key);
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops one key, e.g. after the document behind it changed.
+     */
+    public synchronized void invalidate(int key) {
+        invalidationCount++;
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            unlink(entry);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void invalidateAll() {
+        invalidationCount++;
+        invalidations += entries.size();
+        entries.clear();
+        head = null;
+        tail = null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized long expirations() {
+        return expirations;
+    }
+
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("%s: %d entries | %d hits, %d misses (%.1f%% hit rate) | %d evicted, %d expired, %d invalidated",
+                name, entries.size(), hits, misses, lookups > 0 ? hits * 100.0 / lookups : 0.0,
+                evictions, expirations, invalidations);
+    }
+
+    private void moveToHead(Entry<V> entry) {
+        if (entry != head) {
+            unlink(entry);
+            linkAtHead(entry);
+        }
+    }
+
+    private void linkAtHead(Entry<V> entry) {
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry<V> entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            tail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
@@ -1,26 +1,54 @@
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.*;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Map; 
 import java.util.HashMap; 
 import static com.mongodb.client.model.Projections.fields;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
 import org.bson.conversions.Bson;
 import com.mongodb.BasicDBList;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.BasicDBObject;
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.MongoException;
 import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import static com.mongodb.client.model.Aggregates.*;
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.*;
@@ -31,12 +59,6 @@ import static com.mongodb.client.model.Projections.*;
 import static com.mongodb.client.model.Accumulators.first;
 import static com.mongodb.client.model.Accumulators.first;
 
-import java.io.BufferedReader;
-// ... rest of your imports
-
-import java.io.BufferedReader;
-// ... rest of your imports
-
 /**
  * Program to create a collection, insert JSON objects, and perform simple
  * queries on MongoDB.
@@ -52,10 +74,59 @@ public class MongoDB {
     public static final String CUSTOMER_COLLECTION = "customer";
     public static final String ORDERS_COLLECTION = "orders";
     public static final String CUSTORDERS_COLLECTION = "custorders"; // For nested data
+    public static final String CUSTOMER_TOTALS_COLLECTION = "customer_totals"; // Order total per customer, for query4
     
     // Define data file paths
     public static final String CUSTOMER_FILE = "data/customer.tbl";
     public static final String ORDER_FILE = "data/order.tbl";
+    public static final String DDL_FILE = "data/tpch_ddl.sql";
+
+    /**
+     * Ways loadNest() can build the custorders collection. Each builds the same documents:
+     * custorders gets new _id values and the nested orders have no _id of their own.
+     */
+    public enum NestMode {
+        /** Read both collections into the client and nest them there */
+        CLIENT,
+        /** $lookup + $out inside MongoDB */
+        SERVER,
+        /** External sort of order.tbl merged with customer.tbl */
+        STREAMING
+    }
+
+    /**
+     * Mode used by loadNest()
+     */
+    public NestMode nestMode = NestMode.SERVER;
+
+    /**
+     * How decimal(p,s) columns are stored: Decimal128 or a long scaled by 10^s
+     */
+    public TypedDocumentEncoder.DecimalMode decimalMode = TypedDocumentEncoder.DecimalMode.DECIMAL128;
+
+    private TpchSchema schema;
+
+    /**
+     * Documents per bulkWrite and number of writer threads used when loading
+     */
+    public int bulkChunkSize = BulkWritePipeline.DEFAULT_CHUNK_SIZE;
+    public int bulkWriters = BulkWritePipeline.DEFAULT_WRITERS;
+
+    /**
+     * Memory budget in MB for sorting orders in the STREAMING loadNest mode
+     */
+    public int nestMemoryBudgetMb = (int) (TblExternalSorter.DEFAULT_MEMORY_BUDGET_BYTES / (1024 * 1024));
+
+    /**
+     * Keys per $in query and number of queries run at once by query1Batch/query2Batch
+     */
+    public int lookupChunkSize = 1000;
+    public int lookupThreads = 4;
+
+    /**
+     * Documents per getMore for the queries that return cursors
+     */
+    public int cursorBatchSize = 1000;
 
     /**
      * Mongo client connection to server
@@ -70,15 +141,57 @@ public class MongoDB {
      * Main method
      *
      * @param args
-     * no arguments required
+     * no arguments required, --benchmark-nest times every loadNest mode,
+     * --benchmark-lookups compares single-key and batched lookups,
+     * --cached-queries repeats query1/query2/query2Nest through CachedMongoDB,
+     * --typed-queries also runs the queries that return Customer/Order/CustomerWithOrders,
+     * --async loads both files at once through AsyncMongoDB,
+     * --benchmark-async compares sync and async lookup throughput,
+     * --benchmark-decoding only compares Document and codec decoding, without a server
      */
     public static void main(String[] args) throws Exception {
+        List<String> options = Arrays.asList(args);
+        if (options.contains("--benchmark-decoding")) {
+            benchmarkDecoding(40);
+            return;
+        }
+
         MongoDB qmongo = new MongoDB();
         qmongo.connect();
         System.out.println("? MongoDB connected to " + qmongo.DATABASE_NAME);
         
-        qmongo.load();
-        qmongo.loadNest();
+        if (options.contains("--async")) {
+            try (AsyncMongoDB async = new AsyncMongoDB(qmongo, AsyncMongoDB.DEFAULT_MAX_IN_FLIGHT)) {
+                async.load().thenCompose(loaded -> async.loadNest()).join();
+            }
+        } else {
+            qmongo.load();
+            if (options.contains("--benchmark-nest")) {
+                qmongo.benchmarkLoadNest();
+            } else {
+                qmongo.loadNest();
+            }
+        }
+        qmongo.verifyIndexes();
+        qmongo.verifyTopCustomers(10);
+        if (options.contains("--benchmark-lookups")) {
+            qmongo.benchmarkPointLookups(5000);
+        }
+        if (options.contains("--benchmark-async")) {
+            AsyncMongoDB.benchmarkThroughput(qmongo, 5000, 1, 2, 4, 8, 16, 32);
+        }
+        if (options.contains("--cached-queries")) {
+            try (CachedMongoDB cached = new CachedMongoDB(qmongo, CachedMongoDB.DEFAULT_MAX_ENTRIES,
+                    CachedMongoDB.DEFAULT_TTL_MILLIS)) {
+                cached.startInvalidation();
+                for (int i = 0; i < 3; i++) {
+                    cached.query1(1000);
+                    cached.query2(32);
+                    cached.query2Nest(32);
+                }
+                cached.printStats();
+            }
+        }
 
         // Query calls (currently unimplemented, will print null/0)
         System.out.println(qmongo.query1(1000));
@@ -86,8 +199,20 @@ public class MongoDB {
         System.out.println(qmongo.query2Nest(32));
         System.out.println(qmongo.query3());
         System.out.println(qmongo.query3Nest());
-        System.out.println(MongoDB.toString(qmongo.query4()));
-        System.out.println(MongoDB.toString(qmongo.query4Nest()));
+        new CursorWriter(System.out, CursorWriter.Format.TEXT).write(qmongo.query4());
+        new CursorWriter(System.out, CursorWriter.Format.TEXT).write(qmongo.query4Nest());
+
+        if (options.contains("--typed-queries")) {
+            System.out.println(qmongo.query1Typed(1000));
+            System.out.println(qmongo.query2Typed(32));
+            System.out.println(qmongo.query2NestTyped(32));
+            try (MongoCursor<CustomerWithOrders> cursor = qmongo.query4Typed(5)) {
+                cursor.forEachRemaining(System.out::println);
+            }
+            try (MongoCursor<CustomerWithOrders> cursor = qmongo.query4NestTyped(5)) {
+                cursor.forEachRemaining(System.out::println);
+            }
+        }
     }
 
     /**
@@ -108,142 +233,308 @@ public class MongoDB {
         }
         // Provide database information to connect to
         // Note: If the database does not already exist, it will be created automatically.
-        db = mongoClient.getDatabase(DATABASE_NAME);
+        // The TPC-H codecs let collections be read as Customer, Order and CustomerWithOrders
+        db = mongoClient.getDatabase(DATABASE_NAME).withCodecRegistry(TpchCodecs.registry(decimalMode));
         return db;
     }
 
     /**
      * Loads TPC-H data into MongoDB.
      * Loads customer and orders data into separate collections (customer and orders).
+     * Documents are written in chunks by several writer threads while the file is still
+     * being parsed, so the whole collection is never held in memory.
+     * Field types come from the DDL: decimals are stored as set by decimalMode and dates as
+     * BSON Dates, encoded straight to BSON without building a Document per line.
      *
      * @throws Exception if a file I/O or database error occurs
      */
     public void load() throws Exception {
-        System.out.println("\nLoading customer data into '" + CUSTOMER_COLLECTION + "' collection...");
-        MongoCollection<Document> customerCol = db.getCollection(CUSTOMER_COLLECTION);
-        customerCol.drop(); // Clear existing data for a clean load
-        
-        List<Document> customerDocuments = new ArrayList<>();
-        File customerFile = new File(CUSTOMER_FILE);
+        loadTable(CUSTOMER_COLLECTION, CUSTOMER_FILE, "customer", bulkWriters);
+        loadTable(ORDERS_COLLECTION, ORDER_FILE, "order", bulkWriters);
 
-        try (BufferedReader br = new BufferedReader(new FileReader(customerFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                String[] fields = line.split("\\|"); // Split by pipe
-                
-                // TPC-H customer table has 8 fields + a potential trailing empty field
-                if (fields.length < 8) { 
-                    System.err.println("Skipping malformed customer line (too few fields): " + line);
+        // Built after the inserts: one sort per index is cheaper than updating it per document
+        createIndexes();
+        buildCustomerTotals();
+    }
+
+    /**
+     * Drops a collection and loads one .tbl file into it, the per-table part of load().
+     * Safe to call for different tables at the same time, see AsyncMongoDB.load().
+     *
+     * @param collection collection to load, also the table name in the DDL
+     * @param file       .tbl file to read
+     * @param label      name used in messages, e.g. "customer"
+     * @param writers    writer threads of the BulkWritePipeline, i.e. bulk writes in flight
+     * @return number of documents inserted
+     * @throws IOException if the file cannot be read
+     */
+    public long loadTable(String collection, String file, String label, int writers) throws IOException {
+        System.out.println("\nLoading " + label + " data into '" + collection + "' collection...");
+        MongoCollection<RawBsonDocument> col = db.getCollection(collection, RawBsonDocument.class);
+        col.drop(); // Clear existing data for a clean load
+
+        File tblFile = new File(file);
+        TypedDocumentEncoder encoder = new TypedDocumentEncoder(schema().table(collection), decimalMode);
+        long count;
+
+        // Fields are parsed straight from the mapped file, no split() or String per number
+        try (TblRecordReader reader = new TblRecordReader(tblFile.toPath());
+             BulkWritePipeline<RawBsonDocument> pipeline =
+                     new BulkWritePipeline<>(col, collection, bulkChunkSize, writers)) {
+            while (reader.next()) {
+                // TPC-H customer has 8 fields and orders 9, as in the DDL
+                if (reader.fieldCount() < encoder.table().columnCount()) {
+                    System.err.println("Skipping malformed " + label + " line (too few fields): " + reader.line());
                     continue;
                 }
 
-                Document customerDoc = new Document();
-                // TPC-H Customer Schema:
-                // C_CUSTKEY (INTEGER), C_NAME (VARCHAR), C_ADDRESS (VARCHAR),
-                // C_NATIONKEY (INTEGER), C_PHONE (VARCHAR), C_ACCTBAL (DECIMAL),
-                // C_MKTSEGMENT (VARCHAR), C_COMMENT (VARCHAR)
-
-                customerDoc.append("C_CUSTKEY", Integer.parseInt(fields[0]));
-                customerDoc.append("C_NAME", fields[1]);
-                customerDoc.append("C_ADDRESS", fields[2]);
-                customerDoc.append("C_NATIONKEY", Integer.parseInt(fields[3]));
-                customerDoc.append("C_PHONE", fields[4]);
-                customerDoc.append("C_ACCTBAL", new BigDecimal(fields[5]));
-                customerDoc.append("C_MKTSEGMENT", fields[6]);
-                customerDoc.append("C_COMMENT", fields[7]); 
-                
-                customerDocuments.add(customerDoc);
+                pipeline.add(encoder.encode(reader));
             }
-        } catch (java.io.FileNotFoundException e) {
-            System.err.println("ERROR: Customer file not found at " + customerFile.getAbsolutePath());
+            count = pipeline.finish();
+        } catch (java.nio.file.NoSuchFileException e) {
+            System.err.println("ERROR: " + Character.toUpperCase(label.charAt(0)) + label.substring(1)
+                    + " file not found at " + tblFile.getAbsolutePath());
             e.printStackTrace();
             throw e;
         } catch (java.io.IOException e) {
-            System.err.println("ERROR: Error reading customer file: " + e.getMessage());
+            System.err.println("ERROR: Error reading " + label + " file: " + e.getMessage());
             e.printStackTrace();
             throw e;
         }
-        
-        if (!customerDocuments.isEmpty()) {
-            customerCol.insertMany(customerDocuments);
-            System.out.println("Inserted " + customerDocuments.size() + " customer documents.");
+
+        if (count > 0) {
+            System.out.println("Inserted " + count + " " + label + " documents.");
         } else {
-            System.out.println("No customer documents to insert.");
+            System.out.println("No " + label + " documents to insert.");
         }
+        return count;
+    }
 
-        // --- START OF ORDERS LOADING LOGIC ---
-        System.out.println("\nLoading orders data into '" + ORDERS_COLLECTION + "' collection...");
-        MongoCollection<Document> orderCol = db.getCollection(ORDERS_COLLECTION);
-        orderCol.drop(); // Clear existing data for a clean load
+    /**
+     * Column types of the TPC-H tables, read from DDL_FILE on first use.
+     */
+    private synchronized TpchSchema schema() throws IOException {
+        if (schema == null) {
+            schema = TpchSchema.parse(Paths.get(DDL_FILE));
+        }
+        return schema;
+    }
 
-        List<Document> orderDocuments = new ArrayList<>();
-        File orderFile = new File(ORDER_FILE);
+    /**
+     * Builds customer_totals: one document per customer with orders holding C_NAME and the
+     * sum of O_TOTALPRICE. It is the grouping part of the original query4 pipeline, written
+     * out once; addOrder() keeps it up to date afterwards.
+     */
+    public void buildCustomerTotals() {
+        long start = System.currentTimeMillis();
+        List<Bson> pipeline = Arrays.asList(
+            lookup(ORDERS_COLLECTION, "C_CUSTKEY", "O_CUSTKEY", "customerOrders"),
+            unwind("$customerOrders"),
+            group("$C_CUSTKEY",
+                  sum("totalOrderAmount", "$customerOrders.O_TOTALPRICE"),
+                  first("C_NAME", "$C_NAME")),
+            out(CUSTOMER_TOTALS_COLLECTION)
+        );
+        db.getCollection(CUSTOMER_COLLECTION).aggregate(pipeline).allowDiskUse(true).toCollection();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(orderFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                String[] fields = line.split("\\|"); // Split by pipe
+        // Top-N becomes a walk down this index; _id breaks ties the same way query4Scan does
+        db.getCollection(CUSTOMER_TOTALS_COLLECTION).createIndex(Indexes.compoundIndex(
+                Indexes.descending("totalOrderAmount"), Indexes.ascending("_id")));
+        System.out.printf("Built '%s' (%d customers) in %.2f seconds%n", CUSTOMER_TOTALS_COLLECTION,
+                db.getCollection(CUSTOMER_TOTALS_COLLECTION).countDocuments(),
+                (System.currentTimeMillis() - start) / 1000.0);
+    }
 
-                // TPC-H order table has 9 fields + a potential trailing empty field
-                if (fields.length < 9) {
-                    System.err.println("Skipping malformed order line (too few fields): " + line);
-                    continue;
-                }
+    /**
+     * Sets TOTAL_ORDER_AMOUNT on every custorders document that has orders.
+     * Customers without orders get no field, like query4Nest skips them.
+     */
+    private void addNestTotals() {
+        db.getCollection(CUSTORDERS_COLLECTION).updateMany(exists("ORDERS.0"), Arrays.asList(
+                Updates.set("TOTAL_ORDER_AMOUNT", new Document("$sum", "$ORDERS.O_TOTALPRICE"))));
+    }
 
-                Document orderDoc = new Document();
-                // O_ORDERKEY (INTEGER), O_CUSTKEY (INTEGER), O_ORDERSTATUS (CHAR),
-                // O_TOTALPRICE (DECIMAL), O_ORDERDATE (DATE), O_ORDERPRIORITY (CHAR),
-                // O_CLERK (VARCHAR), O_SHIPPRIORITY (INTEGER), O_COMMENT (VARCHAR)
-                
-                orderDoc.append("O_ORDERKEY", Integer.parseInt(fields[0]));
-                orderDoc.append("O_CUSTKEY", Integer.parseInt(fields[1]));
-                orderDoc.append("O_ORDERSTATUS", fields[2]);
-                orderDoc.append("O_TOTALPRICE", new BigDecimal(fields[3]));
-                orderDoc.append("O_ORDERDATE", fields[4]); 
-                orderDoc.append("O_ORDERPRIORITY", fields[5]);
-                orderDoc.append("O_CLERK", fields[6]);
-                orderDoc.append("O_SHIPPRIORITY", Integer.parseInt(fields[7]));
-                orderDoc.append("O_COMMENT", fields[8]);
-
-                orderDocuments.add(orderDoc);
-            }
-        } catch (java.io.FileNotFoundException e) {
-            System.err.println("ERROR: Order file not found at " + orderFile.getAbsolutePath());
-            e.printStackTrace();
-            throw e;
-        } catch (java.io.IOException e) {
-            System.err.println("ERROR: Error reading order file: " + e.getMessage());
-            e.printStackTrace();
-            throw e;
+    /**
+     * Inserts a new order and updates everything derived from it: the order is pushed onto
+     * the customer's custorders document and added to both maintained totals.
+     *
+     * @param order order document with at least O_ORDERKEY, O_CUSTKEY and O_TOTALPRICE
+     */
+    public void addOrder(Document order) {
+        int custkey = order.getInteger("O_CUSTKEY");
+        Object price = order.get("O_TOTALPRICE");
+        if (!(price instanceof Number)) {
+            throw new IllegalArgumentException("O_TOTALPRICE must be a number: " + order.toJson());
         }
+        db.getCollection(ORDERS_COLLECTION).insertOne(order);
 
-        if (!orderDocuments.isEmpty()) {
-            orderCol.insertMany(orderDocuments);
-            System.out.println("Inserted " + orderDocuments.size() + " order documents.");
-        } else {
-            System.out.println("No order documents to insert.");
-        }
-        // --- END OF ORDERS LOADING LOGIC ---
+        Document customer = db.getCollection(CUSTOMER_COLLECTION).find(eq("C_CUSTKEY", custkey))
+                .projection(fields(include("C_NAME"), excludeId())).first();
+        db.getCollection(CUSTOMER_TOTALS_COLLECTION).updateOne(eq("_id", custkey),
+                Updates.combine(Updates.inc("totalOrderAmount", (Number) price),
+                        Updates.setOnInsert("C_NAME", customer != null ? customer.getString("C_NAME") : null)),
+                new UpdateOptions().upsert(true));
+
+        // Nested orders have no _id of their own, whichever NestMode built custorders
+        Document nestedOrder = new Document(order);
+        nestedOrder.remove("_id");
+        db.getCollection(CUSTORDERS_COLLECTION).updateOne(eq("C_CUSTKEY", custkey),
+                Updates.combine(Updates.push("ORDERS", nestedOrder),
+                        Updates.inc("TOTAL_ORDER_AMOUNT", (Number) price)));
+    }
+
+    /**
+     * Creates the indexes the queries on the customer and orders collections use.
+     * Safe to call again, existing indexes are left as they are.
+     */
+    public void createIndexes() {
+        long start = System.currentTimeMillis();
+        MongoCollection<Document> customerCol = db.getCollection(CUSTOMER_COLLECTION);
+        MongoCollection<Document> orderCol = db.getCollection(ORDERS_COLLECTION);
+
+        // query1: the lookup and its C_NAME projection are answered from the index alone
+        customerCol.createIndex(Indexes.ascending("C_CUSTKEY", "C_NAME"));
+        // query2: same for O_ORDERDATE
+        orderCol.createIndex(Indexes.ascending("O_ORDERKEY", "O_ORDERDATE"));
+        // query4 and the SERVER loadNest: the $lookup probes orders once per customer
+        orderCol.createIndex(Indexes.ascending("O_CUSTKEY"));
+
+        System.out.printf("Created indexes on '%s' and '%s' in %.2f seconds%n",
+                CUSTOMER_COLLECTION, ORDERS_COLLECTION, (System.currentTimeMillis() - start) / 1000.0);
+    }
+
+    /**
+     * Creates the indexes the queries on the custorders collection use.
+     */
+    public void createNestIndexes() {
+        MongoCollection<Document> custordersCol = db.getCollection(CUSTORDERS_COLLECTION);
+        custordersCol.createIndex(Indexes.ascending("C_CUSTKEY"));
+        // query2Nest: multikey index, one entry per nested order
+        custordersCol.createIndex(Indexes.ascending("ORDERS.O_ORDERKEY"));
+        // query4Nest: top-N walks this index; only customers with orders have the field
+        custordersCol.createIndex(Indexes.compoundIndex(
+                Indexes.descending("TOTAL_ORDER_AMOUNT"), Indexes.ascending("C_CUSTKEY")),
+                new IndexOptions().sparse(true));
+        System.out.println("Created indexes on '" + CUSTORDERS_COLLECTION + "'");
     }
 
     /**
      * Loads customer and orders TPC-H data into a single collection.
+     * Uses the mode in nestMode.
      *
      * @throws Exception if a file I/O or database error occurs
      */
     public void loadNest() throws Exception {
-        System.out.println("\nLoading customer and orders data into '" + CUSTORDERS_COLLECTION + "' collection...");
+        loadNest(nestMode);
+    }
+
+    /**
+     * Loads customer and orders TPC-H data into a single collection.
+     *
+     * @param mode how the nested documents are built
+     * @throws Exception if a file I/O or database error occurs
+     */
+    public void loadNest(NestMode mode) throws Exception {
+        System.out.println("\nLoading customer and orders data into '" + CUSTORDERS_COLLECTION + "' collection (" + mode + ")...");
         MongoCollection<Document> custordersCol = db.getCollection(CUSTORDERS_COLLECTION);
         custordersCol.drop(); // Clear existing data for a clean load
 
+        switch (mode) {
+            case SERVER:
+                loadNestOnServer();
+                break;
+            case STREAMING:
+                loadNestFromFiles();
+                break;
+            default:
+                loadNestOnClient(custordersCol);
+        }
+        addNestTotals();
+        createNestIndexes();
+    }
+
+    /**
+     * Builds the nested documents inside MongoDB: a $lookup from customer into orders
+     * written out to custorders with $out. No documents travel through the client.
+     */
+    private void loadNestOnServer() {
+        // The $lookup probes orders once per customer, without the O_CUSTKEY index every probe is a collection scan
+        createIndexes();
+
+        List<Bson> pipeline = Arrays.asList(
+            lookup(ORDERS_COLLECTION, "C_CUSTKEY", "O_CUSTKEY", "ORDERS"),
+            project(exclude("_id", "ORDERS._id")), // New _id values, and none on the nested orders
+            out(CUSTORDERS_COLLECTION)
+        );
+        db.getCollection(CUSTOMER_COLLECTION).aggregate(pipeline).allowDiskUse(true).toCollection();
+        System.out.println("Built " + db.getCollection(CUSTORDERS_COLLECTION).countDocuments() +
+                " nested customer-order documents on the server.");
+    }
+
+    /**
+     * Builds the nested documents in one pass over customer.tbl, which is in C_CUSTKEY order.
+     * order.tbl is in O_ORDERKEY order, so it is first sorted on O_CUSTKEY with an external sort
+     * that keeps at most nestMemoryBudgetMb of orders in memory, and the sorted orders are then
+     * merged with the customers. Each nested document is encoded straight to BSON while the
+     * merge runs, so no orders are held beyond the sort buffer.
+     * Orders built this way have no _id of their own.
+     */
+    private void loadNestFromFiles() throws IOException {
+        MongoCollection<RawBsonDocument> custordersCol = db.getCollection(CUSTORDERS_COLLECTION, RawBsonDocument.class);
+        TypedDocumentEncoder customerEncoder = new TypedDocumentEncoder(schema().table(CUSTOMER_COLLECTION), decimalMode);
+        TypedDocumentEncoder orderEncoder = new TypedDocumentEncoder(schema().table(ORDERS_COLLECTION), decimalMode);
+        BasicOutputBuffer buffer = new BasicOutputBuffer(4096);
+        Path tempDirectory = Files.createTempDirectory("custorders-sort");
+        long nestedCount;
+        try (TblExternalSorter orders = new TblExternalSorter(Paths.get(ORDER_FILE), 1,
+                     nestMemoryBudgetMb * 1024L * 1024L, tempDirectory);
+             TblRecordReader reader = new TblRecordReader(Paths.get(CUSTOMER_FILE));
+             BulkWritePipeline<RawBsonDocument> pipeline =
+                     new BulkWritePipeline<>(custordersCol, CUSTORDERS_COLLECTION, bulkChunkSize, bulkWriters)) {
+            orders.sort();
+            boolean hasOrder = orders.next();
+
+            while (reader.next()) {
+                if (reader.fieldCount() < customerEncoder.table().columnCount()) {
+                    continue;
+                }
+                int customerKey = reader.getInt(0);
+
+                // Skip orders of customers that are not in customer.tbl
+                while (hasOrder && orders.key() < customerKey) {
+                    hasOrder = orders.next();
+                }
+
+                buffer.truncateToPosition(0);
+                try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+                    writer.writeStartDocument();
+                    customerEncoder.writeFields(writer, reader);
+                    writer.writeStartArray("ORDERS");
+                    while (hasOrder && orders.key() == customerKey) {
+                        if (orders.current().fieldCount() >= orderEncoder.table().columnCount()) {
+                            writer.writeStartDocument();
+                            orderEncoder.writeFields(writer, orders.current());
+                            writer.writeEndDocument();
+                        }
+                        hasOrder = orders.next();
+                    }
+                    writer.writeEndArray();
+                    writer.writeEndDocument();
+                }
+                pipeline.add(new RawBsonDocument(buffer.toByteArray()));
+            }
+            nestedCount = pipeline.finish();
+        } finally {
+            Files.deleteIfExists(tempDirectory);
+        }
+        System.out.println("Inserted " + nestedCount + " nested customer-order documents into '" + CUSTORDERS_COLLECTION + "' collection.");
+    }
+
+    /**
+     * Builds the nested documents on the client from the customer and orders collections.
+     */
+    private void loadNestOnClient(MongoCollection<Document> custordersCol) {
+
         // Step 1: Get all customer documents
         MongoCollection<Document> customerCol = db.getCollection(CUSTOMER_COLLECTION);
         List<Document> customers = customerCol.find().into(new ArrayList<>());
@@ -251,7 +542,7 @@ public class MongoDB {
 
         // Step 2: Get all order documents
         MongoCollection<Document> orderCol = db.getCollection(ORDERS_COLLECTION);
-        List<Document> orders = orderCol.find().into(new ArrayList<>());
+        List<Document> orders = orderCol.find().projection(excludeId()).into(new ArrayList<>()); // Nested orders have no _id
         System.out.println("Retrieved " + orders.size() + " order documents for nesting.");
         
         // --- START OF NESTING LOGIC ---
@@ -299,19 +590,49 @@ public class MongoDB {
         }
         // --- END OF NESTING LOGIC ---
     }
+    /**
+     * Loads custorders with every NestMode and prints how long each one took.
+     * Each run must produce the same number of customers and nested orders.
+     *
+     * @throws Exception if a file I/O or database error occurs
+     */
+    public void benchmarkLoadNest() throws Exception {
+        System.out.println("\nBenchmarking loadNest modes...");
+        Map<NestMode, Long> timings = new java.util.LinkedHashMap<>();
+        long expectedCustomers = -1;
+        long expectedOrders = -1;
+
+        for (NestMode mode : NestMode.values()) {
+            long start = System.currentTimeMillis();
+            loadNest(mode);
+            long millis = System.currentTimeMillis() - start;
+            timings.put(mode, millis);
+
+            long customers = db.getCollection(CUSTORDERS_COLLECTION).countDocuments();
+            long orders = query3Nest();
+            if (expectedCustomers == -1) {
+                expectedCustomers = customers;
+                expectedOrders = orders;
+            } else if (customers != expectedCustomers || orders != expectedOrders) {
+                System.err.println("WARNING: " + mode + " built " + customers + " customers / " + orders +
+                        " orders, expected " + expectedCustomers + " / " + expectedOrders);
+            }
+        }
+
+        long baseline = timings.get(NestMode.CLIENT);
+        for (Map.Entry<NestMode, Long> entry : timings.entrySet()) {
+            System.out.printf("  %-9s %8.2f seconds  (%.2fx vs CLIENT)%n", entry.getKey(), entry.getValue() / 1000.0,
+                    entry.getValue() > 0 ? (double) baseline / entry.getValue() : 1.0);
+        }
+    }
+
     /**
      * Performs a MongoDB query that prints out all data (except for the_id).
      * Returns the customer name given a customer id using the customer collection.
      */
     public String query1 (int custkey) {
         System.out.println("\nExecuting query 1: Get customer name for C_CUSTKEY = " + custkey);
-        MongoCollection<Document> col = db.getCollection(CUSTOMER_COLLECTION);
-        
-        // Build the query: find a document where C_CUSTKEY equals custkey
-        // Project: include only C_NAME, exclude _id
-        Document result = col.find(eq("C_CUSTKEY", custkey))
-                             .projection(fields(include("C_NAME"), excludeId()))
-                             .first(); // Get the first matching document
+        Document result = query1Find(custkey).first(); // Get the first matching document
 
         if (result != null) {
             return result.toJson(); // Return the document as JSON string
@@ -326,13 +647,7 @@ public class MongoDB {
      */
     public String query2(int orderId) {
         System.out.println("\nExecuting query 2: Get O_ORDERDATE for O_ORDERKEY = " + orderId);
-        MongoCollection<Document> col = db.getCollection(ORDERS_COLLECTION); // Use ORDERS_COLLECTION
-
-        // Find the document where O_ORDERKEY equals orderId
-        // Project to include only O_ORDERDATE and exclude _id
-        Document result = col.find(eq("O_ORDERKEY", orderId))
-                             .projection(fields(include("O_ORDERDATE"), excludeId()))
-                             .first(); // Get the first matching document
+        Document result = query2Find(orderId).first(); // Get the first matching document
 
         if (result != null) {
             return result.toJson(); // Return the document as JSON string
@@ -350,25 +665,13 @@ public class MongoDB {
         System.out.println("\nExecuting query 2 nested: Get O_ORDERDATE for O_ORDERKEY = " + orderId + " from nested collection.");
         MongoCollection<Document> col = db.getCollection(CUSTORDERS_COLLECTION);
 
-        // Find a document where any element in the 'ORDERS' array has O_ORDERKEY matching orderId
-        // Project to include only the matched order's O_ORDERDATE and exclude _id
-        
-        // Using $unwind to deconstruct the ORDERS array, then match, then project
-        // This is a common pattern for querying nested arrays
-        List<Bson> pipeline = Arrays.asList(
-            match(eq("ORDERS.O_ORDERKEY", orderId)), // Match documents where the nested array contains the order
-            unwind("$ORDERS"),                       // Deconstruct the ORDERS array
-            match(eq("ORDERS.O_ORDERKEY", orderId)), // Match the specific order after unwind
-            project(fields(include("ORDERS.O_ORDERDATE"), excludeId())) // Project only the order date
-        );
-
-        AggregateIterable<Document> result = col.aggregate(pipeline);
+        AggregateIterable<Document> result = col.aggregate(query2NestPipeline(orderId));
         MongoCursor<Document> cursor = result.iterator();
 
         if (cursor.hasNext()) {
             Document doc = cursor.next();
             cursor.close();
-            // The result will be something like {"ORDERS.O_ORDERDATE": "1995-07-16"}
+            // The result will be something like {"ORDERS": [{"O_ORDERDATE": {"$date": "1995-07-16T00:00:00Z"}}]}
             // We might want to reformat it to just the date string if desired
             return doc.toJson();
         } else {
@@ -424,16 +727,305 @@ public class MongoDB {
      * order amount using the customer and orders collections.
      * Returns an iterator of Documents.
      */
+    public MongoCursor<Document> query4() {
+        return query4(5);
+    }
+
     /**
-     * Performs a MongoDB query that returns the top 5 customers based on total
-     * order amount using the customer and orders collections.
-     * Returns an iterator of Documents.
+     * Returns the top n customers based on total order amount, read from the
+     * customer_totals collection kept from the customer and orders collections.
+     *
+     * @param n number of customers
+     * @return C_NAME and totalOrderAmount per customer, highest first
      */
-    public MongoCursor<Document> query4() {
-        System.out.println("\nExecuting query 4: Get top 5 customers based on total order amount (customer & orders collections).");
-        MongoCollection<Document> customerCol = db.getCollection(CUSTOMER_COLLECTION);
+    public MongoCursor<Document> query4(int n) {
+        System.out.println("\nExecuting query 4: Get top " + n + " customers based on total order amount (customer & orders collections).");
+        return query4Find(n).batchSize(cursorBatchSize).iterator();
+    }
 
-        List<Bson> pipeline = Arrays.asList(
+    /**
+     * The original query4: joins and groups every order on each call. Kept to check
+     * customer_totals against.
+     *
+     * @param n number of customers
+     */
+    public MongoCursor<Document> query4Scan(int n) {
+        return db.getCollection(CUSTOMER_COLLECTION).aggregate(query4Pipeline(n)).batchSize(cursorBatchSize).iterator();
+    }
+
+    private FindIterable<Document> query4Find(int n) {
+        // Field order matches the $group output of the original pipeline
+        return db.getCollection(CUSTOMER_TOTALS_COLLECTION).find()
+                 .sort(Sorts.orderBy(Sorts.descending("totalOrderAmount"), Sorts.ascending("_id")))
+                 .limit(n)
+                 .projection(fields(include("totalOrderAmount", "C_NAME"), excludeId()));
+    }
+
+    /**
+     * Returns the customer names for many customer ids.
+     * Keys are split into chunks of lookupChunkSize, each chunk is one $in query and up to
+     * lookupThreads chunks run at once. Only C_CUSTKEY and C_NAME are projected, so the
+     * (C_CUSTKEY, C_NAME) index answers the query without reading the documents.
+     *
+     * @param custkeys customer ids
+     * @return C_NAME by C_CUSTKEY; ids that do not exist are left out
+     */
+    public IntObjectMap<String> query1Batch(Collection<Integer> custkeys) {
+        return lookupBatch(db.getCollection(CUSTOMER_COLLECTION), "C_CUSTKEY", "C_NAME", custkeys);
+    }
+
+    /**
+     * Returns the order dates for many order ids, the batched form of query2.
+     * Uses the (O_ORDERKEY, O_ORDERDATE) index the same way as query1Batch.
+     *
+     * @param orderIds order ids
+     * @return O_ORDERDATE by O_ORDERKEY; ids that do not exist are left out
+     */
+    public IntObjectMap<String> query2Batch(Collection<Integer> orderIds) {
+        return lookupBatch(db.getCollection(ORDERS_COLLECTION), "O_ORDERKEY", "O_ORDERDATE", orderIds);
+    }
+
+    private IntObjectMap<String> lookupBatch(MongoCollection<Document> col, String keyField, String valueField,
+                                             Collection<Integer> keys) {
+        // Duplicates would only make the $in lists longer
+        int[] distinct = keys.stream().mapToInt(Integer::intValue).distinct().toArray();
+        IntObjectMap<String> results = new IntObjectMap<>(distinct.length);
+        if (distinct.length == 0) {
+            return results;
+        }
+
+        List<Callable<IntObjectMap<String>>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinct.length; from += lookupChunkSize) {
+            List<Integer> chunk = new ArrayList<>(lookupChunkSize);
+            for (int i = from; i < Math.min(from + lookupChunkSize, distinct.length); i++) {
+                chunk.add(distinct[i]);
+            }
+            chunks.add(() -> {
+                IntObjectMap<String> found = new IntObjectMap<>(chunk.size());
+                for (Document doc : col.find(in(keyField, chunk))
+                                       .projection(fields(include(keyField, valueField), excludeId()))
+                                       .batchSize(chunk.size())) {
+                    found.put(doc.getInteger(keyField), valueToString(doc.get(valueField)));
+                }
+                return found;
+            });
+        }
+
+        if (chunks.size() == 1) {
+            try {
+                return chunks.get(0).call();
+            } catch (Exception e) {
+                throw new MongoException("Lookup on " + col.getNamespace() + " failed: " + e.getMessage(), e);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(lookupThreads, chunks.size()));
+        try {
+            for (Future<IntObjectMap<String>> future : executor.invokeAll(chunks)) {
+                results.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted during lookup on " + col.getNamespace(), e);
+        } catch (ExecutionException e) {
+            throw new MongoException("Lookup on " + col.getNamespace() + " failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    // BSON Dates are stored at midnight UTC, show them as the yyyy-MM-dd they were loaded from
+    private static String valueToString(Object value) {
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atOffset(ZoneOffset.UTC).toLocalDate().toString();
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Looks up the same random keys one at a time with the single-key queries and then with
+     * query1Batch/query2Batch, and prints the time per key for both.
+     * The single-key side runs the finds of query1/query2 without their console output.
+     *
+     * @param keyCount number of keys looked up per query
+     */
+    public void benchmarkPointLookups(int keyCount) {
+        System.out.println("\nBenchmarking point lookups with " + keyCount + " keys...");
+        Random random = new Random(42);
+        int maxCustkey = (int) db.getCollection(CUSTOMER_COLLECTION).countDocuments();
+        int maxOrderkey = (int) Math.max(1, db.getCollection(ORDERS_COLLECTION).countDocuments() * 4);
+
+        List<Integer> custkeys = new ArrayList<>();
+        List<Integer> orderIds = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            custkeys.add(1 + random.nextInt(Math.max(1, maxCustkey)));
+            // TPC-H order keys are sparse: only 8 of every 32 are used
+            orderIds.add(1 + random.nextInt(maxOrderkey));
+        }
+
+        long start = System.nanoTime();
+        int found = 0;
+        for (int custkey : custkeys) {
+            found += query1Find(custkey).first() != null ? 1 : 0;
+        }
+        long singleNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        IntObjectMap<String> names = query1Batch(custkeys);
+        long batchNanos = System.nanoTime() - start;
+        printLookupTimes("query1", keyCount, found, singleNanos, names.size(), batchNanos);
+
+        start = System.nanoTime();
+        found = 0;
+        for (int orderId : orderIds) {
+            found += query2Find(orderId).first() != null ? 1 : 0;
+        }
+        singleNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        IntObjectMap<String> dates = query2Batch(orderIds);
+        batchNanos = System.nanoTime() - start;
+        printLookupTimes("query2", keyCount, found, singleNanos, dates.size(), batchNanos);
+    }
+
+    private static void printLookupTimes(String query, int keyCount, int singleFound, long singleNanos,
+                                         int batchFound, long batchNanos) {
+        System.out.printf("  %s single: %8.1f us/key (%d found) | batch: %8.1f us/key (%d distinct found) | %.1fx%n",
+                query, singleNanos / 1000.0 / keyCount, singleFound, batchNanos / 1000.0 / keyCount, batchFound,
+                batchNanos > 0 ? (double) singleNanos / batchNanos : 1.0);
+    }
+
+    /**
+     * Decodes the customer and order files, encoded as the loader stores them, once into
+     * Document and once through the TpchCodecs codecs, and prints the time and heap allocated
+     * per document for both. The first half of the rounds warm up the JIT and are not timed.
+     * Runs without a server.
+     *
+     * @param rounds number of passes over each file
+     * @throws IOException if a file cannot be read
+     */
+    public static void benchmarkDecoding(int rounds) throws IOException {
+        System.out.println("\nBenchmarking Document vs codec decoding...");
+        TpchSchema schema = TpchSchema.parse(Paths.get(DDL_FILE));
+        TypedDocumentEncoder.DecimalMode mode = TypedDocumentEncoder.DecimalMode.DECIMAL128;
+        Codec<Document> documentCodec = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+        List<byte[]> customers = encodeFile(Paths.get(CUSTOMER_FILE), schema.table(CUSTOMER_COLLECTION), mode);
+        benchmarkDecoder("customer", customers, documentCodec, new TpchCodecs.CustomerCodec(mode), rounds);
+        List<byte[]> orders = encodeFile(Paths.get(ORDER_FILE), schema.table(ORDERS_COLLECTION), mode);
+        benchmarkDecoder("orders", orders, documentCodec, new TpchCodecs.OrderCodec(mode), rounds);
+    }
+
+    // Documents as the BSON bytes a cursor would hand to the decoder
+    private static List<byte[]> encodeFile(Path tblFile, TpchSchema.Table table,
+                                           TypedDocumentEncoder.DecimalMode mode) throws IOException {
+        TypedDocumentEncoder encoder = new TypedDocumentEncoder(table, mode);
+        List<byte[]> documents = new ArrayList<>();
+        try (TblRecordReader reader = new TblRecordReader(tblFile)) {
+            while (reader.next()) {
+                if (reader.fieldCount() >= table.columnCount()) {
+                    ByteBuffer bytes = encoder.encode(reader).getByteBuffer().asNIO();
+                    byte[] document = new byte[bytes.remaining()];
+                    bytes.get(document);
+                    documents.add(document);
+                }
+            }
+        }
+        return documents;
+    }
+
+    private static void benchmarkDecoder(String collection, List<byte[]> documents,
+                                         Codec<Document> documentCodec, Codec<?> typedCodec, int rounds) {
+        // {nanos, bytes allocated} of the timed rounds; the two decoders take turns so JIT
+        // compilation and GC pauses hit both alike
+        long[] documentStats = new long[2];
+        long[] typedStats = new long[2];
+        for (int round = 0; round < rounds; round++) {
+            boolean timed = round >= rounds / 2;
+            decodeAll(documents, documentCodec, timed ? documentStats : new long[2]);
+            decodeAll(documents, typedCodec, timed ? typedStats : new long[2]);
+        }
+        long decoded = (long) documents.size() * (rounds - rounds / 2);
+        System.out.printf("  %-8s Document: %7.0f ns/doc %7s | %-18s %7.0f ns/doc %7s | %.1fx%n",
+                collection, (double) documentStats[0] / decoded, allocated(documentStats[1], decoded),
+                typedCodec.getEncoderClass().getSimpleName() + ":", (double) typedStats[0] / decoded,
+                allocated(typedStats[1], decoded),
+                typedStats[0] > 0 ? (double) documentStats[0] / typedStats[0] : 1.0);
+    }
+
+    // Kept so the JIT cannot drop the decoded objects
+    private static Object lastDecoded;
+
+    // Adds the time and heap allocated to stats; allocation stays 0 if the JVM cannot tell
+    private static void decodeAll(List<byte[]> documents, Codec<?> codec, long[] stats) {
+        java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long threadId = Thread.currentThread().getId();
+        DecoderContext context = DecoderContext.builder().build();
+
+        long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0;
+        long start = System.nanoTime();
+        for (byte[] document : documents) {
+            try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(document))) {
+                lastDecoded = codec.decode(reader, context);
+            }
+        }
+        stats[0] += System.nanoTime() - start;
+        if (allocations != null) {
+            stats[1] += allocations.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+    }
+
+    private static String allocated(long bytes, long documents) {
+        return bytes <= 0 ? "" : String.format("%5d B", bytes / documents);
+    }
+
+    /**
+     * query1 as a find, shared with verifyIndexes().
+     */
+    private FindIterable<Document> query1Find(int custkey) {
+        MongoCollection<Document> col = db.getCollection(CUSTOMER_COLLECTION);
+
+        // Build the query: find a document where C_CUSTKEY equals custkey
+        // Project: include only C_NAME, exclude _id
+        return col.find(eq("C_CUSTKEY", custkey))
+                  .projection(fields(include("C_NAME"), excludeId()));
+    }
+
+    /**
+     * query2 as a find, shared with verifyIndexes().
+     */
+    private FindIterable<Document> query2Find(int orderId) {
+        MongoCollection<Document> col = db.getCollection(ORDERS_COLLECTION); // Use ORDERS_COLLECTION
+
+        // Find the document where O_ORDERKEY equals orderId
+        // Project to include only O_ORDERDATE and exclude _id
+        return col.find(eq("O_ORDERKEY", orderId))
+                  .projection(fields(include("O_ORDERDATE"), excludeId()));
+    }
+
+    /**
+     * query2Nest pipeline, shared with verifyIndexes().
+     */
+    private static List<Bson> query2NestPipeline(int orderId) {
+        // Find a document where any element in the 'ORDERS' array has O_ORDERKEY matching orderId
+        // Project to include only the matched order's O_ORDERDATE and exclude _id
+
+        // Using $unwind to deconstruct the ORDERS array, then match, then project
+        // This is a common pattern for querying nested arrays
+        return Arrays.asList(
+            match(eq("ORDERS.O_ORDERKEY", orderId)), // Match documents where the nested array contains the order
+            unwind("$ORDERS"),                       // Deconstruct the ORDERS array
+            match(eq("ORDERS.O_ORDERKEY", orderId)), // Match the specific order after unwind
+            project(fields(include("ORDERS.O_ORDERDATE"), excludeId())) // Project only the order date
+        );
+    }
+
+    /**
+     * Original query4 pipeline, shared with query4Scan() and verifyIndexes().
+     */
+    private static List<Bson> query4Pipeline(int n) {
+        return Arrays.asList(
             // Stage 1: Join 'customer' collection with 'orders' collection
             // Perform a left outer join to the orders collection using 'C_CUSTKEY' and 'O_CUSTKEY'
             lookup(ORDERS_COLLECTION, "C_CUSTKEY", "O_CUSTKEY", "customerOrders"),
@@ -449,12 +1041,12 @@ public class MongoDB {
                   first("C_ACCTBAL", "$C_ACCTBAL") // Keep the account balance
             ),
 
-            // Stage 4: Sort by totalOrderAmount in descending order
+            // Stage 4: Sort by totalOrderAmount in descending order, customer key breaks ties
             // CORRECTED LINE: Use Sorts.descending explicitly
-            sort(com.mongodb.client.model.Sorts.descending("totalOrderAmount")),
+            sort(Sorts.orderBy(Sorts.descending("totalOrderAmount"), Sorts.ascending("_id"))),
 
-            // Stage 5: Limit to the top 5 results
-            limit(5),
+            // Stage 5: Limit to the top n results
+            limit(n),
 
             // Stage 6: Project the desired fields
             project(fields(
@@ -462,9 +1054,153 @@ public class MongoDB {
                 excludeId() // Exclude the default _id
             ))
         );
+    }
 
-        AggregateIterable<Document> result = customerCol.aggregate(pipeline);
-        return result.iterator();
+    /**
+     * Runs explain() on the queries that look up single keys or read the top customers and
+     * fails if any of them scans a whole collection. For the $lookup that builds
+     * customer_totals only the probes into orders are checked, since it reads every customer
+     * by design. query3 and query3Nest read whole collections and are not checked.
+     *
+     * @throws IllegalStateException if a query scans a collection
+     */
+    public void verifyIndexes() {
+        System.out.println("\nVerifying query plans...");
+        List<String> failures = new ArrayList<>();
+
+        checkPlan("query1", query1Find(1000).explain(ExplainVerbosity.EXECUTION_STATS), failures);
+        checkPlan("query2", query2Find(32).explain(ExplainVerbosity.EXECUTION_STATS), failures);
+        checkPlan("query2Nest", db.getCollection(CUSTORDERS_COLLECTION).aggregate(query2NestPipeline(32))
+                .explain(ExplainVerbosity.EXECUTION_STATS), failures);
+
+        checkPlan("query4", query4Find(5).explain(ExplainVerbosity.EXECUTION_STATS), failures);
+        checkPlan("query4Nest", db.getCollection(CUSTORDERS_COLLECTION).aggregate(query4NestPipeline(5))
+                .explain(ExplainVerbosity.EXECUTION_STATS), failures);
+
+        Document lookupPlan = db.getCollection(CUSTOMER_COLLECTION).aggregate(query4Pipeline(5))
+                .explain(ExplainVerbosity.EXECUTION_STATS);
+        if (lookupScansCollection(lookupPlan)) {
+            failures.add("customer_totals: $lookup into " + ORDERS_COLLECTION + " scans the collection");
+        } else {
+            System.out.println("  customer_totals: $lookup uses an index");
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Queries without a usable index: " + failures);
+        }
+    }
+
+    /**
+     * Compares query4/query4Nest with the original pipelines they replace.
+     *
+     * @param n number of customers to compare
+     * @throws IllegalStateException if the maintained totals disagree with the pipelines
+     */
+    public void verifyTopCustomers(int n) {
+        List<Document> expected = new ArrayList<>();
+        List<Document> actual = new ArrayList<>();
+        query4Scan(n).forEachRemaining(expected::add);
+        query4(n).forEachRemaining(actual::add);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("customer_totals top " + n + " " + actual + " differs from " + expected);
+        }
+
+        expected.clear();
+        actual.clear();
+        query4NestScan(n).forEachRemaining(expected::add);
+        query4Nest(n).forEachRemaining(actual::add);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("TOTAL_ORDER_AMOUNT top " + n + " " + actual + " differs from " + expected);
+        }
+        System.out.println("Top " + n + " customers match the full pipelines.");
+    }
+
+    private static void checkPlan(String query, Document plan, List<String> failures) {
+        if (hasStage(plan, "COLLSCAN")) {
+            failures.add(query + ": COLLSCAN");
+            return;
+        }
+        // A covered query reads only the index
+        Number docsExamined = findNumber(plan, "totalDocsExamined");
+        System.out.println("  " + query + ": index scan" +
+                (docsExamined != null && docsExamined.longValue() == 0 ? " (covered)" : ""));
+    }
+
+    /**
+     * Looks for a plan stage with the given name anywhere in an explain document.
+     */
+    private static boolean hasStage(Object node, String stage) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (stage.equals(doc.get("stage"))) {
+                return true;
+            }
+            for (Object value : doc.values()) {
+                if (hasStage(value, stage)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object value : (List<?>) node) {
+                if (hasStage(value, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Number findNumber(Object node, String field) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (doc.get(field) instanceof Number) {
+                return (Number) doc.get(field);
+            }
+            for (Object value : doc.values()) {
+                Number found = findNumber(value, field);
+                if (found != null) {
+                    return found;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object value : (List<?>) node) {
+                Number found = findNumber(value, field);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks the $lookup stage of an aggregation explain. Servers before 6.0 report
+     * collectionScans on the stage; 6.0+ may run it as an EQ_LOOKUP plan stage whose
+     * strategy is IndexedLoopJoin only when an index is used.
+     */
+    private static boolean lookupScansCollection(Object node) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (doc.containsKey("$lookup") && doc.get("collectionScans") instanceof Number
+                    && ((Number) doc.get("collectionScans")).longValue() > 0) {
+                return true;
+            }
+            if ("EQ_LOOKUP".equals(doc.get("stage")) && !"IndexedLoopJoin".equals(doc.get("strategy"))) {
+                return true;
+            }
+            for (Object value : doc.values()) {
+                if (lookupScansCollection(value)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object value : (List<?>) node) {
+                if (lookupScansCollection(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
     /**
      * Performs a MongoDB query that returns the top 5 customers based on total
@@ -472,7 +1208,38 @@ public class MongoDB {
      * Returns an iterator of Documents.
      */
     public MongoCursor<Document> query4Nest() {
-        System.out.println("\nExecuting query 4 nested: Get top 5 customers based on total order amount (custorders collection).");
+        return query4Nest(5);
+    }
+
+    /**
+     * Returns the top n customers based on total order amount using the TOTAL_ORDER_AMOUNT
+     * field kept on the custorders collection.
+     *
+     * @param n number of customers
+     * @return C_NAME and totalOrderAmount per customer, highest first
+     */
+    public MongoCursor<Document> query4Nest(int n) {
+        System.out.println("\nExecuting query 4 nested: Get top " + n + " customers based on total order amount (custorders collection).");
+        return db.getCollection(CUSTORDERS_COLLECTION).aggregate(query4NestPipeline(n)).batchSize(cursorBatchSize).iterator();
+    }
+
+    private static List<Bson> query4NestPipeline(int n) {
+        return Arrays.asList(
+            match(exists("TOTAL_ORDER_AMOUNT")),
+            sort(Sorts.orderBy(Sorts.descending("TOTAL_ORDER_AMOUNT"), Sorts.ascending("C_CUSTKEY"))),
+            limit(n),
+            // Same field names and order as the original pipeline
+            project(fields(computed("totalOrderAmount", "$TOTAL_ORDER_AMOUNT"), computed("C_NAME", "$C_NAME"), excludeId()))
+        );
+    }
+
+    /**
+     * The original query4Nest: unwinds and groups every nested order on each call.
+     * Kept to check TOTAL_ORDER_AMOUNT against.
+     *
+     * @param n number of customers
+     */
+    public MongoCursor<Document> query4NestScan(int n) {
         MongoCollection<Document> col = db.getCollection(CUSTORDERS_COLLECTION);
 
         List<Bson> pipeline = Arrays.asList(
@@ -485,11 +1252,11 @@ public class MongoDB {
                   first("C_NAME", "$C_NAME") // Keep the customer name from the original document
             ),
 
-            // Stage 3: Sort by totalOrderAmount in descending order
-            sort(com.mongodb.client.model.Sorts.descending("totalOrderAmount")),
+            // Stage 3: Sort by totalOrderAmount in descending order, customer key breaks ties
+            sort(Sorts.orderBy(Sorts.descending("totalOrderAmount"), Sorts.ascending("_id"))),
 
-            // Stage 4: Limit to the top 5 results
-            limit(5),
+            // Stage 4: Limit to the top n results
+            limit(n),
 
             // Stage 5: Project the desired fields
             project(fields(
@@ -498,9 +1265,88 @@ public class MongoDB {
             ))
         );
 
-        AggregateIterable<Document> result = col.aggregate(pipeline);
+        AggregateIterable<Document> result = col.aggregate(pipeline).batchSize(cursorBatchSize);
         return result.iterator();
     }
+    /**
+     * query1 decoded into a Customer. Only C_CUSTKEY and C_NAME are set, so the
+     * (C_CUSTKEY, C_NAME) index still covers the query.
+     *
+     * @param custkey customer id
+     * @return the customer, or null if there is none
+     */
+    public Customer query1Typed(int custkey) {
+        return db.getCollection(CUSTOMER_COLLECTION, Customer.class).find(eq("C_CUSTKEY", custkey))
+                 .projection(fields(include("C_CUSTKEY", "C_NAME"), excludeId()))
+                 .first();
+    }
+
+    /**
+     * query2 decoded into an Order with O_ORDERKEY and O_ORDERDATE set, covered by the
+     * (O_ORDERKEY, O_ORDERDATE) index.
+     *
+     * @param orderId order id
+     * @return the order, or null if there is none
+     */
+    public Order query2Typed(int orderId) {
+        return db.getCollection(ORDERS_COLLECTION, Order.class).find(eq("O_ORDERKEY", orderId))
+                 .projection(fields(include("O_ORDERKEY", "O_ORDERDATE"), excludeId()))
+                 .first();
+    }
+
+    /**
+     * query2Nest decoded into an Order with O_ORDERKEY and O_ORDERDATE set.
+     * The matched element of ORDERS becomes the result document so OrderCodec can read it.
+     *
+     * @param orderId order id
+     * @return the order, or null if there is none
+     */
+    public Order query2NestTyped(int orderId) {
+        List<Bson> pipeline = Arrays.asList(
+            match(eq("ORDERS.O_ORDERKEY", orderId)),
+            unwind("$ORDERS"),
+            match(eq("ORDERS.O_ORDERKEY", orderId)),
+            replaceRoot("$ORDERS"),
+            project(fields(include("O_ORDERKEY", "O_ORDERDATE"), excludeId()))
+        );
+        return db.getCollection(CUSTORDERS_COLLECTION).aggregate(pipeline, Order.class).first();
+    }
+
+    /**
+     * query4 decoded into CustomerWithOrders with C_CUSTKEY, C_NAME and the total set and
+     * no orders. Reads customer_totals like query4(n).
+     *
+     * @param n number of customers
+     * @return customers, highest total first
+     */
+    public MongoCursor<CustomerWithOrders> query4Typed(int n) {
+        List<Bson> pipeline = Arrays.asList(
+            sort(Sorts.orderBy(Sorts.descending("totalOrderAmount"), Sorts.ascending("_id"))),
+            limit(n),
+            // Renamed to the custorders field names CustomerWithOrdersCodec reads
+            project(fields(computed("C_CUSTKEY", "$_id"), include("C_NAME"),
+                    computed("TOTAL_ORDER_AMOUNT", "$totalOrderAmount"), excludeId()))
+        );
+        return db.getCollection(CUSTOMER_TOTALS_COLLECTION)
+                 .aggregate(pipeline, CustomerWithOrders.class).batchSize(cursorBatchSize).iterator();
+    }
+
+    /**
+     * query4Nest decoded into CustomerWithOrders with C_CUSTKEY, C_NAME and the total set.
+     * ORDERS is not projected, so the orders are not read.
+     *
+     * @param n number of customers
+     * @return customers, highest total first
+     */
+    public MongoCursor<CustomerWithOrders> query4NestTyped(int n) {
+        return db.getCollection(CUSTORDERS_COLLECTION, CustomerWithOrders.class).find(exists("TOTAL_ORDER_AMOUNT"))
+                 .sort(Sorts.orderBy(Sorts.descending("TOTAL_ORDER_AMOUNT"), Sorts.ascending("C_CUSTKEY")))
+                 .limit(n)
+                 .projection(fields(include("C_CUSTKEY", "C_NAME", "TOTAL_ORDER_AMOUNT"), excludeId()))
+                 .batchSize(cursorBatchSize)
+                 .iterator();
+    }
+
     /**
      * Returns the Mongo database being used.
      *
@@ -512,24 +1358,18 @@ public class MongoDB {
 
     /**
      * Outputs a cursor of MongoDB results in string form.
+     * Holds all documents in memory; large results should go through CursorWriter instead.
      *
      * @param cursor Mongo cursor
      * @return results as a string
      */
     public static String toString(MongoCursor<Document> cursor) {
-        StringBuilder buf = new StringBuilder();
-        int count = 0;
-        buf.append("Rows:\n");
-        if (cursor != null) {
-            while (cursor.hasNext()) {
-                Document obj = cursor.next();
-                buf.append(obj.toJson());
-                buf.append("\n");
-                count++;
-            }
-            cursor.close();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            new CursorWriter(buf, CursorWriter.Format.TEXT).write(cursor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by an in-memory stream
         }
-        buf.append("Number of rows: " + count);
-        return buf.toString();
+        return buf.toString(StandardCharsets.UTF_8).trim();
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * A row of the orders table, decoded by TpchCodecs.OrderCodec.
+ * Fields left out of a query's projection keep their default: 0 for numbers, null for strings
+ * and NO_DATE for the order date. O_TOTALPRICE is kept in cents and O_ORDERDATE as days since
+ * 1970-01-01, so decoding does not create a BigDecimal or a date object.
+ */
+public final class Order {
+
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    public final int orderkey;
+    public final int custkey;
+    public final String orderStatus;
+    public final long totalPriceCents;
+    public final int orderEpochDay;
+    public final String orderPriority;
+    public final String clerk;
+    public final int shipPriority;
+    public final String comment;
+
+    public Order(int orderkey, int custkey, String orderStatus, long totalPriceCents, int orderEpochDay,
+                 String orderPriority, String clerk, int shipPriority, String comment) {
+        this.orderkey = orderkey;
+        this.custkey = custkey;
+        this.orderStatus = orderStatus;
+        this.totalPriceCents = totalPriceCents;
+        this.orderEpochDay = orderEpochDay;
+        this.orderPriority = orderPriority;
+        this.clerk = clerk;
+        this.shipPriority = shipPriority;
+        this.comment = comment;
+    }
+
+    public BigDecimal totalPrice() {
+        return BigDecimal.valueOf(totalPriceCents, TpchCodecs.MONEY_SCALE);
+    }
+
+    /**
+     * @return the order date, or null if it was not projected
+     */
+    public LocalDate orderDate() {
+        return orderEpochDay == NO_DATE ? null : LocalDate.ofEpochDay(orderEpochDay);
+    }
+
+    @Override
+    public String toString() {
+        return "Order{O_ORDERKEY=" + orderkey + ", O_CUSTKEY=" + custkey + ", O_TOTALPRICE=" + totalPrice()
+                + ", O_ORDERDATE=" + orderDate() + "}";
+    }
+}
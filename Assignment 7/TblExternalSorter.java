@@ -0,0 +1,254 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts a .tbl file on an integer column with a fixed memory budget.
+ * Lines are read until the budget is used up, sorted and written to a run file; the runs are
+ * then k-way merged. Rows with equal keys keep their order from the input file, so order.tbl
+ * sorted on O_CUSTKEY still has each customer's orders in O_ORDERKEY order.
+ * The merged rows are read through a TblRecordReader positioned on the current row, so callers
+ * parse fields the same way as when reading the original file.
+ */
+public class TblExternalSorter implements Closeable {
+
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    // Runs merged at once, more runs are first merged into larger runs
+    private static final int MAX_FAN_IN = 64;
+    // Estimated heap per buffered line besides its characters: String header, array header, key and reference
+    private static final int LINE_OVERHEAD_BYTES = 64;
+
+    private final Path tblFile;
+    private final int keyColumn;
+    private final long memoryBudgetBytes;
+    private final Path tempDirectory;
+
+    private final List<Path> runFiles = new ArrayList<>();
+    private final List<Run> openRuns = new ArrayList<>();
+    private final PriorityQueue<Run> queue = new PriorityQueue<>(
+            (a, b) -> a.key != b.key ? Integer.compare(a.key, b.key) : Integer.compare(a.index, b.index));
+    private Run current;
+    private long skippedLines;
+    private int initialRunCount;
+
+    /**
+     * One sorted run file being merged.
+     */
+    private static class Run {
+        final TblRecordReader reader;
+        final int index; // Position of the run in input order, breaks ties between equal keys
+        int key;
+
+        Run(TblRecordReader reader, int index) {
+            this.reader = reader;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @param tblFile           file to sort
+     * @param keyColumn         zero-based integer column to sort on
+     * @param memoryBudgetBytes approximate heap used for buffering lines before a run is written
+     * @param tempDirectory     where run files are written, it is not deleted by close()
+     */
+    public TblExternalSorter(Path tblFile, int keyColumn, long memoryBudgetBytes, Path tempDirectory) {
+        this.tblFile = tblFile;
+        this.keyColumn = keyColumn;
+        this.memoryBudgetBytes = Math.max(1024 * 1024, memoryBudgetBytes);
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Writes the sorted runs and opens the merge. Call before next().
+     *
+     * @throws IOException if reading the input or writing a run fails
+     */
+    public void sort() throws IOException {
+        long start = System.currentTimeMillis();
+        List<Path> runs = writeRuns();
+        initialRunCount = runs.size();
+
+        int pass = 0;
+        while (runs.size() > MAX_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                // Consecutive runs are merged together so ties stay in input order
+                List<Path> group = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+                merged.add(group.size() == 1 ? group.get(0) : mergeToFile(group, pass, merged.size()));
+            }
+            runs = merged;
+            pass++;
+        }
+
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = new Run(new TblRecordReader(runs.get(i)), i);
+            openRuns.add(run);
+            advance(run);
+        }
+        System.out.printf("Sorted %s on column %d: %d runs, %d merge passes, %.2f seconds%s%n",
+                tblFile.getFileName(), keyColumn, initialRunCount, pass,
+                (System.currentTimeMillis() - start) / 1000.0,
+                skippedLines > 0 ? " (" + skippedLines + " malformed lines skipped)" : "");
+    }
+
+    /**
+     * Moves to the next row in key order.
+     *
+     * @return false when all rows have been returned
+     * @throws IOException if a run file cannot be read
+     */
+    public boolean next() throws IOException {
+        if (current != null) {
+            advance(current);
+        }
+        current = queue.poll();
+        return current != null;
+    }
+
+    /**
+     * Key of the current row.
+     */
+    public int key() {
+        return current.key;
+    }
+
+    /**
+     * Reader positioned on the current row.
+     */
+    public TblRecordReader current() {
+        return current.reader;
+    }
+
+    /**
+     * Number of runs written before merging.
+     */
+    public int runCount() {
+        return initialRunCount;
+    }
+
+    /**
+     * Closes the run files and deletes them.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Run run : openRuns) {
+            run.reader.close();
+        }
+        openRuns.clear();
+        queue.clear();
+        current = null;
+        for (Path run : runFiles) {
+            Files.deleteIfExists(run);
+        }
+        runFiles.clear();
+    }
+
+    private void advance(Run run) throws IOException {
+        if (run.reader.next()) {
+            run.key = run.reader.getInt(keyColumn);
+            queue.add(run);
+        }
+    }
+
+    private List<Path> writeRuns() throws IOException {
+        List<Path> runs = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        long[] keys = new long[1024];
+        long bufferedBytes = 0;
+
+        try (TblRecordReader reader = new TblRecordReader(tblFile)) {
+            while (reader.next()) {
+                int key;
+                try {
+                    key = reader.getInt(keyColumn);
+                } catch (IllegalArgumentException e) {
+                    // NumberFormatException or a missing column
+                    System.err.println("Skipping malformed line " + reader.lineNumber() + " in " + tblFile + ": " + reader.line());
+                    skippedLines++;
+                    continue;
+                }
+                String line = reader.line();
+                if (lines.size() == keys.length) {
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                }
+                // Key in the high half, buffer position in the low half: sorting the longs sorts by
+                // key and keeps equal keys in file order
+                keys[lines.size()] = ((long) key << 32) | lines.size();
+                lines.add(line);
+                bufferedBytes += line.length() + LINE_OVERHEAD_BYTES;
+
+                if (bufferedBytes >= memoryBudgetBytes) {
+                    runs.add(writeRun(lines, keys));
+                    lines.clear();
+                    bufferedBytes = 0;
+                }
+            }
+        }
+        if (!lines.isEmpty() || runs.isEmpty()) {
+            runs.add(writeRun(lines, keys));
+        }
+        return runs;
+    }
+
+    private Path writeRun(List<String> lines, long[] keys) throws IOException {
+        int count = lines.size();
+        Arrays.sort(keys, 0, count);
+        Path run = newRunFile("run-" + runFiles.size());
+        try (BufferedWriter out = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                out.write(lines.get((int) keys[i]));
+                out.write('\n');
+            }
+        }
+        return run;
+    }
+
+    private Path mergeToFile(List<Path> group, int pass, int groupIndex) throws IOException {
+        Path merged = newRunFile("merge-" + pass + "-" + groupIndex);
+        PriorityQueue<Run> mergeQueue = new PriorityQueue<>(queue.comparator());
+        List<Run> runs = new ArrayList<>();
+        try (BufferedWriter out = Files.newBufferedWriter(merged, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < group.size(); i++) {
+                Run run = new Run(new TblRecordReader(group.get(i)), i);
+                runs.add(run);
+                if (run.reader.next()) {
+                    run.key = run.reader.getInt(keyColumn);
+                    mergeQueue.add(run);
+                }
+            }
+            Run run;
+            while ((run = mergeQueue.poll()) != null) {
+                out.write(run.reader.line());
+                out.write('\n');
+                if (run.reader.next()) {
+                    run.key = run.reader.getInt(keyColumn);
+                    mergeQueue.add(run);
+                }
+            }
+        } finally {
+            for (Run run : runs) {
+                run.reader.close();
+            }
+        }
+        // The inputs are no longer needed once merged
+        for (Path input : group) {
+            Files.deleteIfExists(input);
+            runFiles.remove(input);
+        }
+        return merged;
+    }
+
+    private Path newRunFile(String name) throws IOException {
+        Path run = Files.createTempFile(tempDirectory, tblFile.getFileName() + "." + name + ".", ".tbl");
+        runFiles.add(run);
+        return run;
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Reads pipe-delimited TPC-H .tbl files without creating a String per line or per field.
+ * The file is memory-mapped in windows; for each line only the start and end offset of
+ * each field are recorded, and ints, decimals and dates are parsed straight from the bytes.
+ * Strings are only built for fields that are asked for with getString().
+ * A projection limits which columns are looked at: scanning of a line stops after the
+ * last projected column.
+ * <p>
+ * Assignment 6 (src/TblRecordReader.java) and Assignment 7 each keep a copy of this class;
+ * the two copies are identical and a change to one goes into both.
+ */
+public class TblRecordReader implements Closeable {
+
+    private static final byte DELIMITER = '|';
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final boolean[] projected; // null means every column
+    private final int lastColumn;      // Highest column index that needs to be located
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private int nextLineStart; // Window offset where the next line begins
+    private int lineStart;
+    private int lineEnd;
+    private int fieldCount;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private long lineNumber;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Opens a reader that locates every column.
+     *
+     * @param tblFile path to the .tbl file
+     * @throws IOException if the file cannot be opened
+     */
+    public TblRecordReader(Path tblFile) throws IOException {
+        this(tblFile, (int[]) null);
+    }
+
+    /**
+     * Opens a reader that only locates the given columns.
+     *
+     * @param tblFile path to the .tbl file
+     * @param columns zero-based column indexes to read, or null for all
+     * @throws IOException if the file cannot be opened
+     */
+    public TblRecordReader(Path tblFile, int... columns) throws IOException {
+        this.channel = FileChannel.open(tblFile, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        if (columns == null || columns.length == 0) {
+            this.projected = null;
+            this.lastColumn = Integer.MAX_VALUE;
+        } else {
+            int max = Arrays.stream(columns).max().getAsInt();
+            this.projected = new boolean[max + 1];
+            for (int column : columns) {
+                projected[column] = true;
+            }
+            this.lastColumn = max;
+        }
+        mapWindow(0);
+    }
+
+    /**
+     * Advances to the next non-empty line.
+     *
+     * @return false at the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int position = nextLineStart;
+            if (windowStart + position >= fileSize) {
+                return false;
+            }
+
+            int newline = findNewline(position);
+            if (newline == -1 && windowStart + window.limit() < fileSize) {
+                // The line runs past this window, map a new window starting at the line
+                mapWindow(windowStart + position);
+                position = 0;
+                newline = findNewline(0);
+            }
+            lineStart = position;
+            lineEnd = newline == -1 ? window.limit() : newline;
+            nextLineStart = lineEnd + 1;
+            lineNumber++;
+
+            int end = lineEnd;
+            if (end > lineStart && window.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > lineStart) {
+                splitFields(end);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Number of fields found on the current line, up to the last projected column.
+     * The trailing '|' dbgen writes does not count as an extra field.
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * One-based line number of the current line.
+     */
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    public long getLong(int column) {
+        int pos = start(column);
+        int end = fieldEnds[column];
+        boolean negative = pos < end && window.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end) {
+            throw badField(column, "number");
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = window.get(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                throw badField(column, "number");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal such as 711.56 into an unscaled long at the given scale,
+     * e.g. 71156 for scale 2. Extra fraction digits are truncated.
+     * A field without digits, such as an empty one, is not a valid decimal.
+     */
+    public long getDecimalUnscaled(int column, int scale) {
+        int pos = start(column);
+        int end = fieldEnds[column];
+        boolean negative = pos < end && window.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        long value = 0;
+        int fractionDigits = -1;
+        boolean anyDigit = false;
+        for (; pos < end; pos++) {
+            byte b = window.get(pos);
+            if (b == '.') {
+                if (fractionDigits >= 0) {
+                    throw badField(column, "decimal");
+                }
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9) {
+                throw badField(column, "decimal");
+            }
+            anyDigit = true;
+            if (fractionDigits >= scale) {
+                continue;
+            }
+            value = value * 10 + digit;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (!anyDigit) {
+            throw badField(column, "decimal");
+        }
+        for (int i = Math.max(0, fractionDigits); i < scale; i++) {
+            value *= 10;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal keeping the scale it was written with.
+     */
+    public BigDecimal getBigDecimal(int column) {
+        int pos = start(column);
+        int end = fieldEnds[column];
+        int dot = -1;
+        for (int i = pos; i < end; i++) {
+            if (window.get(i) == '.') {
+                dot = i;
+                break;
+            }
+        }
+        int scale = dot == -1 ? 0 : end - dot - 1;
+        return BigDecimal.valueOf(getDecimalUnscaled(column, scale), scale);
+    }
+
+    /**
+     * Parses a yyyy-MM-dd date into days since 1970-01-01.
+     */
+    public long getEpochDay(int column) {
+        int pos = start(column);
+        if (fieldEnds[column] - pos != 10 || window.get(pos + 4) != '-' || window.get(pos + 7) != '-') {
+            throw badField(column, "date");
+        }
+        int year = digits(column, pos, 4);
+        int month = digits(column, pos + 5, 2);
+        int day = digits(column, pos + 8, 2);
+        return LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    public String getString(int column) {
+        int pos = start(column);
+        int length = fieldEnds[column] - pos;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = window.get(pos + i);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the bytes of a field as a read-only view of the mapped file, for passing a field
+     * on without decoding it. The view is only valid until the next call to next().
+     */
+    public ByteBuffer getBytes(int column) {
+        int pos = start(column);
+        ByteBuffer bytes = window.asReadOnlyBuffer();
+        bytes.limit(fieldEnds[column]).position(pos);
+        return bytes;
+    }
+
+    /**
+     * Returns the current line as text, meant for error messages.
+     */
+    public String line() {
+        int length = lineEnd - lineStart;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = window.get(lineStart + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8).trim();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void mapWindow(long offset) throws IOException {
+        windowStart = offset;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, fileSize - offset));
+    }
+
+    private int findNewline(int from) {
+        int limit = window.limit();
+        for (int i = from; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void splitFields(int end) {
+        fieldCount = 0;
+        int fieldStart = lineStart;
+        for (int i = lineStart; i <= end && fieldCount <= lastColumn; i++) {
+            if (i == end || window.get(i) == DELIMITER) {
+                if (i == end && fieldStart == end && fieldCount > 0) {
+                    break; // Trailing '|' at the end of the line
+                }
+                if (fieldCount == fieldStarts.length) {
+                    fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+                    fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+                }
+                fieldStarts[fieldCount] = fieldStart;
+                fieldEnds[fieldCount] = i;
+                fieldCount++;
+                fieldStart = i + 1;
+            }
+        }
+    }
+
+    private int start(int column) {
+        if (projected != null && (column >= projected.length || !projected[column])) {
+            throw new IllegalArgumentException("Column " + column + " is not in the projection");
+        }
+        if (column >= fieldCount) {
+            throw new IllegalArgumentException("Line " + lineNumber + " has no column " + column);
+        }
+        return fieldStarts[column];
+    }
+
+    private int digits(int column, int pos, int count) {
+        int value = 0;
+        for (int i = pos; i < pos + count; i++) {
+            int digit = window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw badField(column, "date");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private NumberFormatException badField(int column, String type) {
+        return new NumberFormatException("Line " + lineNumber + ", column " + column + " is not a valid " + type);
+    }
+}
@@ -0,0 +1,401 @@
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.Decimal128;
+
+import com.mongodb.MongoClientSettings;
+
+/**
+ * Codecs for Customer, Order and CustomerWithOrders.
+ * Decoding reads the BSON fields in order straight into ints, longs and Strings: no Document,
+ * boxed number, BigDecimal or Date is created, and fields the class does not know are skipped.
+ * Money is read as cents whether it was stored as Decimal128, a scaled long (see
+ * TypedDocumentEncoder.DecimalMode) or a double, and dates as days since 1970-01-01 from a
+ * BSON Date or a yyyy-MM-dd string. Encoding writes the types TypedDocumentEncoder writes.
+ */
+public class TpchCodecs implements CodecProvider {
+
+    /** Digits after the decimal point of C_ACCTBAL, O_TOTALPRICE and the order totals */
+    public static final int MONEY_SCALE = 2;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    private final CustomerCodec customerCodec;
+    private final OrderCodec orderCodec;
+    private final CustomerWithOrdersCodec customerWithOrdersCodec;
+
+    /**
+     * @param decimalMode how money is written when encoding; decoding accepts every mode
+     */
+    public TpchCodecs(TypedDocumentEncoder.DecimalMode decimalMode) {
+        this.customerCodec = new CustomerCodec(decimalMode);
+        this.orderCodec = new OrderCodec(decimalMode);
+        this.customerWithOrdersCodec = new CustomerWithOrdersCodec(decimalMode, orderCodec);
+    }
+
+    /**
+     * Returns the driver's default registry with these codecs in front of it, for
+     * MongoDatabase.withCodecRegistry().
+     */
+    public static CodecRegistry registry(TypedDocumentEncoder.DecimalMode decimalMode) {
+        return CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new TpchCodecs(decimalMode)),
+                MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+        if (clazz == Customer.class) {
+            return (Codec<T>) customerCodec;
+        } else if (clazz == Order.class) {
+            return (Codec<T>) orderCodec;
+        } else if (clazz == CustomerWithOrders.class) {
+            return (Codec<T>) customerWithOrdersCodec;
+        }
+        return null;
+    }
+
+    /**
+     * Customer from the C_ fields of a customer or custorders document.
+     */
+    public static class CustomerCodec implements Codec<Customer> {
+
+        private final TypedDocumentEncoder.DecimalMode decimalMode;
+
+        public CustomerCodec(TypedDocumentEncoder.DecimalMode decimalMode) {
+            this.decimalMode = decimalMode;
+        }
+
+        @Override
+        public Customer decode(BsonReader reader, DecoderContext decoderContext) {
+            CustomerFields fields = new CustomerFields();
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (!fields.read(reader.readName(), reader)) {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            return fields.toCustomer();
+        }
+
+        @Override
+        public void encode(BsonWriter writer, Customer customer, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            writeCustomerFields(writer, customer, decimalMode);
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<Customer> getEncoderClass() {
+            return Customer.class;
+        }
+    }
+
+    /**
+     * Order from an orders document or an element of ORDERS.
+     */
+    public static class OrderCodec implements Codec<Order> {
+
+        private final TypedDocumentEncoder.DecimalMode decimalMode;
+
+        public OrderCodec(TypedDocumentEncoder.DecimalMode decimalMode) {
+            this.decimalMode = decimalMode;
+        }
+
+        @Override
+        public Order decode(BsonReader reader, DecoderContext decoderContext) {
+            int orderkey = 0;
+            int custkey = 0;
+            String orderStatus = null;
+            long totalPriceCents = 0;
+            int orderEpochDay = Order.NO_DATE;
+            String orderPriority = null;
+            String clerk = null;
+            int shipPriority = 0;
+            String comment = null;
+
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                switch (reader.readName()) {
+                    case "O_ORDERKEY":
+                        orderkey = readInt(reader);
+                        break;
+                    case "O_CUSTKEY":
+                        custkey = readInt(reader);
+                        break;
+                    case "O_ORDERSTATUS":
+                        orderStatus = readString(reader);
+                        break;
+                    case "O_TOTALPRICE":
+                        totalPriceCents = readCents(reader);
+                        break;
+                    case "O_ORDERDATE":
+                        orderEpochDay = readEpochDay(reader);
+                        break;
+                    case "O_ORDERPRIORITY":
+                        orderPriority = readString(reader);
+                        break;
+                    case "O_CLERK":
+                        clerk = readString(reader);
+                        break;
+                    case "O_SHIPPRIORITY":
+                        shipPriority = readInt(reader);
+                        break;
+                    case "O_COMMENT":
+                        comment = readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            return new Order(orderkey, custkey, orderStatus, totalPriceCents, orderEpochDay, orderPriority, clerk,
+                    shipPriority, comment);
+        }
+
+        @Override
+        public void encode(BsonWriter writer, Order order, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            writer.writeInt32("O_ORDERKEY", order.orderkey);
+            writer.writeInt32("O_CUSTKEY", order.custkey);
+            writeString(writer, "O_ORDERSTATUS", order.orderStatus);
+            writeCents(writer, "O_TOTALPRICE", order.totalPriceCents, decimalMode);
+            if (order.orderEpochDay != Order.NO_DATE) {
+                writer.writeDateTime("O_ORDERDATE", order.orderEpochDay * MILLIS_PER_DAY);
+            }
+            writeString(writer, "O_ORDERPRIORITY", order.orderPriority);
+            writeString(writer, "O_CLERK", order.clerk);
+            writer.writeInt32("O_SHIPPRIORITY", order.shipPriority);
+            writeString(writer, "O_COMMENT", order.comment);
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<Order> getEncoderClass() {
+            return Order.class;
+        }
+    }
+
+    /**
+     * CustomerWithOrders from a custorders document. ORDERS elements go through OrderCodec.
+     */
+    public static class CustomerWithOrdersCodec implements Codec<CustomerWithOrders> {
+
+        private final TypedDocumentEncoder.DecimalMode decimalMode;
+        private final OrderCodec orderCodec;
+
+        public CustomerWithOrdersCodec(TypedDocumentEncoder.DecimalMode decimalMode, OrderCodec orderCodec) {
+            this.decimalMode = decimalMode;
+            this.orderCodec = orderCodec;
+        }
+
+        @Override
+        public CustomerWithOrders decode(BsonReader reader, DecoderContext decoderContext) {
+            CustomerFields fields = new CustomerFields();
+            List<Order> orders = new ArrayList<>();
+            long totalOrderAmountCents = 0;
+
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String name = reader.readName();
+                if (name.equals("ORDERS") && reader.getCurrentBsonType() == BsonType.ARRAY) {
+                    reader.readStartArray();
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                        orders.add(orderCodec.decode(reader, decoderContext));
+                    }
+                    reader.readEndArray();
+                } else if (name.equals("TOTAL_ORDER_AMOUNT")) {
+                    totalOrderAmountCents = readCents(reader);
+                } else if (!fields.read(name, reader)) {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            return new CustomerWithOrders(fields.toCustomer(), orders, totalOrderAmountCents);
+        }
+
+        @Override
+        public void encode(BsonWriter writer, CustomerWithOrders value, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            writeCustomerFields(writer, value.customer, decimalMode);
+            writer.writeStartArray("ORDERS");
+            for (Order order : value.orders) {
+                orderCodec.encode(writer, order, encoderContext);
+            }
+            writer.writeEndArray();
+            writeCents(writer, "TOTAL_ORDER_AMOUNT", value.totalOrderAmountCents, decimalMode);
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<CustomerWithOrders> getEncoderClass() {
+            return CustomerWithOrders.class;
+        }
+    }
+
+    // The C_ fields, shared by the customer and custorders codecs
+    private static class CustomerFields {
+        int custkey;
+        String name;
+        String address;
+        int nationkey;
+        String phone;
+        long acctbalCents;
+        String mktsegment;
+        String comment;
+
+        // Returns false if the field is not a customer field and was not read
+        boolean read(String field, BsonReader reader) {
+            switch (field) {
+                case "C_CUSTKEY":
+                    custkey = readInt(reader);
+                    return true;
+                case "C_NAME":
+                    name = readString(reader);
+                    return true;
+                case "C_ADDRESS":
+                    address = readString(reader);
+                    return true;
+                case "C_NATIONKEY":
+                    nationkey = readInt(reader);
+                    return true;
+                case "C_PHONE":
+                    phone = readString(reader);
+                    return true;
+                case "C_ACCTBAL":
+                    acctbalCents = readCents(reader);
+                    return true;
+                case "C_MKTSEGMENT":
+                    mktsegment = readString(reader);
+                    return true;
+                case "C_COMMENT":
+                    comment = readString(reader);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        Customer toCustomer() {
+            return new Customer(custkey, name, address, nationkey, phone, acctbalCents, mktsegment, comment);
+        }
+    }
+
+    private static void writeCustomerFields(BsonWriter writer, Customer customer,
+                                            TypedDocumentEncoder.DecimalMode decimalMode) {
+        writer.writeInt32("C_CUSTKEY", customer.custkey);
+        writeString(writer, "C_NAME", customer.name);
+        writeString(writer, "C_ADDRESS", customer.address);
+        writer.writeInt32("C_NATIONKEY", customer.nationkey);
+        writeString(writer, "C_PHONE", customer.phone);
+        writeCents(writer, "C_ACCTBAL", customer.acctbalCents, decimalMode);
+        writeString(writer, "C_MKTSEGMENT", customer.mktsegment);
+        writeString(writer, "C_COMMENT", customer.comment);
+    }
+
+    private static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+
+    private static void writeCents(BsonWriter writer, String name, long cents,
+                                   TypedDocumentEncoder.DecimalMode decimalMode) {
+        if (decimalMode == TypedDocumentEncoder.DecimalMode.SCALED_LONG) {
+            writer.writeInt64(name, cents);
+        } else {
+            writer.writeDecimal128(name, TypedDocumentEncoder.decimal128(cents, MONEY_SCALE));
+        }
+    }
+
+    private static int readInt(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return Math.toIntExact(reader.readInt64());
+            case DOUBLE:
+                return (int) reader.readDouble();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    private static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.STRING) {
+            return reader.readString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static long readCents(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DECIMAL128:
+                return unscaled(reader.readDecimal128(), MONEY_SCALE);
+            case INT64:
+                return reader.readInt64(); // Already scaled, see DecimalMode.SCALED_LONG
+            case INT32:
+                return reader.readInt32();
+            case DOUBLE:
+                return Math.round(reader.readDouble() * POWERS_OF_TEN[MONEY_SCALE]);
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    private static int readEpochDay(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DATE_TIME:
+                return (int) Math.floorDiv(reader.readDateTime(), MILLIS_PER_DAY);
+            case STRING:
+                String text = reader.readString();
+                return (int) LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text).toEpochDay();
+            default:
+                reader.skipValue();
+                return Order.NO_DATE;
+        }
+    }
+
+    /**
+     * Returns value * 10^scale as a long, rounding half up.
+     * Values whose coefficient fits in the low 64 bits, which is every value the loader and
+     * $sum write, are converted from the bits; others go through BigDecimal.
+     *
+     * @throws ArithmeticException if the value is NaN, infinite or does not fit in a long
+     */
+    static long unscaled(Decimal128 value, int scale) {
+        long high = value.getHigh();
+        long low = value.getLow();
+        boolean smallForm = (high & 0x6000000000000000L) != 0x6000000000000000L;
+        if (smallForm && (high & 0x1FFFFFFFFFFFFL) == 0 && low >= 0) {
+            int exponent = (int) ((high >>> 49) & 0x3FFF) - 6176;
+            int shift = exponent + scale;
+            if (shift >= 0 && shift < POWERS_OF_TEN.length) {
+                long unscaled = Math.multiplyExact(low, POWERS_OF_TEN[shift]);
+                return high < 0 ? -unscaled : unscaled;
+            }
+        }
+        return value.bigDecimalValue().setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Column types of the TPC-H tables, read from the CREATE TABLE statements in tpch_ddl.sql.
+ * Only what the loader needs is kept: column order, a coarse type and the scale of decimals.
+ * Column names are upper-cased to match the field names of the collections.
+ */
+public class TpchSchema {
+
+    /**
+     * How a DDL type is stored in MongoDB.
+     */
+    public enum ColumnType {
+        /** int, integer, smallint: BSON int32 */
+        INT,
+        /** bigint: BSON int64 */
+        LONG,
+        /** decimal(p,s), numeric(p,s): Decimal128 or a long scaled by 10^s */
+        DECIMAL,
+        /** date, datetime, timestamp: BSON Date at midnight UTC */
+        DATE,
+        /** char, varchar, text: BSON string */
+        STRING
+    }
+
+    /**
+     * One column of a table.
+     */
+    public static class Column {
+        public final String name;
+        public final ColumnType type;
+        public final int scale; // Digits after the decimal point, 0 unless DECIMAL
+
+        Column(String name, ColumnType type, int scale) {
+            this.name = name;
+            this.type = type;
+            this.scale = scale;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + type + (type == ColumnType.DECIMAL ? "(" + scale + ")" : "");
+        }
+    }
+
+    /**
+     * Columns of one table in DDL order, which is also the field order of its .tbl file.
+     */
+    public static class Table {
+        public final String name;
+        public final List<Column> columns;
+
+        Table(String name, List<Column> columns) {
+            this.name = name;
+            this.columns = Collections.unmodifiableList(columns);
+        }
+
+        public int columnCount() {
+            return columns.size();
+        }
+
+        @Override
+        public String toString() {
+            return name + columns;
+        }
+    }
+
+    private static final Pattern CREATE_TABLE = Pattern.compile("create\\s+table\\s+(\\w+)\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DECIMAL_SCALE = Pattern.compile("\\(\\s*\\d+\\s*,\\s*(\\d+)\\s*\\)");
+
+    private final Map<String, Table> tables;
+
+    private TpchSchema(Map<String, Table> tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * Reads every CREATE TABLE statement of a DDL file.
+     *
+     * @param ddlFile path to the DDL
+     * @return the tables, keyed by lower-case name
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a statement or column type is not understood
+     */
+    public static TpchSchema parse(Path ddlFile) throws IOException {
+        String ddl = new String(Files.readAllBytes(ddlFile), StandardCharsets.UTF_8).replaceAll("--[^\\n]*", "");
+        Map<String, Table> tables = new LinkedHashMap<>();
+
+        Matcher matcher = CREATE_TABLE.matcher(ddl);
+        int from = 0;
+        while (matcher.find(from)) {
+            String tableName = matcher.group(1).toLowerCase(Locale.ROOT);
+            int open = matcher.end() - 1;
+            int close = matchingParenthesis(ddl, open, tableName);
+
+            List<Column> columns = new ArrayList<>();
+            for (String definition : splitTopLevel(ddl.substring(open + 1, close))) {
+                String[] words = definition.trim().split("\\s+", 2);
+                String first = words[0].toLowerCase(Locale.ROOT);
+                if (first.isEmpty() || first.equals("primary") || first.equals("foreign")
+                        || first.equals("constraint") || first.equals("unique") || first.equals("key")) {
+                    continue; // Table constraint, not a column
+                }
+                if (words.length < 2) {
+                    throw new IllegalArgumentException("Column " + words[0] + " of " + tableName + " has no type");
+                }
+                columns.add(column(words[0].toUpperCase(Locale.ROOT), words[1], tableName));
+            }
+            tables.put(tableName, new Table(tableName, columns));
+            from = close + 1;
+        }
+        return new TpchSchema(tables);
+    }
+
+    /**
+     * Returns a table by name.
+     *
+     * @throws IllegalArgumentException if the DDL has no such table
+     */
+    public Table table(String name) {
+        Table table = tables.get(name.toLowerCase(Locale.ROOT));
+        if (table == null) {
+            throw new IllegalArgumentException("No table " + name + " in the DDL, found " + tables.keySet());
+        }
+        return table;
+    }
+
+    private static Column column(String name, String typeText, String tableName) {
+        String type = typeText.toLowerCase(Locale.ROOT);
+        String baseType = type.split("[\\s(]", 2)[0];
+        switch (baseType) {
+            case "int":
+            case "integer":
+            case "smallint":
+                return new Column(name, ColumnType.INT, 0);
+            case "bigint":
+                return new Column(name, ColumnType.LONG, 0);
+            case "decimal":
+            case "numeric":
+                Matcher scale = DECIMAL_SCALE.matcher(type);
+                return new Column(name, ColumnType.DECIMAL, scale.find() ? Integer.parseInt(scale.group(1)) : 0);
+            case "date":
+            case "datetime":
+            case "timestamp":
+                return new Column(name, ColumnType.DATE, 0);
+            case "char":
+            case "varchar":
+            case "text":
+                return new Column(name, ColumnType.STRING, 0);
+            default:
+                throw new IllegalArgumentException("Unsupported type '" + typeText.trim() + "' for " + tableName + "." + name);
+        }
+    }
+
+    private static int matchingParenthesis(String text, int open, String tableName) {
+        int depth = 0;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unbalanced parentheses in CREATE TABLE " + tableName);
+    }
+
+    // Splits column definitions on commas that are not inside a type such as decimal(15,2)
+    private static List<String> splitTopLevel(String body) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(body.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(body.substring(start));
+        return parts;
+    }
+}
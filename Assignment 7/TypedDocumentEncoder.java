@@ -0,0 +1,102 @@
+import org.bson.BsonBinaryWriter;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Decimal128;
+
+/**
+ * Encodes .tbl lines straight into BSON with the column types of a TpchSchema.Table.
+ * Values go from TblRecordReader into a BsonBinaryWriter, so no Document map, boxed
+ * number or BigDecimal is created per field. Decimals become Decimal128 or a long
+ * holding the value times 10^scale (e.g. cents), dates become BSON Dates.
+ * An encoder reuses its scratch buffer, so it must not be shared between threads.
+ */
+public class TypedDocumentEncoder {
+
+    /**
+     * How DECIMAL columns are stored.
+     */
+    public enum DecimalMode {
+        /** Decimal128 with the DDL scale, e.g. 711.56 */
+        DECIMAL128,
+        /** int64 scaled by 10^scale, e.g. 71156 for decimal(15,2) */
+        SCALED_LONG
+    }
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    // Decimal128 stores its exponent with this bias
+    private static final long DECIMAL128_EXPONENT_BIAS = 6176;
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private final TpchSchema.Table table;
+    private final DecimalMode decimalMode;
+    private final BasicOutputBuffer buffer = new BasicOutputBuffer(INITIAL_BUFFER_SIZE);
+
+    public TypedDocumentEncoder(TpchSchema.Table table, DecimalMode decimalMode) {
+        this.table = table;
+        this.decimalMode = decimalMode;
+    }
+
+    public TpchSchema.Table table() {
+        return table;
+    }
+
+    /**
+     * Encodes the current line of reader as a document.
+     *
+     * @throws NumberFormatException if a number or date field cannot be parsed
+     */
+    public RawBsonDocument encode(TblRecordReader reader) {
+        buffer.truncateToPosition(0);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            writeFields(writer, reader);
+            writer.writeEndDocument();
+        }
+        // One exact-size array per document; the scratch buffer is reused
+        return new RawBsonDocument(buffer.toByteArray());
+    }
+
+    /**
+     * Writes the columns of the current line as fields of the document the writer is in.
+     * Used to embed documents, e.g. orders inside a custorders document.
+     */
+    public void writeFields(BsonBinaryWriter writer, TblRecordReader reader) {
+        for (int i = 0; i < table.columns.size(); i++) {
+            TpchSchema.Column column = table.columns.get(i);
+            writer.writeName(column.name);
+            switch (column.type) {
+                case INT:
+                    writer.writeInt32(reader.getInt(i));
+                    break;
+                case LONG:
+                    writer.writeInt64(reader.getLong(i));
+                    break;
+                case DECIMAL:
+                    long unscaled = reader.getDecimalUnscaled(i, column.scale);
+                    if (decimalMode == DecimalMode.SCALED_LONG) {
+                        writer.writeInt64(unscaled);
+                    } else {
+                        writer.writeDecimal128(decimal128(unscaled, column.scale));
+                    }
+                    break;
+                case DATE:
+                    writer.writeDateTime(reader.getEpochDay(i) * MILLIS_PER_DAY);
+                    break;
+                default:
+                    writer.writeString(reader.getString(i));
+            }
+        }
+    }
+
+    /**
+     * Builds unscaled * 10^-scale from its bits: the coefficient fits in the low 64 bits,
+     * the high 64 bits hold the sign and the biased exponent.
+     */
+    static Decimal128 decimal128(long unscaled, int scale) {
+        long high = (DECIMAL128_EXPONENT_BIAS - scale) << 49;
+        if (unscaled < 0) {
+            high |= Long.MIN_VALUE;
+        }
+        return Decimal128.fromIEEE754BIDEncoding(high, Math.abs(unscaled));
+    }
+}